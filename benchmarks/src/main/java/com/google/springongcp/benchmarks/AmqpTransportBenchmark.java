@@ -0,0 +1,176 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.benchmarks;
+
+import com.google.springongcp.amqp.AmqpTransportConfiguration;
+import com.google.springongcp.codec.BinaryLoggableMessageCodec;
+import com.google.springongcp.model.LoggableMessage;
+import com.google.springongcp.pubsub.ack.AckManager;
+import com.google.springongcp.pubsub.ack.FlowControlProperties;
+import com.google.springongcp.transport.ChatTransport;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.boot.autoconfigure.amqp.RabbitProperties;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.config.EnableIntegration;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.SubscribableChannel;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Round-trip throughput of the RabbitMQ transport against a real broker: publisher batching and
+ * confirms on one side, prefetch and manual acks on the other. Only the transport is measured;
+ * received messages are acked and counted rather than decoded and dispatched.
+ *
+ * <p>Needs a broker, for example a local container:
+ * <pre>
+ *   docker run -d -p 5672:5672 rabbitmq:3
+ *   java -Drabbitmq.host=localhost -jar target/benchmarks.jar AmqpTransport
+ * </pre>
+ * Any broker speaking AMQP 0-9-1 will do, including an embedded one started in the benchmark JVM.
+ * Each trial uses its own queue, deleted again afterwards.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AmqpTransportBenchmark {
+
+  private static final int BATCH_SIZE = 1000;
+
+  @Param({"1", "100"})
+  private int batchMaxMessages;
+
+  @Param({"true", "false"})
+  private boolean publisherConfirms;
+
+  private AnnotationConfigApplicationContext context;
+
+  private ChatTransport transport;
+
+  private LongAdder received;
+
+  private Message<byte[]> message;
+
+  private String queue;
+
+  @Setup
+  public void setup() {
+    this.queue = "jmh-" + Long.toHexString(System.nanoTime());
+    Map<String, Object> properties = new HashMap<>();
+    properties.put("chat.transport.type", "amqp");
+    properties.put("chat.transport.amqp.queue", this.queue);
+    properties.put("chat.transport.amqp.batch-max-messages", this.batchMaxMessages);
+    properties.put("chat.transport.amqp.publisher-confirms", this.publisherConfirms);
+    this.context = new AnnotationConfigApplicationContext();
+    this.context.getEnvironment().getPropertySources()
+        .addFirst(new MapPropertySource("benchmark", properties));
+    this.context.register(AmqpTransportConfiguration.class, BrokerConfiguration.class);
+    this.context.refresh();
+
+    this.transport = this.context.getBean(ChatTransport.class);
+    this.received = new LongAdder();
+    AckManager ackManager = new AckManager(new FlowControlProperties(), Integer.MAX_VALUE,
+        this.context.getBean(MeterRegistry.class));
+    this.context.getBean("chatRawInputChannel", SubscribableChannel.class)
+        .subscribe(delivered -> {
+          ackManager.settle(delivered, true);
+          this.received.increment();
+        });
+    byte[] payload = new BinaryLoggableMessageCodec().encode(new LoggableMessage(
+        "joao", "Hello from JMH", LocalDateTime.now(), LoggableMessage.DEFAULT_ROOM));
+    this.message = MessageBuilder.withPayload(payload).build();
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.context.getBean(RabbitAdmin.class).deleteQueue(this.queue);
+    this.context.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public void sendAndReceive() {
+    long target = this.received.sum() + BATCH_SIZE;
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      this.transport.send(this.message);
+    }
+    while (this.received.sum() < target) {
+      Thread.yield();
+    }
+  }
+
+  /**
+   * Where the broker is, set with {@code -Drabbitmq.host} and {@code -Drabbitmq.port}, and what
+   * the application would otherwise provide around the transport.
+   */
+  @Configuration
+  @EnableIntegration
+  static class BrokerConfiguration {
+
+    @Bean
+    public RabbitProperties rabbitProperties() {
+      RabbitProperties properties = new RabbitProperties();
+      properties.setHost(System.getProperty("rabbitmq.host", "localhost"));
+      properties.setPort(Integer.getInteger("rabbitmq.port", 5672));
+      return properties;
+    }
+
+    @Bean
+    public RabbitAdmin rabbitAdmin(ConnectionFactory connectionFactory) {
+      return new RabbitAdmin(connectionFactory);
+    }
+
+    @Bean
+    public MeterRegistry meterRegistry() {
+      return new SimpleMeterRegistry();
+    }
+
+    @Bean
+    public MessageChannel chatRawInputChannel() {
+      return new DirectChannel();
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.benchmarks;
+
+import com.google.springongcp.codec.BinaryLoggableMessageCodec;
+import com.google.springongcp.codec.FallbackLoggableMessageCodec;
+import com.google.springongcp.codec.JavaSerializationCodec;
+import com.google.springongcp.codec.LoggableMessageCodec;
+import com.google.springongcp.model.LoggableMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of a {@link LoggableMessage} with the binary codec, with Java
+ * serialization, and through the fallback codec the applications actually use.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+
+  @Param({"16", "1024"})
+  private int bodyLength;
+
+  private final LoggableMessageCodec binary = new BinaryLoggableMessageCodec();
+
+  private final LoggableMessageCodec javaSerialization = new JavaSerializationCodec();
+
+  private final LoggableMessageCodec fallback =
+      new FallbackLoggableMessageCodec(this.binary, this.javaSerialization);
+
+  private LoggableMessage message;
+
+  private byte[] binaryBytes;
+
+  private byte[] javaBytes;
+
+  @Setup
+  public void setup() {
+    char[] body = new char[this.bodyLength];
+    Arrays.fill(body, 'x');
+    this.message = new LoggableMessage(
+        "joao", new String(body), LocalDateTime.of(2017, 11, 20, 12, 0), "lobby");
+    this.binaryBytes = this.binary.encode(this.message);
+    this.javaBytes = this.javaSerialization.encode(this.message);
+  }
+
+  @Benchmark
+  public byte[] encodeBinary() {
+    return this.binary.encode(this.message);
+  }
+
+  @Benchmark
+  public LoggableMessage decodeBinary() {
+    return this.binary.decode(this.binaryBytes);
+  }
+
+  @Benchmark
+  public byte[] encodeJavaSerialization() {
+    return this.javaSerialization.encode(this.message);
+  }
+
+  @Benchmark
+  public LoggableMessage decodeJavaSerialization() {
+    return this.javaSerialization.decode(this.javaBytes);
+  }
+
+  @Benchmark
+  public LoggableMessage decodeBinaryThroughFallback() {
+    return this.fallback.decode(this.binaryBytes);
+  }
+
+  @Benchmark
+  public LoggableMessage decodeLegacyThroughFallback() {
+    return this.fallback.decode(this.javaBytes);
+  }
+}
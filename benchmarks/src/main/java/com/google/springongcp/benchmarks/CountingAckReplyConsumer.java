@@ -0,0 +1,52 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.benchmarks;
+
+import com.google.cloud.pubsub.v1.AckReplyConsumer;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stands in for the acknowledgement handle the Pub/Sub inbound adapter puts on each message.
+ */
+class CountingAckReplyConsumer implements AckReplyConsumer {
+
+  private final LongAdder settled = new LongAdder();
+
+  @Override
+  public void ack() {
+    this.settled.increment();
+  }
+
+  @Override
+  public void nack() {
+    this.settled.increment();
+  }
+
+  long getSettled() {
+    return this.settled.sum();
+  }
+
+  /**
+   * Spins until at least {@code target} messages have been acked or nacked.
+   */
+  void awaitSettled(long target) {
+    while (this.settled.sum() < target) {
+      Thread.yield();
+    }
+  }
+}
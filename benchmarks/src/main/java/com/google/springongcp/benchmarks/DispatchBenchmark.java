@@ -0,0 +1,154 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.benchmarks;
+
+import com.google.cloud.pubsub.v1.AckReplyConsumer;
+import com.google.springongcp.dedup.DedupIndex;
+import com.google.springongcp.dedup.DedupProperties;
+import com.google.springongcp.model.LoggableMessage;
+import com.google.springongcp.pubsub.ack.AckManager;
+import com.google.springongcp.pubsub.ack.FlowControlProperties;
+import com.google.springongcp.pubsub.dispatch.ChatMessageDispatcher;
+import com.google.springongcp.pubsub.dispatch.ChatMessageListener;
+import com.google.springongcp.pubsub.dispatch.DispatchProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.cloud.gcp.pubsub.support.GcpHeaders;
+import org.springframework.integration.channel.PublishSubscribeChannel;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.MessagingException;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of handing one decoded message on {@code chatInputChannel} to its listeners, from
+ * arrival until it is acked.
+ *
+ * <p>{@link #dispatcher()} goes through {@link ChatMessageDispatcher}.
+ * {@link #publishSubscribeChannel()} is the serial {@link PublishSubscribeChannel} it replaced,
+ * as a baseline. Each listener burns {@code listenerWork} JMH CPU tokens.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DispatchBenchmark {
+
+  @Param({"1", "3", "8"})
+  private int listenerCount;
+
+  @Param({"0", "1000"})
+  private long listenerWork;
+
+  private DedupIndex dedupIndex;
+
+  private ChatMessageDispatcher dispatcher;
+
+  private PublishSubscribeChannel publishSubscribeChannel;
+
+  private LocalDateTime createdAt;
+
+  private long sequence;
+
+  @Setup
+  public void setup() {
+    Map<String, ChatMessageListener> listeners = new LinkedHashMap<>();
+    this.publishSubscribeChannel = new PublishSubscribeChannel();
+    for (int i = 0; i < this.listenerCount; i++) {
+      ChatMessageListener listener = message -> Blackhole.consumeCPU(this.listenerWork);
+      listeners.put("listener" + i, listener);
+      this.publishSubscribeChannel.subscribe(message -> {
+        try {
+          listener.onMessage(message);
+        } catch (Exception e) {
+          throw new MessagingException(message, e);
+        }
+        ((AckReplyConsumer) message.getHeaders().get(GcpHeaders.ACKNOWLEDGEMENT)).ack();
+      });
+    }
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    AckManager ackManager =
+        new AckManager(new FlowControlProperties(), Integer.MAX_VALUE, meterRegistry);
+    this.dedupIndex = new DedupIndex(new DedupProperties(), "pubsub", meterRegistry);
+    this.dispatcher = new ChatMessageDispatcher(
+        listeners, new DispatchProperties(), ackManager, this.dedupIndex, "pubsub", meterRegistry);
+    this.createdAt = LocalDateTime.now();
+  }
+
+  @TearDown
+  public void tearDown() throws InterruptedException {
+    this.dispatcher.destroy();
+    this.dedupIndex.destroy();
+  }
+
+  @Benchmark
+  public void dispatcher() throws InterruptedException {
+    LatchAckReplyConsumer ack = new LatchAckReplyConsumer();
+    this.dispatcher.handleMessage(MessageBuilder.withPayload(nextPayload())
+        .setHeader(GcpHeaders.ACKNOWLEDGEMENT, ack)
+        .build());
+    ack.latch.await();
+  }
+
+  @Benchmark
+  public void publishSubscribeChannel() throws InterruptedException {
+    LatchAckReplyConsumer ack = new LatchAckReplyConsumer();
+    this.publishSubscribeChannel.send(MessageBuilder.withPayload(nextPayload())
+        .setHeader(GcpHeaders.ACKNOWLEDGEMENT, ack)
+        .build());
+    ack.latch.await();
+  }
+
+  // Distinct every time, so the dispatcher does not drop it as a redelivery.
+  private LoggableMessage nextPayload() {
+    return new LoggableMessage(
+        "joao", "Hello from JMH " + this.sequence++, this.createdAt, "lobby");
+  }
+
+  private static final class LatchAckReplyConsumer implements AckReplyConsumer {
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+
+    @Override
+    public void ack() {
+      this.latch.countDown();
+    }
+
+    @Override
+    public void nack() {
+      this.latch.countDown();
+    }
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.benchmarks;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.rpc.ApiCallContext;
+import com.google.api.gax.rpc.UnaryCallable;
+import com.google.cloud.pubsub.v1.stub.TopicStub;
+import com.google.pubsub.v1.PublishRequest;
+import com.google.pubsub.v1.PublishResponse;
+import com.google.pubsub.v1.PubsubMessage;
+import org.springframework.cloud.gcp.pubsub.support.GcpHeaders;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.MessageChannel;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stands in for the Pub/Sub service behind a {@code TopicAdminClient}: every published message is
+ * delivered to the inbound channel on a few subscriber threads, as the inbound adapter would,
+ * with a {@link CountingAckReplyConsumer} as its acknowledgement handle.
+ */
+class LoopbackTopicStub extends TopicStub {
+
+  private static final int SUBSCRIBER_THREADS = 4;
+
+  private final MessageChannel inputChannel;
+
+  private final CountingAckReplyConsumer ackReplyConsumer;
+
+  private final ExecutorService subscriber;
+
+  private final AtomicLong messageIds = new AtomicLong();
+
+  LoopbackTopicStub(MessageChannel inputChannel, CountingAckReplyConsumer ackReplyConsumer) {
+    this.inputChannel = inputChannel;
+    this.ackReplyConsumer = ackReplyConsumer;
+    AtomicInteger threadCount = new AtomicInteger();
+    this.subscriber = Executors.newFixedThreadPool(SUBSCRIBER_THREADS, runnable -> {
+      Thread thread = new Thread(runnable, "loopback-subscriber-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  @Override
+  public UnaryCallable<PublishRequest, PublishResponse> publishCallable() {
+    return new UnaryCallable<PublishRequest, PublishResponse>() {
+
+      @Override
+      public ApiFuture<PublishResponse> futureCall(PublishRequest request,
+          ApiCallContext context) {
+        return ApiFutures.immediateFuture(publish(request));
+      }
+    };
+  }
+
+  @Override
+  public void close() {
+    shutdownNow();
+  }
+
+  @Override
+  public void shutdown() {
+    this.subscriber.shutdown();
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return this.subscriber.isShutdown();
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return this.subscriber.isTerminated();
+  }
+
+  @Override
+  public void shutdownNow() {
+    this.subscriber.shutdownNow();
+  }
+
+  @Override
+  public boolean awaitTermination(long duration, TimeUnit unit) throws InterruptedException {
+    return this.subscriber.awaitTermination(duration, unit);
+  }
+
+  private PublishResponse publish(PublishRequest request) {
+    PublishResponse.Builder response = PublishResponse.newBuilder();
+    for (PubsubMessage message : request.getMessagesList()) {
+      response.addMessageIds(Long.toString(this.messageIds.incrementAndGet()));
+      this.subscriber.execute(() -> this.inputChannel.send(
+          MessageBuilder.withPayload(message.getData().toByteArray())
+              .setHeader(GcpHeaders.ACKNOWLEDGEMENT, this.ackReplyConsumer)
+              .build()));
+    }
+    return response.build();
+  }
+}
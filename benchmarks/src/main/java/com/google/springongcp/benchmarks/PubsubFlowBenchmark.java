@@ -0,0 +1,148 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.benchmarks;
+
+import com.google.cloud.pubsub.v1.TopicAdminClient;
+import com.google.springongcp.model.LoggableMessage;
+import com.google.springongcp.pubsub.PubsubApplication;
+import com.google.springongcp.pubsub.batch.PubSubChatTransport;
+import com.google.springongcp.pubsub.batch.PublishBatchProperties;
+import com.google.springongcp.pubsub.ingest.IngestionQueue;
+import com.google.springongcp.shard.ShardRouter;
+import com.google.springongcp.transport.ChatTransport;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.MessageChannel;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end throughput of the {@code PubsubApplication} flow: ingestion queue, encoder, batching
+ * Pub/Sub transport, flow control, decoder and dispatcher with the application's listeners.
+ *
+ * <p>The application runs with its own configuration classes and the {@code offline} profile.
+ * Only the Pub/Sub service is replaced: the transport's publish calls go to a
+ * {@link LoopbackTopicStub}, which hands every published message straight back to the inbound
+ * channel with an acknowledgement handle like the real inbound adapter's.
+ *
+ * <p>Each invocation submits a batch the way {@code /postMessage} does with
+ * {@code chat.ingest.async=true}, and waits until the dispatcher has acked all of it. Every
+ * message is distinct, so none of them is dropped as a redelivery.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PubsubFlowBenchmark {
+
+  private static final int BATCH_SIZE = 1000;
+
+  private ConfigurableApplicationContext context;
+
+  private IngestionQueue ingestionQueue;
+
+  private PubsubApplication.ChatGateway gateway;
+
+  private CountingAckReplyConsumer acks;
+
+  private LocalDateTime createdAt;
+
+  private long sequence;
+
+  @Setup
+  public void setup() {
+    this.context = new SpringApplicationBuilder(
+        PubsubApplication.class, LoopbackPubSubConfiguration.class)
+        .run("--spring.profiles.active=offline", "--server.port=0",
+            // Matches no transport configuration, so LoopbackPubSubConfiguration's is the one.
+            "--chat.transport.type=loopback",
+            "--chat.ingest.async=true",
+            // The application's listeners log every message; keep the log file out of the
+            // measurement.
+            "--logging.level.com.google.springongcp.pubsub.PubsubApplication=WARN");
+    this.ingestionQueue = this.context.getBean(IngestionQueue.class);
+    this.gateway = this.context.getBean(PubsubApplication.ChatGateway.class);
+    this.acks = this.context.getBean(CountingAckReplyConsumer.class);
+    this.createdAt = LocalDateTime.now();
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.context.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public void publishAndDispatch() {
+    long target = this.acks.getSettled() + BATCH_SIZE;
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      LoggableMessage message = new LoggableMessage(
+          "joao", "Hello from JMH " + this.sequence++, this.createdAt, "lobby");
+      while (this.ingestionQueue.submit(id -> this.gateway.send(message, id)) == null) {
+        Thread.yield();
+      }
+    }
+    this.acks.awaitSettled(target);
+  }
+
+  /**
+   * The application's Pub/Sub transport, with its batching, publishing to a loopback instead of
+   * the Pub/Sub service.
+   */
+  @Configuration
+  static class LoopbackPubSubConfiguration {
+
+    @Bean
+    public CountingAckReplyConsumer ackReplyConsumer() {
+      return new CountingAckReplyConsumer();
+    }
+
+    @Bean(destroyMethod = "close")
+    public TopicAdminClient topicAdminClient(
+        @Qualifier("chatRawInputChannel") MessageChannel inputChannel,
+        CountingAckReplyConsumer ackReplyConsumer) {
+      return TopicAdminClient.create(new LoopbackTopicStub(inputChannel, ackReplyConsumer));
+    }
+
+    @Bean
+    public ChatTransport pubSubChatTransport(TopicAdminClient topicAdminClient,
+        ShardRouter shardRouter, PublishBatchProperties batchProperties,
+        MeterRegistry meterRegistry) {
+      return new PubSubChatTransport(topicAdminClient, "benchmark", "test", shardRouter,
+          batchProperties, meterRegistry);
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.benchmarks;
+
+import com.google.springongcp.pubsub.limit.TokenBucketLimiter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a {@link TokenBucketLimiter} check from many request threads at once, with every thread
+ * hammering one hot key or spread over many keys.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class RateLimiterBenchmark {
+
+  @Param({"1", "100000"})
+  private int keyCount;
+
+  private TokenBucketLimiter limiter;
+
+  private String[] keys;
+
+  @Setup
+  public void setup() {
+    this.limiter = new TokenBucketLimiter(1000, 2000, 64, 60, TimeUnit.SECONDS);
+    this.keys = new String[this.keyCount];
+    for (int i = 0; i < this.keyCount; i++) {
+      this.keys[i] = "10.0." + (i >> 8) + "." + (i & 0xff);
+    }
+  }
+
+  @Benchmark
+  public boolean tryAcquire() {
+    return this.limiter.tryAcquire(
+        this.keys[ThreadLocalRandom.current().nextInt(this.keys.length)]);
+  }
+}
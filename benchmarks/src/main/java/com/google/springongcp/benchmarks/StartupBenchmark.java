@@ -0,0 +1,73 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.benchmarks;
+
+import com.google.springongcp.pubsub.PubsubApplication;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from launching the app until it is ready to serve, in a fresh JVM every time, as a newly
+ * autoscaled instance sees it.
+ *
+ * <p>Measures the profiles nodes actually run in: {@code default}, the full app as deployed by
+ * app.yaml, and the lean {@code chat-only}. Both need Google Cloud credentials, e.g. from
+ * {@code gcloud auth application-default login}. Without them, only {@code -p profiles=offline}
+ * runs, chat-only with the in-memory transport, which leaves out the Pub/Sub and GCP clients a
+ * real node starts.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+
+  @Param({"default", "chat-only"})
+  private String profiles;
+
+  private ConfigurableApplicationContext context;
+
+  @Benchmark
+  public ConfigurableApplicationContext start() {
+    this.context = SpringApplication.run(PubsubApplication.class,
+        "--spring.profiles.active=" + this.profiles, "--server.port=0");
+    return this.context;
+  }
+
+  @TearDown(Level.Iteration)
+  public void stop() {
+    if (this.context != null) {
+      this.context.close();
+    }
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.benchmarks.load;
+
+import com.google.springongcp.model.LoggableMessage;
+import com.google.springongcp.pubsub.dispatch.ChatMessageListener;
+import org.springframework.messaging.Message;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Chat listener, added to the app under test, that times how long generated messages take to
+ * reach the listeners from when they were due to be sent.
+ *
+ * <p>Each generated message carries its run and due time in its text, so the message itself is
+ * all the tracker needs; messages from an earlier run that arrive late are ignored.
+ */
+final class DeliveryTracker implements ChatMessageListener {
+
+  private static final String PREFIX = "load-test ";
+
+  private volatile LoadRun run;
+
+  static String body(LoadRun run, long sequence, long dueNanos) {
+    return PREFIX + run.getId() + " " + dueNanos + " " + sequence;
+  }
+
+  void track(LoadRun run) {
+    this.run = run;
+  }
+
+  @Override
+  public void onMessage(Message<?> message) {
+    long receivedNanos = System.nanoTime();
+    LoadRun current = this.run;
+    String text = text(message.getPayload());
+    if (current == null || text == null || !text.startsWith(PREFIX)) {
+      return;
+    }
+    String[] fields = text.substring(PREFIX.length()).split(" ");
+    if (fields.length == 3 && Integer.parseInt(fields[0]) == current.getId()) {
+      current.recordDelivery(Long.parseLong(fields[1]), receivedNanos);
+    }
+  }
+
+  private static String text(Object payload) {
+    if (payload instanceof LoggableMessage) {
+      return ((LoggableMessage) payload).getBody();
+    }
+    if (payload instanceof String) {
+      return (String) payload;
+    }
+    if (payload instanceof byte[]) {
+      return new String((byte[]) payload, StandardCharsets.UTF_8);
+    }
+    return null;
+  }
+}
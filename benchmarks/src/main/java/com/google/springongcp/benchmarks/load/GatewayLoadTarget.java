@@ -0,0 +1,42 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.benchmarks.load;
+
+import com.google.springongcp.model.LoggableMessage;
+import com.google.springongcp.pubsub.PubsubApplication.ChatGateway;
+
+import java.time.LocalDateTime;
+
+/**
+ * Sends chat messages through the {@link ChatGateway} of the app under test, skipping HTTP, as the
+ * outbox relay and the ingestion queue do.
+ */
+final class GatewayLoadTarget implements LoadTarget {
+
+  private static final String USER = "loadtest@example.com";
+
+  private final ChatGateway gateway;
+
+  GatewayLoadTarget(ChatGateway gateway) {
+    this.gateway = gateway;
+  }
+
+  @Override
+  public void send(String body, String room) {
+    this.gateway.send(new LoggableMessage(USER, body, LocalDateTime.now(), room));
+  }
+}
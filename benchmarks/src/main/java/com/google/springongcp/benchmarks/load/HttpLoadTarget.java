@@ -0,0 +1,116 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.benchmarks.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sends chat messages to one of the posting endpoints, {@code /postMessage},
+ * {@code /customMessage} or {@code /publish}.
+ *
+ * <p>Connections are kept alive between requests; set {@code http.maxConnections} to at least the
+ * number of sender threads, or the JDK closes all but five of them after every request.
+ */
+final class HttpLoadTarget implements LoadTarget {
+
+  private static final int TIMEOUT_MILLIS = 10000;
+
+  private final String baseUrl;
+
+  private final String path;
+
+  private final String topic;
+
+  /**
+   * @param baseUrl the app under test, e.g. {@code http://localhost:8080}
+   * @param path the endpoint
+   * @param topic the topic for {@code /publish}, which must exist
+   */
+  HttpLoadTarget(String baseUrl, String path, String topic) {
+    this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    this.path = path;
+    this.topic = topic;
+  }
+
+  @Override
+  public void send(String body, String room) throws IOException {
+    switch (this.path) {
+      case "/postMessage":
+        exchange(this.path, "message=" + encode(body));
+        break;
+      case "/customMessage":
+        exchange(this.path, "message=" + encode(body) + "&room=" + encode(room));
+        break;
+      case "/publish":
+        exchange(this.path + "?message=" + encode(body) + "&topic=" + encode(this.topic), null);
+        break;
+      default:
+        throw new IllegalStateException("Unknown endpoint " + this.path);
+    }
+  }
+
+  private void exchange(String pathAndQuery, String form) throws IOException {
+    HttpURLConnection connection =
+        (HttpURLConnection) new URL(this.baseUrl + pathAndQuery).openConnection();
+    connection.setInstanceFollowRedirects(false);
+    connection.setConnectTimeout(TIMEOUT_MILLIS);
+    connection.setReadTimeout(TIMEOUT_MILLIS);
+    if (form != null) {
+      byte[] bytes = form.getBytes(StandardCharsets.UTF_8);
+      connection.setRequestMethod("POST");
+      connection.setDoOutput(true);
+      connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+      connection.setFixedLengthStreamingMode(bytes.length);
+      try (OutputStream out = connection.getOutputStream()) {
+        out.write(bytes);
+      }
+    }
+    int status = connection.getResponseCode();
+    // Reading the response to the end is what lets the JDK reuse the connection.
+    drain(status >= 400 ? connection.getErrorStream() : connection.getInputStream());
+    if (status >= 400) {
+      throw new IOException(pathAndQuery + " returned " + status);
+    }
+  }
+
+  private static void drain(InputStream in) throws IOException {
+    if (in == null) {
+      return;
+    }
+    try (InputStream response = in) {
+      byte[] buffer = new byte[1024];
+      while (response.read(buffer) != -1) {
+        // Discard.
+      }
+    }
+  }
+
+  private static String encode(String value) {
+    try {
+      return URLEncoder.encode(value, "UTF-8");
+    } catch (UnsupportedEncodingException uee) {
+      throw new IllegalStateException(uee);
+    }
+  }
+}
@@ -0,0 +1,237 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.benchmarks.load;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The latencies and errors of one target at one rate, and their report.
+ *
+ * <p>Three latencies are kept, in nanoseconds:
+ * <ul>
+ *   <li>response time, from when a request was due to be sent until its response, which also
+ *   counts the time it spent waiting for a sender and so is free of coordinated omission;</li>
+ *   <li>service time, from when a request was actually sent until its response, which is what a
+ *   closed-loop generator would report;</li>
+ *   <li>delivery time, from when a message was due to be sent until a chat listener received it.
+ *   </li>
+ * </ul>
+ * Only successful requests are timed; failed ones are counted as errors.
+ *
+ * <p>Each second is printed and, once warm-up is over, written to {@code <run>.hlog}, an
+ * HdrHistogram interval log tagged with the latency it holds. At the end the whole distributions
+ * are written to {@code <run>.<latency>.hgrm}, and a line per run is appended to
+ * {@code summary.csv}, to compare runs across builds.
+ */
+final class LoadRun {
+
+  private static final AtomicInteger IDS = new AtomicInteger();
+
+  private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+  private static final String SUMMARY_HEADER = "started,target,rate,seconds,threads,requests,"
+      + "errors,throughput,p50_ms,p90_ms,p99_ms,p99.9_ms,max_ms,service_p99_ms,delivered,"
+      + "delivery_p50_ms,delivery_p99_ms,delivery_max_ms";
+
+  private final int id = IDS.incrementAndGet();
+
+  private final String target;
+
+  private final long rate;
+
+  private final long durationSeconds;
+
+  private final int threads;
+
+  private final Path reportDirectory;
+
+  private final Recorder response = new Recorder(3);
+
+  private final Recorder service = new Recorder(3);
+
+  private final Recorder delivery = new Recorder(3);
+
+  private final LongAdder errors = new LongAdder();
+
+  private final LongAdder succeeded = new LongAdder();
+
+  private final LongAdder delivered = new LongAdder();
+
+  private final Histogram responseTotal = new Histogram(3);
+
+  private final Histogram serviceTotal = new Histogram(3);
+
+  private final Histogram deliveryTotal = new Histogram(3);
+
+  private final HistogramLogWriter log;
+
+  private final long startedMillis = System.currentTimeMillis();
+
+  private long measuredErrors;
+
+  private int second;
+
+  LoadRun(String target, long rate, long durationSeconds, int threads, Path reportDirectory)
+      throws FileNotFoundException {
+    this.target = target;
+    this.rate = rate;
+    this.durationSeconds = durationSeconds;
+    this.threads = threads;
+    this.reportDirectory = reportDirectory;
+    this.log = new HistogramLogWriter(reportDirectory.resolve(getName() + ".hlog").toFile());
+    this.log.outputComment(
+        getName() + ": " + target + " at " + rate + " requests/s for " + durationSeconds
+            + " s from " + threads + " threads");
+    this.log.outputLogFormatVersion();
+    this.log.setBaseTime(this.startedMillis);
+    this.log.outputStartTime(this.startedMillis);
+    this.log.outputLegend();
+  }
+
+  int getId() {
+    return this.id;
+  }
+
+  String getName() {
+    return this.target + "-" + this.rate;
+  }
+
+  long getSucceeded() {
+    return this.succeeded.sum();
+  }
+
+  long getDelivered() {
+    return this.delivered.sum();
+  }
+
+  void recordResponse(long dueNanos, long sentNanos, long receivedNanos) {
+    this.response.recordValue(receivedNanos - dueNanos);
+    this.service.recordValue(receivedNanos - sentNanos);
+    this.succeeded.increment();
+  }
+
+  void recordError() {
+    this.errors.increment();
+  }
+
+  void recordDelivery(long dueNanos, long receivedNanos) {
+    this.delivery.recordValue(Math.max(0, receivedNanos - dueNanos));
+    this.delivered.increment();
+  }
+
+  /**
+   * Prints the second just gone and, unless it was warm-up, adds it to the report.
+   */
+  void sample(boolean measured) {
+    Histogram responses = this.response.getIntervalHistogram();
+    Histogram services = this.service.getIntervalHistogram();
+    Histogram deliveries = this.delivery.getIntervalHistogram();
+    long intervalErrors = this.errors.sumThenReset();
+    double seconds = Math.max(1,
+        responses.getEndTimeStamp() - responses.getStartTimeStamp()) / 1000.0;
+    this.second++;
+
+    System.out.println(String.format(Locale.ROOT,
+        "[%s]%s %4d s %8.0f req/s %6d err   p50 %8.3f  p99 %8.3f  max %8.3f ms"
+            + "   %8.0f delivered/s  p99 %8.3f ms",
+        getName(), measured ? "" : " warm-up", this.second,
+        responses.getTotalCount() / seconds, intervalErrors,
+        millis(responses.getValueAtPercentile(50)), millis(responses.getValueAtPercentile(99)),
+        millis(responses.getMaxValue()), deliveries.getTotalCount() / seconds,
+        millis(deliveries.getValueAtPercentile(99))));
+
+    if (measured) {
+      this.responseTotal.add(responses);
+      this.serviceTotal.add(services);
+      this.deliveryTotal.add(deliveries);
+      this.measuredErrors += intervalErrors;
+      writeInterval(responses, "response");
+      writeInterval(services, "service");
+      writeInterval(deliveries, "delivery");
+    }
+  }
+
+  /**
+   * Writes the percentile distributions and the summary line, and prints the summary.
+   */
+  void finish() throws IOException {
+    this.log.close();
+    writeDistribution(this.responseTotal, "response");
+    writeDistribution(this.serviceTotal, "service");
+    writeDistribution(this.deliveryTotal, "delivery");
+
+    double throughput = (double) this.responseTotal.getTotalCount() / this.durationSeconds;
+    String summary = String.format(Locale.ROOT,
+        "%tFT%<tT,%s,%d,%d,%d,%d,%d,%.1f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%d,%.3f,%.3f,%.3f",
+        this.startedMillis, this.target, this.rate, this.durationSeconds, this.threads,
+        this.responseTotal.getTotalCount(), this.measuredErrors, throughput,
+        millis(this.responseTotal.getValueAtPercentile(50)),
+        millis(this.responseTotal.getValueAtPercentile(90)),
+        millis(this.responseTotal.getValueAtPercentile(99)),
+        millis(this.responseTotal.getValueAtPercentile(99.9)),
+        millis(this.responseTotal.getMaxValue()),
+        millis(this.serviceTotal.getValueAtPercentile(99)),
+        this.deliveryTotal.getTotalCount(),
+        millis(this.deliveryTotal.getValueAtPercentile(50)),
+        millis(this.deliveryTotal.getValueAtPercentile(99)),
+        millis(this.deliveryTotal.getMaxValue()));
+
+    Path summaryFile = this.reportDirectory.resolve("summary.csv");
+    String lines = (Files.exists(summaryFile) ? "" : SUMMARY_HEADER + "\n") + summary + "\n";
+    Files.write(summaryFile, lines.getBytes(StandardCharsets.UTF_8),
+        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+    System.out.println(SUMMARY_HEADER);
+    System.out.println(summary);
+    if (throughput < this.rate * 0.95) {
+      System.out.println(String.format(Locale.ROOT,
+          "[%s] Sustained %.1f of %d requests/s; the app, or the %d sender threads, fell behind.",
+          getName(), throughput, this.rate, this.threads));
+    }
+  }
+
+  private void writeInterval(Histogram histogram, String tag) {
+    histogram.setTag(tag);
+    this.log.outputIntervalHistogram(histogram);
+  }
+
+  private void writeDistribution(Histogram histogram, String latency) throws IOException {
+    File file = this.reportDirectory.resolve(getName() + "." + latency + ".hgrm").toFile();
+    try (PrintStream out = new PrintStream(new FileOutputStream(file), false, "UTF-8")) {
+      histogram.outputPercentileDistribution(out, 5, NANOS_PER_MILLI);
+    }
+  }
+
+  private static double millis(long nanos) {
+    return nanos / NANOS_PER_MILLI;
+  }
+}
@@ -0,0 +1,32 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.benchmarks.load;
+
+/**
+ * One of the chat entry points the load generator drives.
+ */
+interface LoadTarget {
+
+  /**
+   * Sends one chat message, returning once the entry point has accepted it.
+   *
+   * @param body the message text, which identifies it to the {@link DeliveryTracker}
+   * @param room the room to post it in, for the entry points that take one
+   * @throws Exception if the entry point rejected the message or failed
+   */
+  void send(String body, String room) throws Exception;
+}
@@ -0,0 +1,184 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.benchmarks.load;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Command line options of {@link LoadTestRunner}, as {@code --name=value}. Any other
+ * {@code --name=value} is passed on to the app under test as a property.
+ */
+final class LoadTestOptions {
+
+  static final String USAGE = "Options:\n"
+      + "  --targets=postMessage,customMessage,gateway  entry points to drive, in turn; also"
+      + " publish\n"
+      + "  --rates=1000                 requests per second to send to each target, in turn\n"
+      + "  --duration=30                seconds measured at each rate\n"
+      + "  --warmup=10                  seconds sent before measuring\n"
+      + "  --drain=10                   seconds to wait for the last messages to be delivered\n"
+      + "  --threads=64                 most requests outstanding at once\n"
+      + "  --rooms=10                   rooms to spread messages over\n"
+      + "  --url=http://host:port       drive a running node instead of an embedded offline one\n"
+      + "  --topic=name                 topic for publish, which needs --url\n"
+      + "  --report-dir=target/load-test\n"
+      + "Other --name=value options are properties of the embedded app, e.g."
+      + " --chat.dispatch.threads=16";
+
+  private static final Set<String> TARGETS =
+      new HashSet<>(Arrays.asList("postMessage", "customMessage", "publish", "gateway"));
+
+  private List<String> targets = Arrays.asList("postMessage", "customMessage", "gateway");
+
+  private List<Long> rates = Arrays.asList(1000L);
+
+  private long durationSeconds = 30;
+
+  private long warmupSeconds = 10;
+
+  private long drainSeconds = 10;
+
+  private int threads = 64;
+
+  private int rooms = 10;
+
+  private String url;
+
+  private String topic;
+
+  private Path reportDirectory = Paths.get("target", "load-test");
+
+  private final Map<String, String> applicationProperties = new LinkedHashMap<>();
+
+  static LoadTestOptions parse(String[] args) {
+    LoadTestOptions options = new LoadTestOptions();
+    for (String arg : args) {
+      int equals = arg.indexOf('=');
+      if (!arg.startsWith("--") || equals < 0) {
+        throw new IllegalArgumentException("Expected --name=value but got " + arg);
+      }
+      String name = arg.substring(2, equals);
+      String value = arg.substring(equals + 1);
+      switch (name) {
+        case "targets":
+          options.targets = Arrays.asList(value.split(","));
+          break;
+        case "rates":
+          options.rates = new ArrayList<>();
+          for (String rate : value.split(",")) {
+            options.rates.add(Long.parseLong(rate));
+          }
+          break;
+        case "duration":
+          options.durationSeconds = Long.parseLong(value);
+          break;
+        case "warmup":
+          options.warmupSeconds = Long.parseLong(value);
+          break;
+        case "drain":
+          options.drainSeconds = Long.parseLong(value);
+          break;
+        case "threads":
+          options.threads = Integer.parseInt(value);
+          break;
+        case "rooms":
+          options.rooms = Integer.parseInt(value);
+          break;
+        case "url":
+          options.url = value;
+          break;
+        case "topic":
+          options.topic = value;
+          break;
+        case "report-dir":
+          options.reportDirectory = Paths.get(value);
+          break;
+        default:
+          options.applicationProperties.put(name, value);
+      }
+    }
+    if (options.durationSeconds <= 0 || options.threads <= 0 || options.rooms <= 0
+        || options.rates.stream().anyMatch(rate -> rate <= 0)) {
+      throw new IllegalArgumentException("Rates, duration, threads and rooms must be positive");
+    }
+    for (String target : options.targets) {
+      if (!TARGETS.contains(target)) {
+        throw new IllegalArgumentException("Unknown target " + target);
+      }
+    }
+    if (options.targets.contains("publish") && (options.url == null || options.topic == null)) {
+      // The offline app leaves out the admin endpoints, /publish among them.
+      throw new IllegalArgumentException("publish needs the --url of an admin node and a --topic");
+    }
+    if (options.targets.contains("gateway") && options.url != null) {
+      throw new IllegalArgumentException("gateway only drives the embedded app, not --url");
+    }
+    return options;
+  }
+
+  List<String> getTargets() {
+    return this.targets;
+  }
+
+  List<Long> getRates() {
+    return this.rates;
+  }
+
+  long getDurationSeconds() {
+    return this.durationSeconds;
+  }
+
+  long getWarmupSeconds() {
+    return this.warmupSeconds;
+  }
+
+  long getDrainSeconds() {
+    return this.drainSeconds;
+  }
+
+  int getThreads() {
+    return this.threads;
+  }
+
+  int getRooms() {
+    return this.rooms;
+  }
+
+  String getUrl() {
+    return this.url;
+  }
+
+  String getTopic() {
+    return this.topic;
+  }
+
+  Path getReportDirectory() {
+    return this.reportDirectory;
+  }
+
+  Map<String, String> getApplicationProperties() {
+    return this.applicationProperties;
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.benchmarks.load;
+
+import com.google.springongcp.pubsub.PubsubApplication;
+import com.google.springongcp.pubsub.PubsubApplication.ChatGateway;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Open-loop load test of the chat entry points: sends messages at fixed rates, records response
+ * and delivery latencies free of coordinated omission, and reports them per second and per run.
+ *
+ * <p>By default it starts the app in-process with the {@code offline} profile, so messages go
+ * through the in-memory transport and no Google Cloud service or broker is needed, and rate
+ * limiting is off. Targets are the {@code /postMessage} and {@code /customMessage} endpoints and
+ * {@code gateway}, the chat gateway itself; each runs at every rate in turn, which makes a step
+ * test, or for a long {@code --duration}, a soak test. With {@code --url} it drives a running node
+ * instead, including {@code /publish} on an admin node, but cannot see deliveries.
+ *
+ * <p>Build the application jar first, then the benchmarks:
+ * <pre>
+ *   ./mvnw install -DskipTests
+ *   cd benchmarks &amp;&amp; ../mvnw package
+ *   java -cp target/benchmarks.jar com.google.springongcp.benchmarks.load.LoadTestRunner \
+ *       --targets=customMessage --rates=1000,2000,4000 --duration=60
+ * </pre>
+ * See {@link LoadRun} for the report files.
+ */
+public final class LoadTestRunner {
+
+  private LoadTestRunner() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    LoadTestOptions options;
+    try {
+      options = LoadTestOptions.parse(args);
+    } catch (IllegalArgumentException iae) {
+      System.err.println(iae.getMessage());
+      System.err.println(LoadTestOptions.USAGE);
+      System.exit(2);
+      return;
+    }
+    // The JDK keeps only five idle connections per host alive unless told otherwise.
+    System.setProperty("http.maxConnections", String.valueOf(options.getThreads()));
+    Files.createDirectories(options.getReportDirectory());
+
+    ConfigurableApplicationContext context = null;
+    String url = options.getUrl();
+    if (url == null) {
+      context = start(options);
+      url = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+    }
+    try {
+      DeliveryTracker tracker = context != null ? context.getBean(DeliveryTracker.class) : null;
+      OpenLoopLoadGenerator generator =
+          new OpenLoopLoadGenerator(options.getThreads(), options.getRooms());
+      for (String name : options.getTargets()) {
+        LoadTarget target = target(name, url, options, context);
+        for (long rate : options.getRates()) {
+          LoadRun run = new LoadRun(name, rate, options.getDurationSeconds(),
+              options.getThreads(), options.getReportDirectory());
+          generator.run(target, run, tracker, rate, options.getWarmupSeconds(),
+              options.getDurationSeconds(), options.getDrainSeconds());
+          run.finish();
+        }
+      }
+      System.out.println("Reports written to " + options.getReportDirectory().toAbsolutePath());
+    } finally {
+      if (context != null) {
+        context.close();
+      }
+    }
+  }
+
+  private static ConfigurableApplicationContext start(LoadTestOptions options) {
+    Map<String, String> properties = new LinkedHashMap<>();
+    properties.put("spring.profiles.active", "offline");
+    properties.put("server.port", "0");
+    properties.put("chat.rate-limit.enabled", "false");
+    // Set last, so that they win; a property given twice would be read as both values joined.
+    properties.putAll(options.getApplicationProperties());
+    return new SpringApplicationBuilder(PubsubApplication.class, LoadTestConfiguration.class)
+        .run(properties.entrySet().stream()
+            .map(property -> "--" + property.getKey() + "=" + property.getValue())
+            .toArray(String[]::new));
+  }
+
+  private static LoadTarget target(String name, String url, LoadTestOptions options,
+      ConfigurableApplicationContext context) {
+    if ("gateway".equals(name)) {
+      return new GatewayLoadTarget(context.getBean(ChatGateway.class));
+    }
+    return new HttpLoadTarget(url, "/" + name, options.getTopic());
+  }
+
+  /**
+   * Adds the {@link DeliveryTracker} to the chat listeners of the embedded app.
+   */
+  @Configuration
+  static class LoadTestConfiguration {
+
+    @Bean
+    public DeliveryTracker loadTestDeliveryTracker() {
+      return new DeliveryTracker();
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.benchmarks.load;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends requests to a {@link LoadTarget} on a fixed schedule, whatever its response times.
+ *
+ * <p>Request {@code i} is due {@code i / rate} seconds after the start. Whichever sender thread
+ * is free takes the next request and waits until it is due; if none is free, it goes out late, and
+ * its response time still counts from when it was due. A slow response therefore shows up in the
+ * requests queued behind it too, as it would for users, instead of quietly lowering the rate the
+ * way a closed-loop generator does. The number of sender threads only caps how many requests can
+ * be outstanding at once.
+ */
+final class OpenLoopLoadGenerator {
+
+  private static final Log LOGGER = LogFactory.getLog(OpenLoopLoadGenerator.class);
+
+  private static final long START_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private static final long SAMPLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final int threads;
+
+  private final int rooms;
+
+  OpenLoopLoadGenerator(int threads, int rooms) {
+    this.threads = threads;
+    this.rooms = rooms;
+  }
+
+  /**
+   * Drives the target for warm-up and then measurement, and then waits for the messages sent to
+   * be delivered, up to {@code drainSeconds}.
+   *
+   * @param tracker the listener timing deliveries, or null if they cannot be observed
+   */
+  void run(LoadTarget target, LoadRun run, DeliveryTracker tracker, long rate,
+      long warmupSeconds, long durationSeconds, long drainSeconds) throws InterruptedException {
+    if (tracker != null) {
+      tracker.track(run);
+    }
+    long requests = rate * (warmupSeconds + durationSeconds);
+    double intervalNanos = (double) TimeUnit.SECONDS.toNanos(1) / rate;
+    long start = System.nanoTime() + START_DELAY_NANOS;
+    long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+    AtomicLong next = new AtomicLong();
+
+    List<Thread> senders = new ArrayList<>();
+    for (int i = 0; i < this.threads; i++) {
+      Thread sender = new Thread(() -> {
+        for (long sequence = next.getAndIncrement(); sequence < requests;
+            sequence = next.getAndIncrement()) {
+          long due = start + (long) (sequence * intervalNanos);
+          for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+            LockSupport.parkNanos(wait);
+          }
+          send(target, run, sequence, due);
+        }
+      }, "chat-load-" + (i + 1));
+      sender.setDaemon(true);
+      senders.add(sender);
+      sender.start();
+    }
+
+    long nextSample = start + SAMPLE_NANOS;
+    while (senders.stream().anyMatch(Thread::isAlive)) {
+      sleepUntil(nextSample);
+      run.sample(nextSample - measureFrom > 0);
+      nextSample += SAMPLE_NANOS;
+    }
+    if (tracker != null) {
+      long drainUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(drainSeconds);
+      while (run.getDelivered() < run.getSucceeded() && nextSample - drainUntil < 0) {
+        sleepUntil(nextSample);
+        run.sample(true);
+        nextSample += SAMPLE_NANOS;
+      }
+      if (run.getDelivered() < run.getSucceeded()) {
+        LOGGER.warn(run.getName() + ": " + (run.getSucceeded() - run.getDelivered())
+            + " messages were not delivered within " + drainSeconds + " s");
+      }
+      tracker.track(null);
+    }
+    run.sample(true);
+  }
+
+  private void send(LoadTarget target, LoadRun run, long sequence, long due) {
+    long sent = System.nanoTime();
+    try {
+      target.send(DeliveryTracker.body(run, sequence, due), "load-" + sequence % this.rooms);
+      run.recordResponse(due, sent, System.nanoTime());
+    } catch (Exception e) {
+      run.recordError();
+      LOGGER.debug("Request " + sequence + " failed", e);
+    }
+  }
+
+  private static void sleepUntil(long deadline) throws InterruptedException {
+    for (long wait = deadline - System.nanoTime(); wait > 0; wait = deadline - System.nanoTime()) {
+      TimeUnit.NANOSECONDS.sleep(wait);
+    }
+  }
+}
@@ -0,0 +1,323 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.amqp;
+
+import com.google.springongcp.shard.ShardRouter;
+import com.google.springongcp.transport.ChatTransport;
+import com.google.springongcp.transport.MessageBatcher;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.support.CorrelationData;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandlingException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RabbitMQ {@link ChatTransport}: publishes String and byte array payloads through the default
+ * exchange to the queue shard of their room, in batches per queue shard and content type, formed
+ * by a {@link MessageBatcher} like the Pub/Sub transport's.
+ *
+ * <p>A batch of several messages goes out as one AMQP message in Spring AMQP's batch format, which
+ * the listener container splits up again on the consuming side. The messages then share one
+ * delivery tag, which can only be acked once, so the batch's size goes along in
+ * {@link #BATCH_SIZE_HEADER} for the consumer to settle the delivery after the last of them. A
+ * single message carries its {@link ChatTransport#MESSAGE_ID_HEADER ID} as the AMQP message ID,
+ * which the messages of a batch would share too, so a batch lists their IDs, in order, in
+ * {@link #MESSAGE_IDS_HEADER} instead.
+ * Closed batches are sent by a fixed pool of {@code publisher-threads}, so no more channels than
+ * that are ever in use for publishing.
+ *
+ * <p>With publisher confirms, each batch is correlated with the broker's confirm, and the futures
+ * of its messages are only completed once the broker has taken responsibility for it. Confirms
+ * arrive asynchronously, so publishing threads never wait for them. At most
+ * {@code max-in-flight-batches} batches are sent and not yet confirmed; the batcher holds any
+ * further closed batches until one of them is, and makes producers wait once too many messages
+ * are pending.
+ */
+public class AmqpChatTransport implements ChatTransport, DisposableBean {
+
+  /**
+   * How many messages a batch holds. The consumer needs it to settle the batch's delivery once,
+   * after all of them.
+   */
+  public static final String BATCH_SIZE_HEADER = "chat_batchSize";
+
+  /**
+   * The IDs of the messages in a batch, in order.
+   */
+  public static final String MESSAGE_IDS_HEADER = "chat_messageIds";
+
+  private final RabbitTemplate rabbitTemplate;
+
+  private final String queue;
+
+  private final ShardRouter shardRouter;
+
+  private final boolean publisherConfirms;
+
+  private final MessageBatcher<Destination, OutgoingMessage> batcher;
+
+  private final ThreadPoolExecutor publisherExecutor;
+
+  private final ConcurrentMap<String, CompletableFuture<Void>> pendingConfirms =
+      new ConcurrentHashMap<>();
+
+  private final AtomicLong correlationIds = new AtomicLong();
+
+  /**
+   * @param rabbitTemplate a template used by this transport alone, as it takes over the template's
+   *     confirm callback
+   * @param properties the queue to publish to, and batching and confirm settings
+   * @param shardRouter picks the shard of the queue for each message's room
+   * @param meterRegistry where to record publish latency and batch sizes
+   */
+  public AmqpChatTransport(RabbitTemplate rabbitTemplate, AmqpTransportProperties properties,
+      ShardRouter shardRouter, MeterRegistry meterRegistry) {
+    this.rabbitTemplate = rabbitTemplate;
+    this.queue = properties.getQueue();
+    this.shardRouter = shardRouter;
+    this.publisherConfirms = properties.isPublisherConfirms();
+    if (this.publisherConfirms) {
+      this.rabbitTemplate.setConfirmCallback(this::confirm);
+    }
+    this.batcher = new MessageBatcher<>("amqp", properties.getBatchMaxMessages(),
+        properties.getBatchMaxBytes(), properties.getBatchMaxLingerMillis(),
+        properties.getMaxInFlightBatches(), this::publish, meterRegistry);
+    Gauge.builder("chat.amqp.confirms.pending", this, AmqpChatTransport::getPendingConfirms)
+        .register(meterRegistry);
+    AtomicInteger threadCount = new AtomicInteger();
+    // Unbounded, but never holds more than max-in-flight-batches, as the batcher sends no more
+    // batches than that at once.
+    this.publisherExecutor = new ThreadPoolExecutor(
+        properties.getPublisherThreads(), properties.getPublisherThreads(),
+        0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+        runnable -> {
+          Thread thread = new Thread(runnable, "amqp-publisher-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  @Override
+  public String getName() {
+    return "amqp";
+  }
+
+  /**
+   * Adds a message to the open batch for its queue shard and content type.
+   *
+   * @param message the message, with a String or byte array payload
+   * @return a future completed once the broker has confirmed the message's batch, or once the
+   *     batch is sent when confirms are disabled
+   */
+  @Override
+  public CompletableFuture<Void> send(Message<?> message) {
+    Object payload = message.getPayload();
+    String contentType;
+    byte[] body;
+    if (payload instanceof byte[]) {
+      contentType = MessageProperties.CONTENT_TYPE_BYTES;
+      body = (byte[]) payload;
+    } else if (payload instanceof String) {
+      contentType = MessageProperties.CONTENT_TYPE_TEXT_PLAIN;
+      body = ((String) payload).getBytes(StandardCharsets.UTF_8);
+    } else {
+      throw new MessageHandlingException(message,
+          "Unsupported payload type " + payload.getClass().getName()
+              + "; encode it to a String or byte[] before publishing.");
+    }
+    Destination destination =
+        new Destination(this.shardRouter.destinationOf(this.queue, message), contentType);
+    // Each body is preceded by its length in a batch.
+    return this.batcher.add(destination,
+        new OutgoingMessage(body, ChatTransport.messageIdOf(message)),
+        Integer.BYTES + body.length);
+  }
+
+  /**
+   * Sends every open batch immediately, or as soon as the in-flight limit allows.
+   */
+  public void flush() {
+    this.batcher.flush();
+  }
+
+  /**
+   * @return how many sent batches the broker has not confirmed yet
+   */
+  public int getPendingConfirms() {
+    return this.pendingConfirms.size();
+  }
+
+  @Override
+  public void destroy() throws InterruptedException {
+    this.batcher.destroy();
+    this.publisherExecutor.shutdown();
+    this.publisherExecutor.awaitTermination(5, TimeUnit.SECONDS);
+  }
+
+  private CompletableFuture<Void> publish(Destination destination,
+      List<OutgoingMessage> messages, long bytes) {
+    CompletableFuture<Void> result = new CompletableFuture<>();
+    try {
+      this.publisherExecutor.execute(() -> publish(destination, messages, bytes, result));
+    } catch (RejectedExecutionException ree) {
+      result.completeExceptionally(ree);
+    }
+    return result;
+  }
+
+  private void publish(Destination destination, List<OutgoingMessage> messages, long bytes,
+      CompletableFuture<Void> result) {
+    org.springframework.amqp.core.Message amqpMessage =
+        toAmqpMessage(destination, messages, bytes);
+    if (!this.publisherConfirms) {
+      try {
+        this.rabbitTemplate.send("", destination.queue, amqpMessage);
+        result.complete(null);
+      } catch (AmqpException ae) {
+        result.completeExceptionally(ae);
+      }
+      return;
+    }
+
+    String id = Long.toString(this.correlationIds.incrementAndGet());
+    this.pendingConfirms.put(id, result);
+    try {
+      this.rabbitTemplate.send("", destination.queue, amqpMessage, new CorrelationData(id));
+    } catch (AmqpException ae) {
+      // The confirm callback may have failed the batch already, if the channel was closed.
+      if (this.pendingConfirms.remove(id) != null) {
+        result.completeExceptionally(ae);
+      }
+    }
+  }
+
+  private void confirm(CorrelationData correlationData, boolean ack, String cause) {
+    CompletableFuture<Void> result = correlationData == null
+        ? null
+        : this.pendingConfirms.remove(correlationData.getId());
+    if (result == null) {
+      return;
+    }
+    if (ack) {
+      result.complete(null);
+    } else {
+      result.completeExceptionally(new AmqpException("Broker did not accept the batch: " + cause));
+    }
+  }
+
+  /**
+   * @return the only message as is, or every message behind a four-byte length prefix, the format
+   *     the listener container's de-batching expects
+   */
+  private static org.springframework.amqp.core.Message toAmqpMessage(Destination destination,
+      List<OutgoingMessage> messages, long bytes) {
+    MessageProperties properties = new MessageProperties();
+    properties.setContentType(destination.contentType);
+    if (MessageProperties.CONTENT_TYPE_TEXT_PLAIN.equals(destination.contentType)) {
+      properties.setContentEncoding(StandardCharsets.UTF_8.name());
+    }
+    if (messages.size() == 1) {
+      properties.setMessageId(messages.get(0).id);
+      return new org.springframework.amqp.core.Message(messages.get(0).body, properties);
+    }
+    ByteBuffer buffer = ByteBuffer.allocate((int) bytes);
+    List<String> ids = new ArrayList<>(messages.size());
+    for (OutgoingMessage message : messages) {
+      buffer.putInt(message.body.length);
+      buffer.put(message.body);
+      ids.add(message.id);
+    }
+    properties.setHeader(MessageProperties.SPRING_BATCH_FORMAT,
+        MessageProperties.BATCH_FORMAT_LENGTH_HEADER4);
+    properties.setHeader(BATCH_SIZE_HEADER, messages.size());
+    properties.setHeader(MESSAGE_IDS_HEADER, ids);
+    return new org.springframework.amqp.core.Message(buffer.array(), properties);
+  }
+
+  /**
+   * A message's body and ID, as batched.
+   */
+  private static final class OutgoingMessage {
+
+    private final byte[] body;
+
+    private final String id;
+
+    OutgoingMessage(byte[] body, String id) {
+      this.body = body;
+      this.id = id;
+    }
+  }
+
+  /**
+   * A queue shard and the content type of the messages batched for it; batches never mix content
+   * types, as the batch carries a single one.
+   */
+  private static final class Destination {
+
+    private final String queue;
+
+    private final String contentType;
+
+    Destination(String queue, String contentType) {
+      this.queue = queue;
+      this.contentType = contentType;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof Destination)) {
+        return false;
+      }
+      Destination destination = (Destination) other;
+      return this.queue.equals(destination.queue)
+          && this.contentType.equals(destination.contentType);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(this.queue, this.contentType);
+    }
+
+    @Override
+    public String toString() {
+      return this.queue + " (" + this.contentType + ")";
+    }
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.amqp;
+
+import com.google.springongcp.shard.MembershipChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.FanoutExchange;
+import org.springframework.amqp.core.MessageListener;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.connection.Connection;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionListener;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.function.Consumer;
+
+/**
+ * {@link MembershipChannel} over a RabbitMQ fanout exchange, with a queue of its own for each node
+ * bound to it, so every node receives every event.
+ *
+ * <p>The node's queue is declared again whenever a connection is opened, so it comes back after
+ * a broker restart, and expires once nobody has used it for a few node timeouts, so nodes that
+ * died leave nothing behind.
+ */
+public class AmqpMembershipChannel implements MembershipChannel {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AmqpMembershipChannel.class);
+
+  private final ConnectionFactory connectionFactory;
+
+  private final RabbitAdmin admin;
+
+  private final RabbitTemplate rabbitTemplate;
+
+  private final FanoutExchange exchange;
+
+  private final long queueExpiryMillis;
+
+  private Queue queue;
+
+  private SimpleMessageListenerContainer container;
+
+  /**
+   * @param exchange the name of the fanout exchange
+   * @param nodeTimeoutMillis how long nodes wait for a silent node before forgetting it
+   */
+  public AmqpMembershipChannel(ConnectionFactory connectionFactory, String exchange,
+      long nodeTimeoutMillis) {
+    this.connectionFactory = connectionFactory;
+    this.admin = new RabbitAdmin(connectionFactory);
+    this.rabbitTemplate = new RabbitTemplate(connectionFactory);
+    this.exchange = new FanoutExchange(exchange);
+    this.queueExpiryMillis = Math.max(60000, 3 * nodeTimeoutMillis);
+  }
+
+  @Override
+  public void start(String nodeId, Consumer<String> receiver) {
+    this.queue = new Queue(this.exchange.getName() + "." + nodeId, false, false, false,
+        Collections.singletonMap("x-expires", this.queueExpiryMillis));
+    declare();
+    this.connectionFactory.addConnectionListener(new ConnectionListener() {
+      @Override
+      public void onCreate(Connection connection) {
+        declare();
+      }
+
+      @Override
+      public void onClose(Connection connection) {
+      }
+    });
+
+    this.container = new SimpleMessageListenerContainer(this.connectionFactory);
+    this.container.setQueues(this.queue);
+    this.container.setAcknowledgeMode(AcknowledgeMode.NONE);
+    this.container.setMissingQueuesFatal(false);
+    this.container.setMessageListener((MessageListener) message ->
+        receiver.accept(new String(message.getBody(), StandardCharsets.UTF_8)));
+    this.container.afterPropertiesSet();
+    this.container.start();
+  }
+
+  @Override
+  public void publish(String event) {
+    try {
+      this.rabbitTemplate.convertAndSend(this.exchange.getName(), "", event);
+    } catch (AmqpException ae) {
+      LOGGER.warn("Failed to publish membership event {}", event, ae);
+    }
+  }
+
+  @Override
+  public void stop() {
+    if (this.container != null) {
+      this.container.stop();
+    }
+    try {
+      this.admin.deleteQueue(this.queue.getName());
+    } catch (AmqpException ae) {
+      LOGGER.warn("Failed to delete membership queue {}", this.queue.getName(), ae);
+    }
+  }
+
+  private void declare() {
+    try {
+      this.admin.declareExchange(this.exchange);
+      this.admin.declareQueue(this.queue);
+      this.admin.declareBinding(BindingBuilder.bind(this.queue).to(this.exchange));
+    } catch (AmqpException ae) {
+      LOGGER.warn("Failed to declare membership queue {}", this.queue.getName(), ae);
+    }
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.amqp;
+
+import com.google.springongcp.shard.ShardMembership;
+import com.google.springongcp.shard.ShardRouter;
+import com.google.springongcp.shard.ShardingProperties;
+import com.google.springongcp.transport.ChatTransport;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.amqp.RabbitProperties;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.integration.amqp.inbound.AmqpInboundChannelAdapter;
+import org.springframework.integration.amqp.support.DefaultAmqpHeaderMapper;
+import org.springframework.messaging.MessageChannel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Carries chat messages over RabbitMQ, through {@code chat.sharding.shards} queues, one per shard
+ * of the rooms. Every node publishes to all of them, but only consumes the queues of the shards
+ * it owns, as worked out by the {@link ShardMembership}, which exchanges heartbeats over a fanout
+ * exchange. Active with {@code chat.transport.type=amqp}.
+ *
+ * <p>Defines its own connection factory, in place of Boot's, so the channel cache is sized from
+ * the transport's own thread counts. Binds {@code spring.rabbitmq.*} itself, so it also works in
+ * the lean profiles, which leave out Boot's RabbitMQ auto-configuration.
+ */
+@Configuration
+@ConditionalOnProperty(name = "chat.transport.type", havingValue = "amqp")
+@EnableConfigurationProperties({AmqpTransportProperties.class, RabbitProperties.class})
+public class AmqpTransportConfiguration {
+
+  /**
+   * Every publisher thread and every consumer holds a channel while it works, so a cache of that
+   * many channels means none of them is ever opened and closed again under load.
+   */
+  @Bean
+  public CachingConnectionFactory amqpConnectionFactory(RabbitProperties rabbitProperties,
+      AmqpTransportProperties properties) {
+    CachingConnectionFactory connectionFactory = new CachingConnectionFactory(
+        rabbitProperties.determineHost(), rabbitProperties.determinePort());
+    connectionFactory.setUsername(rabbitProperties.determineUsername());
+    connectionFactory.setPassword(rabbitProperties.determinePassword());
+    connectionFactory.setVirtualHost(rabbitProperties.determineVirtualHost());
+    connectionFactory.setPublisherConfirms(properties.isPublisherConfirms());
+    connectionFactory.setChannelCacheSize(
+        properties.getPublisherThreads() + properties.getMaxConsumers());
+    return connectionFactory;
+  }
+
+  /**
+   * Declares the queues, and declares them again whenever a connection is opened, so they come
+   * back after a broker restart. Takes the place of Boot's, which the lean profiles leave out.
+   */
+  @Bean
+  public RabbitAdmin amqpAdmin(CachingConnectionFactory amqpConnectionFactory) {
+    return new RabbitAdmin(amqpConnectionFactory);
+  }
+
+  /**
+   * Declared by the {@link #amqpAdmin}, which also declares the elements of collections of
+   * queues.
+   */
+  @Bean
+  public List<Queue> chatQueues(AmqpTransportProperties properties, ShardRouter shardRouter) {
+    List<Queue> queues = new ArrayList<>();
+    for (int shard = 0; shard < shardRouter.getShards(); shard++) {
+      queues.add(new Queue(shardRouter.destination(properties.getQueue(), shard)));
+    }
+    return queues;
+  }
+
+  /**
+   * Starts with the minimum number of consumers and adds one, up to the maximum, whenever the
+   * existing ones stay busy; idle consumers above the minimum are stopped again. Each consumer
+   * lets the broker push up to {@code prefetch} unacknowledged messages. Messages are acked
+   * manually, once the dispatcher is done with them, through the
+   * {@link com.google.springongcp.pubsub.ack.AckManager}, which finds the channel and delivery tag
+   * in their headers. Which queues it consumes from is set as shard ownership changes.
+   */
+  @Bean
+  public SimpleMessageListenerContainer amqpListenerContainer(ConnectionFactory connectionFactory,
+      AmqpTransportProperties properties, MeterRegistry meterRegistry) {
+    SimpleMessageListenerContainer container =
+        new SimpleMessageListenerContainer(connectionFactory);
+    container.setConcurrentConsumers(properties.getMinConsumers());
+    container.setMaxConcurrentConsumers(properties.getMaxConsumers());
+    container.setConsecutiveActiveTrigger(10);
+    container.setConsecutiveIdleTrigger(10);
+    container.setStartConsumerMinInterval(1000);
+    container.setStopConsumerMinInterval(10000);
+    container.setPrefetchCount(properties.getPrefetch());
+    container.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+    Gauge.builder("chat.amqp.consumers.active", container,
+        SimpleMessageListenerContainer::getActiveConsumerCount).register(meterRegistry);
+
+    return container;
+  }
+
+  @Bean
+  public AmqpInboundChannelAdapter amqpInboundAdapter(
+      SimpleMessageListenerContainer amqpListenerContainer,
+      @Qualifier("chatRawInputChannel") MessageChannel inputChannel) {
+    AmqpInboundChannelAdapter adapter = new AmqpInboundChannelAdapter(amqpListenerContainer);
+    adapter.setOutputChannel(inputChannel);
+    // Maps the user-defined headers too, such as the publisher's batch size.
+    DefaultAmqpHeaderMapper headerMapper = DefaultAmqpHeaderMapper.inboundMapper();
+    headerMapper.setRequestHeaderNames("*");
+    adapter.setHeaderMapper(headerMapper);
+    // Started by the shard membership, once this node owns a shard.
+    adapter.setAutoStartup(false);
+    return adapter;
+  }
+
+  /**
+   * Points the listener container at the queues of the owned shards; the container restarts its
+   * consumers when its queues change. Stops consuming altogether while no shard is owned.
+   */
+  @Bean
+  public ShardMembership amqpShardMembership(ShardingProperties shardingProperties,
+      ConnectionFactory connectionFactory, SimpleMessageListenerContainer amqpListenerContainer,
+      AmqpInboundChannelAdapter amqpInboundAdapter, AmqpTransportProperties properties,
+      ShardRouter shardRouter, MeterRegistry meterRegistry) {
+    AmqpMembershipChannel channel = new AmqpMembershipChannel(connectionFactory,
+        shardingProperties.getMembershipTopic(), shardingProperties.getNodeTimeoutMillis());
+    return new ShardMembership(shardingProperties, channel, shards -> {
+      if (shards.isEmpty()) {
+        amqpInboundAdapter.stop();
+        return;
+      }
+      amqpListenerContainer.setQueueNames(shards.stream()
+          .map(shard -> shardRouter.destination(properties.getQueue(), shard))
+          .toArray(String[]::new));
+      if (!amqpInboundAdapter.isRunning()) {
+        amqpInboundAdapter.start();
+      }
+    }, meterRegistry);
+  }
+
+  /**
+   * Publishes through its own template rather than Boot's shared one, as it takes over the
+   * template's confirm callback.
+   */
+  @Bean
+  public ChatTransport amqpChatTransport(ConnectionFactory connectionFactory,
+      AmqpTransportProperties properties, ShardRouter shardRouter, MeterRegistry meterRegistry) {
+    return new AmqpChatTransport(
+        new RabbitTemplate(connectionFactory), properties, shardRouter, meterRegistry);
+  }
+}
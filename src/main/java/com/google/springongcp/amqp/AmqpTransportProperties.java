@@ -0,0 +1,134 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.amqp;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings for the RabbitMQ transport.
+ *
+ * <p>Consumers: the queue chat messages go through, how many listener threads the container may
+ * scale between, and how many unacknowledged messages each of them may hold.
+ *
+ * <p>Publishers: how messages are batched, how many threads send the batches, and how many batches
+ * may wait for a publisher confirm at once. The connection's channel cache is sized from the
+ * publisher and consumer thread counts. Where to connect is still set with Boot's
+ * {@code spring.rabbitmq.*} properties.
+ */
+@ConfigurationProperties("chat.transport.amqp")
+public class AmqpTransportProperties {
+
+  private String queue = "chan";
+
+  private int minConsumers = 2;
+
+  private int maxConsumers = 8;
+
+  private int prefetch = 250;
+
+  private boolean publisherConfirms = true;
+
+  private int publisherThreads = 4;
+
+  private int batchMaxMessages = 100;
+
+  private int batchMaxBytes = 64 * 1024;
+
+  private long batchMaxLingerMillis = 5;
+
+  private int maxInFlightBatches = 64;
+
+  public String getQueue() {
+    return queue;
+  }
+
+  public void setQueue(String queue) {
+    this.queue = queue;
+  }
+
+  public int getMinConsumers() {
+    return minConsumers;
+  }
+
+  public void setMinConsumers(int minConsumers) {
+    this.minConsumers = minConsumers;
+  }
+
+  public int getMaxConsumers() {
+    return maxConsumers;
+  }
+
+  public void setMaxConsumers(int maxConsumers) {
+    this.maxConsumers = maxConsumers;
+  }
+
+  public int getPrefetch() {
+    return prefetch;
+  }
+
+  public void setPrefetch(int prefetch) {
+    this.prefetch = prefetch;
+  }
+
+  public boolean isPublisherConfirms() {
+    return publisherConfirms;
+  }
+
+  public void setPublisherConfirms(boolean publisherConfirms) {
+    this.publisherConfirms = publisherConfirms;
+  }
+
+  public int getPublisherThreads() {
+    return publisherThreads;
+  }
+
+  public void setPublisherThreads(int publisherThreads) {
+    this.publisherThreads = publisherThreads;
+  }
+
+  public int getBatchMaxMessages() {
+    return batchMaxMessages;
+  }
+
+  public void setBatchMaxMessages(int batchMaxMessages) {
+    this.batchMaxMessages = batchMaxMessages;
+  }
+
+  public int getBatchMaxBytes() {
+    return batchMaxBytes;
+  }
+
+  public void setBatchMaxBytes(int batchMaxBytes) {
+    this.batchMaxBytes = batchMaxBytes;
+  }
+
+  public long getBatchMaxLingerMillis() {
+    return batchMaxLingerMillis;
+  }
+
+  public void setBatchMaxLingerMillis(long batchMaxLingerMillis) {
+    this.batchMaxLingerMillis = batchMaxLingerMillis;
+  }
+
+  public int getMaxInFlightBatches() {
+    return maxInFlightBatches;
+  }
+
+  public void setMaxInFlightBatches(int maxInFlightBatches) {
+    this.maxInFlightBatches = maxInFlightBatches;
+  }
+}
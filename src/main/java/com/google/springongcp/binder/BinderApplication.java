@@ -1,11 +0,0 @@
-package com.google.springongcp.binder;
-
-import org.springframework.boot.autoconfigure.SpringBootApplication;
-
-/**
- * Created by joaomartins on 7/31/17.
- */
-@SpringBootApplication
-public class BinderApplication {
-
-}
@@ -0,0 +1,121 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Read-through cache whose entries expire a fixed time after they were loaded, holding at most
+ * {@code maxEntries} keys and evicting the least recently used one beyond that.
+ *
+ * <p>Concurrent misses on the same key share a single load, so an expired entry causes one
+ * backend call rather than one per waiting request.
+ */
+public class ExpiringLruCache<K, V> {
+
+  private final long ttlNanos;
+
+  private final Map<K, Entry<V>> entries;
+
+  public ExpiringLruCache(int maxEntries, long ttl, TimeUnit unit) {
+    this.ttlNanos = unit.toNanos(ttl);
+    this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * Returns the cached value for a key, loading it if it is missing or expired.
+   *
+   * @param key the key to look up
+   * @param loader computes the value on a miss; its exceptions propagate and nothing is cached
+   * @return the cached or freshly loaded value
+   */
+  public V get(K key, Function<? super K, ? extends V> loader) {
+    Entry<V> entry;
+    boolean loading = false;
+    synchronized (this.entries) {
+      entry = this.entries.get(key);
+      if (entry == null || entry.isExpired()) {
+        entry = new Entry<>(System.nanoTime() + this.ttlNanos);
+        this.entries.put(key, entry);
+        loading = true;
+      }
+    }
+
+    if (loading) {
+      try {
+        V value = loader.apply(key);
+        entry.value.complete(value);
+        return value;
+      } catch (Throwable t) {
+        entry.value.completeExceptionally(t);
+        synchronized (this.entries) {
+          this.entries.remove(key, entry);
+        }
+        throw t;
+      }
+    }
+
+    try {
+      return entry.value.join();
+    } catch (CompletionException ce) {
+      throw ce.getCause() instanceof RuntimeException ? (RuntimeException) ce.getCause() : ce;
+    }
+  }
+
+  public void invalidate(K key) {
+    synchronized (this.entries) {
+      this.entries.remove(key);
+    }
+  }
+
+  public void invalidateAll() {
+    synchronized (this.entries) {
+      this.entries.clear();
+    }
+  }
+
+  public int size() {
+    synchronized (this.entries) {
+      return this.entries.size();
+    }
+  }
+
+  private static final class Entry<V> {
+
+    private final CompletableFuture<V> value = new CompletableFuture<>();
+
+    private final long expiresAtNanos;
+
+    Entry(long expiresAtNanos) {
+      this.expiresAtNanos = expiresAtNanos;
+    }
+
+    boolean isExpired() {
+      return System.nanoTime() - this.expiresAtNanos >= 0;
+    }
+  }
+}
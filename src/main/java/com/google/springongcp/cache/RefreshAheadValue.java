@@ -0,0 +1,166 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * A single cached value that expires after a TTL and is reloaded in the background once it is
+ * past {@code refreshAheadRatio} of that TTL.
+ *
+ * <p>Readers only wait for a load when there is no value yet or it has fully expired; otherwise
+ * they get the current value while a refresh, at most one at a time, runs on the executor. The
+ * loader always runs outside the lock, and readers that need a value while a load is in progress
+ * wait for that load rather than starting their own.
+ */
+public class RefreshAheadValue<T> {
+
+  private static final Log LOGGER = LogFactory.getLog(RefreshAheadValue.class);
+
+  private final Supplier<T> loader;
+
+  private final Executor refreshExecutor;
+
+  private final long ttlNanos;
+
+  private final long refreshAfterNanos;
+
+  private final AtomicBoolean refreshing = new AtomicBoolean();
+
+  private volatile Snapshot<T> snapshot;
+
+  // Bumped on every invalidation, so a refresh that started before it cannot store stale data.
+  private long generation;
+
+  // The load readers are waiting on, if any.
+  private CompletableFuture<T> pendingLoad;
+
+  public RefreshAheadValue(Supplier<T> loader, Executor refreshExecutor, long ttl, TimeUnit unit,
+      double refreshAheadRatio) {
+    this.loader = loader;
+    this.refreshExecutor = refreshExecutor;
+    this.ttlNanos = unit.toNanos(ttl);
+    this.refreshAfterNanos = (long) (this.ttlNanos * refreshAheadRatio);
+  }
+
+  public T get() {
+    Snapshot<T> current = this.snapshot;
+    long now = System.nanoTime();
+    if (current == null || now - current.loadedAtNanos >= this.ttlNanos) {
+      return loadNow();
+    }
+    if (now - current.loadedAtNanos >= this.refreshAfterNanos
+        && this.refreshing.compareAndSet(false, true)) {
+      long startGeneration = currentGeneration();
+      this.refreshExecutor.execute(() -> {
+        try {
+          T value = this.loader.get();
+          synchronized (this) {
+            if (this.generation == startGeneration) {
+              this.snapshot = new Snapshot<>(value, System.nanoTime());
+            }
+          }
+        } catch (RuntimeException re) {
+          LOGGER.warn("Background refresh failed; serving the cached value until it expires.", re);
+        } finally {
+          this.refreshing.set(false);
+        }
+      });
+    }
+    return current.value;
+  }
+
+  /**
+   * Drops the cached value, so the next read loads a fresh one.
+   */
+  public synchronized void invalidate() {
+    this.generation++;
+    this.snapshot = null;
+    this.pendingLoad = null;
+  }
+
+  private synchronized long currentGeneration() {
+    return this.generation;
+  }
+
+  private T loadNow() {
+    CompletableFuture<T> load;
+    long startGeneration;
+    boolean loading = false;
+    synchronized (this) {
+      // Another thread may have loaded the value while this one waited for the lock.
+      Snapshot<T> current = this.snapshot;
+      if (current != null && System.nanoTime() - current.loadedAtNanos < this.ttlNanos) {
+        return current.value;
+      }
+      if (this.pendingLoad == null) {
+        this.pendingLoad = new CompletableFuture<>();
+        loading = true;
+      }
+      load = this.pendingLoad;
+      startGeneration = this.generation;
+    }
+    if (loading) {
+      try {
+        T value = this.loader.get();
+        synchronized (this) {
+          if (this.generation == startGeneration) {
+            this.snapshot = new Snapshot<>(value, System.nanoTime());
+          }
+          if (this.pendingLoad == load) {
+            this.pendingLoad = null;
+          }
+        }
+        load.complete(value);
+        return value;
+      } catch (RuntimeException re) {
+        synchronized (this) {
+          if (this.pendingLoad == load) {
+            this.pendingLoad = null;
+          }
+        }
+        load.completeExceptionally(re);
+        throw re;
+      }
+    }
+    try {
+      return load.join();
+    } catch (CompletionException ce) {
+      throw ce.getCause() instanceof RuntimeException ? (RuntimeException) ce.getCause() : ce;
+    }
+  }
+
+  private static final class Snapshot<T> {
+
+    private final T value;
+
+    private final long loadedAtNanos;
+
+    Snapshot(T value, long loadedAtNanos) {
+      this.value = value;
+      this.loadedAtNanos = loadedAtNanos;
+    }
+  }
+}
@@ -0,0 +1,243 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.codec;
+
+import com.google.springongcp.model.LoggableMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Compact, versioned binary format for {@link LoggableMessage}.
+ *
+ * <p>Layout: {@code MAGIC VERSION FLAGS user body [createdAt] [room]}, where each string is a
+ * varint holding {@code utf8Length + 1} (0 meaning null) followed by its UTF-8 bytes, and
+ * {@code createdAt} is a zig-zag varint of epoch milliseconds in UTC. Optional fields are marked
+ * in {@code FLAGS} and only ever appended, so older readers skip fields they do not know about.
+ * Strings are written straight into the output array, so encoding allocates nothing but the
+ * result.
+ */
+public class BinaryLoggableMessageCodec implements LoggableMessageCodec {
+
+  static final byte MAGIC = (byte) 0xC7;
+
+  static final byte VERSION = 1;
+
+  private static final int HEADER_SIZE = 3;
+
+  private static final int FLAG_CREATED_AT = 1;
+
+  private static final int FLAG_ROOM = 2;
+
+  @Override
+  public byte[] encode(LoggableMessage message) {
+    String user = message.getUser();
+    String body = message.getBody();
+    String room = message.getRoom();
+    int userLength = utf8Length(user);
+    int bodyLength = utf8Length(body);
+    int roomLength = utf8Length(room);
+    boolean hasCreatedAt = message.getCreatedAt() != null;
+    long createdAt = hasCreatedAt ? toEpochMillis(message.getCreatedAt()) : 0L;
+
+    int size = HEADER_SIZE
+        + stringSize(user, userLength)
+        + stringSize(body, bodyLength)
+        + (hasCreatedAt ? varintSize(zigZag(createdAt)) : 0)
+        + stringSize(room, roomLength);
+
+    byte[] out = new byte[size];
+    out[0] = MAGIC;
+    out[1] = VERSION;
+    out[2] = (byte) ((hasCreatedAt ? FLAG_CREATED_AT : 0) | FLAG_ROOM);
+    int pos = writeString(out, HEADER_SIZE, user, userLength);
+    pos = writeString(out, pos, body, bodyLength);
+    if (hasCreatedAt) {
+      pos = writeVarint(out, pos, zigZag(createdAt));
+    }
+    writeString(out, pos, room, roomLength);
+    return out;
+  }
+
+  @Override
+  public LoggableMessage decode(byte[] bytes) {
+    if (!canDecode(bytes)) {
+      throw new IllegalArgumentException("Not a binary LoggableMessage payload.");
+    }
+    if (bytes[1] > VERSION) {
+      throw new IllegalArgumentException("Unsupported LoggableMessage format version " + bytes[1]);
+    }
+    Reader reader = new Reader(bytes, HEADER_SIZE);
+    int flags = bytes[2];
+    String user = reader.readString();
+    String body = reader.readString();
+    LocalDateTime createdAt = (flags & FLAG_CREATED_AT) != 0
+        ? fromEpochMillis(unZigZag(reader.readVarint()))
+        : null;
+    String room = (flags & FLAG_ROOM) != 0 ? reader.readString() : null;
+    return new LoggableMessage(user, body, createdAt, room);
+  }
+
+  @Override
+  public boolean canDecode(byte[] bytes) {
+    return bytes != null && bytes.length >= HEADER_SIZE && bytes[0] == MAGIC;
+  }
+
+  static long toEpochMillis(LocalDateTime dateTime) {
+    return dateTime.toInstant(ZoneOffset.UTC).toEpochMilli();
+  }
+
+  static LocalDateTime fromEpochMillis(long epochMillis) {
+    return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneOffset.UTC);
+  }
+
+  private static int stringSize(String value, int utf8Length) {
+    return value == null ? 1 : varintSize(utf8Length + 1L) + utf8Length;
+  }
+
+  private static int writeString(byte[] out, int pos, String value, int utf8Length) {
+    if (value == null) {
+      out[pos] = 0;
+      return pos + 1;
+    }
+    pos = writeVarint(out, pos, utf8Length + 1L);
+    return writeUtf8(out, pos, value);
+  }
+
+  static int utf8Length(String value) {
+    if (value == null) {
+      return 0;
+    }
+    int length = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        length++;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else if (Character.isSurrogate(c)) {
+        // Unpaired surrogates are replaced with '?', as String.getBytes() does.
+        length++;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  private static int writeUtf8(byte[] out, int pos, String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        out[pos++] = (byte) c;
+      } else if (c < 0x800) {
+        out[pos++] = (byte) (0xC0 | (c >> 6));
+        out[pos++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        out[pos++] = (byte) (0xF0 | (codePoint >> 18));
+        out[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        out[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        out[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        out[pos++] = (byte) '?';
+      } else {
+        out[pos++] = (byte) (0xE0 | (c >> 12));
+        out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        out[pos++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+    return pos;
+  }
+
+  static int varintSize(long value) {
+    int size = 1;
+    while ((value & ~0x7FL) != 0) {
+      value >>>= 7;
+      size++;
+    }
+    return size;
+  }
+
+  static int writeVarint(byte[] out, int pos, long value) {
+    while ((value & ~0x7FL) != 0) {
+      out[pos++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out[pos++] = (byte) value;
+    return pos;
+  }
+
+  private static long zigZag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static long unZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  /**
+   * Cursor over an encoded payload that bounds-checks every read.
+   */
+  private static final class Reader {
+
+    private final byte[] bytes;
+
+    private int pos;
+
+    Reader(byte[] bytes, int pos) {
+      this.bytes = bytes;
+      this.pos = pos;
+    }
+
+    long readVarint() {
+      long result = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        if (this.pos >= this.bytes.length) {
+          throw new IllegalArgumentException("Truncated LoggableMessage payload.");
+        }
+        byte b = this.bytes[this.pos++];
+        result |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return result;
+        }
+      }
+      throw new IllegalArgumentException("Malformed varint in LoggableMessage payload.");
+    }
+
+    String readString() {
+      long encodedLength = readVarint();
+      if (encodedLength == 0) {
+        return null;
+      }
+      long length = encodedLength - 1;
+      if (length < 0 || length > this.bytes.length - this.pos) {
+        throw new IllegalArgumentException("Truncated LoggableMessage payload.");
+      }
+      String value = new String(this.bytes, this.pos, (int) length, StandardCharsets.UTF_8);
+      this.pos += (int) length;
+      return value;
+    }
+  }
+}
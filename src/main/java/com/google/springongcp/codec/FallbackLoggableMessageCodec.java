@@ -0,0 +1,72 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.codec;
+
+import com.google.springongcp.model.LoggableMessage;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encodes with a primary codec and decodes with whichever of the primary or fallback codecs
+ * recognizes the payload.
+ *
+ * <p>Used during rollouts, when consumers may still see payloads written in an older format.
+ */
+public class FallbackLoggableMessageCodec implements LoggableMessageCodec {
+
+  private final LoggableMessageCodec primary;
+
+  private final List<LoggableMessageCodec> fallbacks;
+
+  public FallbackLoggableMessageCodec(LoggableMessageCodec primary,
+      LoggableMessageCodec... fallbacks) {
+    this.primary = primary;
+    this.fallbacks = Arrays.asList(fallbacks);
+  }
+
+  @Override
+  public byte[] encode(LoggableMessage message) {
+    return this.primary.encode(message);
+  }
+
+  @Override
+  public LoggableMessage decode(byte[] bytes) {
+    if (this.primary.canDecode(bytes)) {
+      return this.primary.decode(bytes);
+    }
+    for (LoggableMessageCodec fallback : this.fallbacks) {
+      if (fallback.canDecode(bytes)) {
+        return fallback.decode(bytes);
+      }
+    }
+    throw new IllegalArgumentException("No codec recognizes the LoggableMessage payload.");
+  }
+
+  @Override
+  public boolean canDecode(byte[] bytes) {
+    if (this.primary.canDecode(bytes)) {
+      return true;
+    }
+    for (LoggableMessageCodec fallback : this.fallbacks) {
+      if (fallback.canDecode(bytes)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
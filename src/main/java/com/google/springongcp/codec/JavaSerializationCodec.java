@@ -0,0 +1,103 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.codec;
+
+import com.google.springongcp.model.LoggableMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Legacy {@link java.io.Serializable} format, kept so payloads published before the binary codec
+ * was rolled out can still be read.
+ *
+ * <p>Payloads come off the broker, so only the classes a {@link LoggableMessage} is made of may be
+ * deserialized; a payload naming any other class is refused before that class is loaded.
+ */
+public class JavaSerializationCodec implements LoggableMessageCodec {
+
+  // Strings need no class descriptor, and LocalDateTime is written through java.time.Ser, its
+  // serialization proxy.
+  private static final Set<String> ALLOWED_CLASSES = new HashSet<>(Arrays.asList(
+      LoggableMessage.class.getName(), "java.time.Ser"));
+
+  private static final byte STREAM_MAGIC_HIGH = (byte) 0xAC;
+
+  private static final byte STREAM_MAGIC_LOW = (byte) 0xED;
+
+  @Override
+  public byte[] encode(LoggableMessage message) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(message);
+    } catch (IOException ioe) {
+      throw new IllegalArgumentException("Could not serialize LoggableMessage.", ioe);
+    }
+    return bytes.toByteArray();
+  }
+
+  @Override
+  public LoggableMessage decode(byte[] bytes) {
+    try (ObjectInputStream in = new AllowListObjectInputStream(new ByteArrayInputStream(bytes))) {
+      Object object = in.readObject();
+      if (!(object instanceof LoggableMessage)) {
+        throw new IllegalArgumentException(
+            "Serialized payload is a " + object.getClass().getName() + ", not a LoggableMessage.");
+      }
+      return (LoggableMessage) object;
+    } catch (IOException | ClassNotFoundException e) {
+      throw new IllegalArgumentException("Could not deserialize LoggableMessage.", e);
+    }
+  }
+
+  @Override
+  public boolean canDecode(byte[] bytes) {
+    return bytes != null && bytes.length >= 2
+        && bytes[0] == STREAM_MAGIC_HIGH && bytes[1] == STREAM_MAGIC_LOW;
+  }
+
+  private static final class AllowListObjectInputStream extends ObjectInputStream {
+
+    AllowListObjectInputStream(InputStream in) throws IOException {
+      super(in);
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass descriptor)
+        throws IOException, ClassNotFoundException {
+      if (!ALLOWED_CLASSES.contains(descriptor.getName())) {
+        throw new InvalidClassException(descriptor.getName(),
+            "Not allowed in a serialized LoggableMessage.");
+      }
+      return super.resolveClass(descriptor);
+    }
+
+    @Override
+    protected Class<?> resolveProxyClass(String[] interfaces) throws InvalidClassException {
+      throw new InvalidClassException("Proxies are not allowed in a serialized LoggableMessage.");
+    }
+  }
+}
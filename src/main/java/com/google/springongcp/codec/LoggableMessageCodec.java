@@ -0,0 +1,50 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.codec;
+
+import com.google.springongcp.model.LoggableMessage;
+
+/**
+ * Converts {@link LoggableMessage}s to and from the bytes that travel over a transport.
+ */
+public interface LoggableMessageCodec {
+
+  /**
+   * Encodes a message into a new byte array.
+   *
+   * @param message the message to encode
+   * @return the encoded message
+   */
+  byte[] encode(LoggableMessage message);
+
+  /**
+   * Decodes a message previously produced by {@link #encode(LoggableMessage)}.
+   *
+   * @param bytes the encoded message
+   * @return the decoded message
+   * @throws IllegalArgumentException if the bytes are not in a format this codec understands
+   */
+  LoggableMessage decode(byte[] bytes);
+
+  /**
+   * Checks, without decoding, whether the bytes look like something this codec produced.
+   *
+   * @param bytes the candidate payload
+   * @return true if {@link #decode(byte[])} should be attempted
+   */
+  boolean canDecode(byte[] bytes);
+}
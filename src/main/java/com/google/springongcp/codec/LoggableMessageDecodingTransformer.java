@@ -0,0 +1,43 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.codec;
+
+import org.springframework.integration.transformer.AbstractTransformer;
+import org.springframework.messaging.Message;
+
+/**
+ * Turns byte array payloads the codec recognizes back into
+ * {@link com.google.springongcp.model.LoggableMessage}s. Anything else, such as plain text
+ * messages, is passed through as is.
+ */
+public class LoggableMessageDecodingTransformer extends AbstractTransformer {
+
+  private final LoggableMessageCodec codec;
+
+  public LoggableMessageDecodingTransformer(LoggableMessageCodec codec) {
+    this.codec = codec;
+  }
+
+  @Override
+  protected Object doTransform(Message<?> message) throws Exception {
+    Object payload = message.getPayload();
+    if (payload instanceof byte[] && this.codec.canDecode((byte[]) payload)) {
+      return this.codec.decode((byte[]) payload);
+    }
+    return payload;
+  }
+}
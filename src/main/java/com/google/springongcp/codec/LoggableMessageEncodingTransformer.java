@@ -0,0 +1,51 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.codec;
+
+import com.google.springongcp.model.LoggableMessage;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.integration.transformer.AbstractTransformer;
+import org.springframework.messaging.Message;
+
+/**
+ * Replaces {@link LoggableMessage} payloads with their encoded bytes, leaving any other payload
+ * untouched. The room is kept alongside in the {@link #ROOM_HEADER} header, so later steps can
+ * key on it without decoding.
+ */
+public class LoggableMessageEncodingTransformer extends AbstractTransformer {
+
+  public static final String ROOM_HEADER = "chat_room";
+
+  private final LoggableMessageCodec codec;
+
+  public LoggableMessageEncodingTransformer(LoggableMessageCodec codec) {
+    this.codec = codec;
+  }
+
+  @Override
+  protected Object doTransform(Message<?> message) throws Exception {
+    Object payload = message.getPayload();
+    if (payload instanceof LoggableMessage) {
+      LoggableMessage loggableMessage = (LoggableMessage) payload;
+      return MessageBuilder.withPayload(this.codec.encode(loggableMessage))
+          .copyHeaders(message.getHeaders())
+          .setHeader(ROOM_HEADER, loggableMessage.getRoom())
+          .build();
+    }
+    return payload;
+  }
+}
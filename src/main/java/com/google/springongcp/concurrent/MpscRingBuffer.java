@@ -0,0 +1,121 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.concurrent;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free queue for many producers and a single consumer.
+ *
+ * <p>Each slot carries a sequence number telling producers and the consumer whose turn it is, so
+ * producers only contend on claiming a position, with a compare-and-set, and never block. An
+ * offer to a full buffer fails straight away.
+ */
+public class MpscRingBuffer<E> {
+
+  private final int capacity;
+
+  private final int mask;
+
+  private final AtomicReferenceArray<E> slots;
+
+  private final AtomicLongArray sequences;
+
+  private final AtomicLong tail = new AtomicLong();
+
+  private volatile long head;
+
+  /**
+   * @param capacity the number of elements held, rounded up to a power of two
+   */
+  public MpscRingBuffer(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be positive.");
+    }
+    this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    this.mask = this.capacity - 1;
+    this.slots = new AtomicReferenceArray<>(this.capacity);
+    this.sequences = new AtomicLongArray(this.capacity);
+    for (int i = 0; i < this.capacity; i++) {
+      this.sequences.set(i, i);
+    }
+  }
+
+  /**
+   * Adds an element, from any thread.
+   *
+   * @return false if the buffer is full
+   */
+  public boolean offer(E element) {
+    long position = this.tail.get();
+    while (true) {
+      int index = (int) position & this.mask;
+      long available = this.sequences.get(index) - position;
+      if (available == 0) {
+        if (this.tail.compareAndSet(position, position + 1)) {
+          this.slots.set(index, element);
+          this.sequences.set(index, position + 1);
+          return true;
+        }
+        position = this.tail.get();
+      } else if (available < 0) {
+        return false;
+      } else {
+        position = this.tail.get();
+      }
+    }
+  }
+
+  /**
+   * Moves up to {@code max} elements into {@code target}, in the order they were added. Only the
+   * single consumer thread may call this.
+   *
+   * @return the number of elements moved
+   */
+  public int drainTo(List<? super E> target, int max) {
+    long position = this.head;
+    int drained = 0;
+    while (drained < max) {
+      int index = (int) position & this.mask;
+      if (this.sequences.get(index) != position + 1) {
+        break;
+      }
+      target.add(this.slots.get(index));
+      this.slots.set(index, null);
+      this.sequences.set(index, position + this.capacity);
+      position++;
+      drained++;
+    }
+    this.head = position;
+    return drained;
+  }
+
+  /**
+   * @return the number of elements waiting, possibly slightly stale
+   */
+  public int size() {
+    long size = this.tail.get() - this.head;
+    return (int) Math.max(0, Math.min(size, this.capacity));
+  }
+
+  public int getCapacity() {
+    return this.capacity;
+  }
+}
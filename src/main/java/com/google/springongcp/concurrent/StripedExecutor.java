@@ -0,0 +1,155 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.concurrent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs tasks on a fixed set of single-threaded stripes chosen by key.
+ *
+ * <p>Tasks with the same key always land on the same stripe and so run in submission order, while
+ * tasks with different keys run in parallel. Each stripe has a bounded queue; submitting to a full
+ * stripe blocks the caller, which pushes back on whoever is feeding the executor.
+ */
+public class StripedExecutor {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(StripedExecutor.class);
+
+  private final Stripe[] stripes;
+
+  private volatile boolean shutdown;
+
+  public StripedExecutor(String name, int stripeCount, int queueCapacity) {
+    this.stripes = new Stripe[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      this.stripes[i] = new Stripe(name + "-" + i, queueCapacity);
+      this.stripes[i].thread.start();
+    }
+  }
+
+  /**
+   * Queues a task on the stripe that owns {@code key}, waiting for room if that stripe is full.
+   *
+   * @param key the ordering key; tasks sharing a key run one after the other
+   * @param task the task to run
+   * @throws RejectedExecutionException if the executor is shut down or the caller is interrupted
+   */
+  public void execute(Object key, Runnable task) {
+    if (this.shutdown) {
+      throw new RejectedExecutionException("Executor is shut down.");
+    }
+    try {
+      stripeFor(key).queue.put(task);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new RejectedExecutionException("Interrupted while waiting for stripe capacity.", ie);
+    }
+  }
+
+  /**
+   * @return the number of tasks waiting across all stripes
+   */
+  public int getQueueDepth() {
+    int depth = 0;
+    for (Stripe stripe : this.stripes) {
+      depth += stripe.queue.size();
+    }
+    return depth;
+  }
+
+  /**
+   * @return the number of tasks waiting on the busiest stripe, a sign of a hot key
+   */
+  public int getMaxStripeQueueDepth() {
+    int max = 0;
+    for (Stripe stripe : this.stripes) {
+      max = Math.max(max, stripe.queue.size());
+    }
+    return max;
+  }
+
+  public int getStripeCount() {
+    return this.stripes.length;
+  }
+
+  /**
+   * Stops accepting tasks and waits for the queued ones to finish.
+   */
+  public void shutdown() throws InterruptedException {
+    this.shutdown = true;
+    for (Stripe stripe : this.stripes) {
+      stripe.thread.interrupt();
+    }
+    for (Stripe stripe : this.stripes) {
+      stripe.thread.join(TimeUnit.SECONDS.toMillis(10));
+    }
+  }
+
+  private Stripe stripeFor(Object key) {
+    int hash = key == null ? 0 : key.hashCode();
+    // Spread the high bits, as HashMap does, so keys with similar hash codes do not cluster.
+    hash ^= hash >>> 16;
+    return this.stripes[(hash & Integer.MAX_VALUE) % this.stripes.length];
+  }
+
+  private void runTask(Runnable task) {
+    try {
+      task.run();
+    } catch (RuntimeException re) {
+      LOGGER.warn("Striped task failed.", re);
+    }
+  }
+
+  private final class Stripe {
+
+    private final BlockingQueue<Runnable> queue;
+
+    private final Thread thread;
+
+    Stripe(String threadName, int queueCapacity) {
+      this.queue = new ArrayBlockingQueue<>(queueCapacity);
+      this.thread = new Thread(this::drain, threadName);
+      this.thread.setDaemon(true);
+    }
+
+    private void drain() {
+      while (true) {
+        Runnable task;
+        try {
+          task = this.queue.take();
+        } catch (InterruptedException ie) {
+          if (StripedExecutor.this.shutdown) {
+            break;
+          }
+          continue;
+        }
+        runTask(task);
+      }
+      // Finish whatever was queued before shutdown.
+      Runnable task;
+      while ((task = this.queue.poll()) != null) {
+        runTask(task);
+      }
+    }
+  }
+}
@@ -0,0 +1,249 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.dedup;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers which messages have been processed over a sliding time window, to drop redeliveries.
+ *
+ * <p>The most recent {@code chat.dedup.recent-capacity} fingerprints are kept exactly, which
+ * settles the common case of a redelivery shortly after the original for certain. Older ones, up
+ * to {@code chat.dedup.window-millis}, are answered by a {@link RotatingBloomFilter}: a message it
+ * claims to have seen is dropped, which is wrong for at most
+ * {@code chat.dedup.false-positive-rate} of new messages. Both have a fixed size, so memory and
+ * lookup cost do not depend on volume.
+ *
+ * <p>A message only counts as processed once its handlers succeeded, so a message that failed is
+ * still accepted when it is redelivered. While a message is being processed, other copies of it
+ * are rejected, and told the outcome once it is known.
+ *
+ * <p>If {@code chat.dedup.snapshot-file} is set, the window is saved there whenever a slice ends
+ * and on shutdown, and restored on startup, so a restart does not let every recent redelivery
+ * through.
+ */
+public class DedupIndex implements DisposableBean {
+
+  private static final Log LOGGER = LogFactory.getLog(DedupIndex.class);
+
+  private static final int SNAPSHOT_MAGIC = 0x44445550;
+
+  private static final int SNAPSHOT_VERSION = 1;
+
+  private final RotatingBloomFilter filter;
+
+  private final Map<MessageFingerprint, Boolean> recent;
+
+  private final int recentCapacity;
+
+  // The messages being processed, each with the future completed with its outcome.
+  private final ConcurrentMap<MessageFingerprint, CompletableFuture<Boolean>> inFlight =
+      new ConcurrentHashMap<>();
+
+  private final Path snapshotFile;
+
+  private final ScheduledExecutorService rotationScheduler;
+
+  private final Counter exactDuplicates;
+
+  private final Counter probableDuplicates;
+
+  private final Counter inFlightDuplicates;
+
+  public DedupIndex(DedupProperties properties, String transport, MeterRegistry meterRegistry) {
+    this.filter = RotatingBloomFilter.create(properties, System.currentTimeMillis());
+    this.recentCapacity = properties.getRecentCapacity();
+    this.recent = new LinkedHashMap<MessageFingerprint, Boolean>(16, 0.75f, false) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<MessageFingerprint, Boolean> eldest) {
+        return size() > DedupIndex.this.recentCapacity;
+      }
+    };
+    this.snapshotFile = properties.getSnapshotFile() == null
+        ? null
+        : Paths.get(properties.getSnapshotFile());
+    this.exactDuplicates = duplicates(transport, "exact", meterRegistry);
+    this.probableDuplicates = duplicates(transport, "probable", meterRegistry);
+    this.inFlightDuplicates = duplicates(transport, "in-flight", meterRegistry);
+    if (this.snapshotFile != null) {
+      restoreSnapshot();
+    }
+
+    this.rotationScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "dedup-rotation-" + transport);
+      thread.setDaemon(true);
+      return thread;
+    });
+    long checkMillis = Math.max(1000, Math.min(10000, properties.getWindowMillis() / 100));
+    this.rotationScheduler.scheduleWithFixedDelay(
+        this::rotate, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Claims a message for processing.
+   *
+   * @return null if the message should be processed, and {@link #complete} called once it has
+   *     been; otherwise a future completed with true at once if the message was processed before,
+   *     or with the outcome of the copy of it being processed right now once that is known
+   */
+  public CompletableFuture<Boolean> tryBegin(MessageFingerprint fingerprint) {
+    if (seen(fingerprint)) {
+      return CompletableFuture.completedFuture(true);
+    }
+    CompletableFuture<Boolean> outcome = new CompletableFuture<>();
+    CompletableFuture<Boolean> other = this.inFlight.putIfAbsent(fingerprint, outcome);
+    if (other != null) {
+      this.inFlightDuplicates.increment();
+      return other;
+    }
+    // Another copy may have completed between the check and the claim.
+    if (seen(fingerprint)) {
+      this.inFlight.remove(fingerprint);
+      outcome.complete(true);
+      return outcome;
+    }
+    return null;
+  }
+
+  /**
+   * Releases a message claimed by {@link #tryBegin}.
+   *
+   * @param processed whether the message was handled successfully; if not, it will be accepted
+   *     again when it is redelivered
+   */
+  public void complete(MessageFingerprint fingerprint, boolean processed) {
+    if (processed) {
+      synchronized (this.recent) {
+        this.recent.put(fingerprint, Boolean.TRUE);
+      }
+      this.filter.put(fingerprint);
+    }
+    CompletableFuture<Boolean> outcome = this.inFlight.remove(fingerprint);
+    if (outcome != null) {
+      outcome.complete(processed);
+    }
+  }
+
+  @Override
+  public void destroy() {
+    this.rotationScheduler.shutdownNow();
+    if (this.snapshotFile != null) {
+      saveSnapshot();
+    }
+  }
+
+  private boolean seen(MessageFingerprint fingerprint) {
+    synchronized (this.recent) {
+      if (this.recent.containsKey(fingerprint)) {
+        this.exactDuplicates.increment();
+        return true;
+      }
+    }
+    if (this.filter.mightContain(fingerprint)) {
+      this.probableDuplicates.increment();
+      return true;
+    }
+    return false;
+  }
+
+  private void rotate() {
+    try {
+      if (this.filter.rotateIfDue(System.currentTimeMillis()) && this.snapshotFile != null) {
+        saveSnapshot();
+      }
+    } catch (RuntimeException re) {
+      LOGGER.warn("Failed to rotate the dedup window.", re);
+    }
+  }
+
+  private void saveSnapshot() {
+    try {
+      Path temporary = Files.createTempFile(
+          this.snapshotFile.toAbsolutePath().getParent(), "dedup-", ".tmp");
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(SNAPSHOT_VERSION);
+        this.filter.writeTo(out);
+        synchronized (this.recent) {
+          out.writeInt(this.recent.size());
+          for (MessageFingerprint fingerprint : this.recent.keySet()) {
+            out.writeLong(fingerprint.getHigh());
+            out.writeLong(fingerprint.getLow());
+          }
+        }
+      }
+      Files.move(temporary, this.snapshotFile, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException ioe) {
+      LOGGER.warn("Failed to save the dedup window to " + this.snapshotFile, ioe);
+    }
+  }
+
+  private void restoreSnapshot() {
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(this.snapshotFile)))) {
+      if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION
+          || !this.filter.readFrom(in)) {
+        LOGGER.info("Ignoring dedup snapshot " + this.snapshotFile
+            + ", which was written with different settings.");
+        return;
+      }
+      int count = in.readInt();
+      synchronized (this.recent) {
+        for (int i = 0; i < count; i++) {
+          this.recent.put(new MessageFingerprint(in.readLong(), in.readLong()), Boolean.TRUE);
+        }
+      }
+      this.filter.rotateIfDue(System.currentTimeMillis());
+    } catch (NoSuchFileException nsfe) {
+      // First start.
+    } catch (IOException ioe) {
+      LOGGER.warn("Failed to restore the dedup window from " + this.snapshotFile, ioe);
+    }
+  }
+
+  private static Counter duplicates(String transport, String match, MeterRegistry meterRegistry) {
+    return Counter.builder("chat.dedup.duplicates")
+        .tag("transport", transport)
+        .tag("match", match)
+        .register(meterRegistry);
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.dedup;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Sizing of the {@link DedupIndex}. Memory use depends only on these, not on traffic.
+ */
+@ConfigurationProperties("chat.dedup")
+public class DedupProperties {
+
+  private long windowMillis = 600000;
+
+  private int generations = 4;
+
+  private int expectedMessagesPerWindow = 1000000;
+
+  private double falsePositiveRate = 1e-6;
+
+  private int recentCapacity = 100000;
+
+  private String snapshotFile;
+
+  public long getWindowMillis() {
+    return windowMillis;
+  }
+
+  public void setWindowMillis(long windowMillis) {
+    this.windowMillis = windowMillis;
+  }
+
+  public int getGenerations() {
+    return generations;
+  }
+
+  public void setGenerations(int generations) {
+    this.generations = generations;
+  }
+
+  public int getExpectedMessagesPerWindow() {
+    return expectedMessagesPerWindow;
+  }
+
+  public void setExpectedMessagesPerWindow(int expectedMessagesPerWindow) {
+    this.expectedMessagesPerWindow = expectedMessagesPerWindow;
+  }
+
+  public double getFalsePositiveRate() {
+    return falsePositiveRate;
+  }
+
+  public void setFalsePositiveRate(double falsePositiveRate) {
+    this.falsePositiveRate = falsePositiveRate;
+  }
+
+  public int getRecentCapacity() {
+    return recentCapacity;
+  }
+
+  public void setRecentCapacity(int recentCapacity) {
+    this.recentCapacity = recentCapacity;
+  }
+
+  public String getSnapshotFile() {
+    return snapshotFile;
+  }
+
+  public void setSnapshotFile(String snapshotFile) {
+    this.snapshotFile = snapshotFile;
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.dedup;
+
+import com.google.springongcp.model.LoggableMessage;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * 128-bit hash of a message's ID, or of a chat message's content, used to recognize redeliveries.
+ *
+ * <p>Messages are told apart by their ID where their transport gave them one. For chat messages
+ * without one, the creation time is part of the content, so two messages with the same text are
+ * only considered the same message if they were also created in the same millisecond by the same
+ * user.
+ */
+public final class MessageFingerprint {
+
+  private static final long SEED_1 = 0x9E3779B97F4A7C15L;
+
+  private static final long SEED_2 = 0xC2B2AE3D27D4EB4FL;
+
+  private static final long MULTIPLIER_1 = 0x100000001B3L;
+
+  private static final long MULTIPLIER_2 = 0xFF51AFD7ED558CCDL;
+
+  private final long high;
+
+  private final long low;
+
+  public MessageFingerprint(long high, long low) {
+    this.high = high;
+    this.low = low;
+  }
+
+  public static MessageFingerprint of(LoggableMessage message) {
+    long[] state = {SEED_1, SEED_2};
+    mix(state, message.getUser());
+    mix(state, message.getBody());
+    mix(state, message.getRoom());
+    LocalDateTime createdAt = message.getCreatedAt();
+    mix(state, createdAt == null
+        ? Long.MIN_VALUE
+        : createdAt.toInstant(ZoneOffset.UTC).toEpochMilli());
+    return new MessageFingerprint(finish(state[0]), finish(state[1]));
+  }
+
+  /**
+   * @return the fingerprint of the ID a transport gave a message
+   */
+  public static MessageFingerprint of(String messageId) {
+    long[] state = {SEED_1, SEED_2};
+    mix(state, messageId);
+    return new MessageFingerprint(finish(state[0]), finish(state[1]));
+  }
+
+  public long getHigh() {
+    return this.high;
+  }
+
+  public long getLow() {
+    return this.low;
+  }
+
+  private static void mix(long[] state, String value) {
+    if (value == null) {
+      mix(state, -1L);
+      return;
+    }
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      state[0] = (state[0] ^ c) * MULTIPLIER_1;
+      state[1] = (state[1] ^ c) * MULTIPLIER_2;
+    }
+    // The length separates fields, so ("ab", "c") and ("a", "bc") hash differently.
+    mix(state, value.length());
+  }
+
+  private static void mix(long[] state, long value) {
+    state[0] = (state[0] ^ value) * MULTIPLIER_1;
+    state[1] = Long.rotateLeft(state[1] ^ value, 31) * MULTIPLIER_2;
+  }
+
+  // MurmurHash3's 64-bit finalizer.
+  private static long finish(long h) {
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    h *= 0xC4CEB9FE1A85EC53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof MessageFingerprint)) {
+      return false;
+    }
+    MessageFingerprint that = (MessageFingerprint) o;
+    return this.high == that.high && this.low == that.low;
+  }
+
+  @Override
+  public int hashCode() {
+    return (int) (this.high ^ (this.high >>> 32));
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%016x%016x", this.high, this.low);
+  }
+}
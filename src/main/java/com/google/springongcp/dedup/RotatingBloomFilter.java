@@ -0,0 +1,182 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.dedup;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter over a sliding time window.
+ *
+ * <p>The window is split into equal slices, each with its own fixed-size bit set. Entries go into
+ * the newest slice and lookups check all of them. When the newest slice's time is up, the oldest
+ * is cleared and reused as the newest, so an entry is remembered for at least
+ * {@code (generations - 1)} slices and memory does not grow with traffic.
+ */
+class RotatingBloomFilter {
+
+  private final AtomicLongArray[] generations;
+
+  private final long[] startedAt;
+
+  private final long bitsPerGeneration;
+
+  private final int hashCount;
+
+  private final long sliceMillis;
+
+  private volatile int current;
+
+  RotatingBloomFilter(int generations, long bitsPerGeneration, int hashCount, long sliceMillis,
+      long now) {
+    this.generations = new AtomicLongArray[generations];
+    this.startedAt = new long[generations];
+    int words = (int) ((bitsPerGeneration + 63) / 64);
+    for (int i = 0; i < generations; i++) {
+      this.generations[i] = new AtomicLongArray(words);
+    }
+    this.bitsPerGeneration = (long) words * 64;
+    this.hashCount = hashCount;
+    this.sliceMillis = sliceMillis;
+    this.startedAt[0] = now;
+  }
+
+  /**
+   * Sizes the filter so that lookups across all generations together stay within the configured
+   * false positive rate.
+   */
+  static RotatingBloomFilter create(DedupProperties properties, long now) {
+    int generations = Math.max(2, properties.getGenerations());
+    double perGeneration = Math.max(1, properties.getExpectedMessagesPerWindow() / generations);
+    double rate = properties.getFalsePositiveRate() / generations;
+    long bits = (long) Math.ceil(-perGeneration * Math.log(rate) / (Math.log(2) * Math.log(2)));
+    int hashCount = Math.max(1, (int) Math.round(bits / perGeneration * Math.log(2)));
+    return new RotatingBloomFilter(
+        generations, bits, hashCount, properties.getWindowMillis() / generations, now);
+  }
+
+  boolean mightContain(MessageFingerprint fingerprint) {
+    for (AtomicLongArray generation : this.generations) {
+      if (contains(generation, fingerprint)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  void put(MessageFingerprint fingerprint) {
+    AtomicLongArray generation = this.generations[this.current];
+    for (int i = 0; i < this.hashCount; i++) {
+      long bit = bitIndex(fingerprint, i);
+      int word = (int) (bit >>> 6);
+      long mask = 1L << bit;
+      long value;
+      do {
+        value = generation.get(word);
+      } while ((value & mask) == 0 && !generation.compareAndSet(word, value, value | mask));
+    }
+  }
+
+  /**
+   * Starts new generations for every slice that has ended by {@code now}.
+   *
+   * @return whether anything was rotated
+   */
+  synchronized boolean rotateIfDue(long now) {
+    boolean rotated = false;
+    for (int i = 0; i < this.generations.length
+        && now - this.startedAt[this.current] >= this.sliceMillis; i++) {
+      int next = (this.current + 1) % this.generations.length;
+      AtomicLongArray generation = this.generations[next];
+      for (int word = 0; word < generation.length(); word++) {
+        generation.set(word, 0L);
+      }
+      this.startedAt[next] = this.startedAt[this.current] + this.sliceMillis;
+      this.current = next;
+      rotated = true;
+    }
+    if (now - this.startedAt[this.current] >= this.sliceMillis) {
+      // Idle for longer than the whole window; everything has been cleared.
+      this.startedAt[this.current] = now;
+    }
+    return rotated;
+  }
+
+  synchronized void writeTo(DataOutputStream out) throws IOException {
+    out.writeInt(this.generations.length);
+    out.writeLong(this.bitsPerGeneration);
+    out.writeInt(this.hashCount);
+    out.writeLong(this.sliceMillis);
+    out.writeInt(this.current);
+    for (int i = 0; i < this.generations.length; i++) {
+      out.writeLong(this.startedAt[i]);
+      AtomicLongArray generation = this.generations[i];
+      for (int word = 0; word < generation.length(); word++) {
+        out.writeLong(generation.get(word));
+      }
+    }
+  }
+
+  /**
+   * Restores a filter written by {@link #writeTo}.
+   *
+   * @return false, leaving this filter untouched, if the snapshot was taken with other settings
+   */
+  synchronized boolean readFrom(DataInputStream in) throws IOException {
+    if (in.readInt() != this.generations.length
+        || in.readLong() != this.bitsPerGeneration
+        || in.readInt() != this.hashCount
+        || in.readLong() != this.sliceMillis) {
+      return false;
+    }
+    int savedCurrent = in.readInt();
+    long[] savedStartedAt = new long[this.generations.length];
+    long[][] savedWords = new long[this.generations.length][];
+    for (int i = 0; i < this.generations.length; i++) {
+      savedStartedAt[i] = in.readLong();
+      savedWords[i] = new long[this.generations[i].length()];
+      for (int word = 0; word < savedWords[i].length; word++) {
+        savedWords[i][word] = in.readLong();
+      }
+    }
+    for (int i = 0; i < this.generations.length; i++) {
+      this.startedAt[i] = savedStartedAt[i];
+      for (int word = 0; word < savedWords[i].length; word++) {
+        this.generations[i].set(word, savedWords[i][word]);
+      }
+    }
+    this.current = savedCurrent;
+    return true;
+  }
+
+  private boolean contains(AtomicLongArray generation, MessageFingerprint fingerprint) {
+    for (int i = 0; i < this.hashCount; i++) {
+      long bit = bitIndex(fingerprint, i);
+      if ((generation.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Kirsch-Mitzenmacher: derives every probe from the two halves of the fingerprint.
+  private long bitIndex(MessageFingerprint fingerprint, int i) {
+    return Math.floorMod(fingerprint.getHigh() + i * fingerprint.getLow(), this.bitsPerGeneration);
+  }
+}
@@ -0,0 +1,276 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import com.google.springongcp.concurrent.MpscRingBuffer;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Takes logging off the calling thread. Appending an event only puts it in a ring buffer; a
+ * background thread formats the queued events and ships them in batches to Cloud Logging, a local
+ * file or standard output, according to {@code target}.
+ *
+ * <p>Messages are formatted on the shipping thread, so log with parameters rather than by
+ * concatenating strings, and only pass arguments that are not modified afterwards.
+ *
+ * <p>When the buffer fills up, the least important events go first. TRACE and DEBUG events are
+ * dropped once it is half full, INFO once it is three quarters full, and WARN once it is full.
+ * ERROR events wait up to {@code maxErrorWaitMillis} for room before they are dropped too. Dropped
+ * events are counted per level.
+ */
+public class AsyncBatchingAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+  public static final String TARGET_CLOUD = "cloud";
+
+  public static final String TARGET_FILE = "file";
+
+  public static final String TARGET_CONSOLE = "console";
+
+  private static final Level[] LEVELS =
+      {Level.TRACE, Level.DEBUG, Level.INFO, Level.WARN, Level.ERROR};
+
+  private String target = TARGET_CONSOLE;
+
+  private String file;
+
+  private String logName = "gae_app.log";
+
+  private String pattern = "%d{yyyy-MM-dd HH:mm:ss.SSS} %5level [%thread] %logger : %msg%n";
+
+  private int bufferSize = 8192;
+
+  private int batchSize = 500;
+
+  private long lingerMillis = 100;
+
+  private long maxErrorWaitMillis = 100;
+
+  private final LongAdder[] dropped = new LongAdder[LEVELS.length];
+
+  private final LongAdder shipped = new LongAdder();
+
+  private final LongAdder failed = new LongAdder();
+
+  private MpscRingBuffer<ILoggingEvent> buffer;
+
+  private LogShipper shipper;
+
+  private Thread shippingThread;
+
+  private volatile boolean running;
+
+  public AsyncBatchingAppender() {
+    for (int i = 0; i < this.dropped.length; i++) {
+      this.dropped[i] = new LongAdder();
+    }
+  }
+
+  @Override
+  public void start() {
+    PatternLayout layout = new PatternLayout();
+    layout.setContext(getContext());
+    layout.setPattern(this.pattern);
+    layout.start();
+    try {
+      this.shipper = createShipper(layout);
+    } catch (Exception e) {
+      addError("Cannot ship logs to " + this.target + ", writing them to standard output.", e);
+      this.shipper = new StreamLogShipper(layout, System.out, false);
+    }
+    this.buffer = new MpscRingBuffer<>(this.bufferSize);
+    this.running = true;
+    this.shippingThread = new Thread(this::shipUntilStopped, "chat-log-shipper");
+    this.shippingThread.setDaemon(true);
+    this.shippingThread.start();
+    super.start();
+  }
+
+  @Override
+  public void stop() {
+    if (!isStarted()) {
+      return;
+    }
+    super.stop();
+    this.running = false;
+    LockSupport.unpark(this.shippingThread);
+    try {
+      this.shippingThread.join(TimeUnit.SECONDS.toMillis(10));
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+    try {
+      this.shipper.close();
+    } catch (Exception e) {
+      addError("Failed to close the log shipper.", e);
+    }
+  }
+
+  @Override
+  protected void append(ILoggingEvent event) {
+    // Captured now, as the shipping thread would otherwise see its own.
+    event.getThreadName();
+    event.getMDCPropertyMap();
+    if (!enqueue(event)) {
+      this.dropped[levelIndex(event.getLevel())].increment();
+    }
+  }
+
+  private boolean enqueue(ILoggingEvent event) {
+    int level = event.getLevel().toInt();
+    int depth = this.buffer.size();
+    int capacity = this.buffer.getCapacity();
+    if (level < Level.INFO_INT && depth >= capacity / 2
+        || level == Level.INFO_INT && depth >= capacity / 4 * 3) {
+      return false;
+    }
+    if (this.buffer.offer(event)) {
+      return true;
+    }
+    if (level < Level.ERROR_INT) {
+      return false;
+    }
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.maxErrorWaitMillis);
+    while (System.nanoTime() - deadline < 0) {
+      LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+      if (this.buffer.offer(event)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void shipUntilStopped() {
+    List<ILoggingEvent> batch = new ArrayList<>(this.batchSize);
+    long lingerNanos = TimeUnit.MILLISECONDS.toNanos(this.lingerMillis);
+    while (this.running) {
+      // Events queued while this thread ships or waits make up the next batch.
+      if (this.buffer.drainTo(batch, this.batchSize) == 0) {
+        LockSupport.parkNanos(lingerNanos);
+        continue;
+      }
+      ship(batch);
+    }
+    while (this.buffer.drainTo(batch, this.batchSize) > 0) {
+      ship(batch);
+    }
+  }
+
+  private void ship(List<ILoggingEvent> batch) {
+    try {
+      this.shipper.ship(batch);
+      this.shipped.add(batch.size());
+    } catch (Exception e) {
+      this.failed.add(batch.size());
+      addError("Failed to ship " + batch.size() + " log events.", e);
+    } finally {
+      batch.clear();
+    }
+  }
+
+  private LogShipper createShipper(PatternLayout layout) throws IOException {
+    switch (this.target) {
+      case TARGET_CLOUD:
+        return new CloudLoggingShipper(layout, this.logName);
+      case TARGET_FILE:
+        return new StreamLogShipper(layout, new FileOutputStream(this.file, true), true);
+      case TARGET_CONSOLE:
+        return new StreamLogShipper(layout, System.out, false);
+      default:
+        throw new IllegalArgumentException("Unknown log target " + this.target);
+    }
+  }
+
+  private static int levelIndex(Level level) {
+    switch (level.toInt()) {
+      case Level.TRACE_INT:
+        return 0;
+      case Level.DEBUG_INT:
+        return 1;
+      case Level.INFO_INT:
+        return 2;
+      case Level.WARN_INT:
+        return 3;
+      default:
+        return 4;
+    }
+  }
+
+  /**
+   * @return the number of events of a level dropped because the buffer was too full
+   */
+  public long getDropped(Level level) {
+    return this.dropped[levelIndex(level)].sum();
+  }
+
+  public long getShipped() {
+    return this.shipped.sum();
+  }
+
+  /**
+   * @return the number of events lost because shipping their batch failed
+   */
+  public long getFailed() {
+    return this.failed.sum();
+  }
+
+  public int getBufferDepth() {
+    return this.buffer == null ? 0 : this.buffer.size();
+  }
+
+  public void setTarget(String target) {
+    this.target = target;
+  }
+
+  public void setFile(String file) {
+    this.file = file;
+  }
+
+  public void setLogName(String logName) {
+    this.logName = logName;
+  }
+
+  public void setPattern(String pattern) {
+    this.pattern = pattern;
+  }
+
+  public void setBufferSize(int bufferSize) {
+    this.bufferSize = bufferSize;
+  }
+
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  public void setLingerMillis(long lingerMillis) {
+    this.lingerMillis = lingerMillis;
+  }
+
+  public void setMaxErrorWaitMillis(long maxErrorWaitMillis) {
+    this.maxErrorWaitMillis = maxErrorWaitMillis;
+  }
+}
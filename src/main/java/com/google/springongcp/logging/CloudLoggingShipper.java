@@ -0,0 +1,85 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Layout;
+import com.google.cloud.MonitoredResource;
+import com.google.cloud.logging.LogEntry;
+import com.google.cloud.logging.Logging;
+import com.google.cloud.logging.Logging.WriteOption;
+import com.google.cloud.logging.LoggingOptions;
+import com.google.cloud.logging.MonitoredResourceUtil;
+import com.google.cloud.logging.Payload.StringPayload;
+import com.google.cloud.logging.Severity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sends events to Cloud Logging, one write call per batch rather than one per event.
+ */
+class CloudLoggingShipper implements LogShipper {
+
+  private final Layout<ILoggingEvent> layout;
+
+  private final Logging logging;
+
+  private final WriteOption[] writeOptions;
+
+  CloudLoggingShipper(Layout<ILoggingEvent> layout, String logName) {
+    this.layout = layout;
+    LoggingOptions options = LoggingOptions.getDefaultInstance();
+    this.logging = options.getService();
+    MonitoredResource resource = MonitoredResourceUtil.getResource(options.getProjectId(), null);
+    this.writeOptions = new WriteOption[] {
+        WriteOption.logName(logName), WriteOption.resource(resource)};
+  }
+
+  @Override
+  public void ship(List<ILoggingEvent> events) {
+    List<LogEntry> entries = new ArrayList<>(events.size());
+    for (ILoggingEvent event : events) {
+      entries.add(LogEntry.newBuilder(StringPayload.of(this.layout.doLayout(event)))
+          .setSeverity(severity(event.getLevel()))
+          .setTimestamp(event.getTimeStamp())
+          .addLabel("levelName", event.getLevel().toString())
+          .addLabel("loggerName", event.getLoggerName())
+          .build());
+    }
+    this.logging.write(entries, this.writeOptions);
+  }
+
+  @Override
+  public void close() throws Exception {
+    this.logging.close();
+  }
+
+  private static Severity severity(Level level) {
+    switch (level.toInt()) {
+      case Level.ERROR_INT:
+        return Severity.ERROR;
+      case Level.WARN_INT:
+        return Severity.WARNING;
+      case Level.INFO_INT:
+        return Severity.INFO;
+      default:
+        return Severity.DEBUG;
+    }
+  }
+}
@@ -0,0 +1,33 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.logging;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Final destination of the events queued by {@link AsyncBatchingAppender}. Only ever called from
+ * the appender's shipping thread.
+ */
+interface LogShipper {
+
+  void ship(List<ILoggingEvent> events) throws IOException;
+
+  void close() throws Exception;
+}
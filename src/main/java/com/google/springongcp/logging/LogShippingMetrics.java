@@ -0,0 +1,75 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+
+/**
+ * Exposes the state of every {@link AsyncBatchingAppender} attached to the root logger:
+ * {@code chat.log.dropped} per level, {@code chat.log.shipped}, {@code chat.log.failed} and
+ * {@code chat.log.buffer.depth}, each tagged with the appender name.
+ */
+public class LogShippingMetrics implements MeterBinder {
+
+  private static final Level[] LEVELS =
+      {Level.TRACE, Level.DEBUG, Level.INFO, Level.WARN, Level.ERROR};
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    if (!(LoggerFactory.getILoggerFactory() instanceof LoggerContext)) {
+      return;
+    }
+    Logger root = ((LoggerContext) LoggerFactory.getILoggerFactory())
+        .getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
+    for (Iterator<Appender<ILoggingEvent>> it = root.iteratorForAppenders(); it.hasNext(); ) {
+      Appender<ILoggingEvent> appender = it.next();
+      if (appender instanceof AsyncBatchingAppender) {
+        bind((AsyncBatchingAppender) appender, registry);
+      }
+    }
+  }
+
+  private static void bind(AsyncBatchingAppender appender, MeterRegistry registry) {
+    String name = appender.getName();
+    for (Level level : LEVELS) {
+      FunctionCounter.builder("chat.log.dropped", appender, a -> a.getDropped(level))
+          .tag("appender", name)
+          .tag("level", level.toString())
+          .register(registry);
+    }
+    FunctionCounter.builder("chat.log.shipped", appender, AsyncBatchingAppender::getShipped)
+        .tag("appender", name)
+        .register(registry);
+    FunctionCounter.builder("chat.log.failed", appender, AsyncBatchingAppender::getFailed)
+        .tag("appender", name)
+        .register(registry);
+    Gauge.builder("chat.log.buffer.depth", appender, AsyncBatchingAppender::getBufferDepth)
+        .tag("appender", name)
+        .register(registry);
+  }
+}
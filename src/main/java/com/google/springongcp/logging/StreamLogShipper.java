@@ -0,0 +1,64 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.logging;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Layout;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Writes formatted events to standard output or a local file, the stand-in for Cloud Logging
+ * outside App Engine. A batch is flushed with a single write.
+ */
+class StreamLogShipper implements LogShipper {
+
+  private final Layout<ILoggingEvent> layout;
+
+  private final Writer writer;
+
+  private final boolean closeStream;
+
+  StreamLogShipper(Layout<ILoggingEvent> layout, OutputStream out, boolean closeStream) {
+    this.layout = layout;
+    this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 65536);
+    this.closeStream = closeStream;
+  }
+
+  @Override
+  public void ship(List<ILoggingEvent> events) throws IOException {
+    for (ILoggingEvent event : events) {
+      this.writer.write(this.layout.doLayout(event));
+    }
+    this.writer.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (this.closeStream) {
+      this.writer.close();
+    } else {
+      this.writer.flush();
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.integration.support.context.NamedComponent;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.ChannelInterceptorAdapter;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times every send on the channels it intercepts, as {@code chat.channel.send} tagged with the
+ * channel name and whether the send succeeded. On a {@code DirectChannel} the send runs the
+ * subscribed endpoint, so this is also that endpoint's handling time.
+ */
+public class ChannelMetricsInterceptor extends ChannelInterceptorAdapter {
+
+  // Sends on direct channels nest, so each thread keeps a stack of start times.
+  private static final ThreadLocal<StartTimes> START_TIMES =
+      ThreadLocal.withInitial(StartTimes::new);
+
+  private final MeterRegistry meterRegistry;
+
+  private final ConcurrentMap<MessageChannel, Timer[]> timers = new ConcurrentHashMap<>();
+
+  public ChannelMetricsInterceptor(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  @Override
+  public Message<?> preSend(Message<?> message, MessageChannel channel) {
+    START_TIMES.get().push(System.nanoTime());
+    return message;
+  }
+
+  @Override
+  public void afterSendCompletion(Message<?> message, MessageChannel channel, boolean sent,
+      Exception ex) {
+    long elapsed = System.nanoTime() - START_TIMES.get().pop();
+    Timer[] channelTimers = this.timers.computeIfAbsent(channel, this::createTimers);
+    channelTimers[sent && ex == null ? 0 : 1].record(elapsed, TimeUnit.NANOSECONDS);
+  }
+
+  private Timer[] createTimers(MessageChannel channel) {
+    String name = channel instanceof NamedComponent
+        ? ((NamedComponent) channel).getComponentName()
+        : channel.toString();
+    return new Timer[] {
+        Timer.builder("chat.channel.send").tag("channel", String.valueOf(name))
+            .tag("result", "success").register(this.meterRegistry),
+        Timer.builder("chat.channel.send").tag("channel", String.valueOf(name))
+            .tag("result", "failure").register(this.meterRegistry)};
+  }
+
+  private static final class StartTimes {
+
+    private long[] values = new long[8];
+
+    private int size;
+
+    void push(long value) {
+      if (this.size == this.values.length) {
+        long[] grown = new long[this.size * 2];
+        System.arraycopy(this.values, 0, grown, 0, this.size);
+        this.values = grown;
+      }
+      this.values[this.size++] = value;
+    }
+
+    long pop() {
+      return this.values[--this.size];
+    }
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.metrics;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Thresholds for {@link SlowRequestFilter}.
+ */
+@ConfigurationProperties("chat.metrics")
+public class MetricsProperties {
+
+  private long slowRequestMillis = 500;
+
+  private int maxSlowRequestsPerSecond = 5;
+
+  public long getSlowRequestMillis() {
+    return slowRequestMillis;
+  }
+
+  public void setSlowRequestMillis(long slowRequestMillis) {
+    this.slowRequestMillis = slowRequestMillis;
+  }
+
+  public int getMaxSlowRequestsPerSecond() {
+    return maxSlowRequestsPerSecond;
+  }
+
+  public void setMaxSlowRequestsPerSecond(int maxSlowRequestsPerSecond) {
+    this.maxSlowRequestsPerSecond = maxSlowRequestsPerSecond;
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.slf4j.MDC;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Keeps a record of the requests worth tracing: those that failed, or took longer than
+ * {@code chat.metrics.slow-request-millis}.
+ *
+ * <p>Trace sampling is decided when a request starts, before anyone knows how it will end, so only
+ * a small share of traces is sampled. This filter logs the rest of the interesting ones with their
+ * trace ID, at most {@code chat.metrics.max-slow-requests-per-second} a second, and counts all of
+ * them in {@code chat.http.slow.requests}.
+ */
+public class SlowRequestFilter extends OncePerRequestFilter {
+
+  private static final Log LOGGER = LogFactory.getLog(SlowRequestFilter.class);
+
+  private final long slowRequestNanos;
+
+  private final int maxLoggedPerSecond;
+
+  private final Counter slowRequests;
+
+  private long currentSecond;
+
+  private int loggedThisSecond;
+
+  public SlowRequestFilter(MetricsProperties properties, MeterRegistry meterRegistry) {
+    this.slowRequestNanos = TimeUnit.MILLISECONDS.toNanos(properties.getSlowRequestMillis());
+    this.maxLoggedPerSecond = properties.getMaxSlowRequestsPerSecond();
+    this.slowRequests = Counter.builder("chat.http.slow.requests").register(meterRegistry);
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+      FilterChain filterChain) throws ServletException, IOException {
+    long start = System.nanoTime();
+    Throwable failure = null;
+    try {
+      filterChain.doFilter(request, response);
+    } catch (IOException | ServletException | RuntimeException e) {
+      failure = e;
+      throw e;
+    } finally {
+      long elapsed = System.nanoTime() - start;
+      boolean failed = failure != null || response.getStatus() >= 500;
+      if (failed || elapsed >= this.slowRequestNanos) {
+        this.slowRequests.increment();
+        if (tryLog()) {
+          LOGGER.warn((failed ? "Failed" : "Slow") + " request " + request.getMethod() + " "
+              + request.getRequestURI() + " -> " + response.getStatus() + " in "
+              + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms, trace " + traceId(), failure);
+        }
+      }
+    }
+  }
+
+  private synchronized boolean tryLog() {
+    long second = System.currentTimeMillis() / 1000;
+    if (second != this.currentSecond) {
+      this.currentSecond = second;
+      this.loggedThisSecond = 0;
+    }
+    return this.loggedThisSecond++ < this.maxLoggedPerSecond;
+  }
+
+  private static String traceId() {
+    // The MDC key depends on the Sleuth version.
+    String traceId = MDC.get("X-B3-TraceId");
+    return traceId != null ? traceId : MDC.get("traceId");
+  }
+}
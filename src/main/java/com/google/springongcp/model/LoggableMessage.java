@@ -7,14 +7,35 @@ import java.time.LocalDateTime;
  * Created by joaomartins on 4/28/17.
  */
 public class LoggableMessage implements Serializable {
+  // Pinned to the value the JVM computed before the binary codec existed, so payloads that were
+  // Java-serialized by older publishers keep deserializing as fields are added.
+  private static final long serialVersionUID = -7245420570185105020L;
+
+  /**
+   * Room of messages that were sent without one, including every message published before rooms
+   * existed.
+   */
+  public static final String DEFAULT_ROOM = "lobby";
+
+  /**
+   * The longest room name, as wide as the {@code room} column of the chat history table.
+   */
+  public static final int MAX_ROOM_LENGTH = 64;
+
   private String user;
   private String body;
   private LocalDateTime createdAt;
+  private String room;
 
   public LoggableMessage(String user, String body, LocalDateTime createdAt) {
+    this(user, body, createdAt, DEFAULT_ROOM);
+  }
+
+  public LoggableMessage(String user, String body, LocalDateTime createdAt, String room) {
     this.user = user;
     this.body = body;
     this.createdAt = createdAt;
+    this.room = room;
   }
 
   public String getUser() {
@@ -40,4 +61,12 @@ public class LoggableMessage implements Serializable {
   public void setCreatedAt(LocalDateTime createdAt) {
     this.createdAt = createdAt;
   }
+
+  public String getRoom() {
+    return room != null ? room : DEFAULT_ROOM;
+  }
+
+  public void setRoom(String room) {
+    this.room = room;
+  }
 }
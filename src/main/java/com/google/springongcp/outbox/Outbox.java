@@ -0,0 +1,536 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.outbox;
+
+import com.google.springongcp.codec.LoggableMessageEncodingTransformer;
+import com.google.springongcp.transport.ChatTransport;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.MessageHandlingException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Durable hand-off between the messaging gateway and the {@link ChatTransport}.
+ *
+ * <p>{@link #append(Message)} writes the encoded message to a local {@link OutboxLog} and returns
+ * once the log has synced it to disk, so senders are answered quickly whatever the state of the
+ * broker, and an accepted message survives a restart.
+ *
+ * <p>A relay thread reads the log in batches and sends them over the transport. Records with the
+ * same key, the chat room, are sent in log order. When a send fails, its key is parked: the first
+ * failed record and all the key's later ones, including those read meanwhile, are sent again
+ * after an exponential backoff, while other keys carry on. Only their positions are kept in
+ * memory, and the records are read from the log again for each retry; once
+ * {@code chat.outbox.max-parked-records} are parked, the relay stops reading further until some
+ * of them have gone through. A key that still fails
+ * after {@code chat.outbox.max-attempts} attempts has its records moved to a dead-letter log in
+ * the {@code dead-letter} directory under the outbox, and counted in
+ * {@code chat.outbox.dead.letters}. Only failures while other sends get through count as
+ * attempts: while every send fails, the broker is taken to be down rather than the messages to be
+ * bad, and they wait for it however long it takes. {@link #replayDeadLetters()} moves
+ * dead-lettered records back into the log once whatever stopped them has been fixed.
+ *
+ * <p>The relay records its position in a checkpoint file, and deletes the segments behind it, up
+ * to the first record not delivered yet: that of the earliest parked key, or else the end of what
+ * it has read.
+ *
+ * <p>Delivery is at least once: a message whose send timed out but got through, or that was sent
+ * again after a restart because the checkpoint was behind it, arrives twice, and is dropped by the
+ * receiving node's dedup index. That recognizes it by the ID the relay sends each record with:
+ * the record's position, after an ID made up for the outbox when its directory was created.
+ */
+public class Outbox implements DisposableBean {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(Outbox.class);
+
+  private static final String CHECKPOINT_FILE = "checkpoint";
+
+  private static final String ID_FILE = "id";
+
+  private static final String DEAD_LETTER_DIRECTORY = "dead-letter";
+
+  private static final String DEAD_LETTER_CHECKPOINT_FILE = "dead-letter-checkpoint";
+
+  private final OutboxLog log;
+
+  private final OutboxLog deadLetters;
+
+  private final ChatTransport transport;
+
+  private final OutboxProperties properties;
+
+  private final String id;
+
+  private final FileChannel checkpoint;
+
+  private final FileChannel deadLetterCheckpoint;
+
+  private final Object replayLock = new Object();
+
+  private final Thread relayThread;
+
+  private final Timer appendTimer;
+
+  private final Counter retries;
+
+  private final Counter deadLettered;
+
+  private final Counter dropped;
+
+  // Keys whose sends failed, with the positions of the records waiting to be sent again; only the
+  // relay thread touches them.
+  private final Map<String, ParkedKey> parked = new LinkedHashMap<>();
+
+  private long readPosition;
+
+  // When a send last got through; only the relay thread touches it.
+  private long lastDeliveredNanos = System.nanoTime();
+
+  private volatile long relayedPosition;
+
+  private volatile boolean running = true;
+
+  public Outbox(OutboxProperties properties, ChatTransport transport, MeterRegistry meterRegistry)
+      throws IOException {
+    Path directory = Paths.get(properties.getDirectory());
+    this.log = OutboxLog.open(directory, properties.getSegmentBytes(),
+        properties.getMaxSegments());
+    this.transport = transport;
+    this.properties = properties;
+    this.id = readOrCreateId(directory.resolve(ID_FILE));
+    this.checkpoint = FileChannel.open(directory.resolve(CHECKPOINT_FILE),
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    this.deadLetters = OutboxLog.open(directory.resolve(DEAD_LETTER_DIRECTORY),
+        properties.getSegmentBytes(), properties.getMaxSegments());
+    this.deadLetterCheckpoint = FileChannel.open(directory.resolve(DEAD_LETTER_CHECKPOINT_FILE),
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    this.relayedPosition = Math.max(readCheckpoint(this.checkpoint), this.log.getStartPosition());
+    this.readPosition = this.relayedPosition;
+    this.appendTimer = Timer.builder("chat.outbox.append")
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+    this.retries = Counter.builder("chat.outbox.relay.retries").register(meterRegistry);
+    this.deadLettered = Counter.builder("chat.outbox.dead.letters").register(meterRegistry);
+    this.dropped = Counter.builder("chat.outbox.dropped").register(meterRegistry);
+    Gauge.builder("chat.outbox.backlog.bytes", this, Outbox::getBacklogBytes)
+        .register(meterRegistry);
+    Gauge.builder("chat.outbox.segments", this.log, OutboxLog::getSegmentCount)
+        .register(meterRegistry);
+    this.relayThread = new Thread(this::relayLoop, "chat-outbox-relay");
+    this.relayThread.setDaemon(true);
+    this.relayThread.start();
+  }
+
+  /**
+   * Writes an encoded message to the outbox, keyed by its room, and waits until it is on disk.
+   *
+   * @param message the message, with a String or byte array payload
+   * @throws MessageDeliveryException if the message could not be written in time
+   */
+  public void append(Message<?> message) {
+    Object payload = message.getPayload();
+    if (!(payload instanceof byte[]) && !(payload instanceof String)) {
+      throw new MessageHandlingException(message,
+          "Unsupported payload type " + payload.getClass().getName()
+              + "; encode it to a String or byte[] before publishing.");
+    }
+    String key = message.getHeaders().get(LoggableMessageEncodingTransformer.ROOM_HEADER,
+        String.class);
+    long start = System.nanoTime();
+    try {
+      this.log.append(key != null ? key : "", payload)
+          .get(this.properties.getAppendTimeoutMillis(), TimeUnit.MILLISECONDS);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new MessageDeliveryException(message, "Interrupted writing to the outbox", ie);
+    } catch (IOException | RuntimeException | ExecutionException | TimeoutException e) {
+      throw new MessageDeliveryException(message, "Failed to write to the outbox", e);
+    } finally {
+      this.appendTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * @return how many bytes of the log have not been relayed yet
+   */
+  public long getBacklogBytes() {
+    return this.log.getEndPosition() - this.relayedPosition;
+  }
+
+  /**
+   * Moves every dead-lettered record back into the log, behind the records waiting there, for the
+   * relay to send again. Records replayed before a failure are not replayed again next time.
+   *
+   * @return how many records were replayed
+   * @throws IOException if the log could not take a record in time, for instance because it is full
+   */
+  public int replayDeadLetters() throws IOException, InterruptedException {
+    synchronized (this.replayLock) {
+      long position = Math.max(readCheckpoint(this.deadLetterCheckpoint),
+          this.deadLetters.getStartPosition());
+      int replayed = 0;
+      List<OutboxRecord> batch;
+      while (!(batch = this.deadLetters.read(position, this.properties.getRelayBatchSize()))
+          .isEmpty()) {
+        List<CompletableFuture<Long>> appends = new ArrayList<>(batch.size());
+        for (OutboxRecord record : batch) {
+          appends.add(this.log.append(record.getKey(), record.getPayload()));
+        }
+        try {
+          CompletableFuture.allOf(appends.toArray(new CompletableFuture<?>[0]))
+              .get(this.properties.getAppendTimeoutMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+          throw new IOException("Failed to replay dead-lettered outbox messages; "
+              + replayed + " were replayed", e);
+        }
+        replayed += batch.size();
+        position = batch.get(batch.size() - 1).getNextPosition();
+        writeCheckpoint(this.deadLetterCheckpoint, position);
+        this.deadLetters.deleteBefore(position);
+      }
+      LOGGER.info("Replayed {} dead-lettered outbox messages.", replayed);
+      return replayed;
+    }
+  }
+
+  @Override
+  public void destroy() throws IOException, InterruptedException {
+    this.running = false;
+    this.relayThread.interrupt();
+    this.relayThread.join(this.properties.getSendTimeoutMillis());
+    this.log.close();
+    this.deadLetters.close();
+    this.checkpoint.close();
+    this.deadLetterCheckpoint.close();
+  }
+
+  private void relayLoop() {
+    while (this.running) {
+      try {
+        // Past the cap, records stay in the log until parked ones go through.
+        boolean full = parkedRecordCount() >= this.properties.getMaxParkedRecords();
+        List<OutboxRecord> batch = full ? Collections.emptyList()
+            : this.log.read(this.readPosition, this.properties.getRelayBatchSize());
+        if (!batch.isEmpty()) {
+          relay(batch);
+          this.readPosition = batch.get(batch.size() - 1).getNextPosition();
+        }
+        retryDue();
+        advanceCheckpoint();
+        if (full) {
+          Thread.sleep(millisUntilNextRetry());
+        } else if (batch.isEmpty()) {
+          this.log.awaitSynced(this.readPosition, millisUntilNextRetry());
+        }
+      } catch (InterruptedException ie) {
+        return;
+      } catch (IOException | RuntimeException e) {
+        LOGGER.error("Outbox relay failed; retrying", e);
+        try {
+          Thread.sleep(this.properties.getRetryMaxMillis());
+        } catch (InterruptedException ie) {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Sends the records of a newly read batch. Records of a key that is parked join the end of its
+   * queue instead, to keep the key's order; keys whose sends fail are parked.
+   */
+  private void relay(List<OutboxRecord> batch) throws InterruptedException {
+    long start = System.nanoTime();
+    List<OutboxRecord> sendable = new ArrayList<>(batch.size());
+    for (OutboxRecord record : batch) {
+      ParkedKey parkedKey = this.parked.get(record.getKey());
+      if (parkedKey != null) {
+        parkedKey.positions.add(record.getPosition());
+      } else {
+        sendable.add(record);
+      }
+    }
+    Map<String, List<OutboxRecord>> failures = sendAll(sendable);
+    long attemptedAt = System.nanoTime();
+    boolean counted = deliveredSince(start);
+    for (Map.Entry<String, List<OutboxRecord>> failed : failures.entrySet()) {
+      ParkedKey parkedKey = new ParkedKey(positions(failed.getValue()), counted ? 1 : 0,
+          attemptedAt);
+      this.parked.put(failed.getKey(), parkedKey);
+      reschedule(failed.getKey(), parkedKey);
+    }
+  }
+
+  /**
+   * Reads back and sends the records of every parked key whose backoff has run out. A key whose
+   * records all go through is released; one that still fails is parked again, or dead-lettered
+   * once it has used up {@code chat.outbox.max-attempts}. A failure only counts as an attempt if
+   * some send got through since the key's last one, so an outage of the broker dead-letters
+   * nothing.
+   */
+  private void retryDue() throws InterruptedException {
+    long now = System.nanoTime();
+    List<OutboxRecord> due = new ArrayList<>();
+    List<String> dueKeys = new ArrayList<>();
+    for (Map.Entry<String, ParkedKey> entry : this.parked.entrySet()) {
+      if (now - entry.getValue().nextAttemptNanos >= 0) {
+        dueKeys.add(entry.getKey());
+        for (long position : entry.getValue().positions) {
+          due.add(this.log.read(position));
+        }
+      }
+    }
+    if (due.isEmpty()) {
+      return;
+    }
+    this.retries.increment(due.size());
+    Map<String, List<OutboxRecord>> failed = sendAll(due);
+    long attemptedAt = System.nanoTime();
+    for (String key : dueKeys) {
+      ParkedKey parkedKey = this.parked.get(key);
+      List<OutboxRecord> remaining = failed.get(key);
+      if (remaining == null) {
+        this.parked.remove(key);
+        continue;
+      }
+      parkedKey.positions = positions(remaining);
+      parkedKey.failures++;
+      if (deliveredSince(parkedKey.lastAttemptNanos)) {
+        parkedKey.attempts++;
+      }
+      parkedKey.lastAttemptNanos = attemptedAt;
+      if (parkedKey.attempts >= this.properties.getMaxAttempts()) {
+        this.parked.remove(key);
+        deadLetter(key, remaining);
+      } else {
+        reschedule(key, parkedKey);
+      }
+    }
+  }
+
+  /**
+   * Sends records, waiting for all of them within the send timeout.
+   *
+   * @return for each key with a failed send, its first failed record and every later one
+   */
+  private Map<String, List<OutboxRecord>> sendAll(List<OutboxRecord> records)
+      throws InterruptedException {
+    List<CompletableFuture<?>> sends = new ArrayList<>(records.size());
+    for (OutboxRecord record : records) {
+      sends.add(send(record));
+    }
+    awaitQuietly(sends);
+
+    Map<String, List<OutboxRecord>> failed = new LinkedHashMap<>();
+    boolean delivered = false;
+    for (int i = 0; i < records.size(); i++) {
+      OutboxRecord record = records.get(i);
+      CompletableFuture<?> send = sends.get(i);
+      boolean sent = send.isDone() && !send.isCompletedExceptionally();
+      delivered |= sent;
+      List<OutboxRecord> failedRecords = failed.get(record.getKey());
+      if (failedRecords == null && !sent) {
+        failedRecords = new ArrayList<>();
+        failed.put(record.getKey(), failedRecords);
+      }
+      if (failedRecords != null) {
+        failedRecords.add(record);
+      }
+    }
+    if (delivered) {
+      this.lastDeliveredNanos = System.nanoTime();
+    }
+    return failed;
+  }
+
+  private static List<Long> positions(List<OutboxRecord> records) {
+    List<Long> positions = new ArrayList<>(records.size());
+    for (OutboxRecord record : records) {
+      positions.add(record.getPosition());
+    }
+    return positions;
+  }
+
+  private int parkedRecordCount() {
+    int count = 0;
+    for (ParkedKey parkedKey : this.parked.values()) {
+      count += parkedKey.positions.size();
+    }
+    return count;
+  }
+
+  private boolean deliveredSince(long nanos) {
+    return this.lastDeliveredNanos - nanos > 0;
+  }
+
+  private void reschedule(String key, ParkedKey parkedKey) {
+    long backoff = Math.min(
+        this.properties.getRetryInitialMillis() << Math.min(parkedKey.failures - 1, 30),
+        this.properties.getRetryMaxMillis());
+    parkedKey.nextAttemptNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff);
+    LOGGER.warn("{} outbox messages in room {} were not sent after {} tries; retrying in {} ms.",
+        parkedKey.positions.size(), key, parkedKey.failures, backoff);
+  }
+
+  /**
+   * Moves records that could not be sent to the dead-letter log, from where they can be replayed
+   * by hand; records that cannot even be written there are dropped.
+   */
+  private void deadLetter(String key, List<OutboxRecord> records) throws InterruptedException {
+    LOGGER.error("{} outbox messages in room {} were not sent after {} attempts; moving them to "
+        + "the dead-letter log.", records.size(), key, this.properties.getMaxAttempts());
+    for (OutboxRecord record : records) {
+      try {
+        this.deadLetters.append(key, record.getPayload())
+            .get(this.properties.getAppendTimeoutMillis(), TimeUnit.MILLISECONDS);
+        this.deadLettered.increment();
+      } catch (IOException | RuntimeException | ExecutionException | TimeoutException e) {
+        this.dropped.increment();
+        LOGGER.error("Dropped an outbox message in room {} that could not be written to the "
+            + "dead-letter log.", key, e);
+      }
+    }
+  }
+
+  /**
+   * Moves the checkpoint up to the first record not delivered yet: that of the earliest parked
+   * key, or else the end of what has been read.
+   */
+  private void advanceCheckpoint() throws IOException {
+    long position = this.readPosition;
+    for (ParkedKey parkedKey : this.parked.values()) {
+      position = Math.min(position, parkedKey.positions.get(0));
+    }
+    if (position > this.relayedPosition) {
+      writeCheckpoint(this.checkpoint, position);
+      this.relayedPosition = position;
+      this.log.deleteBefore(position);
+    }
+  }
+
+  private long millisUntilNextRetry() {
+    long wait = 1000;
+    long now = System.nanoTime();
+    for (ParkedKey parkedKey : this.parked.values()) {
+      wait = Math.min(wait,
+          TimeUnit.NANOSECONDS.toMillis(Math.max(0, parkedKey.nextAttemptNanos - now)));
+    }
+    return Math.max(1, wait);
+  }
+
+  private CompletableFuture<?> send(OutboxRecord record) {
+    try {
+      // The room goes back in its header, so the transport can route the message to its shard.
+      return this.transport.send(MessageBuilder.withPayload(record.getPayload())
+          .setHeader(LoggableMessageEncodingTransformer.ROOM_HEADER,
+              record.getKey().isEmpty() ? null : record.getKey())
+          .setHeader(ChatTransport.MESSAGE_ID_HEADER, this.id + "-" + record.getPosition())
+          .build());
+    } catch (RuntimeException re) {
+      CompletableFuture<Void> failed = new CompletableFuture<>();
+      failed.completeExceptionally(re);
+      return failed;
+    }
+  }
+
+  private void awaitQuietly(List<CompletableFuture<?>> sends) throws InterruptedException {
+    try {
+      CompletableFuture.allOf(sends.toArray(new CompletableFuture<?>[0]))
+          .get(this.properties.getSendTimeoutMillis(), TimeUnit.MILLISECONDS);
+    } catch (ExecutionException | TimeoutException e) {
+      // Checked send by send.
+    }
+  }
+
+  private static String readOrCreateId(Path file) throws IOException {
+    if (Files.exists(file)) {
+      return new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+    }
+    String id = UUID.randomUUID().toString();
+    Files.write(file, id.getBytes(StandardCharsets.UTF_8));
+    return id;
+  }
+
+  private static long readCheckpoint(FileChannel checkpoint) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+    if (checkpoint.read(buffer, 0) < Long.BYTES) {
+      return 0;
+    }
+    buffer.flip();
+    return buffer.getLong();
+  }
+
+  /**
+   * Not forced to disk: a checkpoint lost in a crash only means some messages are sent again.
+   */
+  private static void writeCheckpoint(FileChannel checkpoint, long position) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+    buffer.putLong(position);
+    buffer.flip();
+    checkpoint.write(buffer, 0);
+  }
+
+  /**
+   * The positions of the records of a key whose sends failed, oldest first, and when to try them
+   * again. Its failures set the backoff; only those that count as attempts lead to the
+   * dead-letter log.
+   */
+  private static final class ParkedKey {
+
+    private List<Long> positions;
+
+    private int failures = 1;
+
+    private int attempts;
+
+    private long lastAttemptNanos;
+
+    private long nextAttemptNanos;
+
+    ParkedKey(List<Long> positions, int attempts, long lastAttemptNanos) {
+      this.positions = positions;
+      this.attempts = attempts;
+      this.lastAttemptNanos = lastAttemptNanos;
+    }
+  }
+}
@@ -0,0 +1,321 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.outbox;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Append-only log of outgoing messages, spread over memory-mapped {@link OutboxSegment} files in
+ * one directory.
+ *
+ * <p>Every record has a position, a byte offset that keeps growing across segments. Appends go to
+ * the newest segment; once it is full, a new one is started at the position where the last one
+ * ended.
+ *
+ * <p>Appends return at once and are made durable in groups: a single sync thread forces everything
+ * written so far to disk, completes the futures of all the appends that covers, and starts over
+ * with whatever was appended meanwhile. Under load, one fsync thus covers many appends.
+ */
+final class OutboxLog implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(OutboxLog.class);
+
+  private final Path directory;
+
+  private final int segmentBytes;
+
+  private final int maxSegments;
+
+  private final Object lock = new Object();
+
+  private final ConcurrentNavigableMap<Long, OutboxSegment> segments =
+      new ConcurrentSkipListMap<>();
+
+  private final List<OutboxSegment> sealedSinceSync = new ArrayList<>();
+
+  private final ArrayDeque<PendingSync> pendingSyncs = new ArrayDeque<>();
+
+  private final Thread syncThread;
+
+  private volatile OutboxSegment active;
+
+  private volatile long syncedPosition;
+
+  private boolean closed;
+
+  private OutboxLog(Path directory, int segmentBytes, int maxSegments) throws IOException {
+    this.directory = directory;
+    this.segmentBytes = segmentBytes;
+    this.maxSegments = maxSegments;
+    try (DirectoryStream<Path> files =
+        Files.newDirectoryStream(directory, "*" + OutboxSegment.SUFFIX)) {
+      for (Path file : files) {
+        OutboxSegment segment = OutboxSegment.open(file);
+        this.segments.put(segment.getBaseOffset(), segment);
+      }
+    }
+    if (this.segments.isEmpty()) {
+      this.active = OutboxSegment.create(directory, 0, segmentBytes);
+      this.segments.put(0L, this.active);
+    } else {
+      this.active = this.segments.lastEntry().getValue();
+    }
+    // Whatever was recovered is on disk already.
+    this.syncedPosition = this.active.getEndPosition();
+    this.syncThread = new Thread(this::syncLoop, "chat-outbox-sync");
+    this.syncThread.setDaemon(true);
+    this.syncThread.start();
+  }
+
+  /**
+   * Opens the log in a directory, creating the directory if needed, and recovers every intact
+   * record from its segments.
+   */
+  static OutboxLog open(Path directory, int segmentBytes, int maxSegments) throws IOException {
+    Files.createDirectories(directory);
+    return new OutboxLog(directory, segmentBytes, maxSegments);
+  }
+
+  /**
+   * Appends a record.
+   *
+   * @param key the key the relay keeps messages in order by
+   * @param payload a String or byte array
+   * @return a future completed with the record's end position once it is on disk
+   * @throws IllegalStateException if the log already has as many segments as it may
+   */
+  CompletableFuture<Long> append(String key, Object payload) throws IOException {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    if (keyBytes.length > 0xffff) {
+      throw new IllegalArgumentException("Key is longer than 65535 bytes.");
+    }
+    CompletableFuture<Long> synced = new CompletableFuture<>();
+    synchronized (this.lock) {
+      if (this.closed) {
+        throw new IllegalStateException("Outbox log is closed.");
+      }
+      if (!this.active.tryAppend(keyBytes, payload)) {
+        if (this.segments.size() >= this.maxSegments) {
+          throw new IllegalStateException(
+              "Outbox is full: " + this.segments.size() + " segments are waiting to be relayed.");
+        }
+        roll();
+        if (!this.active.tryAppend(keyBytes, payload)) {
+          throw new IllegalArgumentException(
+              "Message does not fit in an outbox segment of " + this.segmentBytes + " bytes.");
+        }
+      }
+      this.pendingSyncs.add(new PendingSync(this.active.getEndPosition(), synced));
+      this.lock.notifyAll();
+    }
+    return synced;
+  }
+
+  /**
+   * Reads durable records, in order.
+   *
+   * @param position where to start, usually the next position of the last record read
+   * @param maxRecords how many records to read at most
+   * @return the records, none of them beyond the last sync
+   */
+  List<OutboxRecord> read(long position, int maxRecords) {
+    List<OutboxRecord> records = new ArrayList<>();
+    long synced = this.syncedPosition;
+    long next = position;
+    while (records.size() < maxRecords && next < synced) {
+      Map.Entry<Long, OutboxSegment> entry = this.segments.floorEntry(next);
+      if (entry == null || next >= entry.getValue().getEndPosition()) {
+        // Past the end of this segment's records: carry on from the next segment.
+        Long following = this.segments.higherKey(next);
+        if (following == null) {
+          break;
+        }
+        next = following;
+        continue;
+      }
+      OutboxRecord record = entry.getValue().read(next);
+      records.add(record);
+      next = record.getNextPosition();
+    }
+    return records;
+  }
+
+  /**
+   * Reads the record at a position read before, which must not have been deleted since.
+   */
+  OutboxRecord read(long position) {
+    return this.segments.floorEntry(position).getValue().read(position);
+  }
+
+  /**
+   * Waits until records beyond a position are durable, or the timeout runs out.
+   */
+  void awaitSynced(long position, long timeoutMillis) throws InterruptedException {
+    synchronized (this.lock) {
+      if (this.syncedPosition <= position && !this.closed) {
+        this.lock.wait(timeoutMillis);
+      }
+    }
+  }
+
+  /**
+   * @return the position of the first record still in the log
+   */
+  long getStartPosition() {
+    return this.segments.firstKey();
+  }
+
+  /**
+   * @return the position just past the last record appended
+   */
+  long getEndPosition() {
+    return this.active.getEndPosition();
+  }
+
+  int getSegmentCount() {
+    return this.segments.size();
+  }
+
+  /**
+   * Deletes every segment whose records all lie before a position.
+   */
+  void deleteBefore(long position) {
+    Iterator<OutboxSegment> iterator = this.segments.values().iterator();
+    while (iterator.hasNext()) {
+      OutboxSegment segment = iterator.next();
+      if (segment == this.active || segment.getEndPosition() > position) {
+        return;
+      }
+      synchronized (this.lock) {
+        if (this.sealedSinceSync.contains(segment)) {
+          return;
+        }
+        iterator.remove();
+      }
+      try {
+        segment.delete();
+      } catch (IOException ioe) {
+        LOGGER.warn("Failed to delete relayed outbox segment {}", segment.getBaseOffset(), ioe);
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (this.lock) {
+      this.closed = true;
+      this.lock.notifyAll();
+    }
+    try {
+      this.syncThread.join();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+    for (OutboxSegment segment : this.segments.values()) {
+      segment.force();
+      segment.close();
+    }
+  }
+
+  private void roll() throws IOException {
+    OutboxSegment sealed = this.active;
+    OutboxSegment next =
+        OutboxSegment.create(this.directory, sealed.getEndPosition(), this.segmentBytes);
+    this.segments.put(next.getBaseOffset(), next);
+    this.sealedSinceSync.add(sealed);
+    this.active = next;
+  }
+
+  private void syncLoop() {
+    while (true) {
+      List<OutboxSegment> toForce;
+      long target;
+      synchronized (this.lock) {
+        while (this.pendingSyncs.isEmpty() && !this.closed) {
+          try {
+            this.lock.wait();
+          } catch (InterruptedException ie) {
+            return;
+          }
+        }
+        if (this.pendingSyncs.isEmpty()) {
+          return;
+        }
+        toForce = new ArrayList<>(this.sealedSinceSync);
+        toForce.add(this.active);
+        target = this.active.getEndPosition();
+      }
+
+      RuntimeException failure = null;
+      try {
+        for (OutboxSegment segment : toForce) {
+          segment.force();
+        }
+      } catch (RuntimeException re) {
+        LOGGER.error("Failed to sync the outbox log", re);
+        failure = re;
+      }
+
+      List<PendingSync> done = new ArrayList<>();
+      synchronized (this.lock) {
+        while (!this.pendingSyncs.isEmpty() && this.pendingSyncs.peek().position <= target) {
+          done.add(this.pendingSyncs.poll());
+        }
+        if (failure == null) {
+          this.sealedSinceSync.removeAll(toForce);
+          this.syncedPosition = target;
+          this.lock.notifyAll();
+        }
+      }
+      for (PendingSync pending : done) {
+        if (failure == null) {
+          pending.future.complete(pending.position);
+        } else {
+          pending.future.completeExceptionally(failure);
+        }
+      }
+    }
+  }
+
+  private static final class PendingSync {
+
+    private final long position;
+
+    private final CompletableFuture<Long> future;
+
+    PendingSync(long position, CompletableFuture<Long> future) {
+      this.position = position;
+      this.future = future;
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.outbox;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings for the {@link Outbox}: where its log lives and how large it may grow, how long a send
+ * waits for its record to be on disk, and how the relay batches and retries, how many failed
+ * records it keeps track of before it stops reading, and after how many attempts it gives up on a
+ * room's messages and moves them to the dead-letter log.
+ */
+@ConfigurationProperties("chat.outbox")
+public class OutboxProperties {
+
+  private String directory = "outbox";
+
+  private int segmentBytes = 64 * 1024 * 1024;
+
+  private int maxSegments = 64;
+
+  private long appendTimeoutMillis = 5000;
+
+  private int relayBatchSize = 500;
+
+  private long sendTimeoutMillis = 10000;
+
+  private long retryInitialMillis = 100;
+
+  private long retryMaxMillis = 30000;
+
+  private int maxAttempts = 20;
+
+  private int maxParkedRecords = 100000;
+
+  public String getDirectory() {
+    return directory;
+  }
+
+  public void setDirectory(String directory) {
+    this.directory = directory;
+  }
+
+  public int getSegmentBytes() {
+    return segmentBytes;
+  }
+
+  public void setSegmentBytes(int segmentBytes) {
+    this.segmentBytes = segmentBytes;
+  }
+
+  public int getMaxSegments() {
+    return maxSegments;
+  }
+
+  public void setMaxSegments(int maxSegments) {
+    this.maxSegments = maxSegments;
+  }
+
+  public long getAppendTimeoutMillis() {
+    return appendTimeoutMillis;
+  }
+
+  public void setAppendTimeoutMillis(long appendTimeoutMillis) {
+    this.appendTimeoutMillis = appendTimeoutMillis;
+  }
+
+  public int getRelayBatchSize() {
+    return relayBatchSize;
+  }
+
+  public void setRelayBatchSize(int relayBatchSize) {
+    this.relayBatchSize = relayBatchSize;
+  }
+
+  public long getSendTimeoutMillis() {
+    return sendTimeoutMillis;
+  }
+
+  public void setSendTimeoutMillis(long sendTimeoutMillis) {
+    this.sendTimeoutMillis = sendTimeoutMillis;
+  }
+
+  public long getRetryInitialMillis() {
+    return retryInitialMillis;
+  }
+
+  public void setRetryInitialMillis(long retryInitialMillis) {
+    this.retryInitialMillis = retryInitialMillis;
+  }
+
+  public long getRetryMaxMillis() {
+    return retryMaxMillis;
+  }
+
+  public void setRetryMaxMillis(long retryMaxMillis) {
+    this.retryMaxMillis = retryMaxMillis;
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  public void setMaxAttempts(int maxAttempts) {
+    this.maxAttempts = maxAttempts;
+  }
+
+  public int getMaxParkedRecords() {
+    return maxParkedRecords;
+  }
+
+  public void setMaxParkedRecords(int maxParkedRecords) {
+    this.maxParkedRecords = maxParkedRecords;
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.outbox;
+
+/**
+ * One message read back from the {@link OutboxLog}.
+ */
+final class OutboxRecord {
+
+  private final long position;
+
+  private final long nextPosition;
+
+  private final String key;
+
+  private final Object payload;
+
+  OutboxRecord(long position, long nextPosition, String key, Object payload) {
+    this.position = position;
+    this.nextPosition = nextPosition;
+    this.key = key;
+    this.payload = payload;
+  }
+
+  /**
+   * @return where the record starts in the log
+   */
+  long getPosition() {
+    return this.position;
+  }
+
+  /**
+   * @return where the record after this one starts in the log
+   */
+  long getNextPosition() {
+    return this.nextPosition;
+  }
+
+  /**
+   * @return the key messages are kept in order by
+   */
+  String getKey() {
+    return this.key;
+  }
+
+  /**
+   * @return the payload, a String or byte array as it was appended
+   */
+  Object getPayload() {
+    return this.payload;
+  }
+}
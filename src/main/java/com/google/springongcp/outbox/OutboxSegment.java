@@ -0,0 +1,212 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.outbox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * A fixed-size, memory-mapped file of {@link OutboxLog} records, named after the log position of
+ * its first record.
+ *
+ * <p>Each record is a four-byte length, a CRC32 of everything after it, a flag byte telling String
+ * from byte array payloads, the key's length and UTF-8 bytes, and the payload. The file starts out
+ * zero-filled, so a zero length marks the end of the records; so does a record whose checksum does
+ * not match, which is what a write torn by a crash leaves behind.
+ *
+ * <p>There is a single writer, under the log's lock. Readers only look below {@link #getLimit()},
+ * which is published after the record is written.
+ */
+final class OutboxSegment {
+
+  static final String SUFFIX = ".seg";
+
+  private static final int LENGTH_BYTES = 4;
+
+  private static final int CRC_BYTES = 4;
+
+  private static final int FLAGS_BYTES = 1;
+
+  private static final int KEY_LENGTH_BYTES = 2;
+
+  private static final int HEADER_BYTES = LENGTH_BYTES + CRC_BYTES + FLAGS_BYTES + KEY_LENGTH_BYTES;
+
+  private static final byte FLAG_STRING = 1;
+
+  private final long baseOffset;
+
+  private final Path path;
+
+  private final FileChannel channel;
+
+  private final MappedByteBuffer buffer;
+
+  private volatile int limit;
+
+  private OutboxSegment(long baseOffset, Path path, FileChannel channel, MappedByteBuffer buffer,
+      int limit) {
+    this.baseOffset = baseOffset;
+    this.path = path;
+    this.channel = channel;
+    this.buffer = buffer;
+    this.limit = limit;
+  }
+
+  static OutboxSegment create(Path directory, long baseOffset, int capacity) throws IOException {
+    Path path = directory.resolve(String.format("%020d%s", baseOffset, SUFFIX));
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    return new OutboxSegment(baseOffset, path, channel, buffer, 0);
+  }
+
+  /**
+   * Maps an existing segment and finds the end of its intact records.
+   */
+  static OutboxSegment open(Path path) throws IOException {
+    String name = path.getFileName().toString();
+    long baseOffset = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    FileChannel channel =
+        FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+    return new OutboxSegment(baseOffset, path, channel, buffer, recover(buffer));
+  }
+
+  static int recordSize(int keyBytes, int payloadBytes) {
+    return HEADER_BYTES + keyBytes + payloadBytes;
+  }
+
+  long getBaseOffset() {
+    return this.baseOffset;
+  }
+
+  /**
+   * @return the log position just past the last record
+   */
+  long getEndPosition() {
+    return this.baseOffset + this.limit;
+  }
+
+  int getLimit() {
+    return this.limit;
+  }
+
+  /**
+   * Writes a record after the last one, unless it does not fit.
+   *
+   * @return whether the record was written
+   */
+  boolean tryAppend(byte[] key, Object payload) {
+    boolean text = payload instanceof String;
+    byte[] data = text
+        ? ((String) payload).getBytes(StandardCharsets.UTF_8)
+        : (byte[]) payload;
+    int size = recordSize(key.length, data.length);
+    int start = this.limit;
+    if (size > this.buffer.capacity() - start) {
+      return false;
+    }
+    byte flags = text ? FLAG_STRING : 0;
+    CRC32 crc = new CRC32();
+    crc.update(flags);
+    crc.update(key.length >>> 8);
+    crc.update(key.length);
+    crc.update(key);
+    crc.update(data);
+
+    ByteBuffer view = this.buffer.duplicate();
+    view.position(start);
+    view.putInt(size - LENGTH_BYTES - CRC_BYTES);
+    view.putInt((int) crc.getValue());
+    view.put(flags);
+    view.putShort((short) key.length);
+    view.put(key);
+    view.put(data);
+    this.limit = start + size;
+    return true;
+  }
+
+  /**
+   * Reads the record starting at a log position.
+   *
+   * @return the record, or null if none starts there
+   */
+  OutboxRecord read(long position) {
+    int offset = (int) (position - this.baseOffset);
+    if (offset < 0 || offset >= this.limit) {
+      return null;
+    }
+    ByteBuffer view = this.buffer.duplicate();
+    view.position(offset);
+    int length = view.getInt();
+    view.getInt();
+    byte flags = view.get();
+    byte[] key = new byte[view.getShort() & 0xffff];
+    view.get(key);
+    byte[] data = new byte[length - FLAGS_BYTES - KEY_LENGTH_BYTES - key.length];
+    view.get(data);
+    Object payload = flags == FLAG_STRING ? new String(data, StandardCharsets.UTF_8) : data;
+    return new OutboxRecord(position, position + LENGTH_BYTES + CRC_BYTES + length,
+        new String(key, StandardCharsets.UTF_8), payload);
+  }
+
+  void force() {
+    this.buffer.force();
+  }
+
+  void close() throws IOException {
+    this.channel.close();
+  }
+
+  /**
+   * Closes and removes the file. The mapping itself is released when the buffer is collected.
+   */
+  void delete() throws IOException {
+    close();
+    Files.deleteIfExists(this.path);
+  }
+
+  private static int recover(MappedByteBuffer buffer) {
+    ByteBuffer view = buffer.duplicate();
+    int offset = 0;
+    while (view.capacity() - offset >= HEADER_BYTES) {
+      view.position(offset);
+      int length = view.getInt();
+      int expectedCrc = view.getInt();
+      if (length < FLAGS_BYTES + KEY_LENGTH_BYTES
+          || length > view.capacity() - offset - LENGTH_BYTES - CRC_BYTES) {
+        break;
+      }
+      byte[] record = new byte[length];
+      view.get(record);
+      CRC32 crc = new CRC32();
+      crc.update(record);
+      if ((int) crc.getValue() != expectedCrc) {
+        break;
+      }
+      offset += LENGTH_BYTES + CRC_BYTES + length;
+    }
+    return offset;
+  }
+}
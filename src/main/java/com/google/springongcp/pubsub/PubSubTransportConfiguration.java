@@ -0,0 +1,143 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub;
+
+import com.google.api.gax.batching.FlowControlSettings;
+import com.google.api.gax.core.CredentialsProvider;
+import com.google.cloud.pubsub.v1.TopicAdminClient;
+import com.google.cloud.pubsub.v1.TopicAdminSettings;
+import com.google.springongcp.pubsub.ack.AckManager;
+import com.google.springongcp.pubsub.batch.PubSubChatTransport;
+import com.google.springongcp.pubsub.batch.PublishBatchProperties;
+import com.google.springongcp.pubsub.shard.PubSubMembershipChannel;
+import com.google.springongcp.shard.ShardMembership;
+import com.google.springongcp.shard.ShardRouter;
+import com.google.springongcp.shard.ShardSubscriptions;
+import com.google.springongcp.shard.ShardingProperties;
+import com.google.springongcp.transport.ChatTransport;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.gcp.core.GcpProjectIdProvider;
+import org.springframework.cloud.gcp.pubsub.PubSubAdmin;
+import org.springframework.cloud.gcp.pubsub.core.PubSubTemplate;
+import org.springframework.cloud.gcp.pubsub.integration.AckMode;
+import org.springframework.cloud.gcp.pubsub.integration.inbound.PubSubInboundChannelAdapter;
+import org.springframework.cloud.gcp.pubsub.support.DefaultSubscriberFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.MessageChannel;
+
+import java.io.IOException;
+
+/**
+ * Carries chat messages over Google Cloud Pub/Sub: publishes in batches to the {@code test} topic
+ * and receives from the {@code messages} subscription, acking through the
+ * {@link com.google.springongcp.pubsub.ack.AckManager}. Active unless another transport is chosen
+ * with {@code chat.transport.type}.
+ *
+ * <p>With {@code chat.sharding.shards} above one, each room is published to the topic of its
+ * shard, {@code test-0} to {@code test-N}, and every node only subscribes to the subscriptions of
+ * the shards it owns, {@code messages-0} to {@code messages-N}. These topics and subscriptions
+ * must exist already, like the unsharded ones.
+ */
+@Configuration
+@ConditionalOnProperty(name = "chat.transport.type", havingValue = "pubsub", matchIfMissing = true)
+public class PubSubTransportConfiguration {
+
+  /**
+   * Has every subscriber stop pulling once it holds the {@link AckManager}'s outstanding message
+   * or byte limit unsettled, so that further messages wait in Pub/Sub. The limits apply to each
+   * subscription on its own, so a node consuming several shards can hold that many per shard.
+   */
+  @Bean
+  public static BeanPostProcessor subscriberFlowControl(ObjectProvider<AckManager> ackManager) {
+    return new BeanPostProcessor() {
+
+      @Override
+      public Object postProcessBeforeInitialization(Object bean, String beanName) {
+        if (bean instanceof DefaultSubscriberFactory) {
+          AckManager limits = ackManager.getObject();
+          ((DefaultSubscriberFactory) bean).setFlowControlSettings(FlowControlSettings.newBuilder()
+              .setMaxOutstandingElementCount((long) limits.getMaxOutstandingMessages())
+              .setMaxOutstandingRequestBytes(limits.getMaxOutstandingBytes())
+              .build());
+        }
+        return bean;
+      }
+
+      @Override
+      public Object postProcessAfterInitialization(Object bean, String beanName) {
+        return bean;
+      }
+    };
+  }
+
+  /**
+   * One inbound channel adapter for each owned shard's subscription, created and started as the
+   * node takes the shard over.
+   */
+  @Bean
+  public ShardSubscriptions messageChannelAdapters(
+      @Qualifier("chatRawInputChannel") MessageChannel inputChannel,
+      PubSubTemplate pubSubTemplate, ShardRouter shardRouter, BeanFactory beanFactory) {
+    return new ShardSubscriptions(shard -> {
+      PubSubInboundChannelAdapter adapter = new PubSubInboundChannelAdapter(
+          pubSubTemplate, shardRouter.destination("messages", shard));
+      adapter.setOutputChannel(inputChannel);
+      adapter.setAckMode(AckMode.MANUAL);
+      adapter.setBeanFactory(beanFactory);
+      adapter.afterPropertiesSet();
+      return adapter;
+    });
+  }
+
+  @Bean
+  public ShardMembership pubSubShardMembership(ShardingProperties shardingProperties,
+      ShardSubscriptions messageChannelAdapters, PubSubAdmin pubSubAdmin,
+      PubSubTemplate pubSubTemplate, MeterRegistry meterRegistry) {
+    PubSubMembershipChannel channel = new PubSubMembershipChannel(
+        pubSubAdmin, pubSubTemplate, shardingProperties.getMembershipTopic());
+    Gauge.builder("chat.shard.subscriptions", messageChannelAdapters,
+        adapters -> adapters.getShards().size()).register(meterRegistry);
+    return new ShardMembership(shardingProperties, channel, messageChannelAdapters, meterRegistry);
+  }
+
+  /**
+   * Publishes whole batches, which {@code PubSubTemplate} cannot. Named like the Pub/Sub
+   * auto-configuration's client, where there is one, so that it backs off.
+   */
+  @Bean(destroyMethod = "close")
+  public TopicAdminClient topicAdminClient(CredentialsProvider credentialsProvider)
+      throws IOException {
+    return TopicAdminClient.create(TopicAdminSettings.newBuilder()
+        .setCredentialsProvider(credentialsProvider)
+        .build());
+  }
+
+  @Bean
+  public ChatTransport pubSubChatTransport(TopicAdminClient topicAdminClient,
+      GcpProjectIdProvider projectIdProvider, ShardRouter shardRouter,
+      PublishBatchProperties batchProperties, MeterRegistry meterRegistry) {
+    return new PubSubChatTransport(topicAdminClient, projectIdProvider.getProjectId(), "test",
+        shardRouter, batchProperties, meterRegistry);
+  }
+}
@@ -16,40 +16,106 @@
 
 package com.google.springongcp.pubsub;
 
-import com.google.cloud.pubsub.v1.AckReplyConsumer;
+import com.google.springongcp.amqp.AmqpTransportConfiguration;
+import com.google.springongcp.codec.BinaryLoggableMessageCodec;
+import com.google.springongcp.codec.FallbackLoggableMessageCodec;
+import com.google.springongcp.codec.JavaSerializationCodec;
+import com.google.springongcp.codec.LoggableMessageCodec;
+import com.google.springongcp.codec.LoggableMessageDecodingTransformer;
+import com.google.springongcp.codec.LoggableMessageEncodingTransformer;
+import com.google.springongcp.dedup.DedupIndex;
+import com.google.springongcp.dedup.DedupProperties;
+import com.google.springongcp.logging.LogShippingMetrics;
+import com.google.springongcp.metrics.ChannelMetricsInterceptor;
+import com.google.springongcp.metrics.MetricsProperties;
+import com.google.springongcp.metrics.SlowRequestFilter;
 import com.google.springongcp.model.LoggableMessage;
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-import org.springframework.beans.factory.annotation.Qualifier;
+import com.google.springongcp.outbox.Outbox;
+import com.google.springongcp.outbox.OutboxProperties;
+import com.google.springongcp.pubsub.ack.AckManager;
+import com.google.springongcp.pubsub.ack.FlowControlInterceptor;
+import com.google.springongcp.pubsub.ack.FlowControlProperties;
+import com.google.springongcp.pubsub.admin.PubSubMetadataProperties;
+import com.google.springongcp.pubsub.attach.AttachmentProperties;
+import com.google.springongcp.pubsub.batch.PublishBatchProperties;
+import com.google.springongcp.pubsub.dispatch.ChatMessageDispatcher;
+import com.google.springongcp.pubsub.dispatch.ChatMessageListener;
+import com.google.springongcp.pubsub.dispatch.DispatchProperties;
+import com.google.springongcp.pubsub.history.ChatHistoryProperties;
+import com.google.springongcp.pubsub.history.RecentMessageCache;
+import com.google.springongcp.pubsub.ingest.IngestionProperties;
+import com.google.springongcp.pubsub.ingest.IngestionQueue;
+import com.google.springongcp.pubsub.limit.RateLimitFilter;
+import com.google.springongcp.pubsub.limit.RateLimitProperties;
+import com.google.springongcp.pubsub.media.MediaProperties;
+import com.google.springongcp.pubsub.push.ChatPushHub;
+import com.google.springongcp.pubsub.push.PushProperties;
+import com.google.springongcp.pubsub.users.UserDirectoryProperties;
+import com.google.springongcp.shard.ShardRouter;
+import com.google.springongcp.shard.ShardingProperties;
+import com.google.springongcp.startup.LazyDataSourcePostProcessor;
+import com.google.springongcp.startup.LazyInitBeanFactoryPostProcessor;
+import com.google.springongcp.startup.OfflineConfiguration;
+import com.google.springongcp.startup.ReadinessController;
+import com.google.springongcp.transport.ChatTransport;
+import com.google.springongcp.transport.InMemoryTransportConfiguration;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
-import org.springframework.cloud.gcp.pubsub.core.PubSubTemplate;
-import org.springframework.cloud.gcp.pubsub.integration.AckMode;
-import org.springframework.cloud.gcp.pubsub.integration.inbound.PubSubInboundChannelAdapter;
-import org.springframework.cloud.gcp.pubsub.integration.outbound.PubSubMessageHandler;
-import org.springframework.cloud.gcp.pubsub.support.GcpHeaders;
+import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.env.Environment;
 import org.springframework.integration.annotation.MessagingGateway;
+import org.springframework.integration.config.GlobalChannelInterceptor;
 import org.springframework.integration.annotation.ServiceActivator;
-import org.springframework.integration.channel.PublishSubscribeChannel;
+import org.springframework.integration.annotation.Transformer;
+import org.springframework.integration.channel.DirectChannel;
 import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
 import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Payload;
 
 import java.io.IOException;
-import java.util.logging.ConsoleHandler;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-import java.util.logging.SimpleFormatter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @SpringBootApplication
-@EnableConfigurationProperties(SampleConfig.class)
+@EnableConfigurationProperties({
+    SampleConfig.class, PublishBatchProperties.class, IngestionProperties.class,
+    ChatHistoryProperties.class, UserDirectoryProperties.class, PubSubMetadataProperties.class,
+    MediaProperties.class, DispatchProperties.class, PushProperties.class,
+    MetricsProperties.class, FlowControlProperties.class, DedupProperties.class,
+    OutboxProperties.class, RateLimitProperties.class, ShardingProperties.class,
+    AttachmentProperties.class})
+// The Pub/Sub transport, PubSubTransportConfiguration, is picked up by component scanning.
+@Import({AmqpTransportConfiguration.class, InMemoryTransportConfiguration.class,
+    OfflineConfiguration.class, ReadinessController.class})
 public class PubsubApplication {
 
-  private static final Log LOGGER = LogFactory.getLog(PubsubApplication.class);
+  private static final Logger LOGGER = LoggerFactory.getLogger(PubsubApplication.class);
 
   public static void main(String[] args) throws IOException {
-    SpringApplication.run(PubsubApplication.class, args);
+    ConfigurableApplicationContext context = SpringApplication.run(PubsubApplication.class, args);
+    // The Docker build starts the app once, to record which classes startup loads.
+    if (Boolean.getBoolean("chat.startup.training-run")) {
+      System.exit(SpringApplication.exit(context));
+    }
 
 //    ConsoleHandler consoleHandler = new ConsoleHandler();
 //    consoleHandler.setLevel(Level.ALL);
@@ -72,64 +138,252 @@ public class PubsubApplication {
 //    gl.addHandler(consoleHandler);
   }
 
-  // Inbound channel adapter.
+  // Startup. The lean profiles, application-{chat-only,admin,media}.properties, switch off the
+  // features and auto-configuration a node does not need; what remains of the storage and JDBC
+  // beans is only created on first use.
 
   @Bean
-  public MessageChannel pubsubInputChannel() {
-    return new PublishSubscribeChannel();
+  public static LazyInitBeanFactoryPostProcessor lazyInitBeanFactoryPostProcessor(
+      Environment environment) {
+    return new LazyInitBeanFactoryPostProcessor(lazyBeans(environment));
   }
 
+  /**
+   * The actuator asks for every data source at startup, so a lazy one is also put behind a
+   * stand-in; otherwise the health indicator and pool metrics would create it all the same.
+   */
   @Bean
-  public PubSubInboundChannelAdapter messageChannelAdapter(
-      @Qualifier("pubsubInputChannel") MessageChannel inputChannel,
-      PubSubTemplate pubSubTemplate) {
-    PubSubInboundChannelAdapter adapter =
-        new PubSubInboundChannelAdapter(pubSubTemplate, "messages");
-    adapter.setOutputChannel(inputChannel);
-    adapter.setAckMode(AckMode.MANUAL);
+  public static LazyDataSourcePostProcessor lazyDataSourcePostProcessor(
+      Environment environment) {
+    return new LazyDataSourcePostProcessor(lazyBeans(environment));
+  }
 
-    return adapter;
+  private static List<String> lazyBeans(Environment environment) {
+    return Arrays.asList(environment.getProperty("chat.startup.lazy-beans", String[].class,
+        new String[] {"storage", "dataSource", "jdbcTemplate"}));
   }
 
+  // Wire format. Publishes with the binary codec, but still reads Java-serialized payloads from
+  // publishers that have not been upgraded yet.
+
   @Bean
-  @ServiceActivator(inputChannel = "pubsubInputChannel")
-  public MessageHandler messageReceiver1() {
-    return message -> {
-      LOGGER.info("Message arrived! Payload: " + message.getPayload());
-      AckReplyConsumer consumer =
-          (AckReplyConsumer) message.getHeaders().get(GcpHeaders.ACKNOWLEDGEMENT);
-      consumer.ack();
-    };
+  public LoggableMessageCodec loggableMessageCodec() {
+    return new FallbackLoggableMessageCodec(
+        new BinaryLoggableMessageCodec(), new JavaSerializationCodec());
+  }
+
+  // Inbound pipeline. Whichever ChatTransport is active sends what it receives to
+  // chatRawInputChannel.
+
+  /**
+   * The dispatcher queues one task per listener for each message, so the number of messages it can
+   * hold without blocking is its task capacity divided by the number of listeners.
+   */
+  @Bean
+  public AckManager ackManager(FlowControlProperties flowControlProperties,
+      DispatchProperties dispatchProperties, ListableBeanFactory beanFactory,
+      MeterRegistry meterRegistry) {
+    int listeners = beanFactory.getBeanNamesForType(ChatMessageListener.class, true, false).length;
+    int downstreamCapacity = (dispatchProperties.getThreads()
+        + dispatchProperties.getQueueCapacity()) / Math.max(1, listeners);
+    return new AckManager(flowControlProperties, downstreamCapacity, meterRegistry);
+  }
+
+  @Bean
+  public MessageChannel chatRawInputChannel(AckManager ackManager) {
+    DirectChannel channel = new DirectChannel();
+    channel.addInterceptor(new FlowControlInterceptor(ackManager));
+    return channel;
+  }
+
+  @Bean
+  public MessageChannel chatInputChannel() {
+    return new DirectChannel();
+  }
+
+  @Bean
+  @Transformer(inputChannel = "chatRawInputChannel", outputChannel = "chatInputChannel")
+  public LoggableMessageDecodingTransformer chatDecoder(LoggableMessageCodec codec) {
+    return new LoggableMessageDecodingTransformer(codec);
+  }
+
+  // Every decoded message goes to the dispatcher, which hands it to all ChatMessageListener beans
+  // and has the AckManager ack it once they are done.
+
+  @Bean
+  public DedupIndex chatDedupIndex(DedupProperties dedupProperties, ChatTransport chatTransport,
+      MeterRegistry meterRegistry) {
+    return new DedupIndex(dedupProperties, chatTransport.getName(), meterRegistry);
+  }
+
+  @Bean
+  @ServiceActivator(inputChannel = "chatInputChannel")
+  public ChatMessageDispatcher chatMessageDispatcher(Map<String, ChatMessageListener> listeners,
+      DispatchProperties dispatchProperties, AckManager ackManager, DedupIndex chatDedupIndex,
+      ChatTransport chatTransport, MeterRegistry meterRegistry) {
+    return new ChatMessageDispatcher(listeners, dispatchProperties, ackManager, chatDedupIndex,
+        chatTransport.getName(), meterRegistry);
+  }
+
+  // Logged with parameters, so the message is only formatted on the log shipping thread, and not
+  // at all if it is dropped.
+
+  @Bean
+  public ChatMessageListener messageReceiver1() {
+    return message -> LOGGER.info("Message arrived! Payload: {}", message.getPayload());
+  }
+
+  @Bean
+  public ChatMessageListener messageReceiver2() {
+    return message -> LOGGER.info("Message also arrived here! Payload: {}", message.getPayload());
+  }
+
+  // Outbound pipeline, ending in whichever ChatTransport is active.
+
+  @Bean
+  @Transformer(inputChannel = "chatOutputChannel", outputChannel = "chatEncodedOutputChannel")
+  public LoggableMessageEncodingTransformer chatEncoder(LoggableMessageCodec codec) {
+    return new LoggableMessageEncodingTransformer(codec);
   }
 
+  /**
+   * Picks the topic or queue shard of each message's room; the transports publish to the shard,
+   * and consume the shards the node owns.
+   */
+  @Bean
+  public ShardRouter shardRouter(ShardingProperties shardingProperties) {
+    return new ShardRouter(shardingProperties.getShards());
+  }
 
   @Bean
-  @ServiceActivator(inputChannel = "pubsubInputChannel")
-  public MessageHandler messageReceiver2() {
+  @ConditionalOnProperty("chat.outbox.enabled")
+  public Outbox outbox(OutboxProperties outboxProperties, ChatTransport chatTransport,
+      MeterRegistry meterRegistry) throws IOException {
+    return new Outbox(outboxProperties, chatTransport, meterRegistry);
+  }
+
+  /**
+   * With the outbox enabled, a message is accepted once it is written there, and the outbox's
+   * relay sends it over the transport. Otherwise a message posted on the request thread is
+   * accepted once the broker has it: the gateway call waits for that, and fails if the broker
+   * refuses it or takes longer than {@code chat.ingest.send-timeout-millis}.
+   *
+   * <p>A message from the {@link IngestionQueue} has been accepted already, so its worker only
+   * hands it to the transport and moves on; the transport's batcher bounds how many are in flight,
+   * by holding the worker until there is room. One the broker then refuses is logged with its
+   * ingestion ID and counted in {@code chat.ingest.send.failures}.
+   */
+  @Bean
+  @ServiceActivator(inputChannel = "chatEncodedOutputChannel")
+  public MessageHandler messageSender(ChatTransport chatTransport,
+      ObjectProvider<Outbox> outbox, IngestionProperties ingestionProperties,
+      MeterRegistry meterRegistry) {
+    Outbox messageOutbox = outbox.getIfAvailable();
+    if (messageOutbox != null) {
+      return messageOutbox::append;
+    }
+    long timeoutMillis = ingestionProperties.getSendTimeoutMillis();
+    Counter ingestFailures = Counter.builder("chat.ingest.send.failures")
+        .tag("transport", chatTransport.getName())
+        .register(meterRegistry);
     return message -> {
-      LOGGER.info("Message also arrived here! Payload: " + message.getPayload());
-      AckReplyConsumer consumer =
-          (AckReplyConsumer) message.getHeaders().get(GcpHeaders.ACKNOWLEDGEMENT);
-      consumer.ack();
+      CompletableFuture<?> sent = chatTransport.send(message);
+      String ingestionId = message.getHeaders().get(IngestionQueue.ID_HEADER, String.class);
+      if (ingestionId != null) {
+        sent.whenComplete((ignored, ex) -> {
+          if (ex != null) {
+            ingestFailures.increment();
+            LOGGER.warn("Failed to send ingested message {} over {}", ingestionId,
+                chatTransport.getName(), ex);
+          }
+        });
+        return;
+      }
+      try {
+        sent.get(timeoutMillis, TimeUnit.MILLISECONDS);
+      } catch (ExecutionException ee) {
+        throw new MessageDeliveryException(message,
+            "Failed to send message over " + chatTransport.getName(), ee.getCause());
+      } catch (TimeoutException te) {
+        throw new MessageDeliveryException(message, "Timed out sending message over "
+            + chatTransport.getName() + " after " + timeoutMillis + " ms", te);
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        throw new MessageDeliveryException(message, "Interrupted sending message", ie);
+      }
     };
   }
 
-  // Outbound channel adapter
+  @Bean
+  @ConditionalOnProperty("chat.ingest.async")
+  public IngestionQueue ingestionQueue(IngestionProperties ingestionProperties) {
+    return new IngestionQueue(ingestionProperties);
+  }
 
   @Bean
-  @ServiceActivator(inputChannel = "pubsubOutputChannel")
-  public MessageHandler messageSender(PubSubTemplate pubsubTemplate) {
-    return new PubSubMessageHandler(pubsubTemplate, "test");
+  @ConditionalOnProperty(name = "chat.rate-limit.enabled", matchIfMissing = true)
+  public RateLimitFilter rateLimitFilter(RateLimitProperties rateLimitProperties,
+      MeterRegistry meterRegistry) {
+    return new RateLimitFilter(rateLimitProperties, meterRegistry);
   }
 
-  @MessagingGateway(defaultRequestChannel = "pubsubOutputChannel")
-  public interface PubsubOutboundGateway {
+  // Metrics, exposed at /actuator/prometheus.
+
+  @Bean
+  @GlobalChannelInterceptor
+  public ChannelMetricsInterceptor channelMetricsInterceptor(MeterRegistry meterRegistry) {
+    return new ChannelMetricsInterceptor(meterRegistry);
+  }
+
+  @Bean
+  public SlowRequestFilter slowRequestFilter(MetricsProperties metricsProperties,
+      MeterRegistry meterRegistry) {
+    return new SlowRequestFilter(metricsProperties, meterRegistry);
+  }
+
+  @Bean
+  public LogShippingMetrics logShippingMetrics() {
+    return new LogShippingMetrics();
+  }
+
+  @Bean
+  public MeterBinder chatQueueMetrics(ObjectProvider<IngestionQueue> ingestionQueue,
+      ObjectProvider<RecentMessageCache> recentMessageCache, ChatPushHub chatPushHub) {
+    return registry -> {
+      IngestionQueue queue = ingestionQueue.getIfAvailable();
+      if (queue != null) {
+        Gauge.builder("chat.ingest.queue.depth", queue, IngestionQueue::getQueueDepth)
+            .register(registry);
+      }
+      RecentMessageCache historyCache = recentMessageCache.getIfAvailable();
+      if (historyCache != null) {
+        Gauge.builder("chat.history.queue.depth", historyCache,
+            RecentMessageCache::getUnflushedMessages).register(registry);
+      }
+      Gauge.builder("chat.push.connections", chatPushHub, ChatPushHub::getConnectionCount)
+          .register(registry);
+      Gauge.builder("chat.push.rooms", chatPushHub, ChatPushHub::getRoomCount)
+          .register(registry);
+      Gauge.builder("chat.push.dropped.frames", chatPushHub, ChatPushHub::getDroppedFrames)
+          .register(registry);
+      Gauge.builder("chat.push.disconnected.clients", chatPushHub,
+          ChatPushHub::getDisconnectedClients).register(registry);
+    };
+  }
+
+  @MessagingGateway(defaultRequestChannel = "chatOutputChannel")
+  public interface ChatGateway {
+
+    void send(String text);
+
+    void send(byte[] bytes);
 
-    void sendToPubsub(String text);
+    void send(LoggableMessage loggableMessage);
 
-    void sendToPubsub(byte[] bytes);
+    void send(@Payload String text, @Header(IngestionQueue.ID_HEADER) String ingestionId);
 
-    void sendToPubsub(LoggableMessage loggableMessage);
+    void send(@Payload LoggableMessage loggableMessage,
+        @Header(IngestionQueue.ID_HEADER) String ingestionId);
   }
 
 
@@ -16,182 +16,84 @@
 
 package com.google.springongcp.pubsub;
 
-import com.google.pubsub.v1.Subscription;
-import com.google.pubsub.v1.SubscriptionName;
-import com.google.pubsub.v1.Topic;
-import com.google.pubsub.v1.TopicName;
 import com.google.springongcp.model.LoggableMessage;
-import com.google.springongcp.pubsub.PubsubApplication.PubsubOutboundGateway;
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
+import com.google.springongcp.pubsub.PubsubApplication.ChatGateway;
+import com.google.springongcp.pubsub.dispatch.ChatMessageListener;
+import com.google.springongcp.pubsub.ingest.IngestionProperties;
+import com.google.springongcp.pubsub.ingest.IngestionQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.cloud.gcp.core.GcpProjectIdProvider;
-import org.springframework.cloud.gcp.pubsub.PubSubAdmin;
-import org.springframework.cloud.gcp.pubsub.core.PubSubTemplate;
-import org.springframework.cloud.gcp.storage.GoogleStorageResourceBucket;
-import org.springframework.cloud.gcp.storage.GoogleStorageResourceObject;
 import org.springframework.context.annotation.Bean;
-import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.integration.annotation.ServiceActivator;
-import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessagingException;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.servlet.view.RedirectView;
 
-import java.io.IOException;
-import java.sql.*;
+import java.net.URI;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
-import java.util.logging.Logger;
-import java.util.stream.Collectors;
+import java.util.Collections;
+import java.util.function.Consumer;
 
+/**
+ * The chat posting endpoints, served in every profile. Administration and media endpoints live in
+ * their own controllers, which the lean profiles leave out.
+ */
 @RestController
 public class WebAppController {
 
   @Autowired
-  private PubsubOutboundGateway messagingGateway;
-
-  @Autowired
-  private PubSubAdmin admin;
+  private ChatGateway messagingGateway;
 
-  @Autowired
-  private PubSubTemplate pubSubTemplate;
+  @Autowired(required = false)
+  private IngestionQueue ingestionQueue;
 
   @Autowired
-  private JdbcTemplate jdbcTemplate;
+  private IngestionProperties ingestionProperties;
 
-  private static final Log LOGGER = LogFactory.getLog(WebAppController.class);
+  private static final Logger LOGGER = LoggerFactory.getLogger(WebAppController.class);
 
   /**
-   * Lists every topic in the project.
+   * Sends a message over the chat transport, through Spring's messaging gateway, and redirects
+   * the user to the home page.
    *
-   * @return a list of the names of every topic in the project
-   */
-  @GetMapping("/listTopics")
-  public List<String> listTopics() {
-    return admin
-        .listTopics()
-        .stream()
-        .map(Topic::getNameAsTopicName)
-        .map(TopicName::getTopic)
-        .collect(Collectors.toList());
-  }
-
-  /**
-   * Lists every subscription in the project.
-   *
-   * @return a list of the names of every subscription in the project
-   */
-  @GetMapping("/listSubscriptions")
-  public List<String> listSubscriptions() {
-    return admin
-        .listSubscriptions()
-        .stream()
-        .map(Subscription::getNameAsSubscriptionName)
-        .map(SubscriptionName::getSubscription)
-        .collect(Collectors.toList());
-  }
-
-  /**
-   * Posts a message to a Google Cloud Pub/Sub topic, through Spring's messaging gateway, and
-   * redirects the user to the home page.
+   * <p>In async ingestion mode, the message is queued instead and the response is either 202 with
+   * the message ID or, if the queue is full, 429 with a Retry-After header.
    *
-   * @param message the message posted to the Pub/Sub topic
+   * @param message the message to send
    */
   @PostMapping("/postMessage")
-  public RedirectView addMessage(@RequestParam("message") String message) {
-    messagingGateway.sendToPubsub(message);
-    return new RedirectView("/");
-  }
-
-  /**
-   * Creates a new topic on Google Cloud Pub/Sub, through Spring's Pub/Sub admin class, and
-   * redirects the user to the home page.
-   *
-   * @param topicName the name of the new topic
-   */
-  @PostMapping("/newTopic")
-  public RedirectView newTopic(@RequestParam("name") String topicName) {
-    admin.createTopic(topicName);
-    return new RedirectView("/");
+  public ResponseEntity<?> addMessage(@RequestParam("message") String message) {
+    if (this.ingestionQueue != null) {
+      return accept(id -> messagingGateway.send(message, id));
+    }
+    messagingGateway.send(message);
+    return ResponseEntity.status(HttpStatus.FOUND).location(URI.create("/")).build();
   }
 
   /**
-   * Creates a new subscription on Google Cloud Pub/Sub, through Spring's Pub/Sub admin class, and
-   * redirects the user to the home page.
-   *
-   * @param topicName the name of the new subscription
+   * A message the transport refused or timed out on was not sent, so the client should retry it.
    */
-  @PostMapping("/newSubscription")
-  public RedirectView newSubscription(
-      @RequestParam("name") String subscriptionName, @RequestParam("topic") String topicName) {
-    admin.createSubscription(subscriptionName, topicName);
-    return new RedirectView("/");
-  }
-
-  @GetMapping("/queryDb")
-  public List<String> queryDb() throws SQLException {
-    String jdbcUrl = String.format(
-        "jdbc:mysql://google/%s?cloudSqlInstance=%s&"
-            + "socketFactory=com.google.cloud.sql.mysql.SocketFactory",
-        "test",
-        "sodium-gateway-790:us-central1:gfx");
-
-    Connection connection = DriverManager.getConnection(jdbcUrl, "root", "");
-
-    Statement statement = connection.createStatement();
-    ResultSet queryResult = statement.executeQuery("SELECT * FROM user;");
-    List<String> result = new ArrayList<>();
-    while (queryResult.next()) {
-      result.add(queryResult.getString("email") + " "
-          + queryResult.getString("name"));
+  @ExceptionHandler(MessagingException.class)
+  public ResponseEntity<?> sendFailed(MessagingException me) {
+    LOGGER.warn("Failed to send message", me);
+    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+  }
+
+  private ResponseEntity<?> accept(Consumer<String> send) {
+    String id = this.ingestionQueue.submit(send);
+    if (id == null) {
+      return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+          .header(HttpHeaders.RETRY_AFTER,
+              String.valueOf(this.ingestionProperties.getRetryAfterSeconds()))
+          .build();
     }
-    statement.close();
-    return result;
-  }
-
-  @GetMapping("/queryDbSpecial")
-  public List<Map<String, Object>> queryDbSpecial() {
-    return jdbcTemplate.queryForList("SELECT * FROM user;");
-  }
-
-  @Autowired
-  private SampleConfig config;
-
-  @GetMapping("/testConfig")
-  public String testConfig() {
-    return config.getUrl();
-  }
-
-  @Value("gs://jamnotifications/LockHolderKIlled_RequestProceeds.png")
-  private Resource file;
-
-  @GetMapping("/file")
-  public ResponseEntity<Resource> serveFile() {
-    HttpHeaders headers = new HttpHeaders();
-    headers.setContentType(MediaType.IMAGE_JPEG);
-    return new ResponseEntity<>(file, headers, HttpStatus.OK);
-  }
-
-  @Value("gs://springintegrationz/IMG_1377.JPG")
-  private Resource gcsImage;
-
-  @GetMapping("/pic")
-  public ResponseEntity<Resource> servePic() {
-    HttpHeaders headers = new HttpHeaders();
-    headers.setContentType(MediaType.IMAGE_JPEG);
-    return new ResponseEntity<>(gcsImage, headers, HttpStatus.OK);
+    return ResponseEntity.accepted().body(Collections.singletonMap("id", id));
   }
 
 //  @Autowired
@@ -202,42 +104,31 @@ public class WebAppController {
 //    gateway.sendFileToGCS(new File("/usr/local/google/home/joaomartins/Downloads/IMG_1377.JPG"));
 //  }
 
-  @Autowired
-  private GcpProjectIdProvider projectIdProvider;
-
-  @GetMapping("/publish")
-  public void publish(@RequestParam("message") String message,
-          @RequestParam("topic") String topic) {
-    this.pubSubTemplate.publish(topic, message, null);
-  }
-  @Value("gs://sample-testingz")
-  private Resource gcsBucket;
-
-  @GetMapping("/signed")
-  public String signedUrl() throws IOException {
-    GoogleStorageResourceObject blob = (GoogleStorageResourceObject) this.gcsBucket.createRelative("sign");
-    return blob.createSignedUrl(TimeUnit.MINUTES, 2).toString();
-  }
-
-  @GetMapping("/createBucket")
-  public void createBucket() {
-    ((GoogleStorageResourceBucket) this.gcsBucket).create();
-  }
-
   @PostMapping("/customMessage")
-  public void sendCustom(@RequestParam("message") String payload) {
-    this.messagingGateway.sendToPubsub(
-            new LoggableMessage("joaomartins@google.com", payload, LocalDateTime.now())
-    );
+  public ResponseEntity<?> sendCustom(@RequestParam("message") String payload,
+      @RequestParam(value = "room", defaultValue = LoggableMessage.DEFAULT_ROOM) String room) {
+    if (room.length() > LoggableMessage.MAX_ROOM_LENGTH) {
+      return ResponseEntity.badRequest().body(Collections.singletonMap("error",
+          "Room names are at most " + LoggableMessage.MAX_ROOM_LENGTH + " characters long."));
+    }
+    LoggableMessage message =
+        new LoggableMessage("joaomartins@google.com", payload, LocalDateTime.now(), room);
+    if (this.ingestionQueue != null) {
+      return accept(id -> this.messagingGateway.send(message, id));
+    }
+    this.messagingGateway.send(message);
+    return ResponseEntity.ok().build();
   }
 
   @Bean
-  @ServiceActivator(inputChannel = "pubsubInputChannel")
-  public MessageHandler receiveCustom() {
+  public ChatMessageListener receiveCustom() {
     return message -> {
+      if (!(message.getPayload() instanceof LoggableMessage)) {
+        return;
+      }
       LoggableMessage loggableMessage = (LoggableMessage) message.getPayload();
-      LOGGER.info("Received message: " + loggableMessage.getUser() + " "
-              + loggableMessage.getCreatedAt() + " " + loggableMessage.getBody());
+      LOGGER.info("Received message: {} {} {}", loggableMessage.getUser(),
+          loggableMessage.getCreatedAt(), loggableMessage.getBody());
     };
   }
 
@@ -246,7 +137,8 @@ public class WebAppController {
 //    return this.pubSubTemplate.pullNext(subscription).getData().toStringUtf8();
 //  }
 
-  private static final Logger JUL_LOGGER = Logger.getLogger("WebAppController");
+  private static final java.util.logging.Logger JUL_LOGGER =
+      java.util.logging.Logger.getLogger("WebAppController");
 
   @GetMapping("/log")
   public void log() {
@@ -0,0 +1,302 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.ack;
+
+import com.google.cloud.pubsub.v1.AckReplyConsumer;
+import com.google.springongcp.amqp.AmqpChatTransport;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ShutdownSignalException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.cloud.gcp.pubsub.support.GcpHeaders;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Settles inbound messages and keeps track of how many of them are outstanding.
+ *
+ * <p>{@link #admit(Message)} is called on the subscriber thread as a message arrives and only
+ * records it; {@link #settle(Message, boolean)} acks or nacks the message, and records how long
+ * it was outstanding. Neither blocks.
+ *
+ * <p>The outstanding limits are enforced by the Pub/Sub client library, which
+ * {@link #getMaxOutstandingMessages()} and {@link #getMaxOutstandingBytes()} configure: once they
+ * are reached, the subscriber stops pulling, and further messages wait in Pub/Sub rather than in
+ * memory. The message limit is capped at what the dispatcher can take without blocking the
+ * subscriber thread.
+ *
+ * <p>Acks and nacks are handed to the client library's {@link AckReplyConsumer}, which already
+ * sends them to Pub/Sub in batches, and which keeps extending the deadline of every message that
+ * has not been settled yet. A message held by a slow listener is therefore not redelivered while
+ * it is being handled.
+ *
+ * <p>RabbitMQ messages are consumed with manual acknowledgement and carry their {@link Channel}
+ * and delivery tag, through which they are acked, or nacked and requeued. The consumers' prefetch
+ * bounds how many of them are outstanding. Should the channel have closed in the meantime, the
+ * broker redelivers the message anyway.
+ *
+ * <p>A RabbitMQ delivery may be a batch, which the listener container splits into messages that
+ * all share its delivery tag. A delivery tag can only be settled once, so such a delivery is only
+ * acked once every one of its messages has been settled, and nacked, as a whole, if any of them
+ * failed. The publisher tells how many messages a batch holds in
+ * {@link AmqpChatTransport#BATCH_SIZE_HEADER}.
+ *
+ * <p>Messages from the in-memory transport carry neither, and are only counted.
+ */
+public class AckManager {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AckManager.class);
+
+  static final String ADMITTED_AT_HEADER = "chat_admittedAt";
+
+  static final String ADMITTED_BYTES_HEADER = "chat_admittedBytes";
+
+  /**
+   * The position of a message within its RabbitMQ batch delivery, from 0; the same on every
+   * redelivery, as the batch is split in the same order.
+   */
+  public static final String BATCH_INDEX_HEADER = "chat_batchIndex";
+
+  private final int maxOutstandingMessages;
+
+  private final long maxOutstandingBytes;
+
+  private final AtomicInteger outstandingMessages = new AtomicInteger();
+
+  private final AtomicLong outstandingBytes = new AtomicLong();
+
+  // Batch deliveries with messages not settled yet.
+  private final ConcurrentMap<Delivery, BatchDelivery> batchDeliveries = new ConcurrentHashMap<>();
+
+  private final Timer ackTimer;
+
+  private final Timer nackTimer;
+
+  /**
+   * @param properties the configured limits
+   * @param downstreamCapacity how many messages the consumers can hold without blocking
+   * @param meterRegistry where to record ack latency and outstanding messages
+   */
+  public AckManager(FlowControlProperties properties, int downstreamCapacity,
+      MeterRegistry meterRegistry) {
+    this.maxOutstandingMessages =
+        Math.max(1, Math.min(properties.getMaxOutstandingMessages(), downstreamCapacity));
+    this.maxOutstandingBytes = properties.getMaxOutstandingBytes();
+    this.ackTimer = Timer.builder("chat.pubsub.ack.latency")
+        .tag("result", "ack")
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+    this.nackTimer = Timer.builder("chat.pubsub.ack.latency")
+        .tag("result", "nack")
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+    Gauge.builder("chat.pubsub.outstanding.messages", this, AckManager::getOutstandingMessages)
+        .register(meterRegistry);
+    Gauge.builder("chat.pubsub.outstanding.bytes", this, AckManager::getOutstandingBytes)
+        .register(meterRegistry);
+  }
+
+  /**
+   * Records a newly received message as outstanding.
+   *
+   * @return the message, tagged so {@link #settle(Message, boolean)} can account for it
+   */
+  public Message<?> admit(Message<?> message) {
+    int bytes = payloadSize(message.getPayload());
+    this.outstandingMessages.incrementAndGet();
+    this.outstandingBytes.addAndGet(bytes);
+    MessageBuilder<?> builder = MessageBuilder.fromMessage(message)
+        .setHeader(ADMITTED_AT_HEADER, System.nanoTime())
+        .setHeader(ADMITTED_BYTES_HEADER, bytes);
+    Delivery delivery = Delivery.of(message);
+    Integer batchSize = message.getHeaders()
+        .get(AmqpChatTransport.BATCH_SIZE_HEADER, Integer.class);
+    if (delivery != null && batchSize != null && batchSize > 1) {
+      // The container hands over a batch's messages one after the other, on one thread.
+      BatchDelivery batch =
+          this.batchDeliveries.computeIfAbsent(delivery, key -> new BatchDelivery(batchSize));
+      builder.setHeader(BATCH_INDEX_HEADER, batch.admitted++);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Acks or nacks a message. Must be called exactly once for every admitted message.
+   */
+  public void settle(Message<?> message, boolean ack) {
+    AckReplyConsumer consumer =
+        message.getHeaders().get(GcpHeaders.ACKNOWLEDGEMENT, AckReplyConsumer.class);
+    try {
+      if (consumer != null) {
+        if (ack) {
+          consumer.ack();
+        } else {
+          consumer.nack();
+        }
+      } else {
+        settleAmqp(message, ack);
+      }
+    } finally {
+      release(message, ack);
+    }
+  }
+
+  /**
+   * @return the most messages the subscriber should hold unsettled
+   */
+  public int getMaxOutstandingMessages() {
+    return this.maxOutstandingMessages;
+  }
+
+  /**
+   * @return the most payload bytes the subscriber should hold unsettled
+   */
+  public long getMaxOutstandingBytes() {
+    return this.maxOutstandingBytes;
+  }
+
+  public int getOutstandingMessages() {
+    return this.outstandingMessages.get();
+  }
+
+  public long getOutstandingBytes() {
+    return this.outstandingBytes.get();
+  }
+
+  private void settleAmqp(Message<?> message, boolean ack) {
+    Delivery delivery = Delivery.of(message);
+    if (delivery == null) {
+      return;
+    }
+    boolean deliveryAck = ack;
+    if (message.getHeaders().containsKey(BATCH_INDEX_HEADER)) {
+      BatchDelivery batch = this.batchDeliveries.get(delivery);
+      if (batch == null) {
+        LOGGER.warn("Delivery {} was settled more often than it has messages", delivery.tag);
+        return;
+      }
+      if (!ack) {
+        batch.failed = true;
+      }
+      if (batch.unsettled.decrementAndGet() > 0) {
+        return;
+      }
+      this.batchDeliveries.remove(delivery);
+      deliveryAck = !batch.failed;
+    }
+    try {
+      if (deliveryAck) {
+        delivery.channel.basicAck(delivery.tag, false);
+      } else {
+        delivery.channel.basicNack(delivery.tag, false, true);
+      }
+    } catch (IOException | ShutdownSignalException e) {
+      LOGGER.warn("Failed to {} delivery {}; the broker redelivers it once its channel closes.",
+          deliveryAck ? "ack" : "nack", delivery.tag, e);
+    }
+  }
+
+  private void release(Message<?> message, boolean ack) {
+    Long admittedAt = message.getHeaders().get(ADMITTED_AT_HEADER, Long.class);
+    Integer bytes = message.getHeaders().get(ADMITTED_BYTES_HEADER, Integer.class);
+    if (admittedAt == null || bytes == null) {
+      return;
+    }
+    this.outstandingBytes.addAndGet(-bytes);
+    this.outstandingMessages.decrementAndGet();
+    (ack ? this.ackTimer : this.nackTimer)
+        .record(System.nanoTime() - admittedAt, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * A RabbitMQ delivery: delivery tags are only unique within their channel.
+   */
+  private static final class Delivery {
+
+    private final Channel channel;
+
+    private final long tag;
+
+    private Delivery(Channel channel, long tag) {
+      this.channel = channel;
+      this.tag = tag;
+    }
+
+    /**
+     * @return the delivery the message came in, or null if it did not come from RabbitMQ
+     */
+    static Delivery of(Message<?> message) {
+      Channel channel = message.getHeaders().get(AmqpHeaders.CHANNEL, Channel.class);
+      Long tag = message.getHeaders().get(AmqpHeaders.DELIVERY_TAG, Long.class);
+      return channel == null || tag == null ? null : new Delivery(channel, tag);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Delivery)) {
+        return false;
+      }
+      Delivery delivery = (Delivery) other;
+      return this.channel == delivery.channel && this.tag == delivery.tag;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(System.identityHashCode(this.channel), this.tag);
+    }
+  }
+
+  /**
+   * How many messages of a batch delivery are still to be settled, and whether any failed.
+   */
+  private static final class BatchDelivery {
+
+    private final AtomicInteger unsettled;
+
+    // Only touched by the consumer thread admitting the batch's messages.
+    private int admitted;
+
+    private volatile boolean failed;
+
+    BatchDelivery(int size) {
+      this.unsettled = new AtomicInteger(size);
+    }
+  }
+
+  private static int payloadSize(Object payload) {
+    if (payload instanceof byte[]) {
+      return ((byte[]) payload).length;
+    }
+    if (payload instanceof String) {
+      return ((String) payload).getBytes(StandardCharsets.UTF_8).length;
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.ack;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.ChannelInterceptorAdapter;
+
+/**
+ * Admits every message sent to the channel through an {@link AckManager}, and nacks it if nothing
+ * downstream accepted it.
+ */
+public class FlowControlInterceptor extends ChannelInterceptorAdapter {
+
+  private final AckManager ackManager;
+
+  public FlowControlInterceptor(AckManager ackManager) {
+    this.ackManager = ackManager;
+  }
+
+  @Override
+  public Message<?> preSend(Message<?> message, MessageChannel channel) {
+    return this.ackManager.admit(message);
+  }
+
+  @Override
+  public void afterSendCompletion(Message<?> message, MessageChannel channel, boolean sent,
+      Exception ex) {
+    if (ex != null || !sent) {
+      // Failed before reaching the dispatcher, e.g. in the decoder; it will not be settled there.
+      this.ackManager.settle(message, false);
+    }
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.ack;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Limits on inbound Pub/Sub messages that have been received but not yet acked or nacked, applied
+ * to each subscriber's flow control through {@link AckManager}.
+ */
+@ConfigurationProperties("chat.pubsub.flow-control")
+public class FlowControlProperties {
+
+  private int maxOutstandingMessages = 1000;
+
+  private int maxOutstandingBytes = 100 * 1024 * 1024;
+
+  public int getMaxOutstandingMessages() {
+    return maxOutstandingMessages;
+  }
+
+  public void setMaxOutstandingMessages(int maxOutstandingMessages) {
+    this.maxOutstandingMessages = maxOutstandingMessages;
+  }
+
+  public int getMaxOutstandingBytes() {
+    return maxOutstandingBytes;
+  }
+
+  public void setMaxOutstandingBytes(int maxOutstandingBytes) {
+    this.maxOutstandingBytes = maxOutstandingBytes;
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.admin;
+
+import com.google.springongcp.outbox.Outbox;
+import com.google.springongcp.pubsub.SampleConfig;
+import com.google.springongcp.pubsub.users.UserDirectory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.gcp.pubsub.core.PubSubTemplate;
+import org.springframework.cloud.gcp.storage.GoogleStorageResourceBucket;
+import org.springframework.cloud.gcp.storage.GoogleStorageResourceObject;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.view.RedirectView;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pub/Sub, user and storage administration, served when {@code chat.features.admin} is on.
+ *
+ * <p>The JDBC template and the storage bucket are only looked up on first use, so they add
+ * nothing to startup.
+ */
+@RestController
+@ConditionalOnProperty(name = "chat.features.admin", matchIfMissing = true)
+public class AdminController {
+
+  private static final String SIGNING_BUCKET = "gs://sample-testingz";
+
+  @Autowired
+  private PubSubMetadataCache metadataCache;
+
+  @Autowired
+  private PubSubTemplate pubSubTemplate;
+
+  @Autowired
+  @Lazy
+  private JdbcTemplate jdbcTemplate;
+
+  @Autowired
+  private UserDirectory userDirectory;
+
+  @Autowired
+  private SampleConfig config;
+
+  @Autowired
+  private ResourceLoader resourceLoader;
+
+  @Autowired(required = false)
+  private Outbox outbox;
+
+  /**
+   * Lists every topic in the project.
+   *
+   * @return a list of the names of every topic in the project
+   */
+  @GetMapping("/listTopics")
+  public List<String> listTopics() {
+    return new ArrayList<>(metadataCache.getTopics());
+  }
+
+  /**
+   * Lists every subscription in the project.
+   *
+   * @return a list of the names of every subscription in the project
+   */
+  @GetMapping("/listSubscriptions")
+  public List<String> listSubscriptions() {
+    return new ArrayList<>(metadataCache.getSubscriptions());
+  }
+
+  /**
+   * Creates a new topic on Google Cloud Pub/Sub, through Spring's Pub/Sub admin class, unless it
+   * is already known to exist, and redirects the user to the home page.
+   *
+   * @param topicName the name of the new topic
+   */
+  @PostMapping("/newTopic")
+  public RedirectView newTopic(@RequestParam("name") String topicName) {
+    metadataCache.createTopicIfAbsent(topicName);
+    return new RedirectView("/");
+  }
+
+  /**
+   * Creates a new subscription on Google Cloud Pub/Sub, through Spring's Pub/Sub admin class,
+   * unless it is already known to exist, and redirects the user to the home page.
+   *
+   * @param topicName the name of the new subscription
+   */
+  @PostMapping("/newSubscription")
+  public RedirectView newSubscription(
+      @RequestParam("name") String subscriptionName, @RequestParam("topic") String topicName) {
+    metadataCache.createSubscriptionIfAbsent(subscriptionName, topicName);
+    return new RedirectView("/");
+  }
+
+  /**
+   * Lists every user, served from {@link UserDirectory}'s cache when it is fresh.
+   *
+   * @return the email and name of every user
+   */
+  @GetMapping("/queryDb")
+  public List<String> queryDb() {
+    return userDirectory.listUsers();
+  }
+
+  /**
+   * Adds a user and redirects to the home page.
+   *
+   * @param email the new user's email
+   * @param name the new user's name
+   */
+  @PostMapping("/newUser")
+  public RedirectView newUser(@RequestParam("email") String email,
+      @RequestParam("name") String name) {
+    userDirectory.addUser(email, name);
+    return new RedirectView("/");
+  }
+
+  @GetMapping("/queryDbSpecial")
+  public List<Map<String, Object>> queryDbSpecial() {
+    return jdbcTemplate.queryForList("SELECT * FROM user;");
+  }
+
+  @GetMapping("/testConfig")
+  public String testConfig() {
+    return config.getUrl();
+  }
+
+  @GetMapping("/publish")
+  public ResponseEntity<Void> publish(@RequestParam("message") String message,
+          @RequestParam("topic") String topic) {
+    if (!this.metadataCache.topicExists(topic)) {
+      return ResponseEntity.notFound().build();
+    }
+    this.pubSubTemplate.publish(topic, message, null);
+    return ResponseEntity.ok().build();
+  }
+
+  /**
+   * Moves the messages the outbox gave up on back into it, to be sent again.
+   *
+   * @return how many messages were replayed, or 404 if the outbox is not enabled
+   */
+  @PostMapping("/outbox/replayDeadLetters")
+  public ResponseEntity<Integer> replayDeadLetters() throws IOException, InterruptedException {
+    if (this.outbox == null) {
+      return ResponseEntity.notFound().build();
+    }
+    return ResponseEntity.ok(this.outbox.replayDeadLetters());
+  }
+
+  @GetMapping("/signed")
+  public String signedUrl() throws IOException {
+    GoogleStorageResourceObject blob = (GoogleStorageResourceObject)
+        this.resourceLoader.getResource(SIGNING_BUCKET).createRelative("sign");
+    return blob.createSignedUrl(TimeUnit.MINUTES, 2).toString();
+  }
+
+  @GetMapping("/createBucket")
+  public void createBucket() {
+    ((GoogleStorageResourceBucket) this.resourceLoader.getResource(SIGNING_BUCKET)).create();
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.admin;
+
+import com.google.pubsub.v1.Subscription;
+import com.google.pubsub.v1.SubscriptionName;
+import com.google.pubsub.v1.Topic;
+import com.google.pubsub.v1.TopicName;
+import com.google.springongcp.cache.RefreshAheadValue;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.gcp.pubsub.PubSubAdmin;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * In-process view of the project's topic and subscription names, so read-mostly lookups do not
+ * call the Pub/Sub admin API on every request.
+ *
+ * <p>Creations made through this class invalidate the affected list straight away; anything
+ * created elsewhere shows up once the cached list is refreshed, except that
+ * {@link #topicExists(String)} asks the admin API about a topic missing from the cached list.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.features.admin", matchIfMissing = true)
+public class PubSubMetadataCache implements DisposableBean {
+
+  private final PubSubAdmin admin;
+
+  private final ExecutorService refreshExecutor;
+
+  private final RefreshAheadValue<Set<String>> topics;
+
+  private final RefreshAheadValue<Set<String>> subscriptions;
+
+  public PubSubMetadataCache(PubSubAdmin admin, PubSubMetadataProperties properties) {
+    this.admin = admin;
+    this.refreshExecutor = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "pubsub-metadata-refresh");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.topics = new RefreshAheadValue<>(this::loadTopics, this.refreshExecutor,
+        properties.getTtlMillis(), TimeUnit.MILLISECONDS, properties.getRefreshAheadRatio());
+    this.subscriptions = new RefreshAheadValue<>(this::loadSubscriptions, this.refreshExecutor,
+        properties.getTtlMillis(), TimeUnit.MILLISECONDS, properties.getRefreshAheadRatio());
+  }
+
+  /**
+   * @return the names of every topic in the project, in the order the admin API listed them
+   */
+  public Set<String> getTopics() {
+    return this.topics.get();
+  }
+
+  /**
+   * @return the names of every subscription in the project
+   */
+  public Set<String> getSubscriptions() {
+    return this.subscriptions.get();
+  }
+
+  /**
+   * Checks the cached list first and, on a miss, asks the admin API for that one topic, so a topic
+   * created elsewhere is usable before the next refresh. A topic found that way invalidates the
+   * cached list.
+   */
+  public boolean topicExists(String topicName) {
+    if (getTopics().contains(topicName)) {
+      return true;
+    }
+    if (this.admin.getTopic(topicName) == null) {
+      return false;
+    }
+    this.topics.invalidate();
+    return true;
+  }
+
+  /**
+   * Creates a topic unless the cache already knows about it.
+   *
+   * @return true if the topic was created
+   */
+  public boolean createTopicIfAbsent(String topicName) {
+    if (topicExists(topicName)) {
+      return false;
+    }
+    this.admin.createTopic(topicName);
+    this.topics.invalidate();
+    return true;
+  }
+
+  /**
+   * Creates a subscription unless the cache already knows about it.
+   *
+   * @return true if the subscription was created
+   */
+  public boolean createSubscriptionIfAbsent(String subscriptionName, String topicName) {
+    if (getSubscriptions().contains(subscriptionName)) {
+      return false;
+    }
+    this.admin.createSubscription(subscriptionName, topicName);
+    this.subscriptions.invalidate();
+    return true;
+  }
+
+  @Override
+  public void destroy() {
+    this.refreshExecutor.shutdownNow();
+  }
+
+  private Set<String> loadTopics() {
+    return Collections.unmodifiableSet(this.admin
+        .listTopics()
+        .stream()
+        .map(Topic::getNameAsTopicName)
+        .map(TopicName::getTopic)
+        .collect(Collectors.toCollection(LinkedHashSet::new)));
+  }
+
+  private Set<String> loadSubscriptions() {
+    return Collections.unmodifiableSet(this.admin
+        .listSubscriptions()
+        .stream()
+        .map(Subscription::getNameAsSubscriptionName)
+        .map(SubscriptionName::getSubscription)
+        .collect(Collectors.toCollection(LinkedHashSet::new)));
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.admin;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Cache settings for {@link PubSubMetadataCache}.
+ */
+@ConfigurationProperties("chat.pubsub.metadata")
+public class PubSubMetadataProperties {
+
+  private long ttlMillis = 60000;
+
+  private double refreshAheadRatio = 0.75;
+
+  public long getTtlMillis() {
+    return ttlMillis;
+  }
+
+  public void setTtlMillis(long ttlMillis) {
+    this.ttlMillis = ttlMillis;
+  }
+
+  public double getRefreshAheadRatio() {
+    return refreshAheadRatio;
+  }
+
+  public void setRefreshAheadRatio(double refreshAheadRatio) {
+    this.refreshAheadRatio = refreshAheadRatio;
+  }
+}
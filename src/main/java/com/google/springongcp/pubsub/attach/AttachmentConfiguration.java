@@ -0,0 +1,46 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.attach;
+
+import com.google.cloud.storage.Storage;
+import com.google.springongcp.pubsub.media.MediaProperties;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.io.ResourceLoader;
+
+import java.io.IOException;
+
+/**
+ * Stores attachments under {@code chat.media.root}, where {@code /media} serves them from: in its
+ * GCS bucket, or in its directory when it is a {@code file:} location, as in the local profile.
+ */
+@Configuration
+@ConditionalOnProperty(name = "chat.features.media", matchIfMissing = true)
+public class AttachmentConfiguration {
+
+  @Bean
+  public AttachmentStore attachmentStore(MediaProperties mediaProperties,
+      ResourceLoader resourceLoader, @Lazy Storage storage) throws IOException {
+    String root = mediaProperties.getRoot();
+    if (root.startsWith("gs://")) {
+      return new GcsAttachmentStore(storage, root);
+    }
+    return new LocalAttachmentStore(resourceLoader.getResource(root).getFile().toPath());
+  }
+}
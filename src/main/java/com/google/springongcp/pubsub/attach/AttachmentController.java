@@ -0,0 +1,100 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.attach;
+
+import com.google.springongcp.model.LoggableMessage;
+import com.google.springongcp.pubsub.PubsubApplication.ChatGateway;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.messaging.MessagingException;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import javax.servlet.http.HttpServletRequest;
+
+@RestController
+@ConditionalOnProperty(name = "chat.features.media", matchIfMissing = true)
+public class AttachmentController {
+
+  @Autowired
+  private AttachmentUploader uploader;
+
+  @Autowired
+  private ChatGateway messagingGateway;
+
+  @Autowired
+  private AttachmentProperties properties;
+
+  /**
+   * Stores the request body as an attachment and posts a reference to it in the room, rather than
+   * the attachment itself.
+   *
+   * <p>The body is the file itself, not a multipart form, so it is streamed to storage as it
+   * arrives instead of being spooled first.
+   *
+   * @param name the file name, which also gives the media type if the request has none
+   * @param room the room to post the reference in
+   * @return 201 with the reference, 400 if the room name is too long, 408 if the client sends the
+   *     body too slowly, or 413 if the body is over {@code chat.attachments.max-bytes}
+   */
+  @PostMapping("/attachments")
+  public ResponseEntity<?> upload(@RequestParam("name") String name,
+      @RequestParam(value = "room", defaultValue = LoggableMessage.DEFAULT_ROOM) String room,
+      HttpServletRequest request) throws IOException {
+    if (room.length() > LoggableMessage.MAX_ROOM_LENGTH) {
+      return ResponseEntity.badRequest().body(Collections.singletonMap("error",
+          "Room names are at most " + LoggableMessage.MAX_ROOM_LENGTH + " characters long."));
+    }
+    if (request.getContentLengthLong() > this.properties.getMaxBytes()) {
+      return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+    }
+    String contentType = request.getContentType() != null
+        ? request.getContentType()
+        : MediaTypeFactory.getMediaType(name).orElse(MediaType.APPLICATION_OCTET_STREAM)
+            .toString();
+
+    AttachmentReference reference;
+    try {
+      reference = this.uploader.upload(request.getInputStream(), name, contentType);
+    } catch (AttachmentTooLargeException atle) {
+      return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+    } catch (AttachmentReadTimeoutException arte) {
+      return ResponseEntity.status(HttpStatus.REQUEST_TIMEOUT).build();
+    }
+    this.messagingGateway.send(new LoggableMessage(
+        "joaomartins@google.com", reference.toBody(), LocalDateTime.now(), room));
+    return ResponseEntity.created(URI.create(reference.getUrl())).body(reference);
+  }
+
+  /**
+   * The attachment is stored, but the message referring to it was not sent.
+   */
+  @ExceptionHandler(MessagingException.class)
+  public ResponseEntity<?> sendFailed() {
+    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.attach;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings for chat attachments. Uploads are cut into {@code chunkSize} chunks, of which at most
+ * {@code maxBufferedChunks} are held in memory at once across all uploads, and at most
+ * {@code maxBufferedChunksPerUpload} by any one upload, and written to storage by
+ * {@code uploadThreads} threads. A chunk that fails is tried up to {@code maxAttempts} times. A
+ * client that takes more than {@code chunkReadTimeoutMillis} to send a chunk is cut off, and
+ * buffers left unused for {@code bufferIdleMillis} are freed.
+ */
+@ConfigurationProperties("chat.attachments")
+public class AttachmentProperties {
+
+  private int chunkSize = 8 * 1024 * 1024;
+
+  private int uploadThreads = 8;
+
+  private int maxBufferedChunks = 16;
+
+  private int maxBufferedChunksPerUpload = 4;
+
+  private long chunkReadTimeoutMillis = 30000;
+
+  private long bufferIdleMillis = 60000;
+
+  private long maxBytes = 1024L * 1024 * 1024;
+
+  private int maxAttempts = 3;
+
+  private long retryBackoffMillis = 500;
+
+  private String objectPrefix = "attachment-";
+
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  public void setChunkSize(int chunkSize) {
+    this.chunkSize = chunkSize;
+  }
+
+  public int getUploadThreads() {
+    return uploadThreads;
+  }
+
+  public void setUploadThreads(int uploadThreads) {
+    this.uploadThreads = uploadThreads;
+  }
+
+  public int getMaxBufferedChunks() {
+    return maxBufferedChunks;
+  }
+
+  public void setMaxBufferedChunks(int maxBufferedChunks) {
+    this.maxBufferedChunks = maxBufferedChunks;
+  }
+
+  public int getMaxBufferedChunksPerUpload() {
+    return maxBufferedChunksPerUpload;
+  }
+
+  public void setMaxBufferedChunksPerUpload(int maxBufferedChunksPerUpload) {
+    this.maxBufferedChunksPerUpload = maxBufferedChunksPerUpload;
+  }
+
+  public long getChunkReadTimeoutMillis() {
+    return chunkReadTimeoutMillis;
+  }
+
+  public void setChunkReadTimeoutMillis(long chunkReadTimeoutMillis) {
+    this.chunkReadTimeoutMillis = chunkReadTimeoutMillis;
+  }
+
+  public long getBufferIdleMillis() {
+    return bufferIdleMillis;
+  }
+
+  public void setBufferIdleMillis(long bufferIdleMillis) {
+    this.bufferIdleMillis = bufferIdleMillis;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  public void setMaxAttempts(int maxAttempts) {
+    this.maxAttempts = maxAttempts;
+  }
+
+  public long getRetryBackoffMillis() {
+    return retryBackoffMillis;
+  }
+
+  public void setRetryBackoffMillis(long retryBackoffMillis) {
+    this.retryBackoffMillis = retryBackoffMillis;
+  }
+
+  public String getObjectPrefix() {
+    return objectPrefix;
+  }
+
+  public void setObjectPrefix(String objectPrefix) {
+    this.objectPrefix = objectPrefix;
+  }
+}
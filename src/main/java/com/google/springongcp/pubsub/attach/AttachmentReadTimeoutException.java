@@ -0,0 +1,30 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.attach;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a client takes longer than {@code chat.attachments.chunk-read-timeout-millis} to
+ * send one chunk of an upload.
+ */
+public class AttachmentReadTimeoutException extends IOException {
+
+  public AttachmentReadTimeoutException(long timeoutMillis) {
+    super("Attachment chunk not received within " + timeoutMillis + " ms");
+  }
+}
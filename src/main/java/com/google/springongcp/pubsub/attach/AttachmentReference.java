@@ -0,0 +1,121 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.attach;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A stored attachment, as posted to a room in place of its bytes. In a chat message, the body is
+ * {@code attachment:/media/<object>?name=...&type=...&size=...}, which clients fetch through
+ * {@code /media}.
+ */
+public class AttachmentReference {
+
+  private static final String SCHEME = "attachment:";
+
+  private static final String MEDIA_PATH = "/media/";
+
+  private final String objectName;
+
+  private final String fileName;
+
+  private final String contentType;
+
+  private final long size;
+
+  public AttachmentReference(String objectName, String fileName, String contentType, long size) {
+    this.objectName = objectName;
+    this.fileName = fileName;
+    this.contentType = contentType;
+    this.size = size;
+  }
+
+  /**
+   * @return the reference in a chat message body, or null if the body is not one
+   */
+  public static AttachmentReference parse(String body) {
+    if (body == null || !body.startsWith(SCHEME + MEDIA_PATH)) {
+      return null;
+    }
+    String reference = body.substring((SCHEME + MEDIA_PATH).length());
+    int query = reference.indexOf('?');
+    if (query < 0) {
+      return null;
+    }
+    Map<String, String> parameters = new HashMap<>();
+    for (String parameter : reference.substring(query + 1).split("&")) {
+      int equals = parameter.indexOf('=');
+      if (equals > 0) {
+        parameters.put(parameter.substring(0, equals), decode(parameter.substring(equals + 1)));
+      }
+    }
+    try {
+      return new AttachmentReference(decode(reference.substring(0, query)),
+          parameters.get("name"), parameters.get("type"), Long.parseLong(parameters.get("size")));
+    } catch (NumberFormatException nfe) {
+      return null;
+    }
+  }
+
+  /**
+   * @return the chat message body referring to the attachment
+   */
+  public String toBody() {
+    return SCHEME + getUrl() + "?name=" + encode(this.fileName) + "&type="
+        + encode(this.contentType) + "&size=" + this.size;
+  }
+
+  public String getUrl() {
+    return MEDIA_PATH + encode(this.objectName);
+  }
+
+  public String getObjectName() {
+    return objectName;
+  }
+
+  public String getFileName() {
+    return fileName;
+  }
+
+  public String getContentType() {
+    return contentType;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  private static String encode(String value) {
+    try {
+      return URLEncoder.encode(value, "UTF-8");
+    } catch (UnsupportedEncodingException uee) {
+      throw new IllegalStateException(uee);
+    }
+  }
+
+  private static String decode(String value) {
+    try {
+      return URLDecoder.decode(value, "UTF-8");
+    } catch (UnsupportedEncodingException uee) {
+      throw new IllegalStateException(uee);
+    }
+  }
+}
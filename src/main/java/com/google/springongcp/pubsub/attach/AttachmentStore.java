@@ -0,0 +1,59 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.attach;
+
+import java.io.IOException;
+
+/**
+ * Where attachments are stored: the GCS bucket of {@code chat.media.root}, or a local directory
+ * standing in for it.
+ */
+public interface AttachmentStore {
+
+  /**
+   * Starts storing an object in chunks. Nothing is visible under the object's name until the
+   * upload is completed.
+   *
+   * @param objectName the object's name, relative to the media root
+   * @param contentType the object's media type
+   */
+  ChunkedUpload begin(String objectName, String contentType) throws IOException;
+
+  /**
+   * An object being stored. Chunks may be written concurrently and in any order, and writing a
+   * chunk again replaces it, so a failed chunk can be retried on its own.
+   */
+  interface ChunkedUpload {
+
+    /**
+     * Stores one chunk. The data is only read during the call.
+     *
+     * @param index the chunk's position, from 0
+     */
+    void writeChunk(int index, byte[] data, int length) throws IOException;
+
+    /**
+     * Joins chunks 0 to {@code chunkCount - 1}, in order, into the object and removes them.
+     */
+    void complete(int chunkCount) throws IOException;
+
+    /**
+     * Removes whatever chunks were stored. Never throws.
+     */
+    void abort();
+  }
+}
@@ -0,0 +1,344 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.attach;
+
+import com.google.springongcp.pubsub.attach.AttachmentStore.ChunkedUpload;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams attachments into the {@link AttachmentStore} in chunks, uploading the chunks of an
+ * attachment in parallel while the rest of it is still being read.
+ *
+ * <p>The calling thread reads one chunk at a time into a pooled buffer and hands it to the
+ * "chat-attachment-upload" threads. At most {@code chat.attachments.max-buffered-chunks} buffers
+ * exist across all uploads; once all of them are taken, readers wait for a chunk to finish
+ * uploading, so heap use does not depend on attachment sizes or on how many are uploaded at once.
+ * One upload holds at most {@code max-buffered-chunks-per-upload} of them, so a few large uploads
+ * cannot take them all.
+ *
+ * <p>Slow clients must not sit on buffers either: a buffer is only taken once the first byte of
+ * a chunk has arrived, and a client that takes more than {@code chunk-read-timeout-millis} to send
+ * the rest of it is cut off with an {@link AttachmentReadTimeoutException}. A read that stalls
+ * altogether is bounded by the connector's {@code server.connection-timeout}. Pooled buffers
+ * unused for {@code buffer-idle-millis} are freed, so the pool shrinks again after a burst.
+ *
+ * <p>A chunk that fails is retried on its own, with a growing pause. Once a chunk has failed for
+ * good, the upload stops reading, and the chunks already stored are removed.
+ *
+ * <p>Records upload durations in {@code chat.attachment.upload}, chunk retries in
+ * {@code chat.attachment.chunk.retries}, buffers in use in {@code chat.attachment.buffers.used}
+ * and free pooled buffers in {@code chat.attachment.buffers.pooled}.
+ */
+@Service
+@ConditionalOnProperty(name = "chat.features.media", matchIfMissing = true)
+public class AttachmentUploader implements DisposableBean {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AttachmentUploader.class);
+
+  private static final int MAX_FILE_NAME_LENGTH = 100;
+
+  private final AttachmentStore store;
+
+  private final AttachmentProperties properties;
+
+  private final Semaphore bufferPermits;
+
+  // Most recently released first, so the buffers at the end are the ones idle the longest.
+  private final Deque<PooledBuffer> freeBuffers = new ConcurrentLinkedDeque<>();
+
+  private final ScheduledThreadPoolExecutor executor;
+
+  private final Timer uploadedTimer;
+
+  private final Timer failedTimer;
+
+  private final Counter chunkRetries;
+
+  public AttachmentUploader(AttachmentStore store, AttachmentProperties properties,
+      MeterRegistry meterRegistry) {
+    this.store = store;
+    this.properties = properties;
+    this.bufferPermits = new Semaphore(properties.getMaxBufferedChunks());
+    AtomicInteger threadCount = new AtomicInteger();
+    // Unbounded, but never holds more chunks than there are buffers, besides the buffer trimming.
+    this.executor = new ScheduledThreadPoolExecutor(properties.getUploadThreads(),
+        runnable -> {
+          Thread thread =
+              new Thread(runnable, "chat-attachment-upload-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+    this.executor.scheduleWithFixedDelay(this::trimBuffers, properties.getBufferIdleMillis(),
+        properties.getBufferIdleMillis(), TimeUnit.MILLISECONDS);
+    this.uploadedTimer = Timer.builder("chat.attachment.upload")
+        .tag("result", "success")
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+    this.failedTimer = Timer.builder("chat.attachment.upload")
+        .tag("result", "failure")
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+    this.chunkRetries = Counter.builder("chat.attachment.chunk.retries").register(meterRegistry);
+    Gauge.builder("chat.attachment.buffers.used", this, AttachmentUploader::getBuffersInUse)
+        .register(meterRegistry);
+    Gauge.builder("chat.attachment.buffers.pooled", this.freeBuffers, Deque::size)
+        .register(meterRegistry);
+  }
+
+  /**
+   * Stores everything the stream holds as a new attachment.
+   *
+   * @param in the attachment's contents; read to the end, but not closed
+   * @param fileName the name the attachment was uploaded under
+   * @param contentType the attachment's media type
+   * @return the stored attachment
+   * @throws AttachmentTooLargeException if the stream holds more than
+   *     {@code chat.attachments.max-bytes}
+   * @throws AttachmentReadTimeoutException if a chunk takes longer than
+   *     {@code chat.attachments.chunk-read-timeout-millis} to arrive
+   */
+  public AttachmentReference upload(InputStream in, String fileName, String contentType)
+      throws IOException {
+    String objectName = this.properties.getObjectPrefix() + UUID.randomUUID() + "-"
+        + safeFileName(fileName);
+    long start = System.nanoTime();
+    ChunkedUpload upload = this.store.begin(objectName, contentType);
+    List<CompletableFuture<Void>> chunks = new ArrayList<>();
+    CompletableFuture<Void> failure = new CompletableFuture<>();
+    Semaphore uploadPermits = new Semaphore(this.properties.getMaxBufferedChunksPerUpload());
+    boolean completed = false;
+    try {
+      long size = 0;
+      int length = this.properties.getChunkSize();
+      while (length == this.properties.getChunkSize() && !failure.isDone()) {
+        // Waits for the client before taking a buffer, so one that stalls holds none.
+        int first = in.read();
+        if (first == -1) {
+          break;
+        }
+        byte[] buffer = takeBuffer(uploadPermits);
+        try {
+          buffer[0] = (byte) first;
+          length = readFully(in, buffer, 1);
+          size += length;
+          if (size > this.properties.getMaxBytes()) {
+            throw new AttachmentTooLargeException(this.properties.getMaxBytes());
+          }
+        } catch (IOException | RuntimeException e) {
+          releaseBuffer(buffer, uploadPermits);
+          throw e;
+        }
+        chunks.add(submit(upload, chunks.size(), buffer, length, failure, uploadPermits));
+      }
+
+      await(CompletableFuture.anyOf(
+          CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0])), failure));
+      upload.complete(chunks.size());
+      completed = true;
+      this.uploadedTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      return new AttachmentReference(objectName, fileName, contentType, size);
+    } finally {
+      if (!completed) {
+        this.failedTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        failure.complete(null);
+        // Chunks being written now would otherwise be stored again after the abort.
+        CompletableFuture.allOf(chunks.stream()
+            .map(chunk -> chunk.handle((ignored, ex) -> null))
+            .toArray(CompletableFuture<?>[]::new)).join();
+        upload.abort();
+      }
+    }
+  }
+
+  /**
+   * @return how many chunk buffers are holding data being read or uploaded
+   */
+  public int getBuffersInUse() {
+    return this.properties.getMaxBufferedChunks() - this.bufferPermits.availablePermits();
+  }
+
+  @Override
+  public void destroy() throws InterruptedException {
+    this.executor.shutdown();
+    this.executor.awaitTermination(10, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Queues a chunk for upload. The chunk's future fails, and so does {@code failure}, once the
+   * chunk has failed {@code max-attempts} times; chunks still queued by then are skipped.
+   */
+  private CompletableFuture<Void> submit(ChunkedUpload upload, int index, byte[] buffer,
+      int length, CompletableFuture<Void> failure, Semaphore uploadPermits) {
+    CompletableFuture<Void> result = new CompletableFuture<>();
+    Runnable task = () -> {
+      try {
+        for (int attempt = 1; !failure.isDone(); attempt++) {
+          try {
+            upload.writeChunk(index, buffer, length);
+            result.complete(null);
+            return;
+          } catch (IOException | RuntimeException e) {
+            if (attempt >= this.properties.getMaxAttempts()) {
+              throw e;
+            }
+            this.chunkRetries.increment();
+            LOGGER.warn("Retrying chunk {} after attempt {} failed", index, attempt, e);
+            Thread.sleep(this.properties.getRetryBackoffMillis() * attempt);
+          }
+        }
+        result.cancel(false);
+      } catch (Exception e) {
+        result.completeExceptionally(e);
+        failure.completeExceptionally(e);
+      } finally {
+        releaseBuffer(buffer, uploadPermits);
+      }
+    };
+    try {
+      this.executor.execute(task);
+    } catch (RejectedExecutionException ree) {
+      releaseBuffer(buffer, uploadPermits);
+      result.completeExceptionally(ree);
+      failure.completeExceptionally(ree);
+    }
+    return result;
+  }
+
+  /**
+   * Takes a buffer once the upload and the whole pool both have one to spare; the upload's own
+   * permit comes first, so an upload at its limit waits for its own chunks, not for others'.
+   */
+  private byte[] takeBuffer(Semaphore uploadPermits) throws InterruptedIOException {
+    try {
+      uploadPermits.acquire();
+      try {
+        this.bufferPermits.acquire();
+      } catch (InterruptedException ie) {
+        uploadPermits.release();
+        throw ie;
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for an upload buffer");
+    }
+    PooledBuffer pooled = this.freeBuffers.pollFirst();
+    return pooled != null ? pooled.buffer : new byte[this.properties.getChunkSize()];
+  }
+
+  private void releaseBuffer(byte[] buffer, Semaphore uploadPermits) {
+    this.freeBuffers.offerFirst(new PooledBuffer(buffer, System.nanoTime()));
+    this.bufferPermits.release();
+    uploadPermits.release();
+  }
+
+  /**
+   * Frees the pooled buffers that have not been used for {@code buffer-idle-millis}.
+   */
+  private void trimBuffers() {
+    long idleNanos = TimeUnit.MILLISECONDS.toNanos(this.properties.getBufferIdleMillis());
+    long now = System.nanoTime();
+    PooledBuffer oldest;
+    while ((oldest = this.freeBuffers.peekLast()) != null && now - oldest.releasedAt >= idleNanos) {
+      this.freeBuffers.removeLastOccurrence(oldest);
+    }
+  }
+
+  /**
+   * Fills the buffer from {@code offset} on, or until the stream ends.
+   *
+   * @return how many bytes the buffer now holds
+   * @throws AttachmentReadTimeoutException if the buffer is not filled within
+   *     {@code chunk-read-timeout-millis}
+   */
+  private int readFully(InputStream in, byte[] buffer, int offset) throws IOException {
+    long timeoutMillis = this.properties.getChunkReadTimeoutMillis();
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    int length = offset;
+    while (length < buffer.length) {
+      int read = in.read(buffer, length, buffer.length - length);
+      if (read == -1) {
+        break;
+      }
+      length += read;
+      if (length < buffer.length && System.nanoTime() - deadline > 0) {
+        throw new AttachmentReadTimeoutException(timeoutMillis);
+      }
+    }
+    return length;
+  }
+
+  private static void await(CompletableFuture<?> future) throws IOException {
+    try {
+      future.get();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for chunks to upload");
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      throw cause instanceof IOException
+          ? (IOException) cause
+          : new IOException("Failed to upload a chunk", cause);
+    }
+  }
+
+  /**
+   * Keeps letters, digits, dots, dashes and underscores, so the name works as an object name and
+   * in a {@code /media} URL, and keeps the extension media types are guessed from.
+   */
+  static String safeFileName(String fileName) {
+    String safe = fileName.replaceAll("[^A-Za-z0-9._-]", "_");
+    return safe.length() <= MAX_FILE_NAME_LENGTH
+        ? safe
+        : safe.substring(safe.length() - MAX_FILE_NAME_LENGTH);
+  }
+
+  private static final class PooledBuffer {
+
+    private final byte[] buffer;
+
+    private final long releasedAt;
+
+    PooledBuffer(byte[] buffer, long releasedAt) {
+      this.buffer = buffer;
+      this.releasedAt = releasedAt;
+    }
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.attach;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stores attachments in a GCS bucket as a parallel composite upload: each chunk becomes a
+ * temporary object of its own, and the chunks are then composed into the attachment and deleted.
+ * Chunks are independent requests, so they upload in parallel, and a failed chunk is sent again on
+ * its own rather than restarting the whole attachment.
+ *
+ * <p>GCS composes at most 32 objects per request, so attachments of more chunks are composed in
+ * rounds, through intermediate objects. Chunks left behind by a node that died mid-upload are
+ * named {@code <object>.part-<n>}, for a bucket lifecycle rule to clean up.
+ */
+public class GcsAttachmentStore implements AttachmentStore {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(GcsAttachmentStore.class);
+
+  private static final int MAX_COMPOSE_SOURCES = 32;
+
+  private final Storage storage;
+
+  private final String bucket;
+
+  private final String prefix;
+
+  /**
+   * @param location the bucket and optional prefix, as {@code gs://bucket/prefix/}
+   */
+  public GcsAttachmentStore(Storage storage, String location) {
+    if (!location.startsWith("gs://")) {
+      throw new IllegalArgumentException("Not a GCS location: " + location);
+    }
+    String path = location.substring("gs://".length());
+    int slash = path.indexOf('/');
+    this.storage = storage;
+    this.bucket = slash < 0 ? path : path.substring(0, slash);
+    this.prefix = slash < 0 ? "" : path.substring(slash + 1);
+  }
+
+  @Override
+  public ChunkedUpload begin(String objectName, String contentType) {
+    return new GcsUpload(this.prefix + objectName, contentType);
+  }
+
+  private final class GcsUpload implements ChunkedUpload {
+
+    private final String name;
+
+    private final String contentType;
+
+    private final List<String> intermediates = new ArrayList<>();
+
+    private final AtomicInteger highestChunk = new AtomicInteger(-1);
+
+    GcsUpload(String name, String contentType) {
+      this.name = name;
+      this.contentType = contentType;
+    }
+
+    @Override
+    public void writeChunk(int index, byte[] data, int length) throws IOException {
+      this.highestChunk.accumulateAndGet(index, Math::max);
+      try {
+        GcsAttachmentStore.this.storage.create(
+            BlobInfo.newBuilder(GcsAttachmentStore.this.bucket, partName(index)).build(),
+            data, 0, length);
+      } catch (StorageException se) {
+        throw new IOException("Failed to upload chunk " + index + " of " + this.name, se);
+      }
+    }
+
+    @Override
+    public void complete(int chunkCount) throws IOException {
+      BlobInfo target = BlobInfo.newBuilder(GcsAttachmentStore.this.bucket, this.name)
+          .setContentType(this.contentType)
+          .build();
+      try {
+        if (chunkCount == 0) {
+          GcsAttachmentStore.this.storage.create(target, new byte[0]);
+          return;
+        }
+        List<String> sources = new ArrayList<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+          sources.add(partName(i));
+        }
+        for (int round = 0; sources.size() > MAX_COMPOSE_SOURCES; round++) {
+          List<String> composed = new ArrayList<>();
+          for (int i = 0; i < sources.size(); i += MAX_COMPOSE_SOURCES) {
+            List<String> group =
+                sources.subList(i, Math.min(i + MAX_COMPOSE_SOURCES, sources.size()));
+            String intermediate = this.name + ".compose-" + round + "-" + composed.size();
+            this.intermediates.add(intermediate);
+            compose(group, BlobInfo.newBuilder(GcsAttachmentStore.this.bucket, intermediate)
+                .build());
+            composed.add(intermediate);
+          }
+          sources = composed;
+        }
+        compose(sources, target);
+      } catch (StorageException se) {
+        throw new IOException("Failed to compose " + this.name, se);
+      } finally {
+        deleteTemporaries();
+      }
+    }
+
+    @Override
+    public void abort() {
+      deleteTemporaries();
+    }
+
+    private void compose(List<String> sources, BlobInfo target) {
+      GcsAttachmentStore.this.storage.compose(Storage.ComposeRequest.newBuilder()
+          .addSource(sources)
+          .setTarget(target)
+          .build());
+    }
+
+    private void deleteTemporaries() {
+      List<BlobId> temporaries = new ArrayList<>();
+      for (int i = 0; i <= this.highestChunk.get(); i++) {
+        temporaries.add(BlobId.of(GcsAttachmentStore.this.bucket, partName(i)));
+      }
+      for (String intermediate : this.intermediates) {
+        temporaries.add(BlobId.of(GcsAttachmentStore.this.bucket, intermediate));
+      }
+      if (temporaries.isEmpty()) {
+        return;
+      }
+      try {
+        GcsAttachmentStore.this.storage.delete(temporaries);
+      } catch (StorageException se) {
+        LOGGER.warn("Failed to delete the temporary objects of {}", this.name, se);
+      }
+    }
+
+    private String partName(int index) {
+      return this.name + ".part-" + index;
+    }
+  }
+}
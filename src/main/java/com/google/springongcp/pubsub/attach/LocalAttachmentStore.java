@@ -0,0 +1,116 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.attach;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Stores attachments in a local directory, standing in for the bucket when {@code chat.media.root}
+ * is a {@code file:} location, for running and testing without GCS. Chunks are written to files
+ * of their own under {@code .parts}, then concatenated into the attachment, which is moved into
+ * place in one step.
+ */
+public class LocalAttachmentStore implements AttachmentStore {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(LocalAttachmentStore.class);
+
+  private final Path root;
+
+  public LocalAttachmentStore(Path root) throws IOException {
+    this.root = root.toAbsolutePath().normalize();
+    Files.createDirectories(this.root.resolve(".parts"));
+  }
+
+  @Override
+  public ChunkedUpload begin(String objectName, String contentType) throws IOException {
+    Path target = this.root.resolve(objectName).normalize();
+    if (!target.startsWith(this.root)) {
+      throw new IllegalArgumentException("Object name escapes the media root: " + objectName);
+    }
+    Path parts = Files.createDirectory(
+        this.root.resolve(".parts").resolve(UUID.randomUUID().toString()));
+    return new LocalUpload(target, parts);
+  }
+
+  private static final class LocalUpload implements ChunkedUpload {
+
+    private final Path target;
+
+    private final Path parts;
+
+    LocalUpload(Path target, Path parts) {
+      this.target = target;
+      this.parts = parts;
+    }
+
+    @Override
+    public void writeChunk(int index, byte[] data, int length) throws IOException {
+      Path partial = this.parts.resolve(index + ".tmp");
+      try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      }
+      Files.move(partial, this.parts.resolve(Integer.toString(index)),
+          StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void complete(int chunkCount) throws IOException {
+      Path joined = this.parts.resolve("joined");
+      try (FileChannel out = FileChannel.open(joined, StandardOpenOption.CREATE_NEW,
+          StandardOpenOption.WRITE)) {
+        for (int i = 0; i < chunkCount; i++) {
+          try (FileChannel in =
+              FileChannel.open(this.parts.resolve(Integer.toString(i)), StandardOpenOption.READ)) {
+            long position = 0;
+            long size = in.size();
+            while (position < size) {
+              position += in.transferTo(position, size - position, out);
+            }
+          }
+        }
+      }
+      Files.move(joined, this.target,
+          StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      abort();
+    }
+
+    @Override
+    public void abort() {
+      try (Stream<Path> files = Files.walk(this.parts)) {
+        files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+      } catch (IOException ioe) {
+        LOGGER.warn("Failed to delete the chunks in {}", this.parts, ioe);
+      }
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.batch;
+
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.pubsub.v1.TopicAdminClient;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import com.google.pubsub.v1.PublishRequest;
+import com.google.pubsub.v1.PublishResponse;
+import com.google.pubsub.v1.PubsubMessage;
+import com.google.springongcp.pubsub.ingest.IngestionQueue;
+import com.google.springongcp.shard.ShardRouter;
+import com.google.springongcp.transport.ChatTransport;
+import com.google.springongcp.transport.MessageBatcher;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandlingException;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Google Cloud Pub/Sub {@link ChatTransport}: publishes String and byte array payloads to the
+ * topic shard of their room, in batches. The ID given to a message by async ingestion goes with
+ * it as an attribute.
+ *
+ * <p>Each batch goes out as a single Publish call with all of its messages, straight through the
+ * {@link TopicAdminClient}, as {@code PubSubTemplate} only publishes one message at a time.
+ */
+public class PubSubChatTransport implements ChatTransport, DisposableBean {
+
+  private final TopicAdminClient topicAdminClient;
+
+  private final String projectId;
+
+  private final String topic;
+
+  private final ShardRouter shardRouter;
+
+  private final MessageBatcher<String, PubsubMessage> batcher;
+
+  /**
+   * @param topicAdminClient the client to publish through
+   * @param projectId the project the topics are in
+   * @param topic the topic to publish to, or the base name of its shards
+   * @param shardRouter picks the topic shard for each message's room
+   * @param properties batch thresholds
+   * @param meterRegistry where to record publish latency and batch sizes
+   */
+  public PubSubChatTransport(TopicAdminClient topicAdminClient, String projectId, String topic,
+      ShardRouter shardRouter, PublishBatchProperties properties, MeterRegistry meterRegistry) {
+    this.topicAdminClient = topicAdminClient;
+    this.projectId = projectId;
+    this.topic = topic;
+    this.shardRouter = shardRouter;
+    this.batcher = new MessageBatcher<>("pubsub", properties.getMaxMessages(),
+        properties.getMaxBytes(), properties.getMaxLingerMillis(),
+        properties.getMaxInFlightBatches(), this::publish, meterRegistry);
+  }
+
+  @Override
+  public String getName() {
+    return "pubsub";
+  }
+
+  /**
+   * Adds a message to the open batch for its topic shard.
+   *
+   * @param message the message, with a String or byte array payload
+   * @return a future completed once Pub/Sub has accepted the message's batch
+   */
+  @Override
+  public CompletableFuture<Void> send(Message<?> message) {
+    PubsubMessage pubsubMessage = toPubsubMessage(message);
+    return this.batcher.add(this.shardRouter.destinationOf(this.topic, message), pubsubMessage,
+        pubsubMessage.getSerializedSize());
+  }
+
+  @Override
+  public void destroy() {
+    this.batcher.destroy();
+  }
+
+  private CompletableFuture<PublishResponse> publish(String topic, List<PubsubMessage> messages,
+      long bytes) {
+    PublishRequest request = PublishRequest.newBuilder()
+        .setTopic("projects/" + this.projectId + "/topics/" + topic)
+        .addAllMessages(messages)
+        .build();
+    CompletableFuture<PublishResponse> result = new CompletableFuture<>();
+    ApiFutures.addCallback(this.topicAdminClient.publishCallable().futureCall(request),
+        new ApiFutureCallback<PublishResponse>() {
+
+          @Override
+          public void onSuccess(PublishResponse response) {
+            result.complete(response);
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            result.completeExceptionally(t);
+          }
+        });
+    return result;
+  }
+
+  private static PubsubMessage toPubsubMessage(Message<?> message) {
+    Object payload = message.getPayload();
+    ByteString data;
+    if (payload instanceof byte[]) {
+      // Callers hand the array over with the message and never touch it again, so share it as is.
+      data = UnsafeByteOperations.unsafeWrap((byte[]) payload);
+    } else if (payload instanceof String) {
+      data = ByteString.copyFromUtf8((String) payload);
+    } else {
+      throw new MessageHandlingException(message,
+          "Unsupported payload type " + payload.getClass().getName()
+              + "; encode it to a String or byte[] before publishing.");
+    }
+    PubsubMessage.Builder pubsubMessage = PubsubMessage.newBuilder()
+        .setData(data)
+        .putAttributes(MESSAGE_ID_HEADER, ChatTransport.messageIdOf(message));
+    String ingestionId = message.getHeaders().get(IngestionQueue.ID_HEADER, String.class);
+    if (ingestionId != null) {
+      pubsubMessage.putAttributes(IngestionQueue.ID_HEADER, ingestionId);
+    }
+    return pubsubMessage.build();
+  }
+}
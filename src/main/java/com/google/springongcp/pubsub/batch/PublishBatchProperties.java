@@ -0,0 +1,68 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.batch;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Thresholds for the batches of {@link PubSubChatTransport}. A batch is published as soon as any
+ * of the count, byte or linger limits is reached. Publish calls are limited to 1,000 messages and
+ * 10 MB.
+ */
+@ConfigurationProperties("chat.publish.batch")
+public class PublishBatchProperties {
+
+  private int maxMessages = 100;
+
+  private long maxBytes = 1024 * 1024;
+
+  private long maxLingerMillis = 5;
+
+  private int maxInFlightBatches = 8;
+
+  public int getMaxMessages() {
+    return maxMessages;
+  }
+
+  public void setMaxMessages(int maxMessages) {
+    this.maxMessages = maxMessages;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  public long getMaxLingerMillis() {
+    return maxLingerMillis;
+  }
+
+  public void setMaxLingerMillis(long maxLingerMillis) {
+    this.maxLingerMillis = maxLingerMillis;
+  }
+
+  public int getMaxInFlightBatches() {
+    return maxInFlightBatches;
+  }
+
+  public void setMaxInFlightBatches(int maxInFlightBatches) {
+    this.maxInFlightBatches = maxInFlightBatches;
+  }
+}
@@ -0,0 +1,315 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.dispatch;
+
+import com.google.springongcp.amqp.AmqpChatTransport;
+import com.google.springongcp.concurrent.StripedExecutor;
+import com.google.springongcp.dedup.DedupIndex;
+import com.google.springongcp.dedup.MessageFingerprint;
+import com.google.springongcp.model.LoggableMessage;
+import com.google.springongcp.pubsub.ack.AckManager;
+import com.google.springongcp.transport.ChatTransport;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHeaders;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Sole subscriber of {@code chatInputChannel}: fans each message out to every
+ * {@link ChatMessageListener} in parallel and settles it with the transport exactly once.
+ *
+ * <p>Listeners run on a {@link StripedExecutor} of {@code chat.dispatch.threads} stripes, keyed by
+ * listener and room, so each listener sees the messages of a room one at a time and in the order
+ * they arrived, while other rooms and other listeners run in parallel. Messages without a room
+ * are spread over the stripes in no particular order. The subscriber thread only queues work; when
+ * a stripe's share of {@code chat.dispatch.queue-capacity} is full, it waits, which pushes back on
+ * the transport.
+ *
+ * <p>Each listener gets {@code chat.dispatch.handler-timeout-millis} to finish, counted from when
+ * its task is queued; one that overruns is interrupted, logged and counts as failed. The message
+ * is acked through the {@link AckManager} once every listener has finished, or nacked for
+ * redelivery as soon as any of them threw or timed out. The redelivery runs every listener again;
+ * the {@link DedupIndex} does not remember failed messages, so listeners must tolerate the re-run.
+ *
+ * <p>Messages already processed according to the {@link DedupIndex} are acked without running any
+ * listener. They are recognized by the ID their transport gave them, or, for chat messages that
+ * came without one, by their content. Copies of a message still being processed are held until it
+ * completes, and then settled the same way as it: acked if it succeeded, or nacked if it failed,
+ * so that the copy is not lost, without being bounced back and forth with the broker meanwhile.
+ *
+ * <p>Records how long each listener took in {@code chat.dispatch.handler}, per listener and result:
+ * {@code success}, or {@code failure} with the reason, {@code error} or {@code timeout}, either of
+ * which nacks the message. It also records how long listener tasks waited for their stripe in
+ * {@code chat.dispatch.queue.wait}, and how long after its creation a chat message arrived in
+ * {@code chat.receive.lag}.
+ */
+public class ChatMessageDispatcher implements MessageHandler, DisposableBean {
+
+  private static final Log LOGGER = LogFactory.getLog(ChatMessageDispatcher.class);
+
+  private final Map<String, ChatMessageListener> listeners;
+
+  private final long handlerTimeoutMillis;
+
+  private final StripedExecutor stripes;
+
+  private final ScheduledThreadPoolExecutor timeoutScheduler;
+
+  private final Map<String, HandlerTimers> handlerTimers = new HashMap<>();
+
+  private final AckManager ackManager;
+
+  private final DedupIndex dedupIndex;
+
+  private final Timer receiveLag;
+
+  private final Timer queueWait;
+
+  public ChatMessageDispatcher(Map<String, ChatMessageListener> listeners,
+      DispatchProperties properties, AckManager ackManager, DedupIndex dedupIndex,
+      String transport, MeterRegistry meterRegistry) {
+    this.listeners = listeners;
+    this.ackManager = ackManager;
+    this.dedupIndex = dedupIndex;
+    this.handlerTimeoutMillis = properties.getHandlerTimeoutMillis();
+    for (String name : listeners.keySet()) {
+      this.handlerTimers.put(name, new HandlerTimers(name, meterRegistry));
+    }
+    this.receiveLag = Timer.builder("chat.receive.lag")
+        .tag("transport", transport)
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+    this.queueWait = Timer.builder("chat.dispatch.queue.wait")
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+    this.stripes = new StripedExecutor("chat-dispatch", properties.getThreads(),
+        Math.max(1, properties.getQueueCapacity() / properties.getThreads()));
+    this.timeoutScheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+      Thread thread = new Thread(runnable, "chat-dispatch-timeout");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.timeoutScheduler.setRemoveOnCancelPolicy(true);
+    Gauge.builder("chat.dispatch.queue.depth", this, ChatMessageDispatcher::getQueueDepth)
+        .register(meterRegistry);
+    Gauge.builder("chat.dispatch.queue.depth.max.stripe", this.stripes,
+        StripedExecutor::getMaxStripeQueueDepth).register(meterRegistry);
+  }
+
+  @Override
+  public void handleMessage(Message<?> message) {
+    MessageFingerprint fingerprint = fingerprintOf(message);
+    CompletableFuture<Boolean> original =
+        fingerprint != null ? this.dedupIndex.tryBegin(fingerprint) : null;
+    if (original != null) {
+      original.thenAccept(processed -> this.ackManager.settle(message, processed));
+      return;
+    }
+
+    recordReceiveLag(message);
+    String room = message.getPayload() instanceof LoggableMessage
+        ? ((LoggableMessage) message.getPayload()).getRoom()
+        : null;
+    CompletableFuture<?>[] results = new CompletableFuture<?>[this.listeners.size()];
+    int i = 0;
+    for (Map.Entry<String, ChatMessageListener> listener : this.listeners.entrySet()) {
+      Object key = room != null
+          ? 31 * listener.getKey().hashCode() + room.hashCode()
+          : message.getHeaders().getId();
+      results[i++] = invoke(key, listener.getKey(), listener.getValue(), message);
+    }
+    CompletableFuture.allOf(results).whenComplete((ignored, ex) -> {
+      if (fingerprint != null) {
+        this.dedupIndex.complete(fingerprint, ex == null);
+      }
+      this.ackManager.settle(message, ex == null);
+    });
+  }
+
+  public int getQueueDepth() {
+    return this.stripes.getQueueDepth();
+  }
+
+  @Override
+  public void destroy() throws InterruptedException {
+    this.stripes.shutdown();
+    this.timeoutScheduler.shutdownNow();
+  }
+
+  private CompletableFuture<Void> invoke(Object key, String name, ChatMessageListener listener,
+      Message<?> message) {
+    HandlerTimers timers = this.handlerTimers.get(name);
+    CompletableFuture<Void> result = new CompletableFuture<>();
+    ListenerTask task = new ListenerTask();
+    long queuedAt = System.nanoTime();
+    try {
+      this.stripes.execute(key, () -> {
+        long start = System.nanoTime();
+        this.queueWait.record(start - queuedAt, TimeUnit.NANOSECONDS);
+        if (!task.start()) {
+          // Timed out while queued behind earlier messages of the room.
+          return;
+        }
+        try {
+          listener.onMessage(message);
+          timers.success.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+          result.complete(null);
+        } catch (Throwable t) {
+          timers.error.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+          LOGGER.warn("Listener " + name + " failed on message " + message.getHeaders().getId(),
+              t);
+          result.completeExceptionally(t);
+        } finally {
+          task.finish();
+        }
+      });
+
+      // The timeout starts once the task is queued, so time spent behind earlier messages of the
+      // same room counts towards it.
+      ScheduledFuture<?> timeout = this.timeoutScheduler.schedule(() -> {
+        if (result.completeExceptionally(new TimeoutException("Listener " + name
+            + " timed out after " + this.handlerTimeoutMillis + " ms"))) {
+          timers.timeout.record(this.handlerTimeoutMillis, TimeUnit.MILLISECONDS);
+          LOGGER.warn("Listener " + name + " timed out after " + this.handlerTimeoutMillis
+              + " ms on message " + message.getHeaders().getId());
+          task.cancel();
+        }
+      }, this.handlerTimeoutMillis, TimeUnit.MILLISECONDS);
+      result.whenComplete((ignored, ex) -> timeout.cancel(false));
+    } catch (RuntimeException re) {
+      // Shutting down, or interrupted while the stripe was full. The message is released from the
+      // dedup index and nacked once the listeners queued before this one have finished.
+      LOGGER.warn("Failed to queue listener " + name + " for message "
+          + message.getHeaders().getId(), re);
+      task.cancel();
+      result.completeExceptionally(re);
+    }
+    return result;
+  }
+
+  /**
+   * @return the fingerprint of the ID the transport gave the message, or else of its content if it
+   *     is a chat message, or null if it is neither
+   */
+  private static MessageFingerprint fingerprintOf(Message<?> message) {
+    MessageHeaders headers = message.getHeaders();
+    String id = headers.get(ChatTransport.MESSAGE_ID_HEADER, String.class);
+    if (id == null) {
+      id = headers.get(AmqpHeaders.MESSAGE_ID, String.class);
+    }
+    if (id == null) {
+      // One of a batch of RabbitMQ messages, which share their properties.
+      List<?> ids = headers.get(AmqpChatTransport.MESSAGE_IDS_HEADER, List.class);
+      Integer index = headers.get(AckManager.BATCH_INDEX_HEADER, Integer.class);
+      if (ids != null && index != null && index < ids.size()) {
+        id = String.valueOf(ids.get(index));
+      }
+    }
+    if (id != null) {
+      return MessageFingerprint.of(id);
+    }
+    return message.getPayload() instanceof LoggableMessage
+        ? MessageFingerprint.of((LoggableMessage) message.getPayload())
+        : null;
+  }
+
+  private void recordReceiveLag(Message<?> message) {
+    if (message.getPayload() instanceof LoggableMessage) {
+      LocalDateTime createdAt = ((LoggableMessage) message.getPayload()).getCreatedAt();
+      if (createdAt != null) {
+        long lagMillis = Duration.between(createdAt, LocalDateTime.now()).toMillis();
+        if (lagMillis >= 0) {
+          this.receiveLag.record(lagMillis, TimeUnit.MILLISECONDS);
+        }
+      }
+    }
+  }
+
+  /**
+   * The run of one listener task on its stripe thread, which a timeout can interrupt without
+   * leaving a stray interrupt behind for the next task on the same thread.
+   */
+  private static final class ListenerTask {
+
+    private Thread thread;
+
+    private boolean cancelled;
+
+    synchronized boolean start() {
+      if (this.cancelled) {
+        return false;
+      }
+      this.thread = Thread.currentThread();
+      return true;
+    }
+
+    synchronized void finish() {
+      this.thread = null;
+      // Clears an interrupt from a timeout that fired as the listener returned.
+      Thread.interrupted();
+    }
+
+    synchronized void cancel() {
+      this.cancelled = true;
+      if (this.thread != null) {
+        this.thread.interrupt();
+      }
+    }
+  }
+
+  private static final class HandlerTimers {
+
+    private final Timer success;
+
+    private final Timer error;
+
+    private final Timer timeout;
+
+    HandlerTimers(String listener, MeterRegistry meterRegistry) {
+      this.success = timer(listener, "success", "none", meterRegistry);
+      this.error = timer(listener, "failure", "error", meterRegistry);
+      this.timeout = timer(listener, "failure", "timeout", meterRegistry);
+    }
+
+    private static Timer timer(String listener, String result, String reason,
+        MeterRegistry meterRegistry) {
+      return Timer.builder("chat.dispatch.handler")
+          .tag("listener", listener)
+          .tag("result", result)
+          .tag("reason", reason)
+          .publishPercentileHistogram()
+          .register(meterRegistry);
+    }
+  }
+}
@@ -0,0 +1,32 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.dispatch;
+
+import org.springframework.messaging.Message;
+
+/**
+ * Receives every inbound chat message, already decoded, from the {@link ChatMessageDispatcher},
+ * whichever transport carried it.
+ *
+ * <p>Listeners must not acknowledge the message themselves; the dispatcher does that once every
+ * listener is done.
+ */
+@FunctionalInterface
+public interface ChatMessageListener {
+
+  void onMessage(Message<?> message) throws Exception;
+}
@@ -0,0 +1,56 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.dispatch;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Sizing for {@link ChatMessageDispatcher}.
+ */
+@ConfigurationProperties("chat.dispatch")
+public class DispatchProperties {
+
+  private int threads = 8;
+
+  private int queueCapacity = 1000;
+
+  private long handlerTimeoutMillis = 5000;
+
+  public int getThreads() {
+    return threads;
+  }
+
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  public int getQueueCapacity() {
+    return queueCapacity;
+  }
+
+  public void setQueueCapacity(int queueCapacity) {
+    this.queueCapacity = queueCapacity;
+  }
+
+  public long getHandlerTimeoutMillis() {
+    return handlerTimeoutMillis;
+  }
+
+  public void setHandlerTimeoutMillis(long handlerTimeoutMillis) {
+    this.handlerTimeoutMillis = handlerTimeoutMillis;
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.history;
+
+import com.google.springongcp.model.LoggableMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@ConditionalOnProperty(name = "chat.features.history", matchIfMissing = true)
+public class ChatHistoryController {
+
+  @Autowired
+  private ChatHistoryRepository repository;
+
+  @Autowired
+  private RecentMessageCache recentMessageCache;
+
+  @Autowired
+  private ChatHistoryProperties properties;
+
+  /**
+   * Backfill for a client joining a room, served from memory once the room is cached.
+   *
+   * @param room the room to read
+   * @param limit how many messages to return, capped at {@code chat.history.room-capacity}
+   * @return the room's newest messages, newest first
+   */
+  @GetMapping("/history/recent")
+  public List<LoggableMessage> recent(@RequestParam("room") String room,
+      @RequestParam(value = "limit", defaultValue = "50") int limit) {
+    return this.recentMessageCache.recent(room, limit);
+  }
+
+  /**
+   * Pages backwards through a room's history.
+   *
+   * @param room the room to read
+   * @param before only return messages older than this message ID; omit for the newest page
+   * @param limit page size, capped at {@code chat.history.max-page-size}
+   * @return the page, newest message first, with the cursor for the next page
+   */
+  @GetMapping("/history")
+  public ChatHistoryPage history(@RequestParam("room") String room,
+      @RequestParam(value = "before", required = false) Long before,
+      @RequestParam(value = "limit", defaultValue = "50") int limit) {
+    int pageSize = Math.max(1, Math.min(limit, this.properties.getMaxPageSize()));
+    List<ChatHistoryEntry> messages = this.repository.findBefore(
+        room, before == null ? Long.MAX_VALUE : before, pageSize);
+    Long nextBefore = messages.size() < pageSize
+        ? null
+        : messages.get(messages.size() - 1).getId();
+    return new ChatHistoryPage(messages, nextBefore);
+  }
+}
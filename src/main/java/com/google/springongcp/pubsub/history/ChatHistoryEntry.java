@@ -0,0 +1,64 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.history;
+
+import java.time.LocalDateTime;
+
+/**
+ * A stored chat message. The ID increases with insertion order and is the pagination cursor.
+ */
+public class ChatHistoryEntry {
+
+  private final long id;
+
+  private final String room;
+
+  private final String user;
+
+  private final String body;
+
+  private final LocalDateTime createdAt;
+
+  public ChatHistoryEntry(long id, String room, String user, String body,
+      LocalDateTime createdAt) {
+    this.id = id;
+    this.room = room;
+    this.user = user;
+    this.body = body;
+    this.createdAt = createdAt;
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  public String getRoom() {
+    return room;
+  }
+
+  public String getUser() {
+    return user;
+  }
+
+  public String getBody() {
+    return body;
+  }
+
+  public LocalDateTime getCreatedAt() {
+    return createdAt;
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.history;
+
+import java.util.List;
+
+/**
+ * One page of a room's history, newest first.
+ */
+public class ChatHistoryPage {
+
+  private final List<ChatHistoryEntry> messages;
+
+  private final Long nextBefore;
+
+  public ChatHistoryPage(List<ChatHistoryEntry> messages, Long nextBefore) {
+    this.messages = messages;
+    this.nextBefore = nextBefore;
+  }
+
+  public List<ChatHistoryEntry> getMessages() {
+    return messages;
+  }
+
+  /**
+   * @return the {@code before} value that fetches the next, older page, or null on the last page
+   */
+  public Long getNextBefore() {
+    return nextBefore;
+  }
+}
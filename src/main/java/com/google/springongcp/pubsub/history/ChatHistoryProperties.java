@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.history;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings for caching and persisting chat history. The {@link RecentMessageCache} keeps the last
+ * {@code roomCapacity} messages of each room, within {@code cacheMaxBytes} for all rooms together,
+ * and writes new messages to the database every {@code flushIntervalMillis}, in transactions of up
+ * to {@code batchSize} messages.
+ */
+@ConfigurationProperties("chat.history")
+public class ChatHistoryProperties {
+
+  private int batchSize = 500;
+
+  private long flushIntervalMillis = 200;
+
+  private int roomCapacity = 200;
+
+  private long cacheMaxBytes = 64L * 1024 * 1024;
+
+  private int maxPageSize = 200;
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  public long getFlushIntervalMillis() {
+    return flushIntervalMillis;
+  }
+
+  public void setFlushIntervalMillis(long flushIntervalMillis) {
+    this.flushIntervalMillis = flushIntervalMillis;
+  }
+
+  public int getRoomCapacity() {
+    return roomCapacity;
+  }
+
+  public void setRoomCapacity(int roomCapacity) {
+    this.roomCapacity = roomCapacity;
+  }
+
+  public long getCacheMaxBytes() {
+    return cacheMaxBytes;
+  }
+
+  public void setCacheMaxBytes(long cacheMaxBytes) {
+    this.cacheMaxBytes = cacheMaxBytes;
+  }
+
+  public int getMaxPageSize() {
+    return maxPageSize;
+  }
+
+  public void setMaxPageSize(int maxPageSize) {
+    this.maxPageSize = maxPageSize;
+  }
+}
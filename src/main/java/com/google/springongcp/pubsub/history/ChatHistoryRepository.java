@@ -0,0 +1,96 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.history;
+
+import com.google.springongcp.model.LoggableMessage;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * JDBC access to the {@code chat_message} table, defined in {@code schema-history.sql}.
+ */
+@Repository
+@ConditionalOnProperty(name = "chat.features.history", matchIfMissing = true)
+public class ChatHistoryRepository {
+
+  private static final String INSERT_SQL =
+      "INSERT INTO chat_message (room, user_name, body, created_at) VALUES (?, ?, ?, ?)";
+
+  // Seeks straight to the cursor on the (room, id) index, so every page costs the same no
+  // matter how deep into the history it is.
+  private static final String PAGE_SQL =
+      "SELECT id, room, user_name, body, created_at FROM chat_message "
+          + "WHERE room = ? AND id < ? ORDER BY id DESC LIMIT ?";
+
+  private final JdbcTemplate jdbcTemplate;
+
+  public ChatHistoryRepository(@Lazy JdbcTemplate jdbcTemplate) {
+    this.jdbcTemplate = jdbcTemplate;
+  }
+
+  /**
+   * Inserts the messages as a single JDBC batch.
+   */
+  public void insertAll(List<LoggableMessage> messages) {
+    this.jdbcTemplate.batchUpdate(INSERT_SQL, new BatchPreparedStatementSetter() {
+      @Override
+      public void setValues(PreparedStatement ps, int i) throws SQLException {
+        LoggableMessage message = messages.get(i);
+        ps.setString(1, message.getRoom());
+        ps.setString(2, message.getUser());
+        ps.setString(3, message.getBody());
+        ps.setTimestamp(4,
+            message.getCreatedAt() == null ? null : Timestamp.valueOf(message.getCreatedAt()));
+      }
+
+      @Override
+      public int getBatchSize() {
+        return messages.size();
+      }
+    });
+  }
+
+  /**
+   * Fetches the newest messages in a room with an ID below {@code beforeId}.
+   *
+   * @param room the room to read
+   * @param beforeId exclusive upper bound on message IDs
+   * @param limit maximum number of messages to return
+   * @return the messages, newest first
+   */
+  public List<ChatHistoryEntry> findBefore(String room, long beforeId, int limit) {
+    return this.jdbcTemplate.query(PAGE_SQL,
+        (rs, rowNum) -> {
+          Timestamp createdAt = rs.getTimestamp("created_at");
+          return new ChatHistoryEntry(
+              rs.getLong("id"),
+              rs.getString("room"),
+              rs.getString("user_name"),
+              rs.getString("body"),
+              createdAt == null ? null : createdAt.toLocalDateTime());
+        },
+        room, beforeId, limit);
+  }
+}
@@ -0,0 +1,692 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.history;
+
+import com.google.springongcp.model.LoggableMessage;
+import com.google.springongcp.pubsub.dispatch.ChatMessageListener;
+import com.google.springongcp.shard.ShardMembership;
+import com.google.springongcp.shard.ShardRouter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.messaging.Message;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the most recent messages of each room in memory, so a client joining a room gets its
+ * backfill without a database query, and writes every {@link LoggableMessage} received over the
+ * chat transport behind to the database.
+ *
+ * <p>Each room holds its last {@code chat.history.room-capacity} messages in a ring of parallel
+ * arrays: interned user names, timestamps as epoch milliseconds and UTF-8 bodies, so a cached
+ * message costs little more than its body. All rooms together are kept within
+ * {@code chat.history.cache-max-bytes}, by an estimate of their heap use; beyond that, the rooms
+ * read or written least recently are evicted.
+ *
+ * <p>A single "chat-history-writer" thread writes the messages not yet persisted every
+ * {@code chat.history.flush-interval-millis}, in one JDBC batch and one transaction per
+ * {@code chat.history.batch-size} messages. A room whose ring is full of unpersisted messages
+ * makes the dispatch thread wait for the next write, so a slow database slows down consumption
+ * instead of losing history. Rooms are only evicted once all of their messages are written.
+ *
+ * <p>The cache only sees the messages this node receives, so it only serves the rooms of shards
+ * this node consumes alone, as told by {@link ShardMembership#ownsExclusively}, and every room with
+ * the in-memory transport. Such a room's first read loads its newest messages from the database,
+ * after writing out its pending ones; from then on, the room is complete and served from memory,
+ * until it is evicted or the shard's ownership changes. With a single shard, every node shares the
+ * one subscription or queue, so reads always go to the database, as do reads of any other room.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.features.history", matchIfMissing = true)
+public class RecentMessageCache implements ChatMessageListener, DisposableBean {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(RecentMessageCache.class);
+
+  // Estimated heap cost of a room, besides its slots, and of one ring slot: a timestamp and two
+  // references, with compressed references. A body array costs its length plus its header.
+  private static final int ROOM_BYTES = 160;
+
+  private static final int SLOT_BYTES = 16;
+
+  private static final int ARRAY_HEADER_BYTES = 16;
+
+  private static final int INITIAL_SLOTS = 8;
+
+  private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+  // What exclusiveOwnership returns for a room whose messages other nodes receive too.
+  private static final long SHARED = -1;
+
+  private final ChatHistoryRepository repository;
+
+  private final TransactionTemplate transactionTemplate;
+
+  private final ChatHistoryProperties properties;
+
+  private final ObjectProvider<ShardMembership> shardMembership;
+
+  private final ShardRouter shardRouter;
+
+  private final int roomCapacity;
+
+  private final ConcurrentMap<String, Room> rooms = new ConcurrentHashMap<>();
+
+  private final Set<Room> dirtyRooms = ConcurrentHashMap.newKeySet();
+
+  private final AtomicLong bytes = new AtomicLong();
+
+  private final AtomicInteger unflushed = new AtomicInteger();
+
+  private final AtomicBoolean writeRequested = new AtomicBoolean();
+
+  private final ScheduledExecutorService writer;
+
+  private final Counter hits;
+
+  private final Counter misses;
+
+  private final Counter evictions;
+
+  private final Counter dropped;
+
+  /**
+   * @param shardMembership the shards this node owns; there is none with the in-memory transport,
+   *     which delivers every message to this node alone
+   */
+  public RecentMessageCache(ChatHistoryRepository repository,
+      PlatformTransactionManager transactionManager, ChatHistoryProperties properties,
+      ObjectProvider<ShardMembership> shardMembership, ShardRouter shardRouter,
+      MeterRegistry meterRegistry) {
+    this.repository = repository;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.properties = properties;
+    this.shardMembership = shardMembership;
+    this.shardRouter = shardRouter;
+    this.roomCapacity = Math.max(1, properties.getRoomCapacity());
+    this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "chat-history-writer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.writer.scheduleWithFixedDelay(this::writeAndEvict, properties.getFlushIntervalMillis(),
+        properties.getFlushIntervalMillis(), TimeUnit.MILLISECONDS);
+    this.hits = Counter.builder("chat.history.cache.requests")
+        .tag("result", "hit")
+        .register(meterRegistry);
+    this.misses = Counter.builder("chat.history.cache.requests")
+        .tag("result", "miss")
+        .register(meterRegistry);
+    this.evictions = Counter.builder("chat.history.cache.evictions").register(meterRegistry);
+    this.dropped = Counter.builder("chat.history.dropped").register(meterRegistry);
+    Gauge.builder("chat.history.cache.bytes", this, RecentMessageCache::getBytes)
+        .register(meterRegistry);
+    Gauge.builder("chat.history.cache.rooms", this, RecentMessageCache::getRoomCount)
+        .register(meterRegistry);
+  }
+
+  @Override
+  public void onMessage(Message<?> message) throws InterruptedException {
+    if (!(message.getPayload() instanceof LoggableMessage)) {
+      return;
+    }
+    LoggableMessage loggableMessage = (LoggableMessage) message.getPayload();
+    String user = loggableMessage.getUser() == null ? null : loggableMessage.getUser().intern();
+    long createdAt = toEpochMillis(loggableMessage.getCreatedAt());
+    byte[] body = loggableMessage.getBody() == null
+        ? null
+        : loggableMessage.getBody().getBytes(StandardCharsets.UTF_8);
+    // An evicted room is replaced by a fresh one on the next attempt.
+    while (!this.rooms.computeIfAbsent(loggableMessage.getRoom(), Room::new)
+        .append(user, createdAt, body)) {
+      Thread.yield();
+    }
+    if (this.bytes.get() > this.properties.getCacheMaxBytes()) {
+      requestWrite();
+    }
+  }
+
+  /**
+   * Returns a room's newest messages, from memory once the room has been loaded, if this node
+   * receives all of its messages, and from the database otherwise.
+   *
+   * @param room the room to read
+   * @param limit how many messages to return, at most {@code chat.history.room-capacity}
+   * @return the messages, newest first
+   */
+  public List<LoggableMessage> recent(String room, int limit) {
+    int count = Math.max(1, Math.min(limit, this.roomCapacity));
+    long ownership = exclusiveOwnership(room);
+    Room cached = this.rooms.get(room);
+    List<LoggableMessage> messages = cached == null ? null : cached.read(count, ownership);
+    if (messages != null) {
+      this.hits.increment();
+      return messages;
+    }
+
+    this.misses.increment();
+    if (ownership == SHARED) {
+      // Other nodes hold the rest of the room's messages; at least make this node's own visible.
+      if (cached != null) {
+        flush(cached);
+      }
+      return findStored(room, count);
+    }
+    cached = this.rooms.computeIfAbsent(room, Room::new);
+    load(cached, ownership);
+    messages = cached.read(count, ownership);
+    if (messages != null) {
+      return messages;
+    }
+    // Evicted, or the shard moved, before it could be read.
+    return findStored(room, count);
+  }
+
+  /**
+   * @return the number of messages waiting to be written to the database
+   */
+  public int getUnflushedMessages() {
+    return this.unflushed.get();
+  }
+
+  /**
+   * @return the estimated heap use of the cached rooms, in bytes
+   */
+  public long getBytes() {
+    return this.bytes.get();
+  }
+
+  public int getRoomCount() {
+    return this.rooms.size();
+  }
+
+  @Override
+  public void destroy() throws InterruptedException {
+    try {
+      this.writer.submit(this::write).get(10, TimeUnit.SECONDS);
+    } catch (ExecutionException | TimeoutException e) {
+      LOGGER.error("Failed to write chat history on shutdown", e);
+    } finally {
+      this.writer.shutdownNow();
+    }
+  }
+
+  private void requestWrite() {
+    if (this.writeRequested.compareAndSet(false, true)) {
+      try {
+        this.writer.execute(this::writeAndEvict);
+      } catch (RejectedExecutionException ree) {
+        // Shutting down; the final write takes care of it.
+      }
+    }
+  }
+
+  private void writeAndEvict() {
+    this.writeRequested.set(false);
+    try {
+      write();
+      evict();
+    } catch (RuntimeException re) {
+      LOGGER.error("Chat history writer failed", re);
+    }
+  }
+
+  /**
+   * Writes the pending messages of every room the reading side is not loading at the moment.
+   */
+  private void write() {
+    List<Room> batchRooms = new ArrayList<>();
+    List<Integer> batchCounts = new ArrayList<>();
+    List<LoggableMessage> batch = new ArrayList<>();
+    for (Room room : this.dirtyRooms) {
+      if (!room.ioLock.tryLock()) {
+        continue;
+      }
+      int count = room.collectUnflushed(batch);
+      if (count == 0) {
+        room.ioLock.unlock();
+        continue;
+      }
+      batchRooms.add(room);
+      batchCounts.add(count);
+      if (batch.size() >= this.properties.getBatchSize()) {
+        persistAndRelease(batch, batchRooms, batchCounts);
+      }
+    }
+    if (!batch.isEmpty()) {
+      persistAndRelease(batch, batchRooms, batchCounts);
+    }
+  }
+
+  private void persistAndRelease(List<LoggableMessage> batch, List<Room> batchRooms,
+      List<Integer> batchCounts) {
+    try {
+      persist(batch, batchRooms, batchCounts);
+    } finally {
+      for (Room room : batchRooms) {
+        room.ioLock.unlock();
+      }
+      batch.clear();
+      batchRooms.clear();
+      batchCounts.clear();
+    }
+  }
+
+  /**
+   * Writes a batch and marks its messages as written in their rooms. A batch that fails is written
+   * again one message at a time, so one bad row only loses itself; messages that still fail are
+   * logged, counted in {@code chat.history.dropped} and not retried, so a database outage cannot
+   * block consumption.
+   */
+  private void persist(List<LoggableMessage> batch, List<Room> batchRooms,
+      List<Integer> batchCounts) {
+    try {
+      this.transactionTemplate.execute(status -> {
+        this.repository.insertAll(batch);
+        return null;
+      });
+    } catch (RuntimeException re) {
+      LOGGER.warn("Failed to persist a batch of {} chat messages; writing them one at a time.",
+          batch.size(), re);
+      persistEach(batch);
+    } finally {
+      for (int i = 0; i < batchRooms.size(); i++) {
+        batchRooms.get(i).markFlushed(batchCounts.get(i));
+      }
+    }
+  }
+
+  private void persistEach(List<LoggableMessage> batch) {
+    for (LoggableMessage message : batch) {
+      try {
+        this.repository.insertAll(Collections.singletonList(message));
+      } catch (RuntimeException re) {
+        this.dropped.increment();
+        LOGGER.error("Failed to persist a chat message in room {}.", message.getRoom(), re);
+      }
+    }
+  }
+
+  /**
+   * Evicts the least recently used rooms with nothing left to write, until the cache is back
+   * under 90% of its limit.
+   */
+  private void evict() {
+    long limit = this.properties.getCacheMaxBytes();
+    if (this.bytes.get() <= limit) {
+      return;
+    }
+    List<Room> candidates = new ArrayList<>(this.rooms.values());
+    candidates.sort(Comparator.comparingLong(room -> room.lastAccess));
+    long target = limit / 10 * 9;
+    for (Room room : candidates) {
+      if (this.bytes.get() <= target) {
+        break;
+      }
+      if (room.ioLock.tryLock()) {
+        try {
+          if (room.evictIfFlushed()) {
+            this.evictions.increment();
+          }
+        } finally {
+          room.ioLock.unlock();
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the assignment version under which this node receives every message of the room, or
+   *     {@link #SHARED} if other nodes receive some of them
+   */
+  private long exclusiveOwnership(String room) {
+    ShardMembership membership = this.shardMembership.getIfAvailable();
+    if (membership == null) {
+      return 0;
+    }
+    // Read before checking ownership, so a change in between makes the version stale, not new.
+    long version = membership.getAssignmentVersion();
+    return membership.ownsExclusively(this.shardRouter.shardOf(room)) ? version : SHARED;
+  }
+
+  /**
+   * Writes out a room's pending messages, then fills the room with its newest stored messages,
+   * followed by any that arrived in the meantime.
+   *
+   * @param ownership the assignment version the room is complete under from then on
+   */
+  private void load(Room room, long ownership) {
+    room.ioLock.lock();
+    try {
+      if (room.isComplete(ownership)) {
+        return;
+      }
+      persistPending(room);
+      room.reload(this.repository.findBefore(room.name, Long.MAX_VALUE, this.roomCapacity),
+          ownership);
+    } finally {
+      room.ioLock.unlock();
+    }
+  }
+
+  private void flush(Room room) {
+    room.ioLock.lock();
+    try {
+      persistPending(room);
+    } finally {
+      room.ioLock.unlock();
+    }
+  }
+
+  private void persistPending(Room room) {
+    List<LoggableMessage> batch = new ArrayList<>();
+    int count = room.collectUnflushed(batch);
+    if (count > 0) {
+      persist(batch, Collections.singletonList(room), Collections.singletonList(count));
+    }
+  }
+
+  private List<LoggableMessage> findStored(String room, int count) {
+    List<LoggableMessage> stored = new ArrayList<>(count);
+    for (ChatHistoryEntry entry : this.repository.findBefore(room, Long.MAX_VALUE, count)) {
+      stored.add(new LoggableMessage(
+          entry.getUser(), entry.getBody(), entry.getCreatedAt(), entry.getRoom()));
+    }
+    return stored;
+  }
+
+  private static long toEpochMillis(LocalDateTime dateTime) {
+    return dateTime == null ? NO_TIMESTAMP : dateTime.toInstant(ZoneOffset.UTC).toEpochMilli();
+  }
+
+  private static LocalDateTime fromEpochMillis(long millis) {
+    return millis == NO_TIMESTAMP
+        ? null
+        : LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+  }
+
+  private static int bodyBytes(byte[] body) {
+    return body == null ? 0 : ARRAY_HEADER_BYTES + body.length;
+  }
+
+  /**
+   * One room's recent messages, oldest at {@code head}. The newest {@code unflushed} of them are
+   * not in the database yet. The arrays grow by doubling up to the room capacity, so quiet rooms
+   * stay small.
+   *
+   * <p>The monitor guards the contents; {@code ioLock} is held by whoever is writing the room's
+   * messages to the database or loading them from it, so the two never overlap.
+   */
+  private final class Room {
+
+    private final String name;
+
+    private final ReentrantLock ioLock = new ReentrantLock();
+
+    private String[] users;
+
+    private long[] timestamps;
+
+    private byte[][] bodies;
+
+    private int head;
+
+    private int size;
+
+    private int unflushed;
+
+    private long roomBytes;
+
+    private boolean complete;
+
+    // The assignment version the room was loaded under; complete only holds under the same one.
+    private long ownership;
+
+    private boolean evicted;
+
+    private volatile long lastAccess = System.nanoTime();
+
+    Room(String name) {
+      this.name = name;
+      int slots = Math.min(INITIAL_SLOTS, RecentMessageCache.this.roomCapacity);
+      this.users = new String[slots];
+      this.timestamps = new long[slots];
+      this.bodies = new byte[slots][];
+      addBytes(ROOM_BYTES + (long) slots * SLOT_BYTES);
+    }
+
+    /**
+     * @return false if the room was evicted, and the message must go to its replacement
+     */
+    synchronized boolean append(String user, long timestamp, byte[] body)
+        throws InterruptedException {
+      while (!this.evicted && this.unflushed >= RecentMessageCache.this.roomCapacity) {
+        requestWrite();
+        wait();
+      }
+      if (this.evicted) {
+        return false;
+      }
+      this.lastAccess = System.nanoTime();
+      if (this.size == this.users.length && this.size < RecentMessageCache.this.roomCapacity) {
+        grow();
+      }
+      int slot;
+      if (this.size == this.users.length) {
+        slot = this.head;
+        addBytes(-bodyBytes(this.bodies[slot]));
+        this.head = (this.head + 1) % this.users.length;
+      } else {
+        slot = (this.head + this.size) % this.users.length;
+        this.size++;
+      }
+      this.users[slot] = user;
+      this.timestamps[slot] = timestamp;
+      this.bodies[slot] = body;
+      addBytes(bodyBytes(body));
+      if (this.unflushed++ == 0) {
+        RecentMessageCache.this.dirtyRooms.add(this);
+      }
+      RecentMessageCache.this.unflushed.incrementAndGet();
+      return true;
+    }
+
+    /**
+     * @param ownership the current assignment version of the room's shard
+     * @return the newest messages, newest first, or null if the room may have messages that are
+     *     not cached
+     */
+    synchronized List<LoggableMessage> read(int count, long ownership) {
+      if (!isComplete(ownership)) {
+        return null;
+      }
+      this.lastAccess = System.nanoTime();
+      int n = Math.min(count, this.size);
+      List<LoggableMessage> messages = new ArrayList<>(n);
+      for (int i = this.size - 1; i >= this.size - n; i--) {
+        messages.add(toMessage(i));
+      }
+      return messages;
+    }
+
+    synchronized boolean isComplete(long ownership) {
+      if (this.complete && this.ownership != ownership) {
+        // The shard moved since the load, so other nodes may have received some messages.
+        this.complete = false;
+      }
+      return this.complete && !this.evicted && ownership != SHARED;
+    }
+
+    /**
+     * Adds the messages not written yet to {@code batch}.
+     *
+     * @return how many were added
+     */
+    synchronized int collectUnflushed(List<LoggableMessage> batch) {
+      for (int i = this.size - this.unflushed; i < this.size; i++) {
+        batch.add(toMessage(i));
+      }
+      return this.unflushed;
+    }
+
+    /**
+     * Marks the oldest {@code count} unwritten messages as written.
+     */
+    synchronized void markFlushed(int count) {
+      this.unflushed -= count;
+      RecentMessageCache.this.unflushed.addAndGet(-count);
+      if (this.unflushed == 0) {
+        RecentMessageCache.this.dirtyRooms.remove(this);
+      }
+      notifyAll();
+    }
+
+    /**
+     * Replaces the written messages with the room's newest stored ones, keeping the messages
+     * that arrived since they were written, and marks the room complete.
+     *
+     * @param stored the newest stored messages, newest first
+     * @param ownership the assignment version the room is complete under
+     */
+    synchronized void reload(List<ChatHistoryEntry> stored, long ownership) {
+      if (this.evicted) {
+        return;
+      }
+      int keep = this.unflushed;
+      String[] pendingUsers = new String[keep];
+      long[] pendingTimestamps = new long[keep];
+      byte[][] pendingBodies = new byte[keep][];
+      for (int i = 0; i < keep; i++) {
+        int slot = slot(this.size - keep + i);
+        pendingUsers[i] = this.users[slot];
+        pendingTimestamps[i] = this.timestamps[slot];
+        pendingBodies[i] = this.bodies[slot];
+      }
+
+      int loaded = Math.min(stored.size(), RecentMessageCache.this.roomCapacity - keep);
+      int slots = Math.max(Math.min(INITIAL_SLOTS, RecentMessageCache.this.roomCapacity),
+          loaded + keep);
+      this.users = new String[slots];
+      this.timestamps = new long[slots];
+      this.bodies = new byte[slots][];
+      this.head = 0;
+      this.size = 0;
+      long newBytes = ROOM_BYTES + (long) slots * SLOT_BYTES;
+      for (int i = loaded - 1; i >= 0; i--) {
+        ChatHistoryEntry entry = stored.get(i);
+        byte[] body = entry.getBody() == null
+            ? null
+            : entry.getBody().getBytes(StandardCharsets.UTF_8);
+        put(entry.getUser() == null ? null : entry.getUser().intern(),
+            toEpochMillis(entry.getCreatedAt()), body);
+        newBytes += bodyBytes(body);
+      }
+      for (int i = 0; i < keep; i++) {
+        put(pendingUsers[i], pendingTimestamps[i], pendingBodies[i]);
+        newBytes += bodyBytes(pendingBodies[i]);
+      }
+      addBytes(newBytes - this.roomBytes);
+      this.complete = true;
+      this.ownership = ownership;
+      this.lastAccess = System.nanoTime();
+    }
+
+    /**
+     * @return true if the room had nothing left to write and is now evicted
+     */
+    synchronized boolean evictIfFlushed() {
+      if (this.unflushed > 0 || this.evicted) {
+        return false;
+      }
+      this.evicted = true;
+      RecentMessageCache.this.rooms.remove(this.name, this);
+      RecentMessageCache.this.bytes.addAndGet(-this.roomBytes);
+      notifyAll();
+      return true;
+    }
+
+    private void put(String user, long timestamp, byte[] body) {
+      this.users[this.size] = user;
+      this.timestamps[this.size] = timestamp;
+      this.bodies[this.size] = body;
+      this.size++;
+    }
+
+    private void grow() {
+      int slots = Math.min(this.users.length * 2, RecentMessageCache.this.roomCapacity);
+      String[] users = new String[slots];
+      long[] timestamps = new long[slots];
+      byte[][] bodies = new byte[slots][];
+      for (int i = 0; i < this.size; i++) {
+        int slot = slot(i);
+        users[i] = this.users[slot];
+        timestamps[i] = this.timestamps[slot];
+        bodies[i] = this.bodies[slot];
+      }
+      addBytes((long) (slots - this.users.length) * SLOT_BYTES);
+      this.users = users;
+      this.timestamps = timestamps;
+      this.bodies = bodies;
+      this.head = 0;
+    }
+
+    private int slot(int index) {
+      return (this.head + index) % this.users.length;
+    }
+
+    private LoggableMessage toMessage(int index) {
+      int slot = slot(index);
+      byte[] body = this.bodies[slot];
+      return new LoggableMessage(this.users[slot],
+          body == null ? null : new String(body, StandardCharsets.UTF_8),
+          fromEpochMillis(this.timestamps[slot]), this.name);
+    }
+
+    private void addBytes(long delta) {
+      this.roomBytes += delta;
+      RecentMessageCache.this.bytes.addAndGet(delta);
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.ingest;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings for message ingestion. When {@code async} is off, posting endpoints send to the gateway
+ * on the request thread, as before.
+ *
+ * <p>A send on the request thread waits up to {@code send-timeout-millis} for the broker to
+ * accept the message. In async mode, workers only hand messages to the transport, whose batcher
+ * bounds how many are in flight, so a few workers are enough to fill its batches.
+ */
+@ConfigurationProperties("chat.ingest")
+public class IngestionProperties {
+
+  private boolean async;
+
+  private int queueCapacity = 10000;
+
+  private int workers = 4;
+
+  private int retryAfterSeconds = 1;
+
+  private long sendTimeoutMillis = 10000;
+
+  public boolean isAsync() {
+    return async;
+  }
+
+  public void setAsync(boolean async) {
+    this.async = async;
+  }
+
+  public int getQueueCapacity() {
+    return queueCapacity;
+  }
+
+  public void setQueueCapacity(int queueCapacity) {
+    this.queueCapacity = queueCapacity;
+  }
+
+  public int getWorkers() {
+    return workers;
+  }
+
+  public void setWorkers(int workers) {
+    this.workers = workers;
+  }
+
+  public int getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+
+  public void setRetryAfterSeconds(int retryAfterSeconds) {
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+
+  public long getSendTimeoutMillis() {
+    return sendTimeoutMillis;
+  }
+
+  public void setSendTimeoutMillis(long sendTimeoutMillis) {
+    this.sendTimeoutMillis = sendTimeoutMillis;
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.ingest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Bounded hand-off between HTTP request threads and the messaging gateway.
+ *
+ * <p>Sends run on a small pool of dedicated worker threads, so a slow broker fills this queue
+ * rather than tying up the servlet container's threads. Once the queue is full, submissions are
+ * refused and callers are expected to retry later.
+ *
+ * <p>Each accepted message gets an ID, returned to the client and sent with the message in the
+ * {@link #ID_HEADER} header, which the Pub/Sub transport publishes as a message attribute.
+ */
+public class IngestionQueue implements DisposableBean {
+
+  public static final String ID_HEADER = "chat_ingest_id";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(IngestionQueue.class);
+
+  private final ThreadPoolExecutor executor;
+
+  public IngestionQueue(IngestionProperties properties) {
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(
+        properties.getWorkers(), properties.getWorkers(), 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(properties.getQueueCapacity()),
+        runnable -> {
+          Thread thread = new Thread(runnable, "chat-ingest-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        },
+        new ThreadPoolExecutor.AbortPolicy());
+  }
+
+  /**
+   * Queues a send for a worker thread.
+   *
+   * @param send the gateway call to make, given the ID to send in the {@link #ID_HEADER} header
+   * @return the ID assigned to the message, or null if the queue is full
+   */
+  public String submit(Consumer<String> send) {
+    String id = UUID.randomUUID().toString();
+    try {
+      this.executor.execute(() -> {
+        try {
+          send.accept(id);
+        } catch (RuntimeException re) {
+          LOGGER.warn("Failed to send ingested message {}", id, re);
+        }
+      });
+      return id;
+    } catch (RejectedExecutionException ree) {
+      return null;
+    }
+  }
+
+  /**
+   * @return the number of messages waiting for a worker thread
+   */
+  public int getQueueDepth() {
+    return this.executor.getQueue().size();
+  }
+
+  @Override
+  public void destroy() throws InterruptedException {
+    this.executor.shutdown();
+    if (!this.executor.awaitTermination(10, TimeUnit.SECONDS)) {
+      LOGGER.warn("{} ingested messages were not sent.", this.executor.getQueue().size());
+    }
+  }
+}
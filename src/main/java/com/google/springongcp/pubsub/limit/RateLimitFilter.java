@@ -0,0 +1,117 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.limit;
+
+import com.google.springongcp.model.LoggableMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Turns away posts to {@code /postMessage}, {@code /customMessage}, {@code /attachments} and
+ * {@code /publish} beyond {@code chat.rate-limit.*}, before they reach the gateway or the Pub/Sub
+ * template.
+ *
+ * <p>Each request needs a permit from its client's bucket, keyed by remote address, and then from
+ * its room's bucket, or for {@code /publish} its topic's. Rejected requests get a 429 with a
+ * Retry-After header and are counted in {@code chat.rate.limit.rejected}, tagged with the limit
+ * that was hit. Behind a load balancer, set {@code server.use-forward-headers} so the remote
+ * address is the client's rather than the balancer's.
+ */
+public class RateLimitFilter extends OncePerRequestFilter {
+
+  private static final Set<String> LIMITED_PATHS =
+      new HashSet<>(Arrays.asList("/postMessage", "/customMessage", "/attachments", "/publish"));
+
+  private final TokenBucketLimiter clientLimiter;
+
+  private final TokenBucketLimiter topicLimiter;
+
+  private final Counter clientRejections;
+
+  private final Counter topicRejections;
+
+  public RateLimitFilter(RateLimitProperties properties, MeterRegistry meterRegistry) {
+    this.clientLimiter = new TokenBucketLimiter(properties.getClientPermitsPerSecond(),
+        properties.getClientBurst(), properties.getStripes(), properties.getIdleEvictionMillis(),
+        TimeUnit.MILLISECONDS);
+    this.topicLimiter = new TokenBucketLimiter(properties.getTopicPermitsPerSecond(),
+        properties.getTopicBurst(), properties.getStripes(), properties.getIdleEvictionMillis(),
+        TimeUnit.MILLISECONDS);
+    this.clientRejections = rejections("client", meterRegistry);
+    this.topicRejections = rejections("topic", meterRegistry);
+    Gauge.builder("chat.rate.limit.keys", this.clientLimiter, TokenBucketLimiter::getKeyCount)
+        .tag("limit", "client")
+        .register(meterRegistry);
+    Gauge.builder("chat.rate.limit.keys", this.topicLimiter, TokenBucketLimiter::getKeyCount)
+        .tag("limit", "topic")
+        .register(meterRegistry);
+  }
+
+  @Override
+  protected boolean shouldNotFilter(HttpServletRequest request) {
+    return !LIMITED_PATHS.contains(request.getServletPath());
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+      FilterChain filterChain) throws ServletException, IOException {
+    if (!this.clientLimiter.tryAcquire(request.getRemoteAddr())) {
+      this.clientRejections.increment();
+      reject(response, this.clientLimiter);
+      return;
+    }
+    if (!this.topicLimiter.tryAcquire(topicKey(request))) {
+      this.topicRejections.increment();
+      reject(response, this.topicLimiter);
+      return;
+    }
+    filterChain.doFilter(request, response);
+  }
+
+  private static String topicKey(HttpServletRequest request) {
+    if ("/publish".equals(request.getServletPath())) {
+      return "topic:" + request.getParameter("topic");
+    }
+    String room = request.getParameter("room");
+    return "room:" + (room != null ? room : LoggableMessage.DEFAULT_ROOM);
+  }
+
+  private static void reject(HttpServletResponse response, TokenBucketLimiter limiter) {
+    response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+    response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(limiter.getRetryAfterSeconds()));
+  }
+
+  private static Counter rejections(String limit, MeterRegistry meterRegistry) {
+    return Counter.builder("chat.rate.limit.rejected")
+        .tag("limit", limit)
+        .register(meterRegistry);
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.limit;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Limits applied by {@link RateLimitFilter} to the message posting endpoints, per client and per
+ * room or topic. A burst is how many requests a key may make at once after being idle.
+ */
+@ConfigurationProperties("chat.rate-limit")
+public class RateLimitProperties {
+
+  private boolean enabled = true;
+
+  private double clientPermitsPerSecond = 20;
+
+  private int clientBurst = 40;
+
+  private double topicPermitsPerSecond = 500;
+
+  private int topicBurst = 1000;
+
+  private int stripes = 64;
+
+  private long idleEvictionMillis = 60000;
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public double getClientPermitsPerSecond() {
+    return clientPermitsPerSecond;
+  }
+
+  public void setClientPermitsPerSecond(double clientPermitsPerSecond) {
+    this.clientPermitsPerSecond = clientPermitsPerSecond;
+  }
+
+  public int getClientBurst() {
+    return clientBurst;
+  }
+
+  public void setClientBurst(int clientBurst) {
+    this.clientBurst = clientBurst;
+  }
+
+  public double getTopicPermitsPerSecond() {
+    return topicPermitsPerSecond;
+  }
+
+  public void setTopicPermitsPerSecond(double topicPermitsPerSecond) {
+    this.topicPermitsPerSecond = topicPermitsPerSecond;
+  }
+
+  public int getTopicBurst() {
+    return topicBurst;
+  }
+
+  public void setTopicBurst(int topicBurst) {
+    this.topicBurst = topicBurst;
+  }
+
+  public int getStripes() {
+    return stripes;
+  }
+
+  public void setStripes(int stripes) {
+    this.stripes = stripes;
+  }
+
+  public long getIdleEvictionMillis() {
+    return idleEvictionMillis;
+  }
+
+  public void setIdleEvictionMillis(long idleEvictionMillis) {
+    this.idleEvictionMillis = idleEvictionMillis;
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.limit;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets, one per key, that refill at a fixed rate up to a burst size.
+ *
+ * <p>Each bucket is a single {@link AtomicLong} holding the time at which it will be full again,
+ * so taking a permit is one compare-and-set and never blocks. A bucket whose full-again time is
+ * in the past is full; one whose full-again time is more than a burst ahead is empty.
+ *
+ * <p>Buckets live in a fixed number of stripes chosen by key hash. Each stripe is swept for idle
+ * buckets, those full for at least {@code idleEviction}, at most once per that interval, by
+ * whichever caller first notices the sweep is due. A key that comes back after eviction gets a
+ * fresh, full bucket, which it would have had anyway.
+ */
+public class TokenBucketLimiter {
+
+  private final long intervalNanos;
+
+  private final long burstNanos;
+
+  private final long idleNanos;
+
+  private final Stripe[] stripes;
+
+  private final int mask;
+
+  /**
+   * @param permitsPerSecond the sustained rate each key is allowed
+   * @param burst how many permits a key may take at once after being idle
+   * @param stripes the number of stripes, rounded up to a power of two
+   * @param idleEviction how long a bucket must have been full before it is dropped
+   * @param unit the unit of {@code idleEviction}
+   */
+  public TokenBucketLimiter(double permitsPerSecond, int burst, int stripes, long idleEviction,
+      TimeUnit unit) {
+    if (permitsPerSecond <= 0 || burst < 1 || stripes < 1) {
+      throw new IllegalArgumentException("Rate, burst and stripes must be positive.");
+    }
+    this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+    this.burstNanos = this.intervalNanos * burst;
+    this.idleNanos = unit.toNanos(idleEviction);
+    int size = stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+    this.stripes = new Stripe[size];
+    long now = System.nanoTime();
+    for (int i = 0; i < size; i++) {
+      this.stripes[i] = new Stripe(now + this.idleNanos);
+    }
+    this.mask = size - 1;
+  }
+
+  /**
+   * Takes a permit for a key if one is available.
+   *
+   * @param key the client, room or topic being limited
+   * @return whether the permit was taken
+   */
+  public boolean tryAcquire(String key) {
+    long now = System.nanoTime();
+    Stripe stripe = this.stripes[spread(key.hashCode()) & this.mask];
+    AtomicLong bucket = stripe.buckets.get(key);
+    if (bucket == null) {
+      bucket = stripe.buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+    }
+    sweepIfDue(stripe, now);
+
+    while (true) {
+      long fullAt = bucket.get();
+      long next = Math.max(fullAt, now) + this.intervalNanos;
+      if (next - now > this.burstNanos) {
+        return false;
+      }
+      if (bucket.compareAndSet(fullAt, next)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * @return how long a rejected caller should wait for a permit, in whole seconds
+   */
+  public long getRetryAfterSeconds() {
+    return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(this.intervalNanos + 999_999_999L));
+  }
+
+  /**
+   * @return the number of keys currently tracked
+   */
+  public int getKeyCount() {
+    int count = 0;
+    for (Stripe stripe : this.stripes) {
+      count += stripe.buckets.size();
+    }
+    return count;
+  }
+
+  private void sweepIfDue(Stripe stripe, long now) {
+    long due = stripe.nextSweep.get();
+    if (now - due < 0 || !stripe.nextSweep.compareAndSet(due, now + this.idleNanos)) {
+      return;
+    }
+    // A caller may take a permit from a bucket just as it is removed; at worst that key gets one
+    // extra permit from its next, fresh bucket.
+    for (Map.Entry<String, AtomicLong> entry : stripe.buckets.entrySet()) {
+      if (now - entry.getValue().get() >= this.idleNanos) {
+        stripe.buckets.remove(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  private static final class Stripe {
+
+    private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+    private final AtomicLong nextSweep;
+
+    Stripe(long firstSweep) {
+      this.nextSweep = new AtomicLong(firstSweep);
+    }
+  }
+}
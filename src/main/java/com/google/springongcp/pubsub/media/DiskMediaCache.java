@@ -0,0 +1,218 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.media;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Size-bounded, least-recently-used cache of remote objects stored as local files.
+ *
+ * <p>Entries are keyed by object and validated by ETag, so a changed object is fetched again.
+ * Downloads are written to a temporary file and moved into place, so readers never see a partial
+ * file, and concurrent misses for the same object share one download.
+ */
+public class DiskMediaCache {
+
+  private static final Log LOGGER = LogFactory.getLog(DiskMediaCache.class);
+
+  private final Path directory;
+
+  private final long maxBytes;
+
+  private final int bufferSize;
+
+  private final Map<String, CachedFile> index = new LinkedHashMap<>(16, 0.75f, true);
+
+  private final Map<String, CompletableFuture<Path>> downloads = new ConcurrentHashMap<>();
+
+  private long totalBytes;
+
+  public DiskMediaCache(Path directory, long maxBytes, int bufferSize) throws IOException {
+    this.directory = Files.createDirectories(directory);
+    this.maxBytes = maxBytes;
+    this.bufferSize = bufferSize;
+    // The index is not persisted, so files left by a previous run would never be evicted.
+    try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(this.directory)) {
+      for (Path leftover : leftovers) {
+        Files.deleteIfExists(leftover);
+      }
+    }
+  }
+
+  /**
+   * Returns the local copy of an object, downloading it first if it is missing or stale.
+   *
+   * @param key identifies the object, e.g. its URI
+   * @param etag the object's current ETag
+   * @param source opens the object's contents on a miss
+   * @return the path of the cached file
+   */
+  public Path get(String key, String etag, StreamSource source) throws IOException {
+    synchronized (this.index) {
+      CachedFile cached = this.index.get(key);
+      if (cached != null && cached.etag.equals(etag)) {
+        return cached.path;
+      }
+    }
+
+    String downloadKey = downloadName(key, etag);
+    CompletableFuture<Path> download = new CompletableFuture<>();
+    CompletableFuture<Path> existing = this.downloads.putIfAbsent(downloadKey, download);
+    if (existing != null) {
+      try {
+        return existing.join();
+      } catch (CompletionException ce) {
+        throw ce.getCause() instanceof IOException
+            ? (IOException) ce.getCause()
+            : new IOException("Download of " + key + " failed.", ce.getCause());
+      }
+    }
+
+    try {
+      Path path = download(key, etag, source);
+      download.complete(path);
+      return path;
+    } catch (IOException | RuntimeException e) {
+      download.completeExceptionally(e);
+      throw e;
+    } finally {
+      this.downloads.remove(downloadKey, download);
+    }
+  }
+
+  public long getTotalBytes() {
+    synchronized (this.index) {
+      return this.totalBytes;
+    }
+  }
+
+  private Path download(String key, String etag, StreamSource source) throws IOException {
+    Path temporary = Files.createTempFile(this.directory, "download-", ".tmp");
+    long size = 0;
+    try (InputStream in = source.open();
+        OutputStream out = Files.newOutputStream(temporary)) {
+      byte[] buffer = new byte[this.bufferSize];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+        size += read;
+      }
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(temporary);
+      throw e;
+    }
+
+    Path target = this.directory.resolve(fileName(downloadName(key, etag)));
+    Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+
+    synchronized (this.index) {
+      CachedFile previous = this.index.put(key, new CachedFile(target, size, etag));
+      this.totalBytes += size;
+      if (previous != null) {
+        this.totalBytes -= previous.size;
+        if (!previous.path.equals(target)) {
+          delete(previous.path);
+        }
+      }
+      evictOverflow(key);
+    }
+    return target;
+  }
+
+  private void evictOverflow(String keep) {
+    Iterator<Map.Entry<String, CachedFile>> eldest = this.index.entrySet().iterator();
+    while (this.totalBytes > this.maxBytes && eldest.hasNext()) {
+      Map.Entry<String, CachedFile> entry = eldest.next();
+      if (entry.getKey().equals(keep)) {
+        continue;
+      }
+      eldest.remove();
+      this.totalBytes -= entry.getValue().size;
+      // Readers that already opened the file keep their handle; on POSIX systems the data stays
+      // readable until they close it.
+      delete(entry.getValue().path);
+    }
+  }
+
+  private static void delete(Path path) {
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException ioe) {
+      LOGGER.warn("Could not delete cached media file " + path, ioe);
+    }
+  }
+
+  private static String downloadName(String key, String etag) {
+    return key + '\n' + etag;
+  }
+
+  private static String fileName(String name) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256")
+          .digest(name.getBytes(StandardCharsets.UTF_8));
+      StringBuilder hex = new StringBuilder(digest.length * 2);
+      for (byte b : digest) {
+        hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException nsae) {
+      throw new IllegalStateException("SHA-256 is not available.", nsae);
+    }
+  }
+
+  /**
+   * Opens the contents of an object being cached.
+   */
+  @FunctionalInterface
+  public interface StreamSource {
+    InputStream open() throws IOException;
+  }
+
+  private static final class CachedFile {
+
+    private final Path path;
+
+    private final long size;
+
+    private final String etag;
+
+    CachedFile(Path path, long size, String etag) {
+      this.path = path;
+      this.size = size;
+      this.etag = etag;
+    }
+  }
+}
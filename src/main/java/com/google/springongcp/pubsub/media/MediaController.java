@@ -0,0 +1,77 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.media;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+@RestController
+@ConditionalOnProperty(name = "chat.features.media", matchIfMissing = true)
+public class MediaController {
+
+  private static final String SAMPLE_FILE =
+      "gs://jamnotifications/LockHolderKIlled_RequestProceeds.png";
+
+  private static final String SAMPLE_IMAGE = "gs://springintegrationz/IMG_1377.JPG";
+
+  @Autowired
+  private MediaService mediaService;
+
+  @Autowired
+  private ResourceLoader resourceLoader;
+
+  @Autowired
+  private MediaProperties properties;
+
+  /**
+   * Serves an object from the media root, e.g. a chat attachment.
+   *
+   * @param name the object name, relative to {@code chat.media.root}
+   */
+  @GetMapping("/media/{name:.+}")
+  public void serveMedia(@PathVariable("name") String name, HttpServletRequest request,
+      HttpServletResponse response) throws IOException {
+    if (name.contains("..") || name.startsWith("/")) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+    this.mediaService.serve(
+        this.resourceLoader.getResource(this.properties.getRoot() + name), request, response);
+  }
+
+  // The sample objects are resolved per request, so the storage client is not needed at startup.
+
+  @GetMapping("/file")
+  public void serveFile(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    this.mediaService.serve(this.resourceLoader.getResource(SAMPLE_FILE), request, response);
+  }
+
+  @GetMapping("/pic")
+  public void servePic(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    this.mediaService.serve(this.resourceLoader.getResource(SAMPLE_IMAGE), request, response);
+  }
+}
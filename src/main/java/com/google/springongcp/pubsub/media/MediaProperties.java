@@ -0,0 +1,90 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.media;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.nio.file.Paths;
+
+/**
+ * Settings for serving media. {@code root} is any Spring resource location, so a {@code file:}
+ * directory can stand in for the GCS bucket.
+ */
+@ConfigurationProperties("chat.media")
+public class MediaProperties {
+
+  private String root = "gs://springintegrationz/";
+
+  private String cacheDirectory =
+      Paths.get(System.getProperty("java.io.tmpdir"), "chat-media-cache").toString();
+
+  private long maxCacheBytes = 1024L * 1024 * 1024;
+
+  private long maxCachedObjectBytes = 64L * 1024 * 1024;
+
+  private int bufferSize = 64 * 1024;
+
+  private long metadataTtlMillis = 30000;
+
+  public String getRoot() {
+    return root;
+  }
+
+  public void setRoot(String root) {
+    this.root = root;
+  }
+
+  public String getCacheDirectory() {
+    return cacheDirectory;
+  }
+
+  public void setCacheDirectory(String cacheDirectory) {
+    this.cacheDirectory = cacheDirectory;
+  }
+
+  public long getMaxCacheBytes() {
+    return maxCacheBytes;
+  }
+
+  public void setMaxCacheBytes(long maxCacheBytes) {
+    this.maxCacheBytes = maxCacheBytes;
+  }
+
+  public long getMaxCachedObjectBytes() {
+    return maxCachedObjectBytes;
+  }
+
+  public void setMaxCachedObjectBytes(long maxCachedObjectBytes) {
+    this.maxCachedObjectBytes = maxCachedObjectBytes;
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  public void setBufferSize(int bufferSize) {
+    this.bufferSize = bufferSize;
+  }
+
+  public long getMetadataTtlMillis() {
+    return metadataTtlMillis;
+  }
+
+  public void setMetadataTtlMillis(long metadataTtlMillis) {
+    this.metadataTtlMillis = metadataTtlMillis;
+  }
+}
@@ -0,0 +1,263 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.media;
+
+import com.google.springongcp.cache.ExpiringLruCache;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves storage objects over HTTP with ETag validation and single byte-range requests.
+ *
+ * <p>Objects up to {@code chat.media.max-cached-object-bytes} are served from a
+ * {@link DiskMediaCache} through {@link FileChannel#transferTo}; larger ones are streamed from
+ * storage through a fixed-size buffer. Object metadata is cached briefly, so a cache hit does not
+ * need a storage round-trip either.
+ */
+@Service
+@ConditionalOnProperty(name = "chat.features.media", matchIfMissing = true)
+public class MediaService {
+
+  private static final long[] UNSATISFIABLE = new long[0];
+
+  private final MediaProperties properties;
+
+  private final DiskMediaCache diskCache;
+
+  private final ExpiringLruCache<String, MediaMetadata> metadataCache;
+
+  public MediaService(MediaProperties properties) throws IOException {
+    this.properties = properties;
+    this.diskCache = new DiskMediaCache(Paths.get(properties.getCacheDirectory()),
+        properties.getMaxCacheBytes(), properties.getBufferSize());
+    this.metadataCache = new ExpiringLruCache<>(
+        10000, properties.getMetadataTtlMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Writes a resource to the response, honoring {@code If-None-Match}, {@code Range} and
+   * {@code If-Range}.
+   */
+  public void serve(Resource resource, HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    String key = resource.getURI().toString();
+    MediaMetadata metadata;
+    try {
+      metadata = this.metadataCache.get(key, k -> stat(resource));
+    } catch (UncheckedIOException uioe) {
+      if (uioe.getCause() instanceof FileNotFoundException) {
+        response.sendError(HttpServletResponse.SC_NOT_FOUND);
+        return;
+      }
+      throw uioe.getCause();
+    }
+
+    response.setHeader(HttpHeaders.ETAG, metadata.etag);
+    response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+    if (metadata.lastModified > 0) {
+      response.setDateHeader(HttpHeaders.LAST_MODIFIED, metadata.lastModified);
+    }
+
+    if (etagMatches(request.getHeader(HttpHeaders.IF_NONE_MATCH), metadata.etag)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    long start = 0;
+    long count = metadata.length;
+    String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+    String range = ifRange == null || ifRange.equals(metadata.etag)
+        ? request.getHeader(HttpHeaders.RANGE)
+        : null;
+    if (range != null) {
+      long[] bounds = parseRange(range, metadata.length);
+      if (bounds == UNSATISFIABLE) {
+        response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + metadata.length);
+        response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        return;
+      }
+      if (bounds != null) {
+        start = bounds[0];
+        count = bounds[1] - bounds[0] + 1;
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setHeader(HttpHeaders.CONTENT_RANGE,
+            "bytes " + bounds[0] + "-" + bounds[1] + "/" + metadata.length);
+      }
+    }
+
+    response.setContentType(metadata.contentType.toString());
+    response.setContentLengthLong(count);
+    if ("HEAD".equals(request.getMethod()) || count == 0) {
+      return;
+    }
+
+    if (metadata.length <= this.properties.getMaxCachedObjectBytes()) {
+      Path cached = this.diskCache.get(key, metadata.etag, resource::getInputStream);
+      try {
+        transfer(cached, start, count, response.getOutputStream());
+      } catch (NoSuchFileException nsfe) {
+        // Evicted between the lookup and opening it; fetch it again.
+        cached = this.diskCache.get(key, metadata.etag, resource::getInputStream);
+        transfer(cached, start, count, response.getOutputStream());
+      }
+    } else {
+      stream(resource, start, count, response.getOutputStream());
+    }
+  }
+
+  private static MediaMetadata stat(Resource resource) {
+    try {
+      long length = resource.contentLength();
+      long lastModified = resource.lastModified();
+      String etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"";
+      MediaType contentType = MediaTypeFactory.getMediaType(resource)
+          .orElse(MediaType.APPLICATION_OCTET_STREAM);
+      return new MediaMetadata(length, lastModified, etag, contentType);
+    } catch (IOException ioe) {
+      throw new UncheckedIOException(ioe);
+    }
+  }
+
+  private static void transfer(Path file, long start, long count, OutputStream out)
+      throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      WritableByteChannel target = Channels.newChannel(out);
+      long position = start;
+      long remaining = count;
+      while (remaining > 0) {
+        long transferred = channel.transferTo(position, remaining, target);
+        if (transferred <= 0) {
+          throw new IOException("Cached media file " + file + " is shorter than expected.");
+        }
+        position += transferred;
+        remaining -= transferred;
+      }
+    }
+  }
+
+  private void stream(Resource resource, long start, long count, OutputStream out)
+      throws IOException {
+    try (InputStream in = resource.getInputStream()) {
+      long toSkip = start;
+      while (toSkip > 0) {
+        long skipped = in.skip(toSkip);
+        if (skipped <= 0) {
+          throw new IOException("Object ended before byte " + start);
+        }
+        toSkip -= skipped;
+      }
+      byte[] buffer = new byte[this.properties.getBufferSize()];
+      long remaining = count;
+      while (remaining > 0) {
+        int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+        if (read == -1) {
+          break;
+        }
+        out.write(buffer, 0, read);
+        remaining -= read;
+      }
+    }
+  }
+
+  static boolean etagMatches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String candidate : ifNoneMatch.split(",")) {
+      String trimmed = candidate.trim();
+      if (trimmed.equals("*") || trimmed.equals(etag) || trimmed.equals("W/" + etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Parses a single {@code bytes=} range.
+   *
+   * @return inclusive {@code {first, last}} offsets, null if the header should be ignored (it is
+   *     malformed or asks for several ranges), or {@link #UNSATISFIABLE}
+   */
+  static long[] parseRange(String header, long length) {
+    if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+      return null;
+    }
+    String spec = header.substring("bytes=".length()).trim();
+    int dash = spec.indexOf('-');
+    if (dash < 0) {
+      return null;
+    }
+    try {
+      String first = spec.substring(0, dash).trim();
+      String last = spec.substring(dash + 1).trim();
+      if (first.isEmpty()) {
+        // Suffix range: the final N bytes.
+        long suffix = Long.parseLong(last);
+        if (suffix <= 0 || length == 0) {
+          return UNSATISFIABLE;
+        }
+        return new long[] {Math.max(0, length - suffix), length - 1};
+      }
+      long start = Long.parseLong(first);
+      long end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+      if (start >= length) {
+        return UNSATISFIABLE;
+      }
+      return start <= end ? new long[] {start, end} : null;
+    } catch (NumberFormatException nfe) {
+      return null;
+    }
+  }
+
+  private static final class MediaMetadata {
+
+    private final long length;
+
+    private final long lastModified;
+
+    private final String etag;
+
+    private final MediaType contentType;
+
+    MediaMetadata(long length, long lastModified, String etag, MediaType contentType) {
+      this.length = length;
+      this.lastModified = lastModified;
+      this.etag = etag;
+      this.contentType = contentType;
+    }
+  }
+}
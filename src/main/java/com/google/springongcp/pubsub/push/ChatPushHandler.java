@@ -0,0 +1,55 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.push;
+
+import com.google.springongcp.model.LoggableMessage;
+import org.springframework.util.StringUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Subscribes each WebSocket connection to the room named by its {@code room} query parameter.
+ * Clients only receive; anything they send is ignored.
+ */
+public class ChatPushHandler extends TextWebSocketHandler {
+
+  private final ChatPushHub hub;
+
+  public ChatPushHandler(ChatPushHub hub) {
+    this.hub = hub;
+  }
+
+  @Override
+  public void afterConnectionEstablished(WebSocketSession session) {
+    String room = session.getUri() == null
+        ? null
+        : UriComponentsBuilder.fromUri(session.getUri()).build().getQueryParams().getFirst("room");
+    this.hub.subscribe(StringUtils.hasText(room)
+        ? UriUtils.decode(room, StandardCharsets.UTF_8)
+        : LoggableMessage.DEFAULT_ROOM, session);
+  }
+
+  @Override
+  public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+    this.hub.unsubscribe(session);
+  }
+}
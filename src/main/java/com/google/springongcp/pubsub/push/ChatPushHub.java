@@ -0,0 +1,306 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.push;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.springongcp.model.LoggableMessage;
+import com.google.springongcp.pubsub.dispatch.ChatMessageListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.messaging.Message;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pushes every inbound {@link LoggableMessage} to the WebSocket clients in its room.
+ *
+ * <p>A message is serialized to JSON once per room and the same frame is queued for every
+ * subscriber. Each client has its own outbound queue, holding at most
+ * {@code chat.push.send-buffer-size-limit} bytes, which one sender task at a time drains in
+ * order. A client whose queue overflows, or whose current write has taken longer than
+ * {@code chat.push.send-time-limit-millis}, is disconnected and its queued frames dropped.
+ *
+ * <p>Writes run on a small sender pool rather than the dispatch thread. A sender task writes at
+ * most {@value #FRAMES_PER_TURN} frames before handing its thread to the next client, so a busy
+ * client cannot keep the others waiting; only a write that blocks holds up a sender, and only
+ * until that client is disconnected.
+ */
+@Component
+public class ChatPushHub implements ChatMessageListener, DisposableBean {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ChatPushHub.class);
+
+  private static final int FRAMES_PER_TURN = 32;
+
+  private final ObjectMapper objectMapper;
+
+  private final long sendTimeLimitNanos;
+
+  private final int sendBufferSizeLimit;
+
+  private final ConcurrentMap<String, Set<Client>> rooms = new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<String, Client> clients = new ConcurrentHashMap<>();
+
+  private final ExecutorService senders;
+
+  private final LongAdder dropped = new LongAdder();
+
+  private final LongAdder disconnected = new LongAdder();
+
+  public ChatPushHub(ObjectMapper objectMapper, PushProperties properties) {
+    this.objectMapper = objectMapper;
+    this.sendTimeLimitNanos = TimeUnit.MILLISECONDS.toNanos(properties.getSendTimeLimitMillis());
+    this.sendBufferSizeLimit = properties.getSendBufferSizeLimit();
+    AtomicInteger threadCount = new AtomicInteger();
+    // At most one task per client is queued, so the queue is bounded by the number of clients.
+    this.senders = Executors.newFixedThreadPool(properties.getSenderThreads(), runnable -> {
+      Thread thread = new Thread(runnable, "chat-push-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  public void subscribe(String room, WebSocketSession session) {
+    Client client = new Client(room, session);
+    this.clients.put(session.getId(), client);
+    this.rooms.compute(room, (key, members) -> {
+      Set<Client> subscribers = members != null ? members : ConcurrentHashMap.newKeySet();
+      subscribers.add(client);
+      return subscribers;
+    });
+  }
+
+  public void unsubscribe(WebSocketSession session) {
+    Client client = this.clients.get(session.getId());
+    if (client != null) {
+      remove(client);
+    }
+  }
+
+  @Override
+  public void onMessage(Message<?> message) throws IOException {
+    if (!(message.getPayload() instanceof LoggableMessage)) {
+      return;
+    }
+    LoggableMessage loggableMessage = (LoggableMessage) message.getPayload();
+    Set<Client> subscribers = this.rooms.get(loggableMessage.getRoom());
+    if (subscribers == null) {
+      return;
+    }
+
+    TextMessage frame = new TextMessage(this.objectMapper.writeValueAsBytes(loggableMessage));
+    for (Client client : subscribers) {
+      enqueue(client, frame);
+    }
+  }
+
+  public int getConnectionCount() {
+    return this.clients.size();
+  }
+
+  public int getRoomCount() {
+    return this.rooms.size();
+  }
+
+  /**
+   * @return the number of frames that were not sent because their client fell behind
+   */
+  public long getDroppedFrames() {
+    return this.dropped.sum();
+  }
+
+  /**
+   * @return the number of clients disconnected for falling behind
+   */
+  public long getDisconnectedClients() {
+    return this.disconnected.sum();
+  }
+
+  @Override
+  public void destroy() {
+    this.senders.shutdownNow();
+    for (Client client : this.clients.values()) {
+      close(client.session, CloseStatus.GOING_AWAY);
+    }
+  }
+
+  private void enqueue(Client client, TextMessage frame) {
+    if (client.isStalled(this.sendTimeLimitNanos)) {
+      disconnect(client, "a write has taken over " + TimeUnit.NANOSECONDS.toMillis(
+          this.sendTimeLimitNanos) + " ms");
+      return;
+    }
+    if (!client.offer(frame, this.sendBufferSizeLimit)) {
+      disconnect(client, "over " + this.sendBufferSizeLimit + " bytes are queued");
+      return;
+    }
+    if (client.draining.compareAndSet(false, true)) {
+      schedule(client);
+    }
+  }
+
+  private void schedule(Client client) {
+    try {
+      this.senders.execute(() -> drain(client));
+    } catch (RejectedExecutionException ree) {
+      // Shutting down.
+      client.draining.set(false);
+    }
+  }
+
+  private void drain(Client client) {
+    for (int i = 0; i < FRAMES_PER_TURN; i++) {
+      TextMessage frame = client.poll();
+      if (frame == null) {
+        break;
+      }
+      if (!send(client, frame)) {
+        // Unsubscribed, so nothing else is queued for it; leave it marked as draining.
+        client.clear();
+        return;
+      }
+    }
+    client.draining.set(false);
+    // Frames queued after the last poll, or left over from this turn, need another turn.
+    if (!client.frames.isEmpty() && client.draining.compareAndSet(false, true)) {
+      schedule(client);
+    }
+  }
+
+  private boolean send(Client client, TextMessage frame) {
+    client.sendStartedAt = System.nanoTime();
+    try {
+      client.session.sendMessage(frame);
+      return true;
+    } catch (IOException | IllegalStateException e) {
+      // Already closed or closing; the handler unsubscribes it as well, this just does it sooner.
+      remove(client);
+      return false;
+    } finally {
+      client.sendStartedAt = 0;
+    }
+  }
+
+  private void disconnect(Client client, String reason) {
+    if (!remove(client)) {
+      return;
+    }
+    this.disconnected.increment();
+    this.dropped.add(client.clear() + 1);
+    LOGGER.info("Disconnecting slow client {}: {}.", client.session.getId(), reason);
+    close(client.session, CloseStatus.SESSION_NOT_RELIABLE);
+  }
+
+  /**
+   * @return true if this call removed the client, false if it was already gone
+   */
+  private boolean remove(Client client) {
+    if (!this.clients.remove(client.session.getId(), client)) {
+      return false;
+    }
+    this.rooms.computeIfPresent(client.room, (key, members) -> {
+      members.remove(client);
+      return members.isEmpty() ? null : members;
+    });
+    return true;
+  }
+
+  private static void close(WebSocketSession session, CloseStatus status) {
+    try {
+      session.close(status);
+    } catch (IOException ioe) {
+      LOGGER.debug("Failed to close WebSocket session {}", session.getId(), ioe);
+    }
+  }
+
+  /**
+   * A subscribed session and the frames waiting to be written to it.
+   */
+  private static final class Client {
+
+    private final String room;
+
+    private final WebSocketSession session;
+
+    private final Queue<TextMessage> frames = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger queuedBytes = new AtomicInteger();
+
+    // Set while a sender task is scheduled or running for this client.
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    // When the write in progress started, or 0 if none is.
+    private volatile long sendStartedAt;
+
+    Client(String room, WebSocketSession session) {
+      this.room = room;
+      this.session = session;
+    }
+
+    boolean offer(TextMessage frame, int byteLimit) {
+      int size = frame.getPayloadLength();
+      if (this.queuedBytes.addAndGet(size) > byteLimit) {
+        this.queuedBytes.addAndGet(-size);
+        return false;
+      }
+      this.frames.add(frame);
+      return true;
+    }
+
+    TextMessage poll() {
+      TextMessage frame = this.frames.poll();
+      if (frame != null) {
+        this.queuedBytes.addAndGet(-frame.getPayloadLength());
+      }
+      return frame;
+    }
+
+    /**
+     * @return the number of frames discarded
+     */
+    int clear() {
+      int cleared = 0;
+      while (poll() != null) {
+        cleared++;
+      }
+      return cleared;
+    }
+
+    boolean isStalled(long limitNanos) {
+      long startedAt = this.sendStartedAt;
+      return startedAt != 0 && System.nanoTime() - startedAt > limitNanos;
+    }
+  }
+}
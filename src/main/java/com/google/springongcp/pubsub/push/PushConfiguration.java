@@ -0,0 +1,57 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.push;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.server.standard.ServletServerContainerFactoryBean;
+
+/**
+ * Exposes {@link ChatPushHub} at {@code /chat/ws?room=...}.
+ *
+ * <p>Connections are served by the container's non-blocking WebSocket support, so an idle client
+ * costs a socket and its session state but no thread.
+ */
+@Configuration
+@EnableWebSocket
+public class PushConfiguration implements WebSocketConfigurer {
+
+  private final ChatPushHub hub;
+
+  private final PushProperties properties;
+
+  public PushConfiguration(ChatPushHub hub, PushProperties properties) {
+    this.hub = hub;
+    this.properties = properties;
+  }
+
+  @Override
+  public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+    registry.addHandler(new ChatPushHandler(this.hub), "/chat/ws");
+  }
+
+  @Bean
+  public ServletServerContainerFactoryBean createWebSocketContainer() {
+    ServletServerContainerFactoryBean container = new ServletServerContainerFactoryBean();
+    container.setMaxSessionIdleTimeout(this.properties.getIdleTimeoutMillis());
+    container.setAsyncSendTimeout((long) this.properties.getSendTimeLimitMillis());
+    return container;
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.push;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Limits for {@link ChatPushHub}.
+ */
+@ConfigurationProperties("chat.push")
+public class PushProperties {
+
+  private int sendTimeLimitMillis = 5000;
+
+  private int sendBufferSizeLimit = 256 * 1024;
+
+  private int senderThreads = 4;
+
+  private long idleTimeoutMillis = 300000;
+
+  public int getSendTimeLimitMillis() {
+    return sendTimeLimitMillis;
+  }
+
+  public void setSendTimeLimitMillis(int sendTimeLimitMillis) {
+    this.sendTimeLimitMillis = sendTimeLimitMillis;
+  }
+
+  public int getSendBufferSizeLimit() {
+    return sendBufferSizeLimit;
+  }
+
+  public void setSendBufferSizeLimit(int sendBufferSizeLimit) {
+    this.sendBufferSizeLimit = sendBufferSizeLimit;
+  }
+
+  public int getSenderThreads() {
+    return senderThreads;
+  }
+
+  public void setSenderThreads(int senderThreads) {
+    this.senderThreads = senderThreads;
+  }
+
+  public long getIdleTimeoutMillis() {
+    return idleTimeoutMillis;
+  }
+
+  public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+    this.idleTimeoutMillis = idleTimeoutMillis;
+  }
+}
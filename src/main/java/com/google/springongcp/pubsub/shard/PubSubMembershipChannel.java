@@ -0,0 +1,91 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.shard;
+
+import com.google.cloud.pubsub.v1.Subscriber;
+import com.google.springongcp.shard.MembershipChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.gcp.pubsub.PubSubAdmin;
+import org.springframework.cloud.gcp.pubsub.core.PubSubTemplate;
+
+import java.util.function.Consumer;
+
+/**
+ * {@link MembershipChannel} over a Pub/Sub topic, with a subscription of its own for each node, so
+ * every node receives every event. The topic and the node's subscription are created on start,
+ * and the subscription is deleted again on stop.
+ *
+ * <p>A node that dies without stopping leaves its subscription behind until Pub/Sub expires it
+ * for inactivity.
+ */
+public class PubSubMembershipChannel implements MembershipChannel {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(PubSubMembershipChannel.class);
+
+  private final PubSubAdmin admin;
+
+  private final PubSubTemplate pubSubTemplate;
+
+  private final String topic;
+
+  private String subscription;
+
+  private Subscriber subscriber;
+
+  public PubSubMembershipChannel(PubSubAdmin admin, PubSubTemplate pubSubTemplate,
+      String topic) {
+    this.admin = admin;
+    this.pubSubTemplate = pubSubTemplate;
+    this.topic = topic;
+  }
+
+  @Override
+  public void start(String nodeId, Consumer<String> receiver) {
+    if (this.admin.getTopic(this.topic) == null) {
+      this.admin.createTopic(this.topic);
+    }
+    // Subscription names may only hold letters, digits and -_.~+%
+    this.subscription = this.topic + "-" + nodeId.replaceAll("[^A-Za-z0-9_.~+%-]", "-");
+    if (this.admin.getSubscription(this.subscription) == null) {
+      this.admin.createSubscription(this.subscription, this.topic);
+    }
+    this.subscriber = this.pubSubTemplate.subscribe(this.subscription, (message, consumer) -> {
+      consumer.ack();
+      receiver.accept(message.getData().toStringUtf8());
+    });
+  }
+
+  @Override
+  public void publish(String event) {
+    this.pubSubTemplate.publish(this.topic, event, null).addCallback(
+        ignored -> { },
+        ex -> LOGGER.warn("Failed to publish membership event {}", event, ex));
+  }
+
+  @Override
+  public void stop() {
+    if (this.subscriber != null) {
+      this.subscriber.stopAsync();
+    }
+    try {
+      this.admin.deleteSubscription(this.subscription);
+    } catch (RuntimeException re) {
+      LOGGER.warn("Failed to delete membership subscription {}", this.subscription, re);
+    }
+  }
+}
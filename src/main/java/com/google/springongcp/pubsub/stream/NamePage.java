@@ -0,0 +1,45 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.stream;
+
+import java.util.List;
+
+/**
+ * One page of Pub/Sub resource names.
+ */
+public class NamePage {
+
+  private final List<String> names;
+
+  private final String nextPageToken;
+
+  public NamePage(List<String> names, String nextPageToken) {
+    this.names = names;
+    this.nextPageToken = nextPageToken;
+  }
+
+  public List<String> getNames() {
+    return names;
+  }
+
+  /**
+   * @return the token to pass as {@code pageToken} for the next page, or null on the last page
+   */
+  public String getNextPageToken() {
+    return nextPageToken;
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.stream;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.pubsub.v1.SubscriptionAdminClient;
+import com.google.cloud.pubsub.v1.TopicAdminClient;
+import com.google.pubsub.v1.ListSubscriptionsRequest;
+import com.google.pubsub.v1.ListTopicsRequest;
+import com.google.pubsub.v1.Subscription;
+import com.google.pubsub.v1.SubscriptionName;
+import com.google.pubsub.v1.Topic;
+import com.google.pubsub.v1.TopicName;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.gcp.core.GcpProjectIdProvider;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import javax.sql.DataSource;
+
+/**
+ * Variants of the list endpoints that never hold the whole result in memory.
+ *
+ * <p>The {@code /stream} endpoints write newline-delimited JSON, one element per line, as rows or
+ * pages arrive. The {@code /page} endpoints return a single page of Pub/Sub names plus the token
+ * for the next one.
+ */
+@RestController
+@ConditionalOnProperty(name = "chat.features.admin", matchIfMissing = true)
+public class StreamingListController {
+
+  static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+  private static final int ADMIN_PAGE_SIZE = 500;
+
+  private final JdbcTemplate streamingJdbcTemplate;
+
+  private final TopicAdminClient topicAdminClient;
+
+  private final SubscriptionAdminClient subscriptionAdminClient;
+
+  private final GcpProjectIdProvider projectIdProvider;
+
+  private final ObjectMapper objectMapper;
+
+  public StreamingListController(@Lazy DataSource dataSource, TopicAdminClient topicAdminClient,
+      SubscriptionAdminClient subscriptionAdminClient, GcpProjectIdProvider projectIdProvider,
+      ObjectMapper objectMapper) {
+    // A dedicated template, so the fetch size only applies to the streaming queries. With
+    // useCursorFetch, Connector/J then reads the result set from the server in chunks of this size.
+    this.streamingJdbcTemplate = new JdbcTemplate(dataSource);
+    this.streamingJdbcTemplate.setFetchSize(500);
+    this.topicAdminClient = topicAdminClient;
+    this.subscriptionAdminClient = subscriptionAdminClient;
+    this.projectIdProvider = projectIdProvider;
+    this.objectMapper = objectMapper;
+  }
+
+  /**
+   * Streams every row of the user table as it is read from the database.
+   */
+  @GetMapping("/queryDbSpecial/stream")
+  public ResponseEntity<StreamingResponseBody> streamQueryDbSpecial() {
+    ColumnMapRowMapper rowMapper = new ColumnMapRowMapper();
+    return ndjson(generator -> this.streamingJdbcTemplate.query("SELECT * FROM user",
+        (RowCallbackHandler) rs -> {
+          try {
+            generator.writeObject(rowMapper.mapRow(rs, 0));
+            generator.writeRaw('\n');
+          } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+          }
+        }));
+  }
+
+  @GetMapping("/listTopics/page")
+  public NamePage listTopicsPage(
+      @RequestParam(value = "pageToken", defaultValue = "") String pageToken,
+      @RequestParam(value = "pageSize", defaultValue = "100") int pageSize) {
+    return topicPage(pageToken, pageSize);
+  }
+
+  @GetMapping("/listTopics/stream")
+  public ResponseEntity<StreamingResponseBody> streamTopics() {
+    return ndjson(generator ->
+        writeAllPages(generator, token -> topicPage(token, ADMIN_PAGE_SIZE)));
+  }
+
+  @GetMapping("/listSubscriptions/page")
+  public NamePage listSubscriptionsPage(
+      @RequestParam(value = "pageToken", defaultValue = "") String pageToken,
+      @RequestParam(value = "pageSize", defaultValue = "100") int pageSize) {
+    return subscriptionPage(pageToken, pageSize);
+  }
+
+  @GetMapping("/listSubscriptions/stream")
+  public ResponseEntity<StreamingResponseBody> streamSubscriptions() {
+    return ndjson(generator ->
+        writeAllPages(generator, token -> subscriptionPage(token, ADMIN_PAGE_SIZE)));
+  }
+
+  private NamePage topicPage(String pageToken, int pageSize) {
+    ListTopicsRequest request = ListTopicsRequest.newBuilder()
+        .setProject(projectPath())
+        .setPageSize(pageSize)
+        .setPageToken(pageToken)
+        .build();
+    TopicAdminClient.ListTopicsPage page = this.topicAdminClient.listTopics(request).getPage();
+    List<String> names = page.getResponse().getTopicsList()
+        .stream()
+        .map(Topic::getNameAsTopicName)
+        .map(TopicName::getTopic)
+        .collect(Collectors.toList());
+    return new NamePage(names, emptyToNull(page.getNextPageToken()));
+  }
+
+  private NamePage subscriptionPage(String pageToken, int pageSize) {
+    ListSubscriptionsRequest request = ListSubscriptionsRequest.newBuilder()
+        .setProject(projectPath())
+        .setPageSize(pageSize)
+        .setPageToken(pageToken)
+        .build();
+    SubscriptionAdminClient.ListSubscriptionsPage page =
+        this.subscriptionAdminClient.listSubscriptions(request).getPage();
+    List<String> names = page.getResponse().getSubscriptionsList()
+        .stream()
+        .map(Subscription::getNameAsSubscriptionName)
+        .map(SubscriptionName::getSubscription)
+        .collect(Collectors.toList());
+    return new NamePage(names, emptyToNull(page.getNextPageToken()));
+  }
+
+  private static void writeAllPages(JsonGenerator generator, Function<String, NamePage> fetch)
+      throws IOException {
+    String token = "";
+    do {
+      NamePage page = fetch.apply(token);
+      for (String name : page.getNames()) {
+        generator.writeString(name);
+        generator.writeRaw('\n');
+      }
+      // Hand each page to the client before fetching the next one.
+      generator.flush();
+      token = page.getNextPageToken();
+    } while (token != null);
+  }
+
+  private ResponseEntity<StreamingResponseBody> ndjson(JsonWriter writer) {
+    StreamingResponseBody body = (OutputStream out) -> {
+      try (JsonGenerator generator = this.objectMapper.getFactory().createGenerator(out)) {
+        // Values are separated by the newlines written after each one, not Jackson's default space.
+        generator.setRootValueSeparator(null);
+        writer.write(generator);
+      }
+    };
+    return ResponseEntity.ok().contentType(NDJSON).body(body);
+  }
+
+  private String projectPath() {
+    return "projects/" + this.projectIdProvider.getProjectId();
+  }
+
+  private static String emptyToNull(String token) {
+    return token == null || token.isEmpty() ? null : token;
+  }
+
+  @FunctionalInterface
+  private interface JsonWriter {
+    void write(JsonGenerator generator) throws IOException;
+  }
+}
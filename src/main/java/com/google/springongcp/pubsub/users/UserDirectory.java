@@ -0,0 +1,62 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.users;
+
+import com.google.springongcp.cache.ExpiringLruCache;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads and writes the {@code user} table through the pooled {@link JdbcTemplate}, caching
+ * listings until they expire or a write goes through this class.
+ */
+@Service
+@ConditionalOnProperty(name = "chat.features.admin", matchIfMissing = true)
+public class UserDirectory {
+
+  private static final String ALL_USERS = "all";
+
+  private final JdbcTemplate jdbcTemplate;
+
+  private final ExpiringLruCache<String, List<String>> cache;
+
+  public UserDirectory(@Lazy JdbcTemplate jdbcTemplate, UserDirectoryProperties properties) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.cache = new ExpiringLruCache<>(
+        properties.getMaxEntries(), properties.getTtlMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @return every user, formatted as {@code "email name"}
+   */
+  public List<String> listUsers() {
+    return this.cache.get(ALL_USERS, key -> Collections.unmodifiableList(
+        this.jdbcTemplate.query("SELECT email, name FROM user",
+            (rs, rowNum) -> rs.getString("email") + " " + rs.getString("name"))));
+  }
+
+  public void addUser(String email, String name) {
+    this.jdbcTemplate.update("INSERT INTO user (email, name) VALUES (?, ?)", email, name);
+    this.cache.invalidateAll();
+  }
+}
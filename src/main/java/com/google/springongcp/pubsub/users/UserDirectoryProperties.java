@@ -0,0 +1,46 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.users;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Cache settings for {@link UserDirectory}.
+ */
+@ConfigurationProperties("chat.users.cache")
+public class UserDirectoryProperties {
+
+  private long ttlMillis = 30000;
+
+  private int maxEntries = 1000;
+
+  public long getTtlMillis() {
+    return ttlMillis;
+  }
+
+  public void setTtlMillis(long ttlMillis) {
+    this.ttlMillis = ttlMillis;
+  }
+
+  public int getMaxEntries() {
+    return maxEntries;
+  }
+
+  public void setMaxEntries(int maxEntries) {
+    this.maxEntries = maxEntries;
+  }
+}
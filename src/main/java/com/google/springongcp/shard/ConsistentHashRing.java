@@ -0,0 +1,62 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.shard;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Assigns shards to nodes on a hash ring. Each node is placed on the ring at
+ * {@code virtualNodes} points, and a shard belongs to the node at the first point at or after the
+ * shard's own hash, wrapping around.
+ *
+ * <p>When a node joins, it only takes shards over from the others, and when it leaves, only its
+ * own shards move, spread over the remaining nodes. Every node builds the same ring from the same
+ * set of node IDs, so nodes that agree on membership agree on ownership without talking to each
+ * other. Immutable; a membership change builds a new ring.
+ */
+public class ConsistentHashRing {
+
+  private final TreeMap<Long, String> points = new TreeMap<>();
+
+  /**
+   * @param nodes the IDs of the live nodes
+   * @param virtualNodes how many points each node gets on the ring; more points spread the shards
+   *     more evenly
+   */
+  public ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+    for (String node : nodes) {
+      for (int i = 0; i < virtualNodes; i++) {
+        // On the rare collision, the lower node ID keeps the point, whatever the iteration order.
+        this.points.merge(ShardRouter.hash(node + "#" + i), node,
+            (existing, added) -> existing.compareTo(added) <= 0 ? existing : added);
+      }
+    }
+  }
+
+  /**
+   * @return the ID of the node owning the shard, or null if the ring has no nodes
+   */
+  public String ownerOf(int shard) {
+    if (this.points.isEmpty()) {
+      return null;
+    }
+    Map.Entry<Long, String> point = this.points.ceilingEntry(ShardRouter.hash("shard-" + shard));
+    return point != null ? point.getValue() : this.points.firstEntry().getValue();
+  }
+}
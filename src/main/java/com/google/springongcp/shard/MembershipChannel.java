@@ -0,0 +1,41 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.shard;
+
+import java.util.function.Consumer;
+
+/**
+ * Broadcasts {@link ShardMembership} events to every node, over whichever broker carries the chat
+ * messages. Delivery may be lossy and duplicated; events are repeated every heartbeat interval.
+ */
+public interface MembershipChannel {
+
+  /**
+   * Starts receiving the events every node publishes, this node's own included.
+   *
+   * @param nodeId this node's ID, unique among the live nodes
+   * @param receiver called with each event received
+   */
+  void start(String nodeId, Consumer<String> receiver) throws Exception;
+
+  /**
+   * Sends an event to every node, without waiting for the broker.
+   */
+  void publish(String event);
+
+  void stop();
+}
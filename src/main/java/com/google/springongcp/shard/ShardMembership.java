@@ -0,0 +1,341 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.shard;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.util.StringUtils;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Keeps track of the live nodes and tells a {@link ShardAssignmentListener} which shards this node
+ * owns, so that every shard is consumed by one node and the shards are spread evenly over them.
+ *
+ * <p>Every node broadcasts a heartbeat over the {@link MembershipChannel} each
+ * {@code chat.sharding.heartbeat-interval-millis}, and forgets nodes it has not heard from for
+ * {@code chat.sharding.node-timeout-millis}. A node shutting down says so, so its shards move at
+ * once rather than after the timeout. Whenever the set of nodes changes, ownership is worked out
+ * again on a {@link ConsistentHashRing}, which only moves the shards of the node that joined or
+ * left.
+ *
+ * <p>A starting node listens for one join window of two heartbeat intervals before it takes any
+ * shard, so it does not briefly claim every shard before it has heard from the others. Until nodes
+ * agree again after a change, a shard may briefly have two consumers, or none; the first is
+ * harmless, as a shard's subscription or queue hands each message to one consumer and redeliveries
+ * are deduplicated, and in the second, messages wait in the broker.
+ *
+ * <p>With a single shard there is nothing to balance: every node owns it, as every node consumed
+ * the one subscription or queue before, and no heartbeats are sent.
+ *
+ * <p>{@link #ownsExclusively} and {@link #getAssignmentVersion} tell caches of per-room state
+ * whether this node sees every message of a room, and has seen them all since a given moment.
+ *
+ * <p>All membership state is kept on a single "chat-shard-membership" thread, which also calls the
+ * listener. Records the number of owned shards in {@code chat.shard.owned}, the number of live
+ * nodes in {@code chat.shard.nodes} and ownership changes in {@code chat.shard.rebalances}.
+ */
+public class ShardMembership implements SmartLifecycle {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ShardMembership.class);
+
+  static final String ALIVE = "alive:";
+
+  static final String LEFT = "left:";
+
+  private final ShardingProperties properties;
+
+  private final MembershipChannel channel;
+
+  private final ShardAssignmentListener listener;
+
+  private final String nodeId;
+
+  private final ScheduledExecutorService scheduler;
+
+  // When each node was last heard from; only touched on the scheduler thread.
+  private final Map<String, Long> lastSeen = new HashMap<>();
+
+  private final Counter rebalances;
+
+  private boolean joined;
+
+  private volatile Set<Integer> owned = Collections.emptySet();
+
+  private volatile long assignedAtMillis;
+
+  private volatile long assignmentVersion;
+
+  private volatile int nodeCount;
+
+  private volatile boolean running;
+
+  public ShardMembership(ShardingProperties properties, MembershipChannel channel,
+      ShardAssignmentListener listener, MeterRegistry meterRegistry) {
+    this.properties = properties;
+    this.channel = channel;
+    this.listener = listener;
+    this.nodeId = StringUtils.hasText(properties.getNodeId())
+        ? properties.getNodeId()
+        : generateNodeId();
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "chat-shard-membership");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.rebalances = Counter.builder("chat.shard.rebalances").register(meterRegistry);
+    Gauge.builder("chat.shard.owned", this, membership -> membership.getOwnedShards().size())
+        .register(meterRegistry);
+    Gauge.builder("chat.shard.nodes", this, ShardMembership::getNodeCount)
+        .register(meterRegistry);
+  }
+
+  public String getNodeId() {
+    return this.nodeId;
+  }
+
+  /**
+   * @return the shards this node owns
+   */
+  public Set<Integer> getOwnedShards() {
+    return this.owned;
+  }
+
+  /**
+   * Whether this node is the only consumer of a shard: it owns the shard, there is more than one
+   * shard, so no other node shares it, and the last change of ownership is at least
+   * {@code chat.sharding.node-timeout-millis} old, so a previous owner has released it since.
+   *
+   * @param shard a shard number
+   * @return true if every message of the shard is received by this node alone
+   */
+  public boolean ownsExclusively(int shard) {
+    return this.properties.getShards() > 1
+        && this.owned.contains(shard)
+        && System.currentTimeMillis() - this.assignedAtMillis
+            >= this.properties.getNodeTimeoutMillis();
+  }
+
+  /**
+   * @return a number that changes whenever the owned shards do; a shard owned exclusively both
+   *     before and after reading the same version was owned without a break in between
+   */
+  public long getAssignmentVersion() {
+    return this.assignmentVersion;
+  }
+
+  /**
+   * @return how many live nodes this node knows of, itself included
+   */
+  public int getNodeCount() {
+    return this.nodeCount;
+  }
+
+  @Override
+  public void start() {
+    this.running = true;
+    if (this.properties.getShards() == 1) {
+      this.scheduler.execute(() -> {
+        this.nodeCount = 1;
+        assign(Collections.singleton(0));
+      });
+      return;
+    }
+
+    this.scheduler.execute(() -> this.lastSeen.put(this.nodeId, System.currentTimeMillis()));
+    try {
+      this.channel.start(this.nodeId, event -> {
+        try {
+          this.scheduler.execute(() -> receive(event));
+        } catch (RejectedExecutionException ree) {
+          // Shutting down; the event no longer matters.
+        }
+      });
+    } catch (Exception e) {
+      throw new IllegalStateException("Failed to join the shard membership channel", e);
+    }
+    long interval = this.properties.getHeartbeatIntervalMillis();
+    this.scheduler.scheduleWithFixedDelay(this::heartbeat, 0, interval, TimeUnit.MILLISECONDS);
+    this.scheduler.schedule(() -> {
+      this.joined = true;
+      rebalance();
+    }, 2 * interval, TimeUnit.MILLISECONDS);
+    LOGGER.info("Node {} joining to share {} shards", this.nodeId, this.properties.getShards());
+  }
+
+  /**
+   * Tells the other nodes this one is leaving and releases every shard, before the rest of the
+   * application shuts down.
+   */
+  @Override
+  public void stop() {
+    if (!this.running) {
+      return;
+    }
+    this.running = false;
+    if (this.properties.getShards() > 1) {
+      this.channel.publish(LEFT + this.nodeId);
+      this.channel.stop();
+    }
+    try {
+      this.scheduler.submit(() -> assign(Collections.emptySet())).get(10, TimeUnit.SECONDS);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException | TimeoutException e) {
+      LOGGER.warn("Failed to release shards on shutdown", e);
+    } finally {
+      this.scheduler.shutdownNow();
+    }
+  }
+
+  @Override
+  public void stop(Runnable callback) {
+    stop();
+    callback.run();
+  }
+
+  @Override
+  public boolean isRunning() {
+    return this.running;
+  }
+
+  @Override
+  public boolean isAutoStartup() {
+    return true;
+  }
+
+  /**
+   * Starts last, once everything that handles received messages is running, and stops first.
+   */
+  @Override
+  public int getPhase() {
+    return Integer.MAX_VALUE;
+  }
+
+  /**
+   * Runs under {@code scheduleWithFixedDelay}, which would cancel every later heartbeat if one
+   * threw, so failures are logged here instead; a node that stopped sending heartbeats would lose
+   * its shards to the others while still consuming them.
+   */
+  private void heartbeat() {
+    long now = System.currentTimeMillis();
+    try {
+      this.channel.publish(ALIVE + this.nodeId);
+    } catch (RuntimeException re) {
+      LOGGER.warn("Failed to send the heartbeat of node {}", this.nodeId, re);
+    }
+    try {
+      this.lastSeen.put(this.nodeId, now);
+      boolean expired = false;
+      for (Iterator<Map.Entry<String, Long>> it = this.lastSeen.entrySet().iterator();
+          it.hasNext(); ) {
+        Map.Entry<String, Long> node = it.next();
+        if (now - node.getValue() > this.properties.getNodeTimeoutMillis()) {
+          LOGGER.info("Node {} timed out", node.getKey());
+          it.remove();
+          expired = true;
+        }
+      }
+      if (expired) {
+        rebalance();
+      }
+    } catch (RuntimeException re) {
+      LOGGER.error("Failed to expire silent nodes", re);
+    }
+  }
+
+  private void receive(String event) {
+    String node;
+    if (event.startsWith(ALIVE)) {
+      node = event.substring(ALIVE.length());
+      if (!node.equals(this.nodeId)
+          && this.lastSeen.put(node, System.currentTimeMillis()) == null) {
+        LOGGER.info("Node {} joined", node);
+        rebalance();
+      }
+    } else if (event.startsWith(LEFT)) {
+      node = event.substring(LEFT.length());
+      if (!node.equals(this.nodeId) && this.lastSeen.remove(node) != null) {
+        LOGGER.info("Node {} left", node);
+        rebalance();
+      }
+    } else {
+      LOGGER.debug("Ignoring unknown membership event {}", event);
+    }
+  }
+
+  private void rebalance() {
+    this.nodeCount = this.lastSeen.size();
+    if (!this.joined || !this.running) {
+      return;
+    }
+    ConsistentHashRing ring =
+        new ConsistentHashRing(this.lastSeen.keySet(), this.properties.getVirtualNodes());
+    Set<Integer> shards = new TreeSet<>();
+    for (int shard = 0; shard < this.properties.getShards(); shard++) {
+      if (this.nodeId.equals(ring.ownerOf(shard))) {
+        shards.add(shard);
+      }
+    }
+    assign(shards);
+  }
+
+  private void assign(Set<Integer> shards) {
+    if (shards.equals(this.owned)) {
+      return;
+    }
+    this.owned = Collections.unmodifiableSet(shards);
+    this.assignedAtMillis = System.currentTimeMillis();
+    this.assignmentVersion++;
+    this.rebalances.increment();
+    LOGGER.info("Node {} now owns shards {} of {}, with {} nodes",
+        this.nodeId, shards, this.properties.getShards(), this.nodeCount);
+    try {
+      this.listener.onAssignment(this.owned);
+    } catch (RuntimeException re) {
+      LOGGER.error("Failed to apply shard assignment {}", shards, re);
+    }
+  }
+
+  private static String generateNodeId() {
+    String host;
+    try {
+      host = InetAddress.getLocalHost().getHostName();
+    } catch (UnknownHostException uhe) {
+      host = "node";
+    }
+    return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+  }
+}
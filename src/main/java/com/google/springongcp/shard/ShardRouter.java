@@ -0,0 +1,119 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.shard;
+
+import com.google.springongcp.codec.LoggableMessageEncodingTransformer;
+import com.google.springongcp.model.LoggableMessage;
+import org.springframework.messaging.Message;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Maps chat rooms to shards, and shards to the names of the topics, subscriptions or queues that
+ * carry them.
+ *
+ * <p>Rooms are placed with jump consistent hashing, so all messages of a room go through the same
+ * shard, keeping their order, and growing from N to N + 1 shards only moves about 1/(N + 1) of
+ * the rooms. Shard {@code i} of a destination {@code base} is named {@code base-i}; with a single
+ * shard, the destination keeps its plain name.
+ */
+public class ShardRouter {
+
+  private final int shards;
+
+  public ShardRouter(int shards) {
+    if (shards < 1) {
+      throw new IllegalArgumentException("At least one shard is needed, not " + shards);
+    }
+    this.shards = shards;
+  }
+
+  public int getShards() {
+    return this.shards;
+  }
+
+  /**
+   * @param room a chat room, or null for the default room
+   * @return the shard carrying the room's messages
+   */
+  public int shardOf(String room) {
+    if (this.shards == 1) {
+      return 0;
+    }
+    return jump(hash(room != null ? room : LoggableMessage.DEFAULT_ROOM), this.shards);
+  }
+
+  /**
+   * @param message an encoded chat message, with its room in the
+   *     {@link LoggableMessageEncodingTransformer#ROOM_HEADER} header
+   * @return the shard carrying the message's room
+   */
+  public int shardOf(Message<?> message) {
+    return shardOf(message.getHeaders().get(LoggableMessageEncodingTransformer.ROOM_HEADER,
+        String.class));
+  }
+
+  /**
+   * @param base the destination's name without sharding
+   * @param shard a shard number
+   * @return the name of the destination's shard
+   */
+  public String destination(String base, int shard) {
+    return this.shards == 1 ? base : base + "-" + shard;
+  }
+
+  /**
+   * @param base the destination's name without sharding
+   * @param message an encoded chat message
+   * @return the name of the destination's shard carrying the message's room
+   */
+  public String destinationOf(String base, Message<?> message) {
+    return destination(base, shardOf(message));
+  }
+
+  /**
+   * 64-bit FNV-1a over the UTF-8 bytes, followed by MurmurHash3's finalizer, as FNV alone leaves
+   * the high bits of short keys poorly mixed.
+   */
+  static long hash(String key) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  /**
+   * Lamping and Veach's jump consistent hash.
+   */
+  static int jump(long key, int buckets) {
+    long bucket = -1;
+    long next = 0;
+    while (next < buckets) {
+      bucket = next;
+      key = key * 2862933555777941757L + 1;
+      next = (long) ((bucket + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+    }
+    return (int) bucket;
+  }
+}
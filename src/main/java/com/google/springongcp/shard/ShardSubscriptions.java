@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.shard;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.Lifecycle;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.IntFunction;
+
+/**
+ * Runs one inbound consumer, such as a channel adapter on the shard's subscription, for each
+ * shard this node owns: consumers of shards it no longer owns are stopped first, then consumers
+ * of newly owned shards are created and started.
+ */
+public class ShardSubscriptions implements ShardAssignmentListener {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ShardSubscriptions.class);
+
+  private final IntFunction<? extends Lifecycle> consumerFactory;
+
+  private final Map<Integer, Lifecycle> consumers = new HashMap<>();
+
+  /**
+   * @param consumerFactory creates the consumer of a shard, not yet started
+   */
+  public ShardSubscriptions(IntFunction<? extends Lifecycle> consumerFactory) {
+    this.consumerFactory = consumerFactory;
+  }
+
+  @Override
+  public synchronized void onAssignment(Set<Integer> shards) {
+    for (Iterator<Map.Entry<Integer, Lifecycle>> it = this.consumers.entrySet().iterator();
+        it.hasNext(); ) {
+      Map.Entry<Integer, Lifecycle> consumer = it.next();
+      if (!shards.contains(consumer.getKey())) {
+        consumer.getValue().stop();
+        it.remove();
+      }
+    }
+    for (Integer shard : shards) {
+      if (!this.consumers.containsKey(shard)) {
+        try {
+          Lifecycle consumer = this.consumerFactory.apply(shard);
+          consumer.start();
+          this.consumers.put(shard, consumer);
+        } catch (RuntimeException re) {
+          LOGGER.error("Failed to start consuming shard {}", shard, re);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the shards being consumed
+   */
+  public synchronized Set<Integer> getShards() {
+    return new TreeSet<>(this.consumers.keySet());
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.shard;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * How chat rooms are spread over topic or queue shards, and how nodes agree on who consumes which
+ * shard.
+ *
+ * <p>With the default of one shard, every node consumes the transport's single topic or queue, as
+ * before sharding existed, and no heartbeats are sent.
+ */
+@ConfigurationProperties("chat.sharding")
+public class ShardingProperties {
+
+  private int shards = 1;
+
+  private String nodeId;
+
+  private int virtualNodes = 100;
+
+  private String membershipTopic = "chat-membership";
+
+  private long heartbeatIntervalMillis = 2000;
+
+  private long nodeTimeoutMillis = 10000;
+
+  public int getShards() {
+    return shards;
+  }
+
+  public void setShards(int shards) {
+    this.shards = shards;
+  }
+
+  public String getNodeId() {
+    return nodeId;
+  }
+
+  public void setNodeId(String nodeId) {
+    this.nodeId = nodeId;
+  }
+
+  public int getVirtualNodes() {
+    return virtualNodes;
+  }
+
+  public void setVirtualNodes(int virtualNodes) {
+    this.virtualNodes = virtualNodes;
+  }
+
+  public String getMembershipTopic() {
+    return membershipTopic;
+  }
+
+  public void setMembershipTopic(String membershipTopic) {
+    this.membershipTopic = membershipTopic;
+  }
+
+  public long getHeartbeatIntervalMillis() {
+    return heartbeatIntervalMillis;
+  }
+
+  public void setHeartbeatIntervalMillis(long heartbeatIntervalMillis) {
+    this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+  }
+
+  public long getNodeTimeoutMillis() {
+    return nodeTimeoutMillis;
+  }
+
+  public void setNodeTimeoutMillis(long nodeTimeoutMillis) {
+    this.nodeTimeoutMillis = nodeTimeoutMillis;
+  }
+}
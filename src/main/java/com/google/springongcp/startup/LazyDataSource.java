@@ -0,0 +1,125 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.startup;
+
+import org.springframework.beans.factory.BeanFactory;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Stands in for a lazy {@link DataSource} bean, and only creates it when a connection or setting
+ * is first asked for.
+ *
+ * <p>Whatever merely holds on to the data source, such as the actuator's health indicator and
+ * pool metrics, which collect every {@code DataSource} bean at startup, thus no longer creates
+ * the pool and connects to the database. {@link #isWrapperFor} and {@link #unwrap} only look into
+ * the target once it exists, so pool metrics are not reported until then.
+ */
+public class LazyDataSource implements DataSource {
+
+  private final BeanFactory beanFactory;
+
+  private final String targetBeanName;
+
+  private volatile DataSource target;
+
+  /**
+   * @param beanFactory where to get the target from
+   * @param targetBeanName the name of the lazy bean this stands in for
+   */
+  public LazyDataSource(BeanFactory beanFactory, String targetBeanName) {
+    this.beanFactory = beanFactory;
+    this.targetBeanName = targetBeanName;
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    return getTarget().getConnection();
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    return getTarget().getConnection(username, password);
+  }
+
+  @Override
+  public PrintWriter getLogWriter() throws SQLException {
+    return getTarget().getLogWriter();
+  }
+
+  @Override
+  public void setLogWriter(PrintWriter out) throws SQLException {
+    getTarget().setLogWriter(out);
+  }
+
+  @Override
+  public void setLoginTimeout(int seconds) throws SQLException {
+    getTarget().setLoginTimeout(seconds);
+  }
+
+  @Override
+  public int getLoginTimeout() throws SQLException {
+    return getTarget().getLoginTimeout();
+  }
+
+  @Override
+  public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+    return getTarget().getParentLogger();
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    if (iface.isInstance(this)) {
+      return iface.cast(this);
+    }
+    DataSource created = this.target;
+    if (created == null) {
+      throw new SQLException("The data source " + this.targetBeanName
+          + " has not been created yet, so it cannot be unwrapped to " + iface.getName() + ".");
+    }
+    return iface.isInstance(created) ? iface.cast(created) : created.unwrap(iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    if (iface.isInstance(this)) {
+      return true;
+    }
+    DataSource created = this.target;
+    return created != null && (iface.isInstance(created) || created.isWrapperFor(iface));
+  }
+
+  @Override
+  public String toString() {
+    return "LazyDataSource for " + this.targetBeanName;
+  }
+
+  private DataSource getTarget() {
+    DataSource created = this.target;
+    if (created == null) {
+      // The bean factory creates the singleton only once, so racing callers get the same one.
+      created = this.beanFactory.getBean(this.targetBeanName, DataSource.class);
+      this.target = created;
+    }
+    return created;
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.startup;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.BeanDefinitionRegistryPostProcessor;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+
+import java.util.Collection;
+
+/**
+ * Puts a {@link LazyDataSource} in the place of the {@code dataSource} bean when it is one of the
+ * lazy beans, so that beans holding on to it without using it at startup do not create it.
+ *
+ * <p>Marking the data source lazy alone is not enough: the actuator's health indicator and pool
+ * metrics ask for every {@code DataSource} bean while the context starts, and would create the
+ * pool, and have Cloud SQL connect, on every node. The original definition stays registered as
+ * {@code dataSourceTarget}, lazy and hidden from autowiring by type, so the stand-in is the only
+ * data source anything is given. Does nothing if there is no such bean, as in the lean profiles.
+ */
+public class LazyDataSourcePostProcessor implements BeanDefinitionRegistryPostProcessor {
+
+  private static final String BEAN_NAME = "dataSource";
+
+  private final boolean lazy;
+
+  /**
+   * @param lazyBeanNames the beans that are only to be created on first use
+   */
+  public LazyDataSourcePostProcessor(Collection<String> lazyBeanNames) {
+    this.lazy = lazyBeanNames.contains(BEAN_NAME);
+  }
+
+  @Override
+  public void postProcessBeanDefinitionRegistry(BeanDefinitionRegistry registry)
+      throws BeansException {
+    if (!this.lazy || !registry.containsBeanDefinition(BEAN_NAME)) {
+      return;
+    }
+    String targetBeanName = BEAN_NAME + "Target";
+    BeanDefinition target = registry.getBeanDefinition(BEAN_NAME);
+    registry.removeBeanDefinition(BEAN_NAME);
+    target.setLazyInit(true);
+    target.setAutowireCandidate(false);
+    target.setPrimary(false);
+    registry.registerBeanDefinition(targetBeanName, target);
+
+    RootBeanDefinition standIn = new RootBeanDefinition(LazyDataSource.class);
+    // The bean factory is autowired by type.
+    standIn.setAutowireMode(AbstractBeanDefinition.AUTOWIRE_CONSTRUCTOR);
+    standIn.getConstructorArgumentValues().addIndexedArgumentValue(1, targetBeanName);
+    registry.registerBeanDefinition(BEAN_NAME, standIn);
+  }
+
+  @Override
+  public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) {
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.startup;
+
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Marks the named bean definitions lazy. Useful for auto-configured beans that are costly to
+ * create, such as the storage client, and that only some endpoints use.
+ *
+ * <p>This only defers a bean if nothing created at startup injects it directly. Inject such beans
+ * with {@code @Lazy} or through an {@code ObjectProvider}. Names with no bean definition are
+ * ignored, so the same list works in every profile.
+ */
+public class LazyInitBeanFactoryPostProcessor implements BeanFactoryPostProcessor {
+
+  private final Set<String> beanNames;
+
+  public LazyInitBeanFactoryPostProcessor(Collection<String> beanNames) {
+    this.beanNames = new LinkedHashSet<>(beanNames);
+  }
+
+  @Override
+  public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) {
+    for (String beanName : this.beanNames) {
+      if (beanFactory.containsBeanDefinition(beanName)) {
+        beanFactory.getBeanDefinition(beanName).setLazyInit(true);
+      }
+    }
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.startup;
+
+import com.google.api.gax.core.CredentialsProvider;
+import com.google.api.gax.core.NoCredentialsProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+/**
+ * Lets the {@code offline} profile start without Google Cloud credentials. The GCP
+ * auto-configuration otherwise looks up the application default credentials at startup, and
+ * fails if there are none.
+ */
+@Configuration
+@Profile("offline")
+public class OfflineConfiguration {
+
+  @Bean
+  public CredentialsProvider googleCredentials() {
+    return NoCredentialsProvider.create();
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.startup;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * The readiness check App Engine polls before sending a new instance traffic: up once the app has
+ * started, and down again once it is shutting down.
+ *
+ * <p>Unlike {@code /actuator/health}, it does not depend on Cloud SQL or any other backend that
+ * only some endpoints use, so an outage of one of them does not take every instance out of
+ * rotation, and polling it does not create the lazy beans behind them.
+ */
+@RestController
+public class ReadinessController {
+
+  private volatile boolean ready;
+
+  @GetMapping("/readiness")
+  public ResponseEntity<String> readiness() {
+    return this.ready
+        ? ResponseEntity.ok("ready")
+        : ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("starting or stopping");
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void started() {
+    this.ready = true;
+  }
+
+  @EventListener(ContextClosedEvent.class)
+  public void stopping() {
+    this.ready = false;
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.transport;
+
+import org.springframework.messaging.Message;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Carries encoded chat messages between nodes. Exactly one transport is active, chosen with
+ * {@code chat.transport.type}: {@code pubsub} (the default), {@code amqp} or {@code in-memory}.
+ *
+ * <p>Outbound, the transport is handed every message on {@code chatEncodedOutputChannel}. Inbound,
+ * it sends whatever it receives to {@code chatRawInputChannel}, with the same String or byte array
+ * payload, from where it is flow controlled, decoded and dispatched the same way whichever
+ * transport carried it.
+ *
+ * <p>Every message crosses with an ID, which the receiving node's dedup index recognizes copies of
+ * it by, whatever its payload: the one in its {@link #MESSAGE_ID_HEADER} header, set by senders
+ * that may send the same message again, or else one made up for it.
+ */
+public interface ChatTransport {
+
+  /**
+   * The ID of a message, which stays the same when it is sent again.
+   */
+  String MESSAGE_ID_HEADER = "chat_messageId";
+
+  /**
+   * @return a short name for the transport, used to tag metrics
+   */
+  String getName();
+
+  /**
+   * Sends a message to the shard of its room, from where the node owning that shard receives it.
+   * The room is read from the
+   * {@link com.google.springongcp.codec.LoggableMessageEncodingTransformer#ROOM_HEADER} header;
+   * messages without one go to the default room's shard.
+   *
+   * @param message the message, with a String or byte array payload
+   * @return a future completed once the broker has accepted the message
+   */
+  CompletableFuture<?> send(Message<?> message);
+
+  /**
+   * @return the message's {@link #MESSAGE_ID_HEADER} header, or else a new random ID
+   */
+  static String messageIdOf(Message<?> message) {
+    String id = message.getHeaders().get(MESSAGE_ID_HEADER, String.class);
+    return id != null ? id : UUID.randomUUID().toString();
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.transport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandlingException;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link ChatTransport} that delivers every message back to this node's own inbound pipeline, so
+ * the application can be run and load tested without a broker.
+ *
+ * <p>Like a broker, it decouples senders from the inbound side: messages are queued and delivered
+ * on their own threads. When the queue is full the sender delivers the message itself, which slows
+ * senders down to what the inbound pipeline can take.
+ */
+public class InMemoryChatTransport implements ChatTransport, DisposableBean {
+
+  private static final Log LOGGER = LogFactory.getLog(InMemoryChatTransport.class);
+
+  private final MessageChannel inputChannel;
+
+  private final ThreadPoolExecutor executor;
+
+  public InMemoryChatTransport(MessageChannel inputChannel,
+      InMemoryTransportProperties properties) {
+    this.inputChannel = inputChannel;
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(
+        properties.getThreads(), properties.getThreads(), 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(properties.getQueueCapacity()),
+        runnable -> {
+          Thread thread =
+              new Thread(runnable, "chat-in-memory-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        },
+        new ThreadPoolExecutor.CallerRunsPolicy());
+  }
+
+  @Override
+  public String getName() {
+    return "in-memory";
+  }
+
+  /**
+   * Queues a message for delivery.
+   *
+   * @param message the message, with a String or byte array payload
+   * @return a future completed once the message is queued
+   */
+  @Override
+  public CompletableFuture<Void> send(Message<?> message) {
+    Object payload = message.getPayload();
+    if (!(payload instanceof byte[]) && !(payload instanceof String)) {
+      throw new MessageHandlingException(message,
+          "Unsupported payload type " + payload.getClass().getName()
+              + "; encode it to a String or byte[] before publishing.");
+    }
+    // Only the payload and the ID cross the transport, as they would through a broker.
+    Message<?> delivery = MessageBuilder.withPayload(payload)
+        .setHeader(MESSAGE_ID_HEADER, ChatTransport.messageIdOf(message))
+        .build();
+    this.executor.execute(() -> {
+      try {
+        this.inputChannel.send(delivery);
+      } catch (RuntimeException re) {
+        LOGGER.warn("Failed to deliver message " + delivery.getHeaders().getId(), re);
+      }
+    });
+    return CompletableFuture.completedFuture(null);
+  }
+
+  public int getQueueDepth() {
+    return this.executor.getQueue().size();
+  }
+
+  @Override
+  public void destroy() throws InterruptedException {
+    this.executor.shutdown();
+    this.executor.awaitTermination(5, TimeUnit.SECONDS);
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.transport;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.MessageChannel;
+
+/**
+ * Loops chat messages back within this process instead of sending them through a broker. Active
+ * with {@code chat.transport.type=in-memory}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "chat.transport.type", havingValue = "in-memory")
+@EnableConfigurationProperties(InMemoryTransportProperties.class)
+public class InMemoryTransportConfiguration {
+
+  @Bean
+  public InMemoryChatTransport inMemoryChatTransport(
+      @Qualifier("chatRawInputChannel") MessageChannel inputChannel,
+      InMemoryTransportProperties properties, MeterRegistry meterRegistry) {
+    InMemoryChatTransport transport = new InMemoryChatTransport(inputChannel, properties);
+    Gauge.builder("chat.transport.in-memory.queue.depth", transport,
+        InMemoryChatTransport::getQueueDepth).register(meterRegistry);
+    return transport;
+  }
+}
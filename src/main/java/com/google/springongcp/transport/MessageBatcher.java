@@ -0,0 +1,300 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.transport;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Groups messages per destination into batches, bounded by message count, bytes and linger time,
+ * and hands each closed batch to a {@link BatchSender}, which sends it to the broker in one go.
+ * Used by the Pub/Sub and RabbitMQ transports.
+ *
+ * <p>Backpressure falls on producers: {@link #add} waits while {@code maxInFlightBatches} times
+ * {@code maxMessages} messages are batched and not yet accepted by the broker. Nothing else ever
+ * waits. A batch closed while {@code maxInFlightBatches} batches are being sent is queued, and
+ * sent as soon as one of them completes, so the linger thread flushing one destination is never
+ * held up by another.
+ *
+ * <p>Publish latency, from {@link #add} until the broker accepted the message, is recorded in
+ * {@code chat.publish.latency}, and batch sizes in {@code chat.publish.batch.size}.
+ *
+ * @param <D> the destination type
+ * @param <T> the message type
+ */
+public class MessageBatcher<D, T> implements DisposableBean {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MessageBatcher.class);
+
+  private final BatchSender<D, T> sender;
+
+  private final int maxMessages;
+
+  private final long maxBytes;
+
+  private final long maxLingerMillis;
+
+  private final Semaphore pendingMessages;
+
+  private final Semaphore inFlightBatches;
+
+  private final Queue<Batch<D, T>> waitingBatches = new ConcurrentLinkedQueue<>();
+
+  private final ScheduledExecutorService lingerScheduler;
+
+  private final Map<D, Batch<D, T>> openBatches = new HashMap<>();
+
+  private final Timer publishedTimer;
+
+  private final Timer failedTimer;
+
+  private final DistributionSummary batchSize;
+
+  /**
+   * @param name a short name for the transport, used to name the linger thread
+   * @param maxMessages the most messages in a batch
+   * @param maxBytes the most bytes in a batch, as counted by the callers of {@link #add}
+   * @param maxLingerMillis how long a batch stays open for more messages
+   * @param maxInFlightBatches the most batches being sent at once
+   * @param sender sends closed batches
+   * @param meterRegistry where to record publish latency and batch sizes
+   */
+  public MessageBatcher(String name, int maxMessages, long maxBytes, long maxLingerMillis,
+      int maxInFlightBatches, BatchSender<D, T> sender, MeterRegistry meterRegistry) {
+    this.sender = sender;
+    this.maxMessages = maxMessages;
+    this.maxBytes = maxBytes;
+    this.maxLingerMillis = maxLingerMillis;
+    this.pendingMessages = new Semaphore(maxInFlightBatches * maxMessages);
+    this.inFlightBatches = new Semaphore(maxInFlightBatches);
+    this.publishedTimer = Timer.builder("chat.publish.latency")
+        .tag("result", "success")
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+    this.failedTimer = Timer.builder("chat.publish.latency")
+        .tag("result", "failure")
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+    this.batchSize = DistributionSummary.builder("chat.publish.batch.size")
+        .register(meterRegistry);
+    Gauge.builder("chat.publish.batches.in.flight", this.inFlightBatches,
+        semaphore -> maxInFlightBatches - semaphore.availablePermits())
+        .register(meterRegistry);
+    Gauge.builder("chat.publish.batches.waiting", this.waitingBatches, Queue::size)
+        .register(meterRegistry);
+    this.lingerScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, name + "-batch-linger");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Adds a message to the open batch for its destination, first waiting for room if too many
+   * messages are pending.
+   *
+   * @param destination where to send the message
+   * @param message the message
+   * @param size how many bytes the message adds to its batch
+   * @return a future completed once the broker has accepted the message's batch
+   */
+  public CompletableFuture<Void> add(D destination, T message, long size) {
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    try {
+      this.pendingMessages.acquire();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      future.completeExceptionally(ie);
+      return future;
+    }
+    long start = System.nanoTime();
+    future.whenComplete((ignored, ex) -> {
+      this.pendingMessages.release();
+      (ex == null ? this.publishedTimer : this.failedTimer)
+          .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    });
+    List<Batch<D, T>> ready = new ArrayList<>(2);
+
+    synchronized (this.openBatches) {
+      Batch<D, T> batch = this.openBatches.get(destination);
+      if (batch != null && batch.bytes + size > this.maxBytes) {
+        ready.add(this.openBatches.remove(destination));
+        batch = null;
+      }
+      if (batch == null) {
+        batch = new Batch<>(destination);
+        this.openBatches.put(destination, batch);
+        scheduleLingerFlush(batch);
+      }
+      batch.add(message, size, future);
+      if (batch.messages.size() >= this.maxMessages || batch.bytes >= this.maxBytes) {
+        ready.add(this.openBatches.remove(destination));
+      }
+    }
+
+    for (Batch<D, T> batch : ready) {
+      dispatch(batch);
+    }
+    return future;
+  }
+
+  /**
+   * Closes every open batch, to be sent immediately or as soon as a slot frees up.
+   */
+  public void flush() {
+    List<Batch<D, T>> ready;
+    synchronized (this.openBatches) {
+      ready = new ArrayList<>(this.openBatches.values());
+      this.openBatches.clear();
+    }
+    for (Batch<D, T> batch : ready) {
+      dispatch(batch);
+    }
+  }
+
+  @Override
+  public void destroy() {
+    flush();
+    this.lingerScheduler.shutdown();
+  }
+
+  private void scheduleLingerFlush(Batch<D, T> batch) {
+    this.lingerScheduler.schedule(() -> {
+      boolean expired;
+      synchronized (this.openBatches) {
+        expired = this.openBatches.remove(batch.destination, batch);
+      }
+      if (expired) {
+        dispatch(batch);
+      }
+    }, this.maxLingerMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private void dispatch(Batch<D, T> batch) {
+    this.waitingBatches.add(batch);
+    sendWaiting();
+  }
+
+  /**
+   * Sends queued batches, oldest first, while there are free slots.
+   */
+  private void sendWaiting() {
+    while (!this.waitingBatches.isEmpty() && this.inFlightBatches.tryAcquire()) {
+      Batch<D, T> batch = this.waitingBatches.poll();
+      if (batch == null) {
+        this.inFlightBatches.release();
+        return;
+      }
+      send(batch);
+    }
+  }
+
+  private void send(Batch<D, T> batch) {
+    this.batchSize.record(batch.messages.size());
+    CompletableFuture<?> result;
+    try {
+      result = this.sender.send(batch.destination, batch.messages, batch.bytes);
+    } catch (RuntimeException re) {
+      result = new CompletableFuture<>();
+      result.completeExceptionally(re);
+    }
+    result.whenComplete((ignored, ex) -> {
+      if (ex == null) {
+        batch.completeAll();
+      } else {
+        LOGGER.warn("Failed to send a batch of {} messages to {}",
+            batch.messages.size(), batch.destination, ex);
+        batch.failAll(ex);
+      }
+      this.inFlightBatches.release();
+      sendWaiting();
+    });
+  }
+
+  /**
+   * Sends a closed batch to the broker.
+   *
+   * @param <D> the destination type
+   * @param <T> the message type
+   */
+  @FunctionalInterface
+  public interface BatchSender<D, T> {
+
+    /**
+     * @param destination where to send the batch
+     * @param messages the messages of the batch, in the order they were added
+     * @param bytes the sum of the sizes given for them
+     * @return a future completed once the broker has accepted the whole batch, or failed if it
+     *     has not
+     */
+    CompletableFuture<?> send(D destination, List<T> messages, long bytes);
+  }
+
+  /**
+   * Messages accumulated for one destination, along with the futures handed back to their
+   * callers.
+   */
+  private static final class Batch<D, T> {
+
+    private final D destination;
+
+    private final List<T> messages = new ArrayList<>();
+
+    private final List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+    private long bytes;
+
+    Batch(D destination) {
+      this.destination = destination;
+    }
+
+    void add(T message, long size, CompletableFuture<Void> future) {
+      this.messages.add(message);
+      this.futures.add(future);
+      this.bytes += size;
+    }
+
+    void completeAll() {
+      for (CompletableFuture<Void> future : this.futures) {
+        future.complete(null);
+      }
+    }
+
+    void failAll(Throwable cause) {
+      for (CompletableFuture<Void> future : this.futures) {
+        future.completeExceptionally(cause);
+      }
+    }
+  }
+}
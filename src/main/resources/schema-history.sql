@@ -0,0 +1,9 @@
+CREATE TABLE IF NOT EXISTS chat_message (
+  id BIGINT NOT NULL AUTO_INCREMENT,
+  room VARCHAR(64) NOT NULL,
+  user_name VARCHAR(255),
+  body TEXT,
+  created_at TIMESTAMP(3) NULL,
+  PRIMARY KEY (id),
+  INDEX idx_chat_message_room_id (room, id)
+);
@@ -0,0 +1,183 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.outbox;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class OutboxLogTest {
+
+  private static final String KEY = "room";
+
+  // Room for two of the records these tests append, which are all the same size.
+  private static final int SEGMENT_BYTES =
+      2 * OutboxSegment.recordSize(KEY.length(), "message-0".length()) + 1;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path directory;
+
+  private OutboxLog log;
+
+  @Before
+  public void setUp() throws IOException {
+    this.directory = this.folder.getRoot().toPath().resolve("outbox");
+    this.log = OutboxLog.open(this.directory, SEGMENT_BYTES, 10);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    this.log.close();
+  }
+
+  @Test
+  public void rollsIntoNewSegmentWhenFull() throws Exception {
+    List<Long> positions = appendAll(5);
+
+    assertThat(this.log.getSegmentCount()).isEqualTo(3);
+    assertThat(segmentFiles()).hasSize(3);
+    assertThat(payloads(this.log.read(0, 10)))
+        .containsExactly("message-0", "message-1", "message-2", "message-3", "message-4");
+    // Each segment starts where the records of the one before it end.
+    assertThat(this.log.read(positions.get(2)).getPayload()).isEqualTo("message-2");
+    assertThat(segmentFiles().get(1).getFileName().toString())
+        .startsWith(String.format("%020d", positions.get(2)));
+  }
+
+  @Test
+  public void readsAcrossSegmentsInBatches() throws Exception {
+    appendAll(5);
+
+    List<OutboxRecord> first = this.log.read(0, 3);
+    List<OutboxRecord> rest = this.log.read(first.get(2).getNextPosition(), 3);
+
+    assertThat(payloads(first)).containsExactly("message-0", "message-1", "message-2");
+    assertThat(payloads(rest)).containsExactly("message-3", "message-4");
+    assertThat(rest.get(1).getNextPosition()).isEqualTo(this.log.getEndPosition());
+  }
+
+  @Test
+  public void recoversEverySegmentAfterReopen() throws Exception {
+    appendAll(5);
+    this.log.close();
+
+    this.log = OutboxLog.open(this.directory, SEGMENT_BYTES, 10);
+
+    assertThat(this.log.getSegmentCount()).isEqualTo(3);
+    assertThat(payloads(this.log.read(0, 10))).hasSize(5);
+    this.log.append(KEY, "message-5").get(5, TimeUnit.SECONDS);
+    assertThat(payloads(this.log.read(0, 10))).hasSize(6).endsWith("message-5");
+  }
+
+  @Test
+  public void refusesAppendOnceAtMaxSegments() throws Exception {
+    this.log.close();
+    this.log = OutboxLog.open(this.folder.getRoot().toPath().resolve("small"), SEGMENT_BYTES, 2);
+    appendAll(4);
+
+    assertThatThrownBy(() -> this.log.append(KEY, "message-4"))
+        .isInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  public void deleteBeforeKeepsSegmentHoldingCheckpoint() throws Exception {
+    List<Long> positions = appendAll(5);
+
+    // The checkpoint is the second record of the second segment.
+    this.log.deleteBefore(positions.get(3));
+
+    assertThat(this.log.getSegmentCount()).isEqualTo(2);
+    assertThat(this.log.getStartPosition()).isEqualTo(positions.get(2));
+    assertThat(payloads(this.log.read(positions.get(3), 10)))
+        .containsExactly("message-3", "message-4");
+  }
+
+  @Test
+  public void deleteBeforeRemovesSegmentEndingAtCheckpoint() throws Exception {
+    List<Long> positions = appendAll(5);
+
+    this.log.deleteBefore(positions.get(4));
+
+    assertThat(this.log.getSegmentCount()).isEqualTo(1);
+    assertThat(segmentFiles()).hasSize(1);
+    assertThat(this.log.getStartPosition()).isEqualTo(positions.get(4));
+    this.log.close();
+    this.log = OutboxLog.open(this.directory, SEGMENT_BYTES, 10);
+    assertThat(this.log.getStartPosition()).isEqualTo(positions.get(4));
+    assertThat(payloads(this.log.read(positions.get(4), 10))).containsExactly("message-4");
+  }
+
+  @Test
+  public void deleteBeforeKeepsActiveSegment() throws Exception {
+    appendAll(5);
+
+    this.log.deleteBefore(this.log.getEndPosition());
+
+    assertThat(this.log.getSegmentCount()).isEqualTo(1);
+    assertThat(this.log.read(this.log.getEndPosition(), 10)).isEmpty();
+    this.log.append(KEY, "message-5").get(5, TimeUnit.SECONDS);
+    assertThat(payloads(this.log.read(this.log.getStartPosition(), 10)))
+        .containsExactly("message-4", "message-5");
+  }
+
+  /**
+   * Appends records and waits until they are all durable.
+   *
+   * @return the position of each record
+   */
+  private List<Long> appendAll(int count) throws Exception {
+    List<Long> positions = new ArrayList<>();
+    List<CompletableFuture<Long>> synced = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      // A new segment starts where the last one ended, so this holds across a roll too.
+      positions.add(this.log.getEndPosition());
+      synced.add(this.log.append(KEY, "message-" + i));
+    }
+    CompletableFuture.allOf(synced.toArray(new CompletableFuture<?>[0]))
+        .get(5, TimeUnit.SECONDS);
+    return positions;
+  }
+
+  private List<Path> segmentFiles() throws IOException {
+    try (Stream<Path> files = Files.list(this.directory)) {
+      return files.filter(file -> file.toString().endsWith(OutboxSegment.SUFFIX))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  private static List<Object> payloads(List<OutboxRecord> records) {
+    return records.stream().map(OutboxRecord::getPayload).collect(Collectors.toList());
+  }
+}
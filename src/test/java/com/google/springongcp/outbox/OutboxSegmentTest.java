@@ -0,0 +1,134 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.outbox;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OutboxSegmentTest {
+
+  private static final byte[] KEY = "room".getBytes(StandardCharsets.UTF_8);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void readsBackStringAndBytePayloads() throws IOException {
+    OutboxSegment segment = OutboxSegment.create(this.folder.getRoot().toPath(), 100, 1024);
+    segment.tryAppend(KEY, "hello");
+    long second = segment.getEndPosition();
+    segment.tryAppend(new byte[0], new byte[] {1, 2, 3});
+
+    OutboxRecord text = segment.read(100);
+    assertThat(text.getKey()).isEqualTo("room");
+    assertThat(text.getPayload()).isEqualTo("hello");
+    assertThat(text.getNextPosition()).isEqualTo(second);
+    OutboxRecord bytes = segment.read(second);
+    assertThat(bytes.getKey()).isEqualTo("");
+    assertThat(bytes.getPayload()).isEqualTo(new byte[] {1, 2, 3});
+    assertThat(bytes.getNextPosition()).isEqualTo(segment.getEndPosition());
+    assertThat(segment.read(segment.getEndPosition())).isNull();
+    segment.close();
+  }
+
+  @Test
+  public void refusesRecordThatDoesNotFit() throws IOException {
+    int capacity = OutboxSegment.recordSize(KEY.length, 10);
+    OutboxSegment segment = OutboxSegment.create(this.folder.getRoot().toPath(), 0, capacity);
+
+    assertThat(segment.tryAppend(KEY, new byte[11])).isFalse();
+    assertThat(segment.getLimit()).isEqualTo(0);
+    assertThat(segment.tryAppend(KEY, new byte[10])).isTrue();
+    assertThat(segment.getLimit()).isEqualTo(capacity);
+    segment.close();
+  }
+
+  @Test
+  public void recoversRecordsAfterReopen() throws IOException {
+    OutboxSegment segment = OutboxSegment.create(this.folder.getRoot().toPath(), 0, 1024);
+    segment.tryAppend(KEY, "one");
+    segment.tryAppend(KEY, "two");
+    long end = segment.getEndPosition();
+    segment.force();
+    segment.close();
+
+    OutboxSegment reopened = OutboxSegment.open(pathOf(0));
+
+    assertThat(reopened.getEndPosition()).isEqualTo(end);
+    assertThat(reopened.read(0).getPayload()).isEqualTo("one");
+    reopened.close();
+  }
+
+  @Test
+  public void dropsTornLastRecord() throws IOException {
+    OutboxSegment segment = OutboxSegment.create(this.folder.getRoot().toPath(), 0, 1024);
+    segment.tryAppend(KEY, "one");
+    segment.tryAppend(KEY, "two");
+    long torn = segment.getEndPosition();
+    segment.tryAppend(KEY, "three");
+    long end = segment.getEndPosition();
+    segment.force();
+    segment.close();
+    // As if the crash came before the last bytes of the record made it to disk.
+    overwrite(pathOf(0), end - 2, new byte[2]);
+
+    OutboxSegment reopened = OutboxSegment.open(pathOf(0));
+
+    assertThat(reopened.getEndPosition()).isEqualTo(torn);
+    assertThat(reopened.read(torn)).isNull();
+    assertThat(reopened.read(0).getPayload()).isEqualTo("one");
+    assertThat(reopened.tryAppend(KEY, "again")).isTrue();
+    assertThat(reopened.read(torn).getPayload()).isEqualTo("again");
+    reopened.close();
+  }
+
+  @Test
+  public void dropsRecordWhoseLengthRunsPastTheEnd() throws IOException {
+    OutboxSegment segment = OutboxSegment.create(this.folder.getRoot().toPath(), 0, 1024);
+    segment.tryAppend(KEY, "one");
+    long torn = segment.getEndPosition();
+    segment.force();
+    segment.close();
+    overwrite(pathOf(0), torn, ByteBuffer.allocate(4).putInt(4096).array());
+
+    OutboxSegment reopened = OutboxSegment.open(pathOf(0));
+
+    assertThat(reopened.getEndPosition()).isEqualTo(torn);
+    reopened.close();
+  }
+
+  private Path pathOf(long baseOffset) {
+    return this.folder.getRoot().toPath()
+        .resolve(String.format("%020d%s", baseOffset, OutboxSegment.SUFFIX));
+  }
+
+  private static void overwrite(Path path, long offset, byte[] bytes) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(bytes), offset);
+    }
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.attach;
+
+import com.google.springongcp.pubsub.attach.AttachmentStore.ChunkedUpload;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AttachmentUploaderTest {
+
+  private static final int CHUNK_SIZE = 16;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path root;
+
+  private AttachmentProperties properties;
+
+  private AtomicInteger chunksWritten;
+
+  private int failingChunk;
+
+  private AttachmentUploader uploader;
+
+  @Before
+  public void setUp() throws IOException {
+    this.root = this.folder.getRoot().toPath();
+    this.properties = new AttachmentProperties();
+    this.properties.setChunkSize(CHUNK_SIZE);
+    this.properties.setMaxBytes(10 * CHUNK_SIZE);
+    this.properties.setMaxAttempts(2);
+    this.properties.setRetryBackoffMillis(1);
+    this.chunksWritten = new AtomicInteger();
+    this.failingChunk = -1;
+    AttachmentStore local = new LocalAttachmentStore(this.root);
+    // Counts the chunks written, and fails every write of failingChunk.
+    AttachmentStore store = (objectName, contentType) -> {
+      ChunkedUpload upload = local.begin(objectName, contentType);
+      return new ChunkedUpload() {
+        @Override
+        public void writeChunk(int index, byte[] data, int length) throws IOException {
+          if (index == AttachmentUploaderTest.this.failingChunk) {
+            throw new IOException("Chunk " + index + " failed");
+          }
+          upload.writeChunk(index, data, length);
+          AttachmentUploaderTest.this.chunksWritten.incrementAndGet();
+        }
+
+        @Override
+        public void complete(int chunkCount) throws IOException {
+          upload.complete(chunkCount);
+        }
+
+        @Override
+        public void abort() {
+          upload.abort();
+        }
+      };
+    };
+    this.uploader = new AttachmentUploader(store, this.properties, new SimpleMeterRegistry());
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    this.uploader.destroy();
+  }
+
+  @Test
+  public void reassemblesChunksInOrder() throws IOException {
+    byte[] body = randomBytes(5 * CHUNK_SIZE + 3);
+
+    AttachmentReference reference = upload(body);
+
+    assertThat(this.chunksWritten.get()).isEqualTo(6);
+    assertThat(reference.getSize()).isEqualTo(body.length);
+    assertThat(Files.readAllBytes(this.root.resolve(reference.getObjectName()))).isEqualTo(body);
+    assertThat(leftoverParts()).isEmpty();
+  }
+
+  @Test
+  public void storesBodyOfExactMultipleOfChunkSize() throws IOException {
+    byte[] body = randomBytes(4 * CHUNK_SIZE);
+
+    AttachmentReference reference = upload(body);
+
+    assertThat(this.chunksWritten.get()).isEqualTo(4);
+    assertThat(reference.getSize()).isEqualTo(body.length);
+    assertThat(Files.readAllBytes(this.root.resolve(reference.getObjectName()))).isEqualTo(body);
+    assertThat(leftoverParts()).isEmpty();
+  }
+
+  @Test
+  public void storesEmptyBody() throws IOException {
+    AttachmentReference reference = upload(new byte[0]);
+
+    assertThat(this.chunksWritten.get()).isEqualTo(0);
+    assertThat(reference.getSize()).isEqualTo(0);
+    assertThat(Files.size(this.root.resolve(reference.getObjectName()))).isEqualTo(0);
+    assertThat(leftoverParts()).isEmpty();
+  }
+
+  @Test
+  public void refusesBodyOverMaxBytes() throws IOException {
+    byte[] body = randomBytes((int) this.properties.getMaxBytes() + 1);
+
+    // Answered with 413 by the controller.
+    assertThatThrownBy(() -> upload(body)).isInstanceOf(AttachmentTooLargeException.class);
+
+    assertThat(storedObjects()).isEmpty();
+    assertThat(leftoverParts()).isEmpty();
+  }
+
+  @Test
+  public void removesStoredChunksWhenChunkFails() throws IOException {
+    this.failingChunk = 2;
+    byte[] body = randomBytes(8 * CHUNK_SIZE);
+
+    assertThatThrownBy(() -> upload(body))
+        .isInstanceOf(IOException.class)
+        .hasMessage("Chunk 2 failed");
+
+    assertThat(this.chunksWritten.get()).isGreaterThan(0);
+    assertThat(storedObjects()).isEmpty();
+    assertThat(leftoverParts()).isEmpty();
+  }
+
+  private AttachmentReference upload(byte[] body) throws IOException {
+    return this.uploader.upload(new ByteArrayInputStream(body), "file.bin",
+        "application/octet-stream");
+  }
+
+  private List<Path> storedObjects() throws IOException {
+    try (Stream<Path> files = Files.list(this.root)) {
+      return files.filter(path -> !path.getFileName().toString().equals(".parts"))
+          .collect(Collectors.toList());
+    }
+  }
+
+  private List<Path> leftoverParts() throws IOException {
+    try (Stream<Path> files = Files.walk(this.root.resolve(".parts"))) {
+      return files.filter(Files::isRegularFile).collect(Collectors.toList());
+    }
+  }
+
+  private static byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(length).nextBytes(bytes);
+    return bytes;
+  }
+}
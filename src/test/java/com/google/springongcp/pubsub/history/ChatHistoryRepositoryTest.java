@@ -0,0 +1,135 @@
+/*
+ *  Copyright 2017 original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.springongcp.pubsub.history;
+
+import com.google.springongcp.model.LoggableMessage;
+import org.h2.Driver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.jdbc.datasource.init.DatabasePopulatorUtils;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ChatHistoryRepositoryTest {
+
+  private static final LocalDateTime START = LocalDateTime.of(2017, 11, 20, 9, 30, 0, 125000000);
+
+  private JdbcTemplate jdbcTemplate;
+
+  private ChatHistoryRepository repository;
+
+  @Before
+  public void setUp() {
+    // Same URL shape as the local profile, with a fresh database per test.
+    SimpleDriverDataSource dataSource = new SimpleDriverDataSource(new Driver(),
+        "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+    DatabasePopulatorUtils.execute(
+        new ResourceDatabasePopulator(new ClassPathResource("schema-history.sql")), dataSource);
+    this.jdbcTemplate = new JdbcTemplate(dataSource);
+    this.repository = new ChatHistoryRepository(this.jdbcTemplate);
+  }
+
+  @After
+  public void tearDown() {
+    this.jdbcTemplate.execute("SHUTDOWN");
+  }
+
+  @Test
+  public void insertsBatchInOrder() {
+    List<LoggableMessage> messages = new ArrayList<>();
+    messages.add(new LoggableMessage("alice", "first", START, "lobby"));
+    messages.add(new LoggableMessage("bob", "second", START.plusSeconds(1), "lobby"));
+    messages.add(new LoggableMessage("carol", "third", null, "lobby"));
+
+    this.repository.insertAll(messages);
+
+    List<ChatHistoryEntry> entries = this.repository.findBefore("lobby", Long.MAX_VALUE, 10);
+    assertThat(entries).hasSize(3);
+    assertThat(bodies(entries)).containsExactly("third", "second", "first");
+    ChatHistoryEntry first = entries.get(2);
+    assertThat(first.getRoom()).isEqualTo("lobby");
+    assertThat(first.getUser()).isEqualTo("alice");
+    assertThat(first.getCreatedAt()).isEqualTo(START);
+    assertThat(entries.get(0).getCreatedAt()).isNull();
+  }
+
+  @Test
+  public void insertsEmptyBatch() {
+    this.repository.insertAll(new ArrayList<>());
+
+    assertThat(this.repository.findBefore("lobby", Long.MAX_VALUE, 10)).isEmpty();
+  }
+
+  @Test
+  public void pagesBackwardsFromCursor() {
+    List<LoggableMessage> messages = new ArrayList<>();
+    for (int i = 0; i < 25; i++) {
+      messages.add(new LoggableMessage("alice", "lobby-" + i, START.plusSeconds(i), "lobby"));
+      messages.add(new LoggableMessage("bob", "other-" + i, START.plusSeconds(i), "other"));
+    }
+    this.repository.insertAll(messages);
+
+    List<Integer> pageSizes = new ArrayList<>();
+    List<String> seen = new ArrayList<>();
+    long cursor = Long.MAX_VALUE;
+    List<ChatHistoryEntry> page;
+    while (!(page = this.repository.findBefore("lobby", cursor, 10)).isEmpty()) {
+      pageSizes.add(page.size());
+      seen.addAll(bodies(page));
+      for (ChatHistoryEntry entry : page) {
+        assertThat(entry.getId()).isLessThan(cursor);
+        cursor = entry.getId();
+      }
+    }
+
+    assertThat(pageSizes).containsExactly(10, 10, 5);
+    List<String> expected = new ArrayList<>();
+    for (int i = 24; i >= 0; i--) {
+      expected.add("lobby-" + i);
+    }
+    assertThat(seen).isEqualTo(expected);
+  }
+
+  @Test
+  public void excludesCursorRow() {
+    List<LoggableMessage> messages = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      messages.add(new LoggableMessage("alice", "lobby-" + i, START, "lobby"));
+    }
+    this.repository.insertAll(messages);
+    List<ChatHistoryEntry> all = this.repository.findBefore("lobby", Long.MAX_VALUE, 10);
+
+    List<ChatHistoryEntry> page = this.repository.findBefore("lobby", all.get(1).getId(), 10);
+
+    assertThat(bodies(page)).containsExactly("lobby-0");
+  }
+
+  private static List<String> bodies(List<ChatHistoryEntry> entries) {
+    return entries.stream().map(ChatHistoryEntry::getBody).collect(Collectors.toList());
+  }
+}